@@ -0,0 +1,122 @@
+package workbook.script;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compares two JMH result files in CSV format, printing the change of each benchmark's score. A change is only
+ * reported as faster or slower if it's larger than the error of both scores.
+ */
+public class BenchmarkComparison {
+	private static class Result {
+		private final double score;
+		private final double error;
+		private final String unit;
+
+		public Result(double score, double error, String unit) {
+			this.score = score;
+			this.error = error;
+			this.unit = unit;
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		if(args.length != 2) {
+			System.err.println("Usage: BenchmarkComparison baseline.csv current.csv");
+			System.exit(1);
+		}
+
+		File baselineFile = new File(args[0]);
+		if(!baselineFile.exists()) {
+			System.out.println("No baseline to compare against. Save one with: ant bench-baseline");
+			return;
+		}
+
+		Map<String, Result> baseline = readResults(baselineFile);
+		Map<String, Result> current = readResults(new File(args[1]));
+
+		System.out.println(String.format("%-70s %12s %12s %8s", "Benchmark", "Baseline", "Current", "Change"));
+		current.forEach((name, result) -> {
+			Result base = baseline.get(name);
+			if(base == null) {
+				System.out.println(String.format("%-70s %12s %12.3f %8s", name, "-", result.score, "new"));
+			} else {
+				double change = (result.score - base.score) / base.score * 100;
+				String verdict = "";
+				if(Math.abs(result.score - base.score) > Math.max(result.error, base.error)) {
+					verdict = (result.score < base.score) ? " faster" : " slower";
+				}
+				System.out.println(String.format("%-70s %12.3f %12.3f %+7.1f%% %s%s", name, base.score, result.score, change, result.unit, verdict));
+			}
+		});
+	}
+
+	/**
+	 * Reads the results of a JMH CSV file, keyed by the benchmark name and its parameters.
+	 */
+	private static Map<String, Result> readResults(File file) throws IOException {
+		List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+		Map<String, Result> results = new LinkedHashMap<>();
+		if(lines.isEmpty()) {
+			return results;
+		}
+
+		List<String> header = parseLine(lines.get(0));
+		int scoreIndex = header.indexOf("Score");
+		int errorIndex = header.indexOf("Score Error (99.9%)");
+		int unitIndex = header.indexOf("Unit");
+
+		for(String line:lines.subList(1, lines.size())) {
+			List<String> values = parseLine(line);
+			if(values.size() != header.size()) {
+				continue;
+			}
+
+			StringBuilder name = new StringBuilder(values.get(0).replaceFirst("^.*\\.(\\w+\\.\\w+)$", "$1"));
+			for(int i = 0; i < header.size(); i++) {
+				if(header.get(i).startsWith("Param: ")) {
+					name.append(" ").append(header.get(i).substring(7)).append("=").append(values.get(i));
+				}
+			}
+
+			double error = parseDouble(values.get(errorIndex));
+			results.put(name.toString(), new Result(parseDouble(values.get(scoreIndex)), error, values.get(unitIndex)));
+		}
+		return results;
+	}
+
+	private static double parseDouble(String value) {
+		try {
+			return Double.parseDouble(value);
+		} catch(NumberFormatException e) {
+			return Double.NaN;
+		}
+	}
+
+	/**
+	 * Splits a CSV line into its values, removing any quotes.
+	 */
+	private static List<String> parseLine(String line) {
+		List<String> values = new ArrayList<>();
+		StringBuilder value = new StringBuilder();
+		boolean quoted = false;
+		for(char c:line.toCharArray()) {
+			if(c == '"') {
+				quoted = !quoted;
+			} else if(c == ',' && !quoted) {
+				values.add(value.toString());
+				value.setLength(0);
+			} else {
+				value.append(c);
+			}
+		}
+		values.add(value.toString());
+		return values;
+	}
+}
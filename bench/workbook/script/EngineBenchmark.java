@@ -0,0 +1,95 @@
+package workbook.script;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the time of the main Engine operations for different numbers of globals. Only the engines that read the
+ * globals map directly are measured, as JRuby and JShell copy every global on each eval inside the engine itself.
+ * Run it with "ant bench", and see build.xml for how to save and compare against a baseline.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EngineBenchmark {
+	private static final List<String> CALLBACK_FUNCTIONS = Arrays.asList("line");
+	private static final List<Object> METHOD_PARAMS = Arrays.asList(1, 2);
+
+	@Param({ "Groovy", "Javascript" })
+	public String engineType;
+
+	@Param({ "0", "100", "10000" })
+	public int globalCount;
+
+	private Engine engine;
+	private String evalCommand;
+	private String methodName;
+	private String callbackCommand;
+
+	@Setup
+	public void setup() {
+		switch(engineType) {
+			case "Groovy":
+				engine = new GroovyEngine();
+				evalCommand = "x + 1";
+				methodName = "Math.max";
+				callbackCommand = "line([a: x]);";
+				break;
+			case "Javascript":
+				engine = new JavascriptEngine();
+				evalCommand = "x + 1";
+				methodName = "Math.max";
+				callbackCommand = "line({a: x});";
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown engine: " + engineType);
+		}
+
+		Map<String, Object> globals = Collections.synchronizedMap(new HashMap<>());
+		for(int i = 0; i < globalCount; i++) {
+			globals.put("global" + i, i);
+		}
+		engine.setGlobals(globals);
+		engine.setVariable("x", 1);
+	}
+
+	@Benchmark
+	public Object eval() {
+		return engine.eval(evalCommand);
+	}
+
+	@Benchmark
+	public Object setAndGetVariable() {
+		engine.setVariable("y", 2);
+		return engine.getVariable("y");
+	}
+
+	@Benchmark
+	public Object evalMethodCall() {
+		return engine.evalMethodCall(methodName, METHOD_PARAMS);
+	}
+
+	@Benchmark
+	public Object evalWithCallbackFunctions() {
+		return engine.evalWithCallbackFunctions(callbackCommand, CALLBACK_FUNCTIONS);
+	}
+}
@@ -0,0 +1,106 @@
+package workbook.script;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures printing lines through a PrintStream, and writing them as one chunk, to the LineReader and to the byte at
+ * a time implementation it replaced. Run it with "ant bench -Dbench.args=LineReaderBenchmark".
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LineReaderBenchmark {
+	private static final int LINES = 1000;
+
+	/**
+	 * The previous LineReader output stream, which only overrides write(int).
+	 */
+	private static class ByteAtATimeOutputStream extends OutputStream {
+		private final Consumer<String> callback;
+		private ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+
+		public ByteAtATimeOutputStream(Consumer<String> callback) {
+			this.callback = callback;
+		}
+
+		public void write(int b) throws IOException {
+			if(b != '\r') {
+				if(b == '\n') {
+					callback.accept(new String(buffer.toByteArray()));
+					buffer = new ByteArrayOutputStream();
+				} else {
+					buffer.write(b);
+				}
+			}
+		}
+	}
+
+	@Param({ "byteAtATime", "lineReader" })
+	public String implementation;
+
+	@Param({ "10", "200" })
+	public int lineLength;
+
+	private String line;
+	private byte[] chunk;
+	private OutputStream outputStream;
+	private PrintStream printStream;
+
+	@Setup
+	public void setup(Blackhole blackhole) {
+		StringBuilder builder = new StringBuilder();
+		for(int i = 0; i < lineLength; i++) {
+			builder.append((i % 10 == 0) ? '\u00e9' : (char) ('a' + i % 26));
+		}
+		line = builder.toString();
+
+		StringBuilder lines = new StringBuilder();
+		for(int i = 0; i < LINES; i++) {
+			lines.append(line).append('\n');
+		}
+		chunk = lines.toString().getBytes();
+
+		if(implementation.equals("byteAtATime")) {
+			outputStream = new ByteAtATimeOutputStream(blackhole::consume);
+		} else {
+			outputStream = new LineReader(blackhole::consume).getOutputStream();
+		}
+		printStream = new PrintStream(outputStream);
+	}
+
+	@Benchmark
+	public void println() {
+		for(int i = 0; i < LINES; i++) {
+			printStream.println(line);
+		}
+	}
+
+	/**
+	 * Writes the same lines as a single chunk, as a buffered stream would.
+	 */
+	@Benchmark
+	public void writeChunk() throws IOException {
+		outputStream.write(chunk);
+	}
+}
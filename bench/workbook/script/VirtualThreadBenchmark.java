@@ -0,0 +1,78 @@
+package workbook.script;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the throughput of I/O bound tasks run on the script thread, and run concurrently on virtual threads. Each
+ * task sleeps to simulate waiting on a query. Virtual threads require Java 21 or later, so the virtualThreads=true
+ * runs fail on earlier versions. Run it with "ant bench -Dbench.args=VirtualThreadBenchmark".
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class VirtualThreadBenchmark {
+	private static final int TASKS = 50;
+	private static final long QUERY_MILLIS = 20;
+
+	@Param({ "false", "true" })
+	public boolean virtualThreads;
+
+	private ScriptController scriptController;
+
+	@Setup
+	public void setup() throws Exception {
+		scriptController = new ScriptController("Benchmark");
+		scriptController.startQueueThread();
+		scriptController.addEngine("Groovy", GroovyEngine::new);
+		scriptController.setScriptType("Groovy").get();
+
+		if(scriptController.setVirtualThreads(virtualThreads) != virtualThreads) {
+			throw new IllegalStateException("Virtual threads aren't supported on Java " + System.getProperty("java.version"));
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		scriptController.setVirtualThreads(false);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(TASKS)
+	public void queries() throws Exception {
+		List<ScriptFuture<Object>> futures = new ArrayList<>();
+		for(int i = 0; i < TASKS; i++) {
+			futures.add(scriptController.execConcurrent(VirtualThreadBenchmark::query));
+		}
+		for(ScriptFuture<Object> future:futures) {
+			future.get();
+		}
+	}
+
+	private static Object query(Engine engine) {
+		try {
+			Thread.sleep(QUERY_MILLIS);
+		} catch(InterruptedException e) {
+			throw new RuntimeException(e);
+		}
+		return engine;
+	}
+}
@@ -0,0 +1,52 @@
+package workbook.view.ansi;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures parsing a chunk of log output with colored levels, using 16, 256 and 24-bit colors, and the same output
+ * without escape sequences. Run it with "ant bench -Dbench.args=AnsiParserBenchmark".
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AnsiParserBenchmark {
+	private static final int LINES = 1000;
+	private static final String[] LEVELS = { "\u001B[32mINFO\u001B[0m", "\u001B[1;33mWARN\u001B[0m", "\u001B[38;5;196mERROR\u001B[0m", "\u001B[38;2;120;120;120mDEBUG\u001B[0m" };
+
+	@Param({ "colored", "plain" })
+	public String output;
+
+	private String chunk;
+	private AnsiParser parser;
+
+	@Setup
+	public void setup() {
+		StringBuilder s = new StringBuilder();
+		for(int i = 0; i < LINES; i++) {
+			String level = output.equals("colored") ? LEVELS[i % LEVELS.length] : "INFO";
+			s.append("2026-10-18 12:00:00.").append(i % 1000).append(' ').append(level).append(" [main] workbook.Task - processed item ").append(i).append('\n');
+		}
+		chunk = s.toString();
+		parser = new AnsiParser();
+	}
+
+	@Benchmark
+	public ParseResult parse() {
+		return parser.parse(chunk);
+	}
+}
@@ -1,13 +1,26 @@
 package workbook;
 
+import java.io.BufferedInputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.StringReader;
 import java.util.Collection;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+
+import javax.xml.stream.XMLStreamException;
 
-import org.apache.commons.io.FileUtils;
 import org.eclipse.swt.SWT;
 import org.eclipse.swt.events.SelectionAdapter;
 import org.eclipse.swt.events.SelectionEvent;
@@ -23,18 +36,20 @@ import org.jdom2.Document;
 import org.jdom2.Element;
 import org.jdom2.JDOMException;
 import org.jdom2.input.SAXBuilder;
-import org.jdom2.output.Format;
-import org.jdom2.output.XMLOutputter;
 
-import com.google.common.base.Supplier;
 import com.google.common.eventbus.EventBus;
 import com.google.common.eventbus.Subscribe;
 
+import syntaxhighlighter.brush.BrushGroovy;
+
 import workbook.controller.MainController;
 import workbook.editor.ui.Editor;
 import workbook.event.MajorRefreshEvent;
 import workbook.event.MinorRefreshEvent;
 import workbook.event.ScriptTypeChangeEvent;
+import workbook.journal.Journal;
+import workbook.journal.JournalRecorder;
+import workbook.journal.JournalReplay;
 import workbook.layout.FillLayoutBuilder;
 import workbook.layout.GridDataBuilder;
 import workbook.layout.GridLayoutBuilder;
@@ -42,7 +57,13 @@ import workbook.script.Engine;
 import workbook.script.GroovyEngine;
 import workbook.script.JShellEngine;
 import workbook.script.JavascriptEngine;
+import workbook.script.RemoteEngine;
 import workbook.script.RubyEngine;
+import workbook.util.BackgroundFileWriter;
+import workbook.util.BoundedLineBuffer.OverflowPolicy;
+import workbook.util.Scheduler;
+import workbook.util.XmlReader;
+import workbook.util.XmlWriter;
 import workbook.view.CommandList;
 import workbook.view.InputDialog;
 import workbook.view.MenuBuilder;
@@ -68,11 +89,30 @@ public class MainView {
 	private final Composite toolbarComposite;
 	private final Composite tabsComposite;
 	
+	private static final long PENDING_SAVE_TIMEOUT_SECONDS = 10;
+	private static final int AUTOSAVE_DELAY_MILLIS = 2000;
+	private static final long MIN_COMPACTION_SIZE = 1024 * 1024;
+	
+	private final Display display;
+	private final BackgroundFileWriter fileWriter = new BackgroundFileWriter("Workbook Save");
+	private CompletableFuture<Void> pendingSave = CompletableFuture.completedFuture(null);
+	private long changeCount = 0;
+	
+	private final JournalRecorder journalRecorder = new JournalRecorder();
+	private final AtomicBoolean compacting = new AtomicBoolean(false);
+	private final AtomicBoolean journalFailed = new AtomicBoolean(false);
+	private final Consumer<Object> autosave = Scheduler.debounce(AUTOSAVE_DELAY_MILLIS, false, event -> autosave());
+	private volatile boolean autosaveEnabled = false;
+	private Journal journal = null;
+	private String journalLocation = null;
+	private long journalSequence = 0;
+	
 	private String currentFileLocation = null;
 	
 	public MainView(Shell shell, MainController mainController, EventBus eventBus) {
 		this.shell = shell;
 		this.eventBus = eventBus;
+		this.display = shell.getDisplay();
 		
 		shell.setText("Untitled - Workbook");
 		shell.setLayout(new GridLayoutBuilder().numColumns(1).makeColumnsEqualWidth(false).marginHeight(0).marginWidth(0).verticalSpacing(0).build());
@@ -95,13 +135,18 @@ public class MainView {
 		registerEngine("Javascript", JavascriptEngine::new);
 		registerEngine("Ruby", RubyEngine::new);
 		registerEngine("Groovy", GroovyEngine::new);
+		// The separate process is only started if the engine is selected.
+		registerEngine("Groovy (Separate Process)", () -> new RemoteEngine(GroovyEngine.class.getName(), new BrushGroovy(), Collections.emptyList()), false);
 		
+		mainController.warmEngines();
 		mainController.setEngine("Groovy");
 		
 		createMenuBar(shell);
 		
 		eventBus.register(this);
 		shell.addDisposeListener(event -> eventBus.unregister(this));
+		shell.addDisposeListener(event -> waitForPendingSave());
+		shell.addDisposeListener(event -> mainController.closeSessions());
 	}
 	
 	/**
@@ -130,15 +175,21 @@ public class MainView {
 	@Subscribe
 	public void onMinorRefresh(MinorRefreshEvent event) {
 		Display.getDefault().asyncExec(() -> {
+			changeCount++;
 			if(!shell.getText().startsWith("*")) {
 				shell.setText("*" + shell.getText());
 			}
 		});
+		// Opening or reloading the workbook refreshes the views without editing them.
+		if(autosaveEnabled && event.getSource() != this) {
+			autosave.accept(event);
+		}
 	}
 	
 	@Subscribe
 	public void onMajorRefresh(MajorRefreshEvent event) {
 		Display.getDefault().asyncExec(() -> {
+			changeCount++;
 			if(!shell.getText().startsWith("*")) {
 				shell.setText("*" + shell.getText());
 			}
@@ -146,8 +197,12 @@ public class MainView {
 	}
 	
 	private void registerEngine(String name, Supplier<Engine> engineSupplier) {
+		registerEngine(name, engineSupplier, true);
+	}
+	
+	private void registerEngine(String name, Supplier<Engine> engineSupplier, boolean warm) {
 		try {
-			mainController.registerEngine(name, engineSupplier.get());
+			mainController.registerEngine(name, engineSupplier, warm);
 		} catch(Throwable t) {
 			t.printStackTrace();
 		}
@@ -189,6 +244,7 @@ public class MainView {
 			.addSeparator()
 			.addItem("Save\tCtrl+S").addSelectionListener(() -> save()).setAccelerator(SWT.CONTROL | 's')
 			.addItem("Save As...\tCtrl+Shift+S").addSelectionListener(() -> saveAs()).setAccelerator(SWT.CONTROL | SWT.SHIFT | 's')
+			.addCheckItem("Autosave", autosaveEnabled).addSelectionListener(() -> autosaveEnabled = !autosaveEnabled)
 			.addSeparator()
 			.addItem("Run Command...\tCtrl+3").addSelectionListener(() -> runCommand()).setAccelerator(SWT.CONTROL | '3')
 			.addItem("Reload...\tCtrl+R").addSelectionListener(() -> reload()).setAccelerator(SWT.CONTROL | 'r')
@@ -207,6 +263,12 @@ public class MainView {
 				.addRadioItem("Javascript", equalsIgnoreCase(mainController.getEngine(), "Javascript")).addSelectionListener(() -> mainController.setEngine("Javascript"))
 				.addRadioItem("Ruby", equalsIgnoreCase(mainController.getEngine(), "Ruby")).addSelectionListener(() -> mainController.setEngine("Ruby"))
 				.addRadioItem("Groovy", equalsIgnoreCase(mainController.getEngine(), "Groovy")).addSelectionListener(() -> mainController.setEngine("Groovy"))
+				.addRadioItem("Groovy (Separate Process)", equalsIgnoreCase(mainController.getEngine(), "Groovy (Separate Process)")).addSelectionListener(() -> mainController.setEngine("Groovy (Separate Process)"))
+			)
+			.addSubmenu("Output Overflow", submenu -> submenu
+				.addRadioItem("Drop Oldest Lines", mainController.getOutputOverflowPolicy() == OverflowPolicy.DROP_OLDEST).addSelectionListener(() -> mainController.setOutputOverflowPolicy(OverflowPolicy.DROP_OLDEST))
+				.addRadioItem("Spill to Temporary File", mainController.getOutputOverflowPolicy() == OverflowPolicy.SPILL).addSelectionListener(() -> mainController.setOutputOverflowPolicy(OverflowPolicy.SPILL))
+				.addRadioItem("Block Script", mainController.getOutputOverflowPolicy() == OverflowPolicy.BLOCK).addSelectionListener(() -> mainController.setOutputOverflowPolicy(OverflowPolicy.BLOCK))
 			);
 		
 		menuBuilder.build();
@@ -263,12 +325,180 @@ public class MainView {
 		}
 	}
 	
-	public void save(String location) {
-		String document = serialize();
+	/**
+	 * Saves the whole workbook without waiting for it to be written.
+	 */
+	public CompletableFuture<Void> save(String location) {
+		return save(location, true);
+	}
+	
+	/**
+	 * Saves the changes to the journal a few seconds after the workbook is edited, if autosave is enabled and the
+	 * workbook has been saved before.
+	 */
+	private void autosave() {
+		if(!display.isDisposed()) {
+			display.asyncExec(() -> {
+				if(autosaveEnabled && journalLocation != null && !shell.isDisposed() && shell.getText().startsWith("*")) {
+					save(journalLocation, false);
+				}
+			});
+		}
+	}
+	
+	/**
+	 * Saves the workbook in the background. The views are captured on the UI thread, and a snapshot of the globals is
+	 * taken between tasks on the script thread, so what's saved is consistent even if scripts are running.
+	 * 
+	 * If writeSnapshot is set, the whole workbook is written as a new snapshot that replaces the previous files when each
+	 * is complete, and the journal is compacted. Otherwise the changes since the last save are appended to the journal,
+	 * which is replayed onto the last snapshot when the workbook is opened, and once the journal is large enough a
+	 * snapshot is saved too.
+	 * 
+	 * The recorder compares each checkpoint with the one before, so once an append has failed no more are made, and
+	 * the next save writes a snapshot instead.
+	 */
+	private CompletableFuture<Void> save(String location, boolean snapshotRequested) {
+		boolean writeSnapshot = snapshotRequested || journalFailed.get();
+		Element tabsElement = new Element("Tabs");
+		List<TabbedView> views = tabbedViewLayout.serialize(tabsElement);
+		String scriptType = mainController.getEngine();
+		long savedChangeCount = changeCount;
+		
+		// A journal that's already at a new location belongs to another workbook, so it's cleared rather than appended to.
+		boolean newJournal = !location.equals(journalLocation);
+		if(newJournal) {
+			journal = new Journal(getJournalFile(location));
+			journalLocation = location;
+		}
+		Journal journal = this.journal;
+		long sequence = ++journalSequence;
 		
+		byte[] viewRecords;
+		if(writeSnapshot) {
+			journalRecorder.resetViews(tabsElement, views, scriptType);
+			viewRecords = new byte[0];
+		} else {
+			try {
+				viewRecords = journalRecorder.captureViews(tabsElement, views, scriptType);
+			} catch(IOException e) {
+				journalFailed.set(true);
+				CompletableFuture<Void> failed = new CompletableFuture<>();
+				failed.completeExceptionally(e);
+				return failed;
+			}
+		}
+		
+		CompletableFuture<Void> saved = new CompletableFuture<>();
+		mainController.snapshotGlobals().thenAcceptAlways(result -> {
+			if(result instanceof Throwable) {
+				saved.completeExceptionally((Throwable) result);
+				return;
+			}
+			
+			@SuppressWarnings("unchecked")
+			Map<String, byte[]> globals = (Map<String, byte[]>) result;
+			
+			// Every checkpoint is appended in order, but a snapshot can replace one that hasn't been written yet.
+			CompletableFuture<Void> appended = fileWriter.submit(new Object(), () -> {
+				if(writeSnapshot) {
+					// The snapshot includes the changes, so later checkpoints are recorded against it.
+					journalRecorder.resetGlobals(globals);
+					if(newJournal) {
+						journal.clear();
+					}
+				} else if(!journalFailed.get()) {
+					try {
+						appendToJournal(journal, sequence, viewRecords, globals);
+					} catch(Exception e) {
+						journalFailed.set(true);
+						if(compacting.compareAndSet(false, true)) {
+							display.asyncExec(() -> save(location, true));
+						}
+						throw e;
+					}
+					if(journal.getSize() > getCompactionSize(location) && compacting.compareAndSet(false, true)) {
+						display.asyncExec(() -> save(location, true));
+					}
+				}
+			});
+			
+			CompletableFuture<Void> written = appended;
+			if(writeSnapshot) {
+				written = fileWriter.submit(location, () -> {
+					try {
+						// The workbook refers to its own globals file, so replacing it switches both over at once.
+						File globalsFile = getGlobalsFile(location, sequence);
+						mainController.writeGlobals(globals, globalsFile);
+						BackgroundFileWriter.writeAtomically(new File(location), outputStream -> {
+							serialize(new XmlWriter(outputStream), tabsElement, scriptType, globalsFile, sequence);
+						});
+						deleteOtherGlobalsFiles(location, globalsFile);
+						journal.compact(sequence);
+						journalFailed.set(false);
+					} catch(Exception e) {
+						// The recorder was reset to this snapshot, so the journal can't be appended to until one is written.
+						journalFailed.set(true);
+						throw e;
+					} finally {
+						compacting.set(false);
+					}
+				});
+			}
+			
+			CompletableFuture.allOf(appended, written).whenComplete((value, e) -> {
+				if(e != null) {
+					saved.completeExceptionally(e);
+				} else {
+					saved.complete(null);
+				}
+			});
+		});
+		
+		saved.whenComplete((value, e) -> {
+			if(e != null) {
+				e.printStackTrace();
+			} else if(!display.isDisposed()) {
+				display.asyncExec(() -> {
+					// Leave the workbook marked as changed if it changed after it was captured.
+					if(!shell.isDisposed() && changeCount == savedChangeCount) {
+						updateTitle(location);
+					}
+				});
+			}
+		});
+		
+		pendingSave = saved;
+		return saved;
+	}
+	
+	/**
+	 * Appends the changes to the views and the globals since the last checkpoint to the journal, unless nothing has
+	 * changed. This is called on the writer thread.
+	 */
+	private void appendToJournal(Journal journal, long sequence, byte[] viewRecords, Map<String, byte[]> globals) throws Exception {
+		byte[] globalsRecords = journalRecorder.captureGlobals(globals);
+		if(viewRecords.length > 0 || globalsRecords.length > 0) {
+			byte[] data = Arrays.copyOf(viewRecords, viewRecords.length + globalsRecords.length);
+			System.arraycopy(globalsRecords, 0, data, viewRecords.length, globalsRecords.length);
+			journal.append(sequence, data);
+		}
+	}
+	
+	/**
+	 * Returns the size the journal can grow to before it's compacted into a new snapshot. This grows with the workbook,
+	 * so the time spent writing snapshots stays in proportion to the changes.
+	 */
+	private static long getCompactionSize(String location) {
+		return Math.max(MIN_COMPACTION_SIZE, new File(location).length() / 2);
+	}
+	
+	/**
+	 * Waits for a while for the last save to be written, so that saving just before exiting isn't lost.
+	 */
+	private void waitForPendingSave() {
 		try {
-			FileUtils.writeStringToFile(new File(location), document, "UTF-8");
-			updateTitle(location);
+			pendingSave.get(PENDING_SAVE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
 		} catch(Exception e) {
 			e.printStackTrace();
 		}
@@ -278,13 +508,25 @@ public class MainView {
 		open(selectOpenLocation());
 	}
 	
+	/**
+	 * Opens a workbook, replaying the changes in its journal onto the snapshot.
+	 */
 	public void open(String location) {
 		if(location != null) {
 			currentFileLocation = location;
 			
+			Journal journal = new Journal(getJournalFile(location));
+			List<Journal.Entry> entries;
 			try {
-				String document = FileUtils.readFileToString(new File(location), "UTF-8");
-				deserialize(document);
+				entries = journal.read();
+			} catch(IOException e) {
+				e.printStackTrace();
+				entries = Collections.emptyList();
+			}
+			
+			try(InputStream inputStream = new BufferedInputStream(new FileInputStream(location))) {
+				long sequence = deserialize(new XmlReader(inputStream), new File(location).getAbsoluteFile().getParentFile(), entries);
+				openJournal(location, journal, sequence);
 				updateTitle(location);
 				createMenuBar(shell);
 			} catch(Exception e) {
@@ -293,6 +535,23 @@ public class MainView {
 		}
 	}
 	
+	/**
+	 * Continues the journal of a workbook that's been opened, recording later changes against what was opened.
+	 */
+	private void openJournal(String location, Journal journal, long sequence) {
+		this.journal = journal;
+		this.journalLocation = location;
+		this.journalSequence = sequence;
+		
+		Element tabsElement = new Element("Tabs");
+		List<TabbedView> views = tabbedViewLayout.serialize(tabsElement);
+		journalRecorder.resetViews(tabsElement, views, mainController.getEngine());
+		
+		mainController.snapshotGlobals().thenAccept(globals -> {
+			fileWriter.submit(new Object(), () -> journalRecorder.resetGlobals(globals));
+		});
+	}
+	
 	private void close() {
 		tabbedViewLayout.closeTab();
 	}
@@ -304,12 +563,15 @@ public class MainView {
 		shell.setText(name + " (" + path + ") - Workbook");
 	}
 
+	/**
+	 * Recreates the views from their serialized form. The globals are left as they are.
+	 */
 	public void reload() {
-		try {
-			deserialize(serialize());
-		} catch(Exception e) {
-			e.printStackTrace();
-		}
+		Element tabsElement = new Element("Tabs");
+		tabbedViewLayout.serialize(tabsElement);
+		tabbedViewLayout.deserialize(viewFactory, tabsElement);
+		
+		eventBus.post(new MinorRefreshEvent(this));
 	}
 	
 	public void runCommand() {
@@ -321,26 +583,98 @@ public class MainView {
 		}
 	}
 	
-	private String serialize() {
-		Document document = new Document();
+	/**
+	 * Returns the file that the globals of a workbook snapshot are saved to, next to the workbook. Each snapshot has
+	 * its own file, so the globals of the snapshot being replaced are kept until the workbook refers to the new file.
+	 */
+	private static File getGlobalsFile(String location, long sequence) {
+		return new File(location + "." + sequence + ".globals");
+	}
+	
+	/**
+	 * Deletes the globals files of earlier snapshots of a workbook, once it refers to globalsFile.
+	 */
+	private static void deleteOtherGlobalsFiles(String location, File globalsFile) {
+		File file = new File(location);
+		Pattern pattern = Pattern.compile(Pattern.quote(file.getName()) + "(\\.\\d+)?\\.globals");
+		File[] files = file.getAbsoluteFile().getParentFile().listFiles();
+		if(files != null) {
+			for(File other:files) {
+				if(pattern.matcher(other.getName()).matches() && !other.getName().equals(globalsFile.getName())) {
+					other.delete();
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Returns the journal of the changes to a workbook since its last snapshot, next to the workbook.
+	 */
+	private static File getJournalFile(String location) {
+		return new File(location + ".journal");
+	}
+	
+	/**
+	 * Writes the captured views, and the Controller element that refers to the globals file, to the writer. The
+	 * sequence is that of the last journal entry that the snapshot includes.
+	 */
+	private void serialize(XmlWriter writer, Element tabsElement, String scriptType, File globalsFile, long sequence) throws XMLStreamException {
+		writer.startDocument();
+		writer.startElement("Workbook");
+		writer.attribute("journalSequence", String.valueOf(sequence));
 		
-		Element workbookElement = new Element("Workbook");
-		document.addContent(workbookElement);
+		writer.startElement("Tabs");
+		writer.content(tabsElement);
+		writer.endElement();
 		
-		Element tabsElement = new Element("Tabs");
-		workbookElement.addContent(tabsElement);
-		tabbedViewLayout.serialize(tabsElement);
+		writer.startElement("Controller");
+		mainController.serialize(writer, scriptType, globalsFile);
+		writer.endElement();
+		
+		writer.endElement();
+		writer.endDocument();
+	}
+	
+	/**
+	 * Reads the workbook from the reader one view at a time, reading any globals that were saved separately from the
+	 * directory, and replays the journal entries that were written after it. If the journal changes the views, the
+	 * Tabs element is read as a whole so that they can be applied to it. Returns the sequence number of the last entry.
+	 */
+	private long deserialize(XmlReader reader, File directory, List<Journal.Entry> entries) throws Exception {
+		mainController.closeSessions();
+		reader.startDocument();
+		String sequence = reader.getAttribute("journalSequence");
+		JournalReplay replay = new JournalReplay(entries, (sequence == null) ? 0 : Long.parseLong(sequence));
 		
-		Element controllerElement = new Element("Controller");
-		workbookElement.addContent(controllerElement);
-		mainController.serialize(controllerElement);
+		while(reader.nextChild()) {
+			if(reader.getName().equals("Tabs") && replay.hasViewChanges()) {
+				Element tabsElement = reader.readElement();
+				replay.applyToTabs(tabsElement);
+				tabbedViewLayout.deserialize(viewFactory, tabsElement);
+			} else if(reader.getName().equals("Tabs")) {
+				tabbedViewLayout.deserialize(viewFactory, reader);
+			} else if(reader.getName().equals("Controller")) {
+				mainController.deserialize(reader, directory);
+			} else {
+				reader.skip();
+			}
+		}
+		reader.close();
 		
-		return new XMLOutputter(Format.getPrettyFormat()).outputString(document);
+		if(replay.getScriptType() != null) {
+			mainController.setEngine(replay.getScriptType());
+		}
+		mainController.replayGlobals(replay);
+		
+		eventBus.post(new MinorRefreshEvent(this));
+		return replay.getSequence();
 	}
 	
 	public void deserialize(String documentText) throws JDOMException, IOException {
 		Document document = new SAXBuilder().build(new StringReader(documentText));
+		mainController.closeSessions();
 		
+
 		Element workbookElement = document.getRootElement().getChild("Workbook");
 		
 		Element tabsElement = document.getRootElement().getChild("Tabs");
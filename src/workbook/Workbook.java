@@ -32,6 +32,7 @@ import workbook.view.BrowserTabbedView;
 import workbook.view.ConsoleTabbedView;
 import workbook.view.DependencyTabbedView;
 import workbook.view.FormTabbedView;
+import workbook.view.MetricsTabbedView;
 import workbook.view.ScriptTabbedView;
 import workbook.view.TabbedView;
 import workbook.view.TabbedViewLayout.FolderPosition;
@@ -77,6 +78,7 @@ public class Workbook {
 		system.put("model", model);
 		system.put("eventBus", eventBus);
 		system.put("display", Display.getDefault());
+		system.put("metrics", mainController.getScriptController().getMetrics());
 		mainController.setVariable("system", system);
 		
 		mainController.registerWrapperFunction("chart", ChartWrapper::new);
@@ -88,11 +90,11 @@ public class Workbook {
 		ResultRenderer resultRenderer = createResultRenders();
 		
 		mainView.registerView(WorksheetTabbedView.class, "Worksheet", FolderPosition.LEFT, parent -> {
-			return new WorksheetTabbedView(parent, eventBus, mainController.getScriptController(), resultRenderer);
+			return new WorksheetTabbedView(parent, eventBus, mainController.getScriptSessions(), resultRenderer);
 		});
 		
 		mainView.registerView(ScriptTabbedView.class, "Script", FolderPosition.LEFT, parent -> {
-			return new ScriptTabbedView(parent, eventBus, mainController.getScriptController(), model);
+			return new ScriptTabbedView(parent, eventBus, mainController.getScriptSessions(), model);
 		});
 		
 		mainView.registerView(ConsoleTabbedView.class, "Console", FolderPosition.BOTTOM, parent -> {
@@ -115,6 +117,10 @@ public class Workbook {
 			return new DependencyTabbedView(parent, eventBus, mainController.getScriptController(), model);
 		});
 		
+		mainView.registerView(MetricsTabbedView.class, "Metrics", FolderPosition.BOTTOM, parent -> {
+			return new MetricsTabbedView(parent, mainController.getScriptController());
+		});
+		
 		mainView.registerView(ChartTabbedEditor.class, "Chart Editor", FolderPosition.RIGHT, parent -> {
 			return new ChartTabbedEditor(parent, eventBus, mainController.getScriptController());
 		});
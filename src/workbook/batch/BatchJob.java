@@ -0,0 +1,35 @@
+package workbook.batch;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A workbook file to run, and the parameters that are set as globals before it's run.
+ */
+public class BatchJob {
+	private final File file;
+	private final Map<String, Object> parameters;
+
+	public BatchJob(File file) {
+		this(file, Collections.emptyMap());
+	}
+
+	public BatchJob(File file, Map<String, ?> parameters) {
+		this.file = file;
+		this.parameters = new LinkedHashMap<>(parameters);
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	public Map<String, Object> getParameters() {
+		return Collections.unmodifiableMap(parameters);
+	}
+
+	public String toString() {
+		return parameters.isEmpty() ? file.getName() : file.getName() + " " + parameters;
+	}
+}
@@ -0,0 +1,545 @@
+package workbook.batch;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.GnuParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+import org.jdom2.Document;
+import org.jdom2.Element;
+import org.jdom2.output.Format;
+import org.jdom2.output.XMLOutputter;
+
+import workbook.journal.JournalReplay;
+import workbook.script.Engine;
+import workbook.script.GroovyEngine;
+import workbook.script.JShellEngine;
+import workbook.script.JavascriptEngine;
+import workbook.script.RubyEngine;
+import workbook.script.ScriptController;
+import workbook.script.ScriptFuture;
+import workbook.view.IvyDownloader;
+
+/**
+ * Runs saved workbooks without a display. Each job loads the dependencies, globals and scripts of a workbook, sets its
+ * parameters as globals, then evaluates the commands of each worksheet and records their results. Jobs are run on a
+ * pool of workers, and each worker has its own session, so that jobs running at the same time have separate engines
+ * and globals. A session is reused by the jobs that run on its worker, with its globals cleared between them.
+ *
+ * All of the views of a workbook are run in the worker's session, including those bound to other sessions.
+ */
+public class BatchRunner {
+	/**
+	 * The result of evaluating a worksheet command, which has either a result or an error.
+	 */
+	public static class CellResult {
+		private final String command;
+		private final Object result;
+		private final String error;
+
+		public CellResult(String command, Object result, String error) {
+			this.command = command;
+			this.result = result;
+			this.error = error;
+		}
+
+		public String getCommand() {
+			return command;
+		}
+
+		public Object getResult() {
+			return result;
+		}
+
+		public String getError() {
+			return error;
+		}
+	}
+
+	/**
+	 * The results of running a job. A job has an error if it couldn't be loaded, or if one of its scripts failed, in
+	 * which case its worksheets aren't run.
+	 */
+	public static class JobResult {
+		private final BatchJob job;
+		private final List<List<CellResult>> worksheets = new ArrayList<>();
+		private final List<String> output = Collections.synchronizedList(new ArrayList<>());
+		private String error;
+		private long elapsedNanos;
+
+		public JobResult(BatchJob job) {
+			this.job = job;
+		}
+
+		public BatchJob getJob() {
+			return job;
+		}
+
+		public List<List<CellResult>> getWorksheets() {
+			return worksheets;
+		}
+
+		/**
+		 * Returns the lines written to the output and error streams while the job was running.
+		 */
+		public List<String> getOutput() {
+			return output;
+		}
+
+		public String getError() {
+			return error;
+		}
+
+		public long getElapsedNanos() {
+			return elapsedNanos;
+		}
+
+		public int getCellCount() {
+			return worksheets.stream().mapToInt(List::size).sum();
+		}
+
+		public int getFailedCellCount() {
+			return (int) worksheets.stream().flatMap(List::stream).filter(cell -> cell.getError() != null).count();
+		}
+
+		public boolean isFailed() {
+			return error != null || getFailedCellCount() > 0;
+		}
+
+		public String toString() {
+			String status = (error != null) ? "failed: " + error : getCellCount() + " cells, " + getFailedCellCount() + " errors";
+			return job + ": " + status + ", " + (elapsedNanos / 1000000) + " ms";
+		}
+	}
+
+	/**
+	 * The number of jobs and cells run, and the time they took.
+	 */
+	public static class Report {
+		private final int jobs;
+		private final int failedJobs;
+		private final int cells;
+		private final int workers;
+		private final long elapsedNanos;
+
+		public Report(int jobs, int failedJobs, int cells, int workers, long elapsedNanos) {
+			this.jobs = jobs;
+			this.failedJobs = failedJobs;
+			this.cells = cells;
+			this.workers = workers;
+			this.elapsedNanos = elapsedNanos;
+		}
+
+		public int getJobs() {
+			return jobs;
+		}
+
+		public int getFailedJobs() {
+			return failedJobs;
+		}
+
+		public int getCells() {
+			return cells;
+		}
+
+		public long getElapsedNanos() {
+			return elapsedNanos;
+		}
+
+		/**
+		 * Returns the number of jobs completed per second.
+		 */
+		public double getJobsPerSecond() {
+			return (elapsedNanos == 0) ? 0 : jobs * 1e9 / elapsedNanos;
+		}
+
+		/**
+		 * Returns the number of worksheet cells evaluated per second.
+		 */
+		public double getCellsPerSecond() {
+			return (elapsedNanos == 0) ? 0 : cells * 1e9 / elapsedNanos;
+		}
+
+		public String toString() {
+			return String.format("Ran %d jobs (%d failed) with %d workers in %.2f s: %.2f jobs/s, %.2f cells/s",
+				jobs, failedJobs, workers, elapsedNanos / 1e9, getJobsPerSecond(), getCellsPerSecond());
+		}
+	}
+
+	private final int workers;
+	private final Map<String, Supplier<Engine>> engineSuppliers = new LinkedHashMap<>();
+	private final Set<List<String>> loadedDependencies = new HashSet<>();
+
+	private BlockingQueue<ScriptController> sessions;
+	private String defaultScriptType = "Groovy";
+	private long evalTimeoutMillis = 0;
+
+	/**
+	 * Creates a runner that runs up to the given number of jobs at the same time.
+	 */
+	public BatchRunner(int workers) {
+		if(workers < 1) {
+			throw new IllegalArgumentException("workers must be at least 1");
+		}
+		this.workers = workers;
+	}
+
+	/**
+	 * Registers an engine, which is created separately for each worker.
+	 */
+	public synchronized void registerEngine(String scriptType, Supplier<Engine> engineSupplier) {
+		if(sessions != null) {
+			throw new IllegalStateException("Engines must be registered before the first run");
+		}
+		engineSuppliers.put(scriptType, engineSupplier);
+	}
+
+	/**
+	 * Registers the engines that are available in the workbook.
+	 */
+	public void registerDefaultEngines() {
+		registerEngine("Java", JShellEngine::new);
+		registerEngine("Javascript", JavascriptEngine::new);
+		registerEngine("Ruby", RubyEngine::new);
+		registerEngine("Groovy", GroovyEngine::new);
+	}
+
+	/**
+	 * Sets the script type used for workbooks that don't have one.
+	 */
+	public void setDefaultScriptType(String defaultScriptType) {
+		this.defaultScriptType = defaultScriptType;
+	}
+
+	/**
+	 * Sets the timeout of each evaluation, or 0 for no timeout.
+	 */
+	public void setEvalTimeout(long evalTimeoutMillis) {
+		this.evalTimeoutMillis = evalTimeoutMillis;
+	}
+
+	/**
+	 * Creates the session of each worker when the runner is first used.
+	 */
+	private synchronized BlockingQueue<ScriptController> getSessions() {
+		if(sessions == null) {
+			sessions = new ArrayBlockingQueue<>(workers);
+			for(int i = 1; i <= workers; i++) {
+				ScriptController session = new ScriptController("Batch " + i);
+				session.startQueueThread();
+				engineSuppliers.forEach(session::addEngine);
+				sessions.add(session);
+			}
+		}
+		sessions.forEach(session -> session.setEvalTimeout(evalTimeoutMillis));
+		return sessions;
+	}
+
+	/**
+	 * Runs the jobs and returns a report of the time taken. The result of each job is passed to the listener as it
+	 * completes, and written to the output directory if it isn't null.
+	 */
+	public Report run(List<BatchJob> jobs, File outputDirectory, Consumer<JobResult> listener) throws InterruptedException {
+		BlockingQueue<ScriptController> sessions = getSessions();
+		if(outputDirectory != null) {
+			outputDirectory.mkdirs();
+		}
+
+		AtomicInteger threadCount = new AtomicInteger();
+		ExecutorService executor = Executors.newFixedThreadPool(workers, runnable -> {
+			Thread thread = new Thread(runnable, "Batch Worker " + threadCount.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		long startTime = System.nanoTime();
+		List<Future<JobResult>> futures = new ArrayList<>();
+		try {
+			for(int i = 0; i < jobs.size(); i++) {
+				BatchJob job = jobs.get(i);
+				File outputFile = (outputDirectory == null) ? null : new File(outputDirectory, getOutputName(job, i + 1));
+				futures.add(executor.submit(() -> {
+					ScriptController session = sessions.take();
+					try {
+						JobResult result = runJob(job, session);
+						if(outputFile != null) {
+							writeResult(result, outputFile);
+						}
+						listener.accept(result);
+						return result;
+					} finally {
+						sessions.put(session);
+					}
+				}));
+			}
+
+			int failedJobs = 0;
+			int cells = 0;
+			for(Future<JobResult> future:futures) {
+				try {
+					JobResult result = future.get();
+					failedJobs += result.isFailed() ? 1 : 0;
+					cells += result.getCellCount();
+				} catch(ExecutionException e) {
+					e.getCause().printStackTrace();
+					failedJobs++;
+				}
+			}
+
+			return new Report(jobs.size(), failedJobs, cells, workers, System.nanoTime() - startTime);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private static String getOutputName(BatchJob job, int index) {
+		String name = job.getFile().getName().replaceFirst("\\.wb$", "");
+		return name + "-" + index + ".xml";
+	}
+
+	/**
+	 * Runs a job in a session, after clearing the globals left by the last job.
+	 */
+	private JobResult runJob(BatchJob job, ScriptController session) throws InterruptedException {
+		JobResult result = new JobResult(job);
+		long startTime = System.nanoTime();
+
+		try {
+			session.setOutputCallbacks(result.output::addAll, result.output::addAll);
+
+			WorkbookFile workbookFile = WorkbookFile.read(job.getFile());
+			loadDependencies(workbookFile.getDependencies());
+
+			String scriptType = (workbookFile.getScriptType() == null) ? defaultScriptType : workbookFile.getScriptType();
+			if(engineSuppliers.keySet().stream().noneMatch(scriptType::equalsIgnoreCase)) {
+				throw new IllegalArgumentException("Unknown script type: " + scriptType);
+			}
+
+			session.clearGlobals().get();
+			session.setScriptType(scriptType).get();
+			if(workbookFile.getGlobalsFile() != null) {
+				try(InputStream inputStream = new BufferedInputStream(new FileInputStream(workbookFile.getGlobalsFile()))) {
+					session.readGlobals(inputStream).get();
+				}
+			} else if(workbookFile.getGlobalsXml() != null) {
+				session.deserializeGlobals(workbookFile.getGlobalsXml()).get();
+			}
+			JournalReplay journalReplay = workbookFile.getJournalReplay();
+			session.exec(() -> {
+				journalReplay.applyToGlobals(session.getGlobalsSync());
+				return null;
+			}).get();
+			for(Map.Entry<String, Object> entry:job.getParameters().entrySet()) {
+				session.setVariable(entry.getKey(), entry.getValue()).get();
+			}
+
+			for(String script:workbookFile.getScripts()) {
+				session.eval(script).get();
+			}
+
+			for(WorkbookFile.Worksheet worksheet:workbookFile.getWorksheets()) {
+				result.worksheets.add(runWorksheet(worksheet, session));
+			}
+		} catch(InterruptedException e) {
+			throw e;
+		} catch(Exception e) {
+			result.error = getMessage(e);
+		} finally {
+			result.elapsedNanos = System.nanoTime() - startTime;
+		}
+
+		return result;
+	}
+
+	/**
+	 * Evaluates each command of a worksheet in order, recording its result or error.
+	 */
+	private static List<CellResult> runWorksheet(WorkbookFile.Worksheet worksheet, ScriptController session) throws InterruptedException {
+		String executeFunctionName = worksheet.getExecuteFunctionName();
+
+		List<CellResult> cells = new ArrayList<>();
+		for(String command:worksheet.getCommands()) {
+			ScriptFuture<Object> future;
+			if(executeFunctionName == null || executeFunctionName.isEmpty()) {
+				future = session.eval(command);
+			} else if(executeFunctionName.contains("_")) {
+				future = session.eval(executeFunctionName.replace("_", command));
+			} else {
+				future = session.evalMethodCall(executeFunctionName, Arrays.asList(command));
+			}
+
+			try {
+				cells.add(new CellResult(command, future.get(), null));
+			} catch(ExecutionException e) {
+				cells.add(new CellResult(command, null, getMessage(e)));
+			}
+		}
+		return cells;
+	}
+
+	/**
+	 * Downloads and loads the dependencies of a workbook, unless the same dependencies have been loaded already.
+	 */
+	private synchronized void loadDependencies(List<String> dependencies) {
+		if(!dependencies.isEmpty() && loadedDependencies.add(dependencies)) {
+			IvyDownloader.downloadDependencies(dependencies);
+		}
+	}
+
+	/**
+	 * Returns the message of the innermost cause of an exception.
+	 */
+	private static String getMessage(Throwable throwable) {
+		while(throwable.getCause() != null && throwable.getCause() != throwable) {
+			throwable = throwable.getCause();
+		}
+		return throwable.toString();
+	}
+
+	/**
+	 * Writes the results of a job to a file as XML.
+	 */
+	private static void writeResult(JobResult result, File file) throws IOException {
+		Element resultsElement = new Element("Results");
+		resultsElement.setAttribute("file", result.getJob().getFile().getPath());
+		resultsElement.setAttribute("elapsedMillis", String.valueOf(result.getElapsedNanos() / 1000000));
+
+		result.getJob().getParameters().forEach((name, value) -> {
+			Element parameterElement = new Element("Parameter");
+			parameterElement.setAttribute("name", name);
+			parameterElement.setText(String.valueOf(value));
+			resultsElement.addContent(parameterElement);
+		});
+
+		for(List<CellResult> worksheet:result.getWorksheets()) {
+			Element worksheetElement = new Element("Worksheet");
+			for(CellResult cell:worksheet) {
+				Element cellElement = new Element("Cell");
+				cellElement.addContent(new Element("Command").setText(cell.getCommand()));
+				if(cell.getError() != null) {
+					cellElement.addContent(new Element("Error").setText(cell.getError()));
+				} else {
+					cellElement.addContent(new Element("Result").setText(String.valueOf(cell.getResult())));
+				}
+				worksheetElement.addContent(cellElement);
+			}
+			resultsElement.addContent(worksheetElement);
+		}
+
+		if(!result.getOutput().isEmpty()) {
+			resultsElement.addContent(new Element("Output").setText(String.join("\n", result.getOutput())));
+		}
+
+		if(result.getError() != null) {
+			resultsElement.addContent(new Element("Error").setText(result.getError()));
+		}
+
+		String document = new XMLOutputter(Format.getPrettyFormat()).outputString(new Document(resultsElement));
+		Files.write(file.toPath(), document.getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Reads the parameter combinations from a file, with one combination on each line as name=value pairs separated by
+	 * semicolons. Blank lines and lines starting with # are skipped.
+	 */
+	public static List<Map<String, Object>> readParameters(File file) throws IOException {
+		List<Map<String, Object>> combinations = new ArrayList<>();
+		for(String line:Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)) {
+			if(line.trim().isEmpty() || line.trim().startsWith("#")) {
+				continue;
+			}
+
+			Map<String, Object> parameters = new LinkedHashMap<>();
+			for(String pair:line.split(";")) {
+				int index = pair.indexOf('=');
+				if(index <= 0) {
+					throw new IllegalArgumentException("Invalid parameter: " + pair);
+				}
+				parameters.put(pair.substring(0, index).trim(), pair.substring(index + 1));
+			}
+			combinations.add(parameters);
+		}
+		return combinations;
+	}
+
+	public static void main(String[] args) throws Exception {
+		System.setProperty("line.separator", "\n");
+
+		Options options = new Options();
+		options.addOption(new Option("l", "language", true, "set the language of workbooks that don't have one"));
+		options.addOption(new Option("w", "workers", true, "set the number of workers"));
+		options.addOption(new Option("o", "output", true, "write the results to a directory"));
+		options.addOption(new Option("p", "parameters", true, "run each file once for each line of a parameter file"));
+		options.addOption(new Option("t", "timeout", true, "set the timeout of each evaluation in milliseconds"));
+		options.addOption(new Option("h", "help", false, "show help"));
+
+		CommandLineParser parser = new GnuParser();
+		CommandLine command;
+		try {
+			command = parser.parse(options, args);
+		} catch(Exception e) {
+			System.err.println(e.getMessage());
+			command = null;
+		}
+
+		if(command == null || command.hasOption("h") || command.getArgs().length == 0) {
+			new HelpFormatter().printHelp("java -cp workbook.jar workbook.batch.BatchRunner [options] files...", options);
+			System.exit(0);
+		}
+
+		int workers = Integer.parseInt(command.getOptionValue("w", String.valueOf(Runtime.getRuntime().availableProcessors())));
+		BatchRunner runner = new BatchRunner(workers);
+		runner.registerDefaultEngines();
+		if(command.hasOption("l")) {
+			runner.setDefaultScriptType(command.getOptionValue("l"));
+		}
+		if(command.hasOption("t")) {
+			runner.setEvalTimeout(Long.parseLong(command.getOptionValue("t")));
+		}
+
+		List<Map<String, Object>> combinations = command.hasOption("p")
+			? readParameters(new File(command.getOptionValue("p")))
+			: Arrays.asList(Collections.emptyMap());
+
+		List<BatchJob> jobs = new ArrayList<>();
+		for(String filename:command.getArgs()) {
+			for(Map<String, Object> parameters:combinations) {
+				jobs.add(new BatchJob(new File(filename), parameters));
+			}
+		}
+
+		File outputDirectory = new File(command.getOptionValue("o", "results"));
+		PrintStream out = System.out;
+		Report report = runner.run(jobs, outputDirectory, result -> out.println(result));
+		out.println(report);
+
+		System.exit(report.getFailedJobs() == 0 ? 0 : 1);
+	}
+}
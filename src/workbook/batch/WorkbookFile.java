@@ -0,0 +1,176 @@
+package workbook.batch;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.jdom2.Document;
+import org.jdom2.Element;
+import org.jdom2.JDOMException;
+import org.jdom2.filter.Filters;
+import org.jdom2.input.SAXBuilder;
+import org.jdom2.output.XMLOutputter;
+
+import workbook.journal.Journal;
+import workbook.journal.JournalReplay;
+import workbook.script.ScriptController;
+
+/**
+ * The parts of a saved workbook that can be run without a display: the script type, the globals, and the contents of
+ * the dependency, script and worksheet views, in the order they appear in the file. The changes in the workbook's
+ * journal are replayed onto it, as when it's opened.
+ */
+public class WorkbookFile {
+	/**
+	 * The commands of a worksheet, and the function they're evaluated with.
+	 */
+	public static class Worksheet {
+		private final String executeFunctionName;
+		private final List<String> commands;
+
+		public Worksheet(String executeFunctionName, List<String> commands) {
+			this.executeFunctionName = executeFunctionName;
+			this.commands = commands;
+		}
+
+		public String getExecuteFunctionName() {
+			return executeFunctionName;
+		}
+
+		public List<String> getCommands() {
+			return commands;
+		}
+	}
+
+	private final String scriptType;
+	private final String globalsXml;
+	private final File globalsFile;
+	private final List<String> dependencies = new ArrayList<>();
+	private final List<String> scripts = new ArrayList<>();
+	private final List<Worksheet> worksheets = new ArrayList<>();
+	private final JournalReplay journalReplay;
+
+	private WorkbookFile(Document document, File directory, JournalReplay journalReplay) throws JDOMException, IOException {
+		Element rootElement = document.getRootElement();
+		this.journalReplay = journalReplay;
+
+		Element controllerElement = rootElement.getChild("Controller");
+		if(journalReplay.getScriptType() != null) {
+			scriptType = journalReplay.getScriptType();
+		} else if(controllerElement != null) {
+			scriptType = controllerElement.getChildText("ScriptType");
+		} else {
+			scriptType = null;
+		}
+
+		if(controllerElement != null) {
+			Element globalsElement = controllerElement.getChild("Globals");
+			if(globalsElement != null && !globalsElement.getChildren().isEmpty()) {
+				globalsXml = new XMLOutputter().outputString(globalsElement.getChildren().get(0));
+			} else {
+				globalsXml = null;
+			}
+			if(globalsElement != null && globalsElement.getAttributeValue("file") != null) {
+				globalsFile = ScriptController.getGlobalsFile(directory, globalsElement.getAttributeValue("file"));
+			} else {
+				globalsFile = null;
+			}
+		} else {
+			globalsXml = null;
+			globalsFile = null;
+		}
+
+		Element tabsElement = rootElement.getChild("Tabs");
+		if(tabsElement != null) {
+			if(journalReplay.hasViewChanges()) {
+				journalReplay.applyToTabs(tabsElement);
+			}
+			for(Element item:tabsElement.getDescendants(Filters.element("Item"))) {
+				addItem(item);
+			}
+		}
+	}
+
+	private void addItem(Element item) {
+		String type = item.getAttributeValue("type");
+		if("DependencyTabbedView".equals(type)) {
+			for(String line:item.getChildText("Content").split("\n")) {
+				if(!line.trim().isEmpty()) {
+					dependencies.add(line.trim());
+				}
+			}
+		} else if("ScriptTabbedView".equals(type)) {
+			scripts.add(item.getChildText("Content"));
+		} else if("WorksheetTabbedView".equals(type)) {
+			List<String> commands = new ArrayList<>();
+			for(Element command:item.getChildren("Command")) {
+				if(!command.getText().trim().isEmpty()) {
+					commands.add(command.getText());
+				}
+			}
+			worksheets.add(new Worksheet(item.getChildText("ExecuteFunctionName"), commands));
+		}
+	}
+
+	/**
+	 * Reads a workbook from a file, with the changes in the journal next to it. The journal isn't changed, so it can be
+	 * read while the workbook is open.
+	 */
+	public static WorkbookFile read(File file) throws JDOMException, IOException {
+		Document document = new SAXBuilder().build(file);
+		String sequence = document.getRootElement().getAttributeValue("journalSequence");
+		List<Journal.Entry> entries = new Journal(new File(file.getPath() + ".journal")).readOnly();
+		JournalReplay journalReplay = new JournalReplay(entries, (sequence == null) ? 0 : Long.parseLong(sequence));
+		return new WorkbookFile(document, file.getAbsoluteFile().getParentFile(), journalReplay);
+	}
+
+	/**
+	 * Reads a workbook from the text of a saved document.
+	 */
+	public static WorkbookFile parse(String documentText) throws JDOMException, IOException {
+		return new WorkbookFile(new SAXBuilder().build(new StringReader(documentText)), null, new JournalReplay(Collections.emptyList(), 0));
+	}
+
+	/**
+	 * Returns the script type, or null if the file doesn't have one.
+	 */
+	public String getScriptType() {
+		return scriptType;
+	}
+
+	/**
+	 * Returns the serialized globals, or null if the file doesn't have any.
+	 */
+	public String getGlobalsXml() {
+		return globalsXml;
+	}
+
+	/**
+	 * Returns the file that the globals were saved to, or null if they're in the document or the file doesn't have any.
+	 */
+	public File getGlobalsFile() {
+		return globalsFile;
+	}
+
+	/**
+	 * Returns the journal's changes, to be applied to the globals once the saved globals are read.
+	 */
+	public JournalReplay getJournalReplay() {
+		return journalReplay;
+	}
+
+	public List<String> getDependencies() {
+		return Collections.unmodifiableList(dependencies);
+	}
+
+	public List<String> getScripts() {
+		return Collections.unmodifiableList(scripts);
+	}
+
+	public List<Worksheet> getWorksheets() {
+		return Collections.unmodifiableList(worksheets);
+	}
+}
@@ -1,17 +1,26 @@
 package workbook.controller;
 
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.StringReader;
+import java.io.InputStream;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.function.Consumer;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Function;
+import java.util.function.Supplier;
 
+import javax.xml.stream.XMLStreamException;
+
+import org.eclipse.swt.SWTException;
 import org.eclipse.swt.widgets.Display;
 import org.jdom2.Element;
-import org.jdom2.JDOMException;
-import org.jdom2.input.SAXBuilder;
 import org.jdom2.output.XMLOutputter;
 
 import com.google.common.eventbus.EventBus;
@@ -19,24 +28,36 @@ import com.google.common.eventbus.EventBus;
 import workbook.event.MinorRefreshEvent;
 import workbook.event.OutputEvent;
 import workbook.event.ScriptTypeChangeEvent;
+import workbook.journal.JournalReplay;
 import workbook.model.Model;
 import workbook.script.Engine;
 import workbook.script.ScriptController;
 import workbook.script.ScriptFuture;
-import workbook.util.ThrottledConsumer;
+import workbook.script.ScriptSessions;
+import workbook.util.BackgroundFileWriter;
+import workbook.util.BoundedLineBuffer;
+import workbook.util.BoundedLineBuffer.OverflowPolicy;
+import workbook.util.XmlReader;
+import workbook.util.XmlWriter;
 import workbook.view.result.wrapper.Wrapper;
 
 public class MainController {
+	private static final int OUTPUT_CAPACITY = 10000;
+	private static final int OUTPUT_BATCH_SIZE = 2000;
+	private static final int OUTPUT_INTERVAL_MILLIS = 50;
+	private static final int OUTPUT_MAX_BLOCK_MILLIS = 1000;
+	
 	private final ScriptController scriptController = new ScriptController();
+	private final ScriptSessions scriptSessions = new ScriptSessions(scriptController, this::initSession);
 	private final EventBus eventBus;
 	private final Model model;
 	
 	private final Map<String, Function<Object, ? extends Wrapper>> wrapperFunctions = new HashMap<>();
 	
-	private final Consumer<Void> flushConsoleConsumer;
-	
-	private final StringBuilder outputBuffer = new StringBuilder();
-	private final StringBuilder errorBuffer = new StringBuilder();
+	private final BoundedLineBuffer outputBuffer = new BoundedLineBuffer(OUTPUT_CAPACITY, OverflowPolicy.DROP_OLDEST, OUTPUT_MAX_BLOCK_MILLIS);
+	private final ScheduledExecutorService outputExecutor;
+	private final AtomicBoolean delivering = new AtomicBoolean(false);
+	private long deliveredDroppedCount = 0;
 
 	public MainController(EventBus eventBus, Model model) {
 		this.eventBus = eventBus;
@@ -44,53 +65,165 @@ public class MainController {
 		
 		scriptController.startQueueThread();
 		
+		setOutputCallbacks(scriptController);
+		
+		outputExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "Console Output");
+			thread.setDaemon(true);
+			return thread;
+		});
+		outputExecutor.scheduleAtFixedRate(this::flushConsole, OUTPUT_INTERVAL_MILLIS, OUTPUT_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+	}
+	
+	private void setOutputCallbacks(ScriptController scriptController) {
 		scriptController.setOutputCallbacks(
-			line -> Display.getDefault().asyncExec(() -> addOutput(line)),
-			line -> Display.getDefault().asyncExec(() -> addError(line))
+			lines -> outputBuffer.addAll(lines, false, Display.getCurrent() == null),
+			lines -> outputBuffer.addAll(lines, true, Display.getCurrent() == null)
 		);
+	}
+	
+	/**
+	 * Initializes a newly created session to match the default session.
+	 */
+	private void initSession(ScriptController session) {
+		setOutputCallbacks(session);
+		
+		if(scriptController.getScriptType() != null) {
+			session.setScriptType(scriptController.getScriptType());
+		}
+		
+		wrapperFunctions.forEach(session::defineFunction);
+		
+		if(session.getGlobalsSync() != scriptController.getGlobalsSync()) {
+			session.setVariable("system", scriptController.getGlobalsSync().get("system"));
+		}
+	}
+	
+	/**
+	 * Posts the next batch of buffered output to the UI thread, unless the last batch hasn't been handled yet. Only one
+	 * batch is in flight at a time, so the console can't fall behind by more than one batch, and output that can't be
+	 * displayed yet stays in the buffer where the overflow policy applies to it.
+	 * 
+	 * The batch is posted without waiting for it, as the UI thread may itself be waiting on a script that's blocked on a
+	 * full buffer. A blocked script only waits for a limited time before the oldest line is dropped, and output from the
+	 * UI thread never waits.
+	 */
+	private void flushConsole() {
+		long droppedCount = outputBuffer.getDroppedCount();
+		if(outputBuffer.isEmpty() && droppedCount == deliveredDroppedCount) {
+			return;
+		}
+		if(!delivering.compareAndSet(false, true)) {
+			return;
+		}
+		
+		OutputEvent event = new OutputEvent(outputBuffer.take(OUTPUT_BATCH_SIZE), droppedCount - deliveredDroppedCount);
+		deliveredDroppedCount = droppedCount;
 		
-		flushConsoleConsumer = new ThrottledConsumer<Void>(100, true, result -> flushConsole());
+		try {
+			Display display = Display.getDefault();
+			if(!display.isDisposed()) {
+				display.asyncExec(() -> {
+					try {
+						eventBus.post(event);
+					} finally {
+						delivering.set(false);
+					}
+				});
+			}
+		} catch(SWTException e) {
+			// The display was disposed while the output was being delivered.
+		}
 	}
 	
-	private void addOutput(String output) {
-		outputBuffer.append(output + "\n");
-		flushConsoleConsumer.accept(null);
+	/**
+	 * Returns the buffer that holds output from scripts until the console displays it.
+	 */
+	public BoundedLineBuffer getOutputBuffer() {
+		return outputBuffer;
 	}
 	
-	private void addError(String error) {
-		errorBuffer.append(error + "\n");
-		flushConsoleConsumer.accept(null);
+	/**
+	 * Sets what happens to script output when the console falls behind: blocking the script for up to a second,
+	 * dropping the oldest lines, or spilling lines to a temporary file.
+	 */
+	public void setOutputOverflowPolicy(OverflowPolicy overflowPolicy) {
+		outputBuffer.setOverflowPolicy(overflowPolicy);
 	}
 	
-	private void flushConsole() {
-		String output = outputBuffer.toString();
-		String error = errorBuffer.toString();
-		outputBuffer.setLength(0);
-		errorBuffer.setLength(0);
-		eventBus.post(new OutputEvent(output, error));
+	public OverflowPolicy getOutputOverflowPolicy() {
+		return outputBuffer.getOverflowPolicy();
 	}
 	
 	public void interrupt() {
-		scriptController.interrupt();
+		scriptSessions.getSessions().forEach(ScriptController::interrupt);
 	}
 	
 	public void clearGlobals() {
-		scriptController.clearGlobals();
+		scriptSessions.getSessions().forEach(ScriptController::clearGlobals);
 		eventBus.post(new MinorRefreshEvent(this));
 	}
+	
+	/**
+	 * Shuts down the named sessions, which are created again by the views that use them. This is called when the
+	 * workbook is closed or another workbook is opened.
+	 */
+	public void closeSessions() {
+		scriptSessions.close();
+	}
 
+	/**
+	 * Returns the script controller of the default session.
+	 */
 	public ScriptController getScriptController() {
 		return scriptController;
 	}
 	
+	public ScriptSessions getScriptSessions() {
+		return scriptSessions;
+	}
+	
+	/**
+	 * Registers an engine instance with the default session only.
+	 */
 	public void registerEngine(String scriptType, Engine engine) {
 		scriptController.addEngine(scriptType, engine);
 	}
+	
+	/**
+	 * Registers an engine with the default session, and with every session created afterwards.
+	 */
+	public void registerEngine(String scriptType, Supplier<Engine> engineSupplier) {
+		registerEngine(scriptType, engineSupplier, true);
+	}
+	
+	/**
+	 * Registers an engine with the default session, and with every session created afterwards. If warm isn't set, the
+	 * engine isn't created by warmEngines, only when it's first used.
+	 */
+	public void registerEngine(String scriptType, Supplier<Engine> engineSupplier, boolean warm) {
+		scriptController.addEngine(scriptType, engineSupplier, warm);
+		scriptSessions.registerEngine(scriptType, engineSupplier);
+	}
+	
+	/**
+	 * Starts creating the engines of the default session in the background.
+	 */
+	public void warmEngines() {
+		scriptController.warmEngines();
+	}
 
 	public void setEngine(String scriptType) {
+		scriptSessions.getSessions().forEach(session -> {
+			if(session != scriptController) {
+				session.setScriptType(scriptType)
+					.thenRun(() -> initScriptEngine(session));
+			}
+		});
+		
 		scriptController.setScriptType(scriptType)
 			.thenRun(() -> {
-				initScriptEngine();
+				initScriptEngine(scriptController);
 				scriptController.getScript(engine -> {
 					model.setScriptType(scriptType);
 					model.setBrush(engine.getBrush());
@@ -99,13 +232,13 @@ public class MainController {
 			});
 	}
 	
-	private void initScriptEngine() {
-		wrapperFunctions.forEach(scriptController::defineFunction);
+	private void initScriptEngine(ScriptController session) {
+		wrapperFunctions.forEach(session::defineFunction);
 	}
 	
 	public void registerWrapperFunction(String name, Function<Object, ? extends Wrapper> function) {
 		wrapperFunctions.put(name, function);
-		scriptController.defineFunction(name, function);
+		scriptSessions.getSessions().forEach(session -> session.defineFunction(name, function));
 	}
 
 	public String getEngine() {
@@ -120,20 +253,39 @@ public class MainController {
 		scriptController.setVariable(name, value);
 	}
 
-	public void serialize(Element element) {
-		try {
-			// Serialize script type.
-			Element scriptTypeElement = new Element("ScriptType");
-			scriptTypeElement.setText(scriptController.getScriptType().toString());
-			element.addContent(scriptTypeElement);
-			
-			// Serialize globals.
-			Element globalsElement = new Element("Globals");
-			addChildrenFromString(globalsElement, scriptController.serializeGlobals().get());
-			element.addContent(globalsElement);
-		} catch(Exception e) {
-			e.printStackTrace();
-		}
+	/**
+	 * Returns a future that completes with a snapshot of the globals, serialized between tasks on the script thread.
+	 */
+	public ScriptFuture<Map<String, byte[]>> snapshotGlobals() {
+		return scriptController.snapshotGlobals();
+	}
+	
+	/**
+	 * Writes the script type, and a Globals element that refers to the globals file, into the element that was just
+	 * started.
+	 */
+	public void serialize(XmlWriter writer, String scriptType, File globalsFile) throws XMLStreamException {
+		writer.element("ScriptType", scriptType);
+		writer.startElement("Globals");
+		writer.attribute("file", globalsFile.getName());
+		writer.endElement();
+	}
+	
+	/**
+	 * Writes a snapshot of the globals to a file from the calling thread.
+	 */
+	public void writeGlobals(Map<String, byte[]> snapshot, File globalsFile) throws Exception {
+		BackgroundFileWriter.writeAtomically(globalsFile, outputStream -> ScriptController.writeGlobals(snapshot, outputStream));
+	}
+	
+	/**
+	 * Applies the changes to the globals that were recorded in a journal, once the globals of its snapshot are read.
+	 */
+	public void replayGlobals(JournalReplay replay) throws InterruptedException, ExecutionException {
+		scriptController.exec(() -> {
+			replay.applyToGlobals(scriptController.getGlobalsSync());
+			return null;
+		}).get();
 	}
 	
 	public void deserialize(Element element) {
@@ -154,18 +306,33 @@ public class MainController {
 	}
 	
 	/**
-	 * Returns the contents of the element as an XML String.
+	 * Reads the script type and globals from the current element, leaving the reader on its end. Globals in a
+	 * separate file are read from the directory.
 	 */
-	private static String toXmlString(Element element) {
-		return new XMLOutputter().outputString(element);
+	public void deserialize(XmlReader reader, File directory) throws XMLStreamException, IOException, InterruptedException, ExecutionException {
+		while(reader.nextChild()) {
+			if(reader.getName().equals("ScriptType")) {
+				setEngine(reader.readText());
+			} else if(reader.getName().equals("Globals") && reader.getAttribute("file") != null) {
+				try(InputStream inputStream = new BufferedInputStream(new FileInputStream(ScriptController.getGlobalsFile(directory, reader.getAttribute("file"))))) {
+					scriptController.readGlobals(inputStream).get();
+				}
+				reader.skip();
+			} else if(reader.getName().equals("Globals")) {
+				List<Element> globals = reader.readElement().getChildren();
+				if(!globals.isEmpty()) {
+					scriptController.deserializeGlobals(toXmlString(globals.get(0))).get();
+				}
+			} else {
+				reader.skip();
+			}
+		}
 	}
-
+	
 	/**
-	 * Adds the contents of childXml to the parent element after parsing as xml.
+	 * Returns the contents of the element as an XML String.
 	 */
-	private static void addChildrenFromString(Element parent, String childXml) throws JDOMException, IOException {
-		Element element = new SAXBuilder().build(new StringReader(childXml)).getRootElement();
-		element.detach();
-		parent.addContent(element);
+	private static String toXmlString(Element element) {
+		return new XMLOutputter().outputString(element);
 	}
 }
\ No newline at end of file
@@ -5,6 +5,8 @@ import java.util.function.Supplier;
 import workbook.script.Engine;
 import workbook.script.ScriptController;
 import workbook.script.ScriptFuture;
+import workbook.script.TaskKind;
+import workbook.script.TaskPriority;
 
 /**
  * A reference that has access to the script controller.
@@ -28,30 +30,25 @@ public abstract class AbstractScriptReference implements Reference {
 	
 	@Override
 	public ScriptFuture<Void> set(Object value) {
-		ScriptFuture<Void> future = new ScriptFuture<>(scriptController);
-		scriptController.getScript(script -> {
-			try {
-				setSync(script, value);
-				future.complete(null);
-			} catch(Exception e) {
-				future.completeExceptionally(e);
-			}
+		return scriptController.exec(TaskKind.REFERENCE_SET, TaskPriority.INTERACTIVE, null, () -> {
+			setSync(scriptController.getScriptSync(), value);
+			return null;
 		});
-		return future;
 	}
 	
 	@Override
 	public ScriptFuture<Object> get() {
-		ScriptFuture<Object> future = new ScriptFuture<>(scriptController);
-		scriptController.getScript(script -> {
-			try {
-				Object value = getSync(script);
-				future.complete(value);
-			} catch(Exception e) {
-				future.completeExceptionally(e);
-			}
-		});
-		return future;
+		return get(null);
+	}
+	
+	@Override
+	public ScriptFuture<Object> get(Object key) {
+		return scriptController.exec(TaskKind.REFERENCE_GET, TaskPriority.REFRESH, key, () -> getSync());
+	}
+	
+	@Override
+	public Object getSync() throws Exception {
+		return getSync(scriptController.getScriptSync());
 	}
 	
 	/**
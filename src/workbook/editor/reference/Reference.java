@@ -15,4 +15,14 @@ public interface Reference {
 	 * Gets the value of the reference, returning a future that will complete with this value.
 	 */
 	public ScriptFuture<Object> get();
+	
+	/**
+	 * Gets the value of the reference, replacing any pending read with the same key.
+	 */
+	public ScriptFuture<Object> get(Object key);
+	
+	/**
+	 * Gets the value of the reference synchronously. This must be called on the script thread.
+	 */
+	public Object getSync() throws Exception;
 }
@@ -47,7 +47,7 @@ public abstract class Editor {
 	 */
 	protected void readReference() {
 		if(reference != null) {
-			reference.get().thenAccept(value -> setValue(value));
+			reference.get(reference).thenAccept(value -> setValue(value));
 		}
 	}
 	
@@ -28,6 +28,7 @@ import com.google.common.eventbus.EventBus;
 
 import workbook.event.MinorRefreshEvent;
 import workbook.script.ScriptController;
+import workbook.script.TaskPriority;
 import workbook.view.TabbedView;
 
 class PolygonCanvas {
@@ -453,7 +454,7 @@ public class PolygonTabbedEditor extends Editor implements TabbedView {
 	}
 
 	public void setValue(Object value) {
-		scriptController.exec(() -> {
+		scriptController.exec(TaskPriority.REFRESH, this, () -> {
 			if(isPolygonListOrEmpty(value)) {
 				Display.getDefault().asyncExec(() -> {
 					if(!canvas.getControl().isDisposed()) {
@@ -4,6 +4,7 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
 
 import org.eclipse.swt.SWT;
 import org.eclipse.swt.custom.TableEditor;
@@ -19,6 +20,7 @@ import org.eclipse.swt.graphics.Point;
 import org.eclipse.swt.graphics.Rectangle;
 import org.eclipse.swt.widgets.Composite;
 import org.eclipse.swt.widgets.Control;
+import org.eclipse.swt.widgets.Display;
 import org.eclipse.swt.widgets.Table;
 import org.eclipse.swt.widgets.TableColumn;
 import org.eclipse.swt.widgets.TableItem;
@@ -30,12 +32,15 @@ import workbook.editor.ScriptTableUtil;
 import workbook.editor.reference.Reference;
 import workbook.event.MinorRefreshEvent;
 import workbook.script.ScriptController;
+import workbook.script.TaskPriority;
 import workbook.view.TabbedView;
 
 /**
  * An editor that allows editing of properties within an object in a table.
  */
 public class TableTabbedEditor extends Editor implements TabbedView {
+	private static final int READ_CHUNK_SIZE = 100;
+	
 	private final Composite parent;
 	private final EventBus eventBus;
 	private final ScriptTableUtil scriptTableUtil;
@@ -144,7 +149,7 @@ public class TableTabbedEditor extends Editor implements TabbedView {
 	 */
 	public void setValue(Object value) {
 		if(value != null) {
-			scriptController.exec(() -> {
+			scriptController.exec(TaskPriority.REFRESH, this, () -> {
 				Map<String, List<Reference>> rows = scriptTableUtil.getTable(value);
 				table.getDisplay().asyncExec(() -> {
 					if(!table.isDisposed()) {
@@ -190,7 +195,10 @@ public class TableTabbedEditor extends Editor implements TabbedView {
 			});
 		});
 		
-		// Add table items with values.
+		// Add table items, and read their values in a few tasks.
+		List<TableItem> items = new ArrayList<>();
+		List<Integer> indexes = new ArrayList<>();
+		List<Reference> itemReferences = new ArrayList<>();
 		columns.forEach((name, values) -> {
 			for(int i = 0; i < values.size(); i++) {
 				if(rows.size() <= i) {
@@ -200,10 +208,16 @@ public class TableTabbedEditor extends Editor implements TabbedView {
 				TableItem item = rows.get(i);
 				
 				Reference reference = values.get(i);
-				readItemValue(item, columnIndexes.get(name), reference);
+				if(reference != null) {
+					itemReferences.add(reference);
+					items.add(item);
+					indexes.add(columnIndexes.get(name));
+				}
 			}
 		});
 		
+		readItemValues(items, indexes, itemReferences);
+		
 		// Set references data for each row.
 		for(int i = 0; i < rows.size(); i++) {
 			List<Reference> references = new ArrayList<>();
@@ -221,7 +235,7 @@ public class TableTabbedEditor extends Editor implements TabbedView {
 	 */
 	public void readItemValue(TableItem tableItem, int index, Reference reference) {
 		if(reference != null) {
-			reference.get().thenAccept(value -> {
+			reference.get(reference).thenAccept(value -> {
 				String stringValue = String.valueOf(value);
 				tableItem.getDisplay().asyncExec(() -> {
 					if(!tableItem.isDisposed()) {
@@ -232,6 +246,42 @@ public class TableTabbedEditor extends Editor implements TabbedView {
 		}
 	}
 
+	/**
+	 * Reads the values of the references into the table items, in tasks of up to READ_CHUNK_SIZE reads on the script
+	 * thread so that other tasks can run between them. An item keeps its previous value if its read fails.
+	 */
+	private void readItemValues(List<TableItem> tableItems, List<Integer> indexes, List<Reference> references) {
+		for(int start = 0; start < references.size(); start += READ_CHUNK_SIZE) {
+			int end = Math.min(start + READ_CHUNK_SIZE, references.size());
+			readItemValuesChunk(tableItems.subList(start, end), indexes.subList(start, end), references.subList(start, end));
+		}
+	}
+	
+	private void readItemValuesChunk(List<TableItem> tableItems, List<Integer> indexes, List<Reference> references) {
+		List<Callable<String>> reads = new ArrayList<>();
+		for(Reference reference:references) {
+			reads.add(() -> {
+				try {
+					return String.valueOf(reference.getSync());
+				} catch(Exception e) {
+					e.printStackTrace();
+					return null;
+				}
+			});
+		}
+		
+		scriptController.execAll(TaskPriority.REFRESH, reads).thenAccept(values -> {
+			Display.getDefault().asyncExec(() -> {
+				for(int i = 0; i < values.size(); i++) {
+					TableItem tableItem = tableItems.get(i);
+					if(values.get(i) != null && !tableItem.isDisposed()) {
+						tableItem.setText(indexes.get(i), values.get(i));
+					}
+				}
+			});
+		});
+	}
+
 	/**
 	 * Writes value to the reference of tableItem.
 	 */
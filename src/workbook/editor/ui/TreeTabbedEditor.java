@@ -30,6 +30,7 @@ import workbook.editor.ScriptTableUtil;
 import workbook.editor.reference.Reference;
 import workbook.event.MinorRefreshEvent;
 import workbook.script.ScriptController;
+import workbook.script.TaskPriority;
 import workbook.view.TabbedView;
 
 /**
@@ -166,7 +167,7 @@ public class TreeTabbedEditor extends Editor implements TabbedView {
 	 */
 	public void setValue(Object value) {
 		if(value != null) {
-			scriptController.exec(() -> {
+			scriptController.exec(TaskPriority.REFRESH, this, () -> {
 				Map<String, Reference> rows = scriptTableUtil.getTableRow(value);
 				tree.getDisplay().asyncExec(() -> {
 					if(!tree.isDisposed()) {
@@ -261,7 +262,7 @@ public class TreeTabbedEditor extends Editor implements TabbedView {
 	 */
 	public void readItemValue(TreeItem treeItem, Reference reference) {
 		if(reference != null) {
-			reference.get().thenAccept(value -> {
+			reference.get(reference).thenAccept(value -> {
 				boolean hasChild = !scriptTableUtil.getTableRow(value).isEmpty();
 				
 				String stringValue = String.valueOf(value);
@@ -1,22 +1,32 @@
 package workbook.event;
 
+import java.util.List;
+
+import workbook.util.BoundedLineBuffer.Line;
+
 /**
  * An event dispatched when there is system output from the script.
  */
 public class OutputEvent {
-	private final String output;
-	private final String error;
+	private final List<Line> lines;
+	private final long droppedCount;
 	
-	public OutputEvent(String output, String error) {
-		this.output = output;
-		this.error = error;
+	public OutputEvent(List<Line> lines, long droppedCount) {
+		this.lines = lines;
+		this.droppedCount = droppedCount;
 	}
 	
-	public String getOutput() {
-		return output;
+	/**
+	 * Returns the lines of output and error output, in the order they were written.
+	 */
+	public List<Line> getLines() {
+		return lines;
 	}
 	
-	public String getError() {
-		return error;
+	/**
+	 * Returns the number of lines that were dropped since the last event, because they couldn't be displayed quickly enough.
+	 */
+	public long getDroppedCount() {
+		return droppedCount;
 	}
 }
@@ -0,0 +1,214 @@
+package workbook.journal;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import workbook.util.BackgroundFileWriter;
+
+/**
+ * An append-only file of the changes made to a workbook since its last snapshot was saved. Each entry holds the
+ * records of one checkpoint, and has the sequence number of that checkpoint. The snapshot records the sequence number
+ * of the last checkpoint it includes, so entries up to that number are skipped when the journal is replayed.
+ *
+ * Each entry has a checksum, and reading stops at the first entry that wasn't written completely, so a crash while
+ * appending loses only that entry. Apart from read, which is called when the workbook is opened, the methods should
+ * only be called from the thread that writes the workbook.
+ */
+public class Journal {
+	private static final int MAGIC = 0x574A4E31; // "WJN1"
+	private static final int HEADER_SIZE = 4;
+	private static final int ENTRY_OVERHEAD = 8 + 4 + 4;
+
+	/**
+	 * The records of one checkpoint, as written by JournalRecorder.
+	 */
+	public static class Entry {
+		private final long sequence;
+		private final byte[] data;
+
+		public Entry(long sequence, byte[] data) {
+			this.sequence = sequence;
+			this.data = data;
+		}
+
+		public long getSequence() {
+			return sequence;
+		}
+
+		public byte[] getData() {
+			return data;
+		}
+	}
+
+	private final File file;
+	private long size = -1;
+
+	public Journal(File file) {
+		this.file = file;
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * Returns the size of the journal file, or 0 if it doesn't exist.
+	 */
+	public long getSize() {
+		if(size == -1) {
+			size = file.length();
+		}
+		return size;
+	}
+
+	/**
+	 * Reads the entries that were written completely, and truncates anything after them so that the next entry is
+	 * appended after the last complete one. Returns an empty list if the journal doesn't exist.
+	 */
+	public List<Entry> read() throws IOException {
+		return read(true);
+	}
+
+	/**
+	 * Reads the entries that were written completely without changing the file, so that a journal can be read while
+	 * the workbook is open and being written elsewhere.
+	 */
+	public List<Entry> readOnly() throws IOException {
+		return read(false);
+	}
+
+	private List<Entry> read(boolean truncate) throws IOException {
+		List<Entry> entries = new ArrayList<>();
+		if(!file.exists()) {
+			size = 0;
+			return entries;
+		}
+
+		long validLength = 0;
+		try(DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+			if(in.readInt() != MAGIC) {
+				throw new IOException("Not a workbook journal: " + file);
+			}
+			validLength = HEADER_SIZE;
+
+			while(true) {
+				Entry entry = readEntry(in, file.length() - validLength);
+				if(entry == null) {
+					break;
+				}
+				entries.add(entry);
+				validLength += ENTRY_OVERHEAD + entry.data.length;
+			}
+		} catch(EOFException e) {
+			// The header wasn't written completely.
+		}
+
+		if(truncate) {
+			if(validLength < file.length()) {
+				try(RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+					randomAccessFile.setLength(validLength);
+				}
+			}
+			size = validLength;
+		}
+		return entries;
+	}
+
+	/**
+	 * Reads an entry, or returns null at the end of the file or at an entry that wasn't written completely.
+	 */
+	private static Entry readEntry(DataInputStream in, long remaining) throws IOException {
+		try {
+			long sequence = in.readLong();
+			int length = in.readInt();
+			if(length < 0 || length > remaining - ENTRY_OVERHEAD) {
+				return null;
+			}
+			byte[] data = new byte[length];
+			in.readFully(data);
+			int checksum = in.readInt();
+			return (checksum == checksum(sequence, data)) ? new Entry(sequence, data) : null;
+		} catch(EOFException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Appends an entry, and waits until it's written to the disk.
+	 */
+	public void append(long sequence, byte[] data) throws IOException {
+		boolean created = !file.exists() || file.length() < HEADER_SIZE;
+
+		try(FileOutputStream fileOutputStream = new FileOutputStream(file, !created)) {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOutputStream));
+			if(created) {
+				out.writeInt(MAGIC);
+			}
+			writeEntry(out, new Entry(sequence, data));
+			out.flush();
+			fileOutputStream.getFD().sync();
+		}
+		size = file.length();
+	}
+
+	private static void writeEntry(DataOutputStream out, Entry entry) throws IOException {
+		out.writeLong(entry.sequence);
+		out.writeInt(entry.data.length);
+		out.write(entry.data);
+		out.writeInt(checksum(entry.sequence, entry.data));
+	}
+
+	/**
+	 * Removes the entries up to and including sequence, once a snapshot that includes them has been saved. Any later
+	 * entries are kept, and the journal is replaced in one step.
+	 */
+	public void compact(long sequence) throws Exception {
+		List<Entry> entries = new ArrayList<>();
+		for(Entry entry:read()) {
+			if(entry.sequence > sequence) {
+				entries.add(entry);
+			}
+		}
+		write(entries);
+	}
+
+	/**
+	 * Removes all the entries, when the workbook is saved to a new location and any existing journal there belongs to
+	 * another workbook.
+	 */
+	public void clear() throws Exception {
+		write(new ArrayList<>());
+	}
+
+	private void write(List<Entry> entries) throws Exception {
+		BackgroundFileWriter.writeAtomically(file, outputStream -> {
+			DataOutputStream out = new DataOutputStream(outputStream);
+			out.writeInt(MAGIC);
+			for(Entry entry:entries) {
+				writeEntry(out, entry);
+			}
+			out.flush();
+		});
+		size = file.length();
+	}
+
+	private static int checksum(long sequence, byte[] data) {
+		CRC32 crc = new CRC32();
+		for(int i = 56; i >= 0; i -= 8) {
+			crc.update((int) (sequence >>> i));
+		}
+		crc.update(data);
+		return (int) crc.getValue();
+	}
+}
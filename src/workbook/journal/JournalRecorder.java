@@ -0,0 +1,264 @@
+package workbook.journal;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jdom2.Attribute;
+import org.jdom2.Element;
+import org.jdom2.output.XMLOutputter;
+
+import workbook.script.BinarySerializer;
+
+/**
+ * Records the changes to a workbook since the last checkpoint, as the records of a journal entry.
+ *
+ * Views are matched with the views at the last checkpoint by identity, and the layout is recorded when they've moved,
+ * or when the tabs or splits have changed. The contents of each view are compared a child element at a time, and only
+ * the children that have changed are recorded, so editing a cell of a worksheet records only its command. Globals are
+ * compared by their serialized form, so a value that's changed in place is recorded too.
+ *
+ * The views are captured on the UI thread, and the globals on the thread that writes the journal.
+ */
+public class JournalRecorder {
+	static final byte LAYOUT = 1;
+	static final byte VIEW = 2;
+	static final byte SCRIPT_TYPE = 3;
+	static final byte GLOBALS = 4;
+
+	private List<Object> views = new ArrayList<>();
+	private List<List<String>> viewContents = new ArrayList<>();
+	private String layout = null;
+	private String scriptType = null;
+	private Map<String, byte[]> globals = Collections.emptyMap();
+
+	/**
+	 * Returns the records of the changes to the layout, the views and the script type since the last capture. The
+	 * views are given in the order of their items in tabsElement.
+	 */
+	public byte[] captureViews(Element tabsElement, List<?> views, String scriptType) throws IOException {
+		List<Element> items = getItems(tabsElement);
+		if(items.size() != views.size()) {
+			throw new IllegalArgumentException("Expected a view for each of the " + items.size() + " items");
+		}
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+
+		// Record where each view was at the last capture, so that the layout can be rebuilt from the views.
+		Element layoutElement = createLayout(tabsElement);
+		String layout = toString(layoutElement);
+		List<Element> layoutItems = getItems(layoutElement);
+		List<List<String>> previousContents = new ArrayList<>();
+		boolean moved = (views.size() != this.views.size());
+		for(int i = 0; i < views.size(); i++) {
+			int from = indexOfIdentical(this.views, views.get(i));
+			if(from == -1) {
+				previousContents.add(Collections.emptyList());
+			} else {
+				layoutItems.get(i).setAttribute("from", String.valueOf(from));
+				previousContents.add(viewContents.get(from));
+			}
+			moved |= (from != i);
+		}
+
+		if(moved || !layout.equals(this.layout)) {
+			out.writeByte(LAYOUT);
+			writeString(out, toString(layoutElement));
+		}
+
+		List<List<String>> contents = new ArrayList<>();
+		for(int i = 0; i < items.size(); i++) {
+			List<String> content = getContent(items.get(i));
+			writeChanges(out, i, previousContents.get(i), content);
+			contents.add(content);
+		}
+
+		if(scriptType != null && !scriptType.equals(this.scriptType)) {
+			out.writeByte(SCRIPT_TYPE);
+			writeString(out, scriptType);
+		}
+
+		this.views = new ArrayList<>(views);
+		this.viewContents = contents;
+		this.layout = layout;
+		this.scriptType = scriptType;
+
+		out.flush();
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Sets the views that later captures are compared with, without recording them, after a snapshot has been
+	 * written or read.
+	 */
+	public void resetViews(Element tabsElement, List<?> views, String scriptType) {
+		List<List<String>> contents = new ArrayList<>();
+		for(Element item:getItems(tabsElement)) {
+			contents.add(getContent(item));
+		}
+
+		this.views = new ArrayList<>(views);
+		this.viewContents = contents;
+		this.layout = toString(createLayout(tabsElement));
+		this.scriptType = scriptType;
+	}
+
+	/**
+	 * Returns the record of the globals that have been set or removed since the last capture, given a snapshot of the
+	 * globals serialized by ScriptController.snapshotGlobals.
+	 */
+	public byte[] captureGlobals(Map<String, byte[]> snapshot) throws IOException {
+		Map<String, byte[]> changed = new HashMap<>();
+		snapshot.forEach((name, value) -> {
+			if(isSaved(name) && !Arrays.equals(globals.get(name), value)) {
+				changed.put(name, value);
+			}
+		});
+
+		List<String> removed = new ArrayList<>();
+		for(String name:globals.keySet()) {
+			if(isSaved(name) && !snapshot.containsKey(name)) {
+				removed.add(name);
+			}
+		}
+
+		if(changed.isEmpty() && removed.isEmpty()) {
+			globals = snapshot;
+			return new byte[0];
+		}
+
+		ByteArrayOutputStream values = new ByteArrayOutputStream();
+		new BinarySerializer().serializeValues(changed, values);
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeByte(GLOBALS);
+		out.writeInt(values.size());
+		values.writeTo(out);
+		out.writeInt(removed.size());
+		for(String name:removed) {
+			writeString(out, name);
+		}
+		out.flush();
+
+		globals = snapshot;
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Sets the globals that later captures are compared with, without recording them.
+	 */
+	public void resetGlobals(Map<String, byte[]> snapshot) {
+		globals = snapshot;
+	}
+
+	private static boolean isSaved(String name) {
+		return !name.equals("system") && !name.equals("_");
+	}
+
+	/**
+	 * Writes a record of the children that have changed between two versions of a view's contents, as the children
+	 * that replace the ones between the unchanged children at the start and the end.
+	 */
+	private static void writeChanges(DataOutputStream out, int index, List<String> previous, List<String> current) throws IOException {
+		int start = 0;
+		while(start < previous.size() && start < current.size() && previous.get(start).equals(current.get(start))) {
+			start++;
+		}
+
+		int end = 0;
+		while(end < previous.size() - start && end < current.size() - start
+				&& previous.get(previous.size() - 1 - end).equals(current.get(current.size() - 1 - end))) {
+			end++;
+		}
+
+		int removeCount = previous.size() - start - end;
+		List<String> inserted = current.subList(start, current.size() - end);
+		if(removeCount > 0 || !inserted.isEmpty()) {
+			out.writeByte(VIEW);
+			out.writeInt(index);
+			out.writeInt(start);
+			out.writeInt(removeCount);
+			out.writeInt(inserted.size());
+			for(String child:inserted) {
+				writeString(out, child);
+			}
+		}
+	}
+
+	/**
+	 * Returns the Item elements in the order they appear in the layout.
+	 */
+	static List<Element> getItems(Element tabsElement) {
+		List<Element> items = new ArrayList<>();
+		addItems(tabsElement, items);
+		return items;
+	}
+
+	private static void addItems(Element element, List<Element> items) {
+		for(Element child:element.getChildren()) {
+			if(child.getName().equals("Split")) {
+				addItems(child, items);
+			} else if(child.getName().equals("Items")) {
+				items.addAll(child.getChildren("Item"));
+			}
+		}
+	}
+
+	/**
+	 * Returns a copy of the splits, folders and items of the layout, without the contents of the items.
+	 */
+	private static Element createLayout(Element element) {
+		Element layout = new Element(element.getName());
+		for(Attribute attribute:element.getAttributes()) {
+			layout.setAttribute(attribute.getName(), attribute.getValue());
+		}
+
+		if(!element.getName().equals("Item")) {
+			for(Element child:element.getChildren()) {
+				if(child.getName().equals("Split") || child.getName().equals("Items") || child.getName().equals("Item")) {
+					layout.addContent(createLayout(child));
+				}
+			}
+		}
+		return layout;
+	}
+
+	private static List<String> getContent(Element item) {
+		List<String> content = new ArrayList<>();
+		for(Element child:item.getChildren()) {
+			content.add(toString(child));
+		}
+		return content;
+	}
+
+	private static int indexOfIdentical(List<Object> list, Object value) {
+		for(int i = 0; i < list.size(); i++) {
+			if(list.get(i) == value) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private static String toString(Element element) {
+		return new XMLOutputter().outputString(element);
+	}
+
+	/**
+	 * Writes a string of any length, as writeUTF is limited to 64k bytes.
+	 */
+	static void writeString(DataOutputStream out, String text) throws IOException {
+		byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+}
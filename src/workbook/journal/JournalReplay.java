@@ -0,0 +1,188 @@
+package workbook.journal;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.jdom2.Element;
+import org.jdom2.JDOMException;
+import org.jdom2.input.SAXBuilder;
+
+import workbook.script.BinarySerializer;
+
+/**
+ * Replays the journal entries recorded after a snapshot onto it. The changes to the layout and the views are applied
+ * to the Tabs element of the snapshot before the views are created from it, and the changes to the globals once the
+ * globals of the snapshot have been read.
+ */
+public class JournalReplay {
+	private static class Record {
+		private final byte type;
+		private int index;
+		private int start;
+		private int removeCount;
+		private final List<String> strings = new ArrayList<>();
+		private byte[] values;
+
+		public Record(byte type) {
+			this.type = type;
+		}
+	}
+
+	private final List<Record> records = new ArrayList<>();
+	private final long sequence;
+
+	/**
+	 * Reads the records of the entries after the snapshot's sequence number.
+	 */
+	public JournalReplay(List<Journal.Entry> entries, long snapshotSequence) throws IOException {
+		long sequence = snapshotSequence;
+		for(Journal.Entry entry:entries) {
+			if(entry.getSequence() > snapshotSequence) {
+				readRecords(entry.getData());
+				sequence = Math.max(sequence, entry.getSequence());
+			}
+		}
+		this.sequence = sequence;
+	}
+
+	private void readRecords(byte[] data) throws IOException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+		while(true) {
+			int type = in.read();
+			if(type == -1) {
+				break;
+			}
+
+			Record record = new Record((byte) type);
+			switch(record.type) {
+				case JournalRecorder.LAYOUT:
+				case JournalRecorder.SCRIPT_TYPE:
+					record.strings.add(readString(in));
+					break;
+				case JournalRecorder.VIEW:
+					record.index = in.readInt();
+					record.start = in.readInt();
+					record.removeCount = in.readInt();
+					int count = in.readInt();
+					for(int i = 0; i < count; i++) {
+						record.strings.add(readString(in));
+					}
+					break;
+				case JournalRecorder.GLOBALS:
+					record.values = new byte[in.readInt()];
+					in.readFully(record.values);
+					int removedCount = in.readInt();
+					for(int i = 0; i < removedCount; i++) {
+						record.strings.add(readString(in));
+					}
+					break;
+				default:
+					throw new IOException("Unknown journal record: " + type);
+			}
+			records.add(record);
+		}
+	}
+
+	/**
+	 * Returns the sequence number of the last entry that's replayed, or the snapshot's if there are none.
+	 */
+	public long getSequence() {
+		return sequence;
+	}
+
+	public boolean isEmpty() {
+		return records.isEmpty();
+	}
+
+	/**
+	 * Returns whether there are changes to the layout or the views, so that the Tabs element must be read before the
+	 * views are created from it.
+	 */
+	public boolean hasViewChanges() {
+		return records.stream().anyMatch(record -> record.type == JournalRecorder.LAYOUT || record.type == JournalRecorder.VIEW);
+	}
+
+	/**
+	 * Applies the changes to the layout and the views to the Tabs element of the snapshot.
+	 */
+	public void applyToTabs(Element tabsElement) throws IOException, JDOMException {
+		for(Record record:records) {
+			if(record.type == JournalRecorder.LAYOUT) {
+				applyLayout(tabsElement, parse(record.strings.get(0)));
+			} else if(record.type == JournalRecorder.VIEW) {
+				List<Element> children = JournalRecorder.getItems(tabsElement).get(record.index).getChildren();
+				for(int i = 0; i < record.removeCount; i++) {
+					children.remove(record.start);
+				}
+				for(int i = 0; i < record.strings.size(); i++) {
+					children.add(record.start + i, parse(record.strings.get(i)));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Replaces the layout, moving the contents of each item from the item it was at before.
+	 */
+	private static void applyLayout(Element tabsElement, Element layoutElement) {
+		List<Element> previousItems = JournalRecorder.getItems(tabsElement);
+		for(Element item:JournalRecorder.getItems(layoutElement)) {
+			String from = item.getAttributeValue("from");
+			if(from != null) {
+				item.removeAttribute("from");
+				item.addContent(previousItems.get(Integer.parseInt(from)).removeContent());
+			}
+		}
+
+		tabsElement.removeContent();
+		tabsElement.addContent(layoutElement.removeContent());
+	}
+
+	/**
+	 * Returns the last script type that was recorded, or null if it hasn't changed.
+	 */
+	public String getScriptType() {
+		String scriptType = null;
+		for(Record record:records) {
+			if(record.type == JournalRecorder.SCRIPT_TYPE) {
+				scriptType = record.strings.get(0);
+			}
+		}
+		return scriptType;
+	}
+
+	/**
+	 * Applies the changes to the globals. This should be called on the script thread.
+	 */
+	public void applyToGlobals(Map<String, Object> globals) throws IOException, ClassNotFoundException {
+		for(Record record:records) {
+			if(record.type == JournalRecorder.GLOBALS) {
+				globals.putAll(new BinarySerializer().deserialize(new ByteArrayInputStream(record.values)));
+				for(String name:record.strings) {
+					globals.remove(name);
+				}
+			}
+		}
+	}
+
+	private static Element parse(String xml) throws JDOMException, IOException {
+		return new SAXBuilder().build(new StringReader(xml)).detachRootElement();
+	}
+
+	private static String readString(DataInputStream in) throws IOException {
+		int length = in.readInt();
+		if(length < 0 || length > in.available()) {
+			throw new EOFException("Journal record is truncated");
+		}
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,439 @@
+package workbook.script;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.lang.reflect.Array;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Serializes a map of globals to and from a compact binary stream, writing and reading one value at a time so that the
+ * serialized form is never held in memory. Each value starts with a tag byte for its type. Strings, boxed primitives,
+ * primitive arrays, Object arrays, and the standard List, Set and Map classes have their own encodings, and a
+ * container that's reached again is written as a reference to the first one. Other values are written as XML by the
+ * ObjectSerializer, and values that can't be serialized are written as null.
+ *
+ * Values can also be serialized one at a time, and written as a map later. References are then only shared within each
+ * value, so a container that's shared between values is read back as separate copies.
+ */
+public class BinarySerializer {
+	private static final int MAGIC = 0x57424731; // WBG1
+	private static final int VALUES_MAGIC = 0x57424732; // WBG2
+
+	private static final byte NULL = 0;
+	private static final byte FALSE = 1;
+	private static final byte TRUE = 2;
+	private static final byte BYTE = 3;
+	private static final byte SHORT = 4;
+	private static final byte CHAR = 5;
+	private static final byte INT = 6;
+	private static final byte LONG = 7;
+	private static final byte FLOAT = 8;
+	private static final byte DOUBLE = 9;
+	private static final byte STRING = 10;
+	private static final byte BIG_INTEGER = 11;
+	private static final byte BIG_DECIMAL = 12;
+	private static final byte BOOLEAN_ARRAY = 20;
+	private static final byte BYTE_ARRAY = 21;
+	private static final byte SHORT_ARRAY = 22;
+	private static final byte CHAR_ARRAY = 23;
+	private static final byte INT_ARRAY = 24;
+	private static final byte LONG_ARRAY = 25;
+	private static final byte FLOAT_ARRAY = 26;
+	private static final byte DOUBLE_ARRAY = 27;
+	private static final byte OBJECT_ARRAY = 28;
+	private static final byte ARRAY_LIST = 30;
+	private static final byte LINKED_LIST = 31;
+	private static final byte HASH_SET = 32;
+	private static final byte LINKED_HASH_SET = 33;
+	private static final byte TREE_SET = 34;
+	private static final byte HASH_MAP = 35;
+	private static final byte LINKED_HASH_MAP = 36;
+	private static final byte TREE_MAP = 37;
+	private static final byte REFERENCE = 40;
+	private static final byte XML = 50;
+
+	private final ObjectSerializer objectSerializer = new ObjectSerializer();
+
+	/**
+	 * Writes the map to the stream, without closing it.
+	 */
+	public void serialize(Map<String, Object> map, OutputStream outputStream) throws IOException {
+		DataOutputStream out = new DataOutputStream(outputStream);
+		Map<Object, Integer> references = new IdentityHashMap<>();
+
+		out.writeInt(MAGIC);
+		out.writeInt(map.size());
+		for(Map.Entry<String, Object> entry:map.entrySet()) {
+			writeString(out, entry.getKey());
+			writeValue(out, entry.getValue(), references);
+		}
+		out.flush();
+	}
+
+	/**
+	 * Returns a value serialized on its own, to be written later by serializeValues.
+	 */
+	public byte[] serializeValue(Object value) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		writeValue(out, value, new IdentityHashMap<>());
+		out.flush();
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Writes a map of values that were each serialized by serializeValue to the stream, without closing it.
+	 */
+	public void serializeValues(Map<String, byte[]> values, OutputStream outputStream) throws IOException {
+		DataOutputStream out = new DataOutputStream(outputStream);
+
+		out.writeInt(VALUES_MAGIC);
+		out.writeInt(values.size());
+		for(Map.Entry<String, byte[]> entry:values.entrySet()) {
+			writeString(out, entry.getKey());
+			out.write(entry.getValue());
+		}
+		out.flush();
+	}
+
+	/**
+	 * Reads a map from the stream, written by either serialize or serializeValues, without closing it.
+	 */
+	public Map<String, Object> deserialize(InputStream inputStream) throws IOException, ClassNotFoundException {
+		DataInputStream in = new DataInputStream(inputStream);
+		List<Object> references = new ArrayList<>();
+
+		int magic = in.readInt();
+		if(magic != MAGIC && magic != VALUES_MAGIC) {
+			throw new IOException("Not a binary globals file");
+		}
+		int size = in.readInt();
+		Map<String, Object> map = new HashMap<>();
+		for(int i = 0; i < size; i++) {
+			String key = readString(in);
+			if(magic == VALUES_MAGIC) {
+				references.clear();
+			}
+			map.put(key, readValue(in, references));
+		}
+		return map;
+	}
+
+	private void writeValue(DataOutputStream out, Object value, Map<Object, Integer> references) throws IOException {
+		if(value == null) {
+			out.writeByte(NULL);
+			return;
+		}
+
+		Class<?> type = value.getClass();
+		if(type == String.class) {
+			out.writeByte(STRING);
+			writeString(out, (String) value);
+		} else if(type == Integer.class) {
+			out.writeByte(INT);
+			out.writeInt((Integer) value);
+		} else if(type == Long.class) {
+			out.writeByte(LONG);
+			out.writeLong((Long) value);
+		} else if(type == Double.class) {
+			out.writeByte(DOUBLE);
+			out.writeDouble((Double) value);
+		} else if(type == Boolean.class) {
+			out.writeByte((Boolean) value ? TRUE : FALSE);
+		} else if(type == Float.class) {
+			out.writeByte(FLOAT);
+			out.writeFloat((Float) value);
+		} else if(type == Short.class) {
+			out.writeByte(SHORT);
+			out.writeShort((Short) value);
+		} else if(type == Byte.class) {
+			out.writeByte(BYTE);
+			out.writeByte((Byte) value);
+		} else if(type == Character.class) {
+			out.writeByte(CHAR);
+			out.writeChar((Character) value);
+		} else if(type == BigInteger.class) {
+			out.writeByte(BIG_INTEGER);
+			writeBytes(out, ((BigInteger) value).toByteArray());
+		} else if(type == BigDecimal.class) {
+			out.writeByte(BIG_DECIMAL);
+			writeBytes(out, ((BigDecimal) value).unscaledValue().toByteArray());
+			out.writeInt(((BigDecimal) value).scale());
+		} else if(references.containsKey(value)) {
+			out.writeByte(REFERENCE);
+			out.writeInt(references.get(value));
+		} else if(type.isArray()) {
+			writeArray(out, value, references);
+		} else if(getCollectionTag(value) != NULL) {
+			references.put(value, references.size());
+			out.writeByte(getCollectionTag(value));
+			writeCollection(out, value, references);
+		} else if(value instanceof Serializable) {
+			out.writeByte(XML);
+			writeString(out, objectSerializer.serializeObject(value));
+		} else {
+			out.writeByte(NULL);
+		}
+	}
+
+	private void writeArray(DataOutputStream out, Object array, Map<Object, Integer> references) throws IOException {
+		references.put(array, references.size());
+
+		int length = Array.getLength(array);
+		Class<?> componentType = array.getClass().getComponentType();
+		if(componentType == boolean.class) {
+			out.writeByte(BOOLEAN_ARRAY);
+			out.writeInt(length);
+			for(boolean b:(boolean[]) array) {
+				out.writeBoolean(b);
+			}
+		} else if(componentType == byte.class) {
+			out.writeByte(BYTE_ARRAY);
+			writeBytes(out, (byte[]) array);
+		} else if(componentType == short.class) {
+			out.writeByte(SHORT_ARRAY);
+			out.writeInt(length);
+			for(short s:(short[]) array) {
+				out.writeShort(s);
+			}
+		} else if(componentType == char.class) {
+			out.writeByte(CHAR_ARRAY);
+			out.writeInt(length);
+			for(char c:(char[]) array) {
+				out.writeChar(c);
+			}
+		} else if(componentType == int.class) {
+			out.writeByte(INT_ARRAY);
+			out.writeInt(length);
+			for(int i:(int[]) array) {
+				out.writeInt(i);
+			}
+		} else if(componentType == long.class) {
+			out.writeByte(LONG_ARRAY);
+			out.writeInt(length);
+			for(long l:(long[]) array) {
+				out.writeLong(l);
+			}
+		} else if(componentType == float.class) {
+			out.writeByte(FLOAT_ARRAY);
+			out.writeInt(length);
+			for(float f:(float[]) array) {
+				out.writeFloat(f);
+			}
+		} else if(componentType == double.class) {
+			out.writeByte(DOUBLE_ARRAY);
+			out.writeInt(length);
+			for(double d:(double[]) array) {
+				out.writeDouble(d);
+			}
+		} else {
+			out.writeByte(OBJECT_ARRAY);
+			writeString(out, componentType.getName());
+			out.writeInt(length);
+			for(Object value:(Object[]) array) {
+				writeValue(out, value, references);
+			}
+		}
+	}
+
+	/**
+	 * Returns the tag of a collection with its own encoding, or NULL. Only the exact classes are encoded, so that
+	 * subclasses, and sorted collections with comparators, are written as XML with all of their state.
+	 */
+	private static byte getCollectionTag(Object value) {
+		Class<?> type = value.getClass();
+		if(type == ArrayList.class) return ARRAY_LIST;
+		if(type == LinkedList.class) return LINKED_LIST;
+		if(type == HashSet.class) return HASH_SET;
+		if(type == LinkedHashSet.class) return LINKED_HASH_SET;
+		if(type == TreeSet.class && ((TreeSet<?>) value).comparator() == null) return TREE_SET;
+		if(type == HashMap.class) return HASH_MAP;
+		if(type == LinkedHashMap.class) return LINKED_HASH_MAP;
+		if(type == TreeMap.class && ((TreeMap<?, ?>) value).comparator() == null) return TREE_MAP;
+		return NULL;
+	}
+
+	private void writeCollection(DataOutputStream out, Object value, Map<Object, Integer> references) throws IOException {
+		if(value instanceof Map) {
+			Map<?, ?> map = (Map<?, ?>) value;
+			out.writeInt(map.size());
+			for(Map.Entry<?, ?> entry:map.entrySet()) {
+				writeValue(out, entry.getKey(), references);
+				writeValue(out, entry.getValue(), references);
+			}
+		} else {
+			Collection<?> collection = (Collection<?>) value;
+			out.writeInt(collection.size());
+			for(Object element:collection) {
+				writeValue(out, element, references);
+			}
+		}
+	}
+
+	private Object readValue(DataInputStream in, List<Object> references) throws IOException, ClassNotFoundException {
+		byte tag = in.readByte();
+		switch(tag) {
+			case NULL: return null;
+			case FALSE: return false;
+			case TRUE: return true;
+			case BYTE: return in.readByte();
+			case SHORT: return in.readShort();
+			case CHAR: return in.readChar();
+			case INT: return in.readInt();
+			case LONG: return in.readLong();
+			case FLOAT: return in.readFloat();
+			case DOUBLE: return in.readDouble();
+			case STRING: return readString(in);
+			case BIG_INTEGER: return new BigInteger(readBytes(in));
+			case BIG_DECIMAL: return new BigDecimal(new BigInteger(readBytes(in)), in.readInt());
+			case REFERENCE: return references.get(in.readInt());
+			case XML: return objectSerializer.deserializeObject(readString(in));
+			case ARRAY_LIST: return readCollection(in, new ArrayList<>(), references);
+			case LINKED_LIST: return readCollection(in, new LinkedList<>(), references);
+			case HASH_SET: return readCollection(in, new HashSet<>(), references);
+			case LINKED_HASH_SET: return readCollection(in, new LinkedHashSet<>(), references);
+			case TREE_SET: return readCollection(in, new TreeSet<>(), references);
+			case HASH_MAP: return readMap(in, new HashMap<>(), references);
+			case LINKED_HASH_MAP: return readMap(in, new LinkedHashMap<>(), references);
+			case TREE_MAP: return readMap(in, new TreeMap<>(), references);
+			default: return readArray(in, tag, references);
+		}
+	}
+
+	private Object readArray(DataInputStream in, byte tag, List<Object> references) throws IOException, ClassNotFoundException {
+		if(tag == BYTE_ARRAY) {
+			byte[] array = readBytes(in);
+			references.add(array);
+			return array;
+		}
+
+		if(tag == OBJECT_ARRAY) {
+			Class<?> componentType = getClass(readString(in));
+			Object[] array = (Object[]) Array.newInstance(componentType, in.readInt());
+			references.add(array);
+			for(int i = 0; i < array.length; i++) {
+				array[i] = readValue(in, references);
+			}
+			return array;
+		}
+
+		int length = in.readInt();
+		Object array;
+		switch(tag) {
+			case BOOLEAN_ARRAY: {
+				boolean[] values = new boolean[length];
+				for(int i = 0; i < length; i++) values[i] = in.readBoolean();
+				array = values;
+				break;
+			}
+			case SHORT_ARRAY: {
+				short[] values = new short[length];
+				for(int i = 0; i < length; i++) values[i] = in.readShort();
+				array = values;
+				break;
+			}
+			case CHAR_ARRAY: {
+				char[] values = new char[length];
+				for(int i = 0; i < length; i++) values[i] = in.readChar();
+				array = values;
+				break;
+			}
+			case INT_ARRAY: {
+				int[] values = new int[length];
+				for(int i = 0; i < length; i++) values[i] = in.readInt();
+				array = values;
+				break;
+			}
+			case LONG_ARRAY: {
+				long[] values = new long[length];
+				for(int i = 0; i < length; i++) values[i] = in.readLong();
+				array = values;
+				break;
+			}
+			case FLOAT_ARRAY: {
+				float[] values = new float[length];
+				for(int i = 0; i < length; i++) values[i] = in.readFloat();
+				array = values;
+				break;
+			}
+			case DOUBLE_ARRAY: {
+				double[] values = new double[length];
+				for(int i = 0; i < length; i++) values[i] = in.readDouble();
+				array = values;
+				break;
+			}
+			default:
+				throw new IOException("Unknown tag: " + tag);
+		}
+		references.add(array);
+		return array;
+	}
+
+	/**
+	 * Returns the class with the name, or Object if it can't be loaded, such as a class defined by a script.
+	 */
+	private static Class<?> getClass(String name) {
+		try {
+			return Class.forName(name, false, Thread.currentThread().getContextClassLoader());
+		} catch(ClassNotFoundException e) {
+			return Object.class;
+		}
+	}
+
+	private <T extends Collection<Object>> T readCollection(DataInputStream in, T collection, List<Object> references) throws IOException, ClassNotFoundException {
+		references.add(collection);
+		int size = in.readInt();
+		for(int i = 0; i < size; i++) {
+			collection.add(readValue(in, references));
+		}
+		return collection;
+	}
+
+	private <T extends Map<Object, Object>> T readMap(DataInputStream in, T map, List<Object> references) throws IOException, ClassNotFoundException {
+		references.add(map);
+		int size = in.readInt();
+		for(int i = 0; i < size; i++) {
+			Object key = readValue(in, references);
+			map.put(key, readValue(in, references));
+		}
+		return map;
+	}
+
+	private static void writeString(DataOutputStream out, String value) throws IOException {
+		writeBytes(out, value.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static String readString(DataInputStream in) throws IOException {
+		return new String(readBytes(in), StandardCharsets.UTF_8);
+	}
+
+	private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static byte[] readBytes(DataInputStream in) throws IOException {
+		byte[] bytes = new byte[in.readInt()];
+		in.readFully(bytes);
+		return bytes;
+	}
+}
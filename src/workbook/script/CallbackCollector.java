@@ -0,0 +1,55 @@
+package workbook.script;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+/**
+ * Collects the calls to callback functions. An engine defines its callback functions once to call a collector,
+ * and each evaluation then collects the calls it makes into its own list.
+ */
+public class CallbackCollector implements BiConsumer<String, Map<Object, Object>> {
+	private List<NameAndProperties> callbackValues = new ArrayList<>();
+	private List<String> callbackFunctionNames = null;
+	
+	public void accept(String name, Map<Object, Object> properties) {
+		Map<String, String> map = new HashMap<>();
+		
+		for(Object key:new HashSet<>(properties.keySet())) {
+			map.put(String.valueOf(key), String.valueOf(properties.get(key)));
+		}
+		
+		callbackValues.add(new NameAndProperties(name, map));
+	}
+	
+	/**
+	 * Runs an evaluation and returns the callbacks that were called during it.
+	 */
+	public List<NameAndProperties> collect(Runnable evaluation) {
+		callbackValues = new ArrayList<>();
+		evaluation.run();
+		return callbackValues;
+	}
+	
+	/**
+	 * Returns whether the callback functions need to be defined for the given names, as they haven't been defined
+	 * since the last reset, or were defined for different names.
+	 */
+	public boolean needsDefinition(List<String> callbackFunctionNames) {
+		return !callbackFunctionNames.equals(this.callbackFunctionNames);
+	}
+	
+	public void setDefined(List<String> callbackFunctionNames) {
+		this.callbackFunctionNames = new ArrayList<>(callbackFunctionNames);
+	}
+	
+	/**
+	 * Marks the callback functions as undefined, so that they are defined again before the next evaluation.
+	 */
+	public void reset() {
+		callbackFunctionNames = null;
+	}
+}
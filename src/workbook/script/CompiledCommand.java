@@ -0,0 +1,11 @@
+package workbook.script;
+
+/**
+ * A command compiled by an engine, that can be evaluated many times without being parsed and compiled again.
+ */
+public interface CompiledCommand {
+	/**
+	 * Evaluates the command, and returns the result.
+	 */
+	public Object eval();
+}
@@ -0,0 +1,88 @@
+package workbook.script;
+
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+
+/**
+ * A bounded cache of compiled scripts keyed by a hash of their source. When the cache is full the least recently
+ * used script is evicted and passed to the eviction callback, so that any resources it holds can be released.
+ */
+public class CompiledScriptCache<T> {
+	private final int maxSize;
+	private final Consumer<T> evictionCallback;
+
+	private final LinkedHashMap<HashCode, T> cache = new LinkedHashMap<HashCode, T>(16, 0.75f, true) {
+		protected boolean removeEldestEntry(Map.Entry<HashCode, T> eldest) {
+			if(size() > maxSize) {
+				evictionCallback.accept(eldest.getValue());
+				return true;
+			}
+			return false;
+		}
+	};
+
+	private long hits = 0;
+	private long misses = 0;
+
+	public CompiledScriptCache(int maxSize) {
+		this(maxSize, value -> {});
+	}
+
+	public CompiledScriptCache(int maxSize, Consumer<T> evictionCallback) {
+		this.maxSize = maxSize;
+		this.evictionCallback = evictionCallback;
+	}
+
+	/**
+	 * Returns the compiled script for the source, or null if it isn't cached.
+	 */
+	public synchronized T get(String source) {
+		T value = cache.get(getKey(source));
+		if(value == null) {
+			misses++;
+		} else {
+			hits++;
+		}
+		return value;
+	}
+
+	public synchronized void put(String source, T value) {
+		cache.put(getKey(source), value);
+	}
+
+	/**
+	 * Removes the compiled script for the source, without calling the eviction callback.
+	 */
+	public synchronized T remove(String source) {
+		return cache.remove(getKey(source));
+	}
+
+	/**
+	 * Evicts all scripts from the cache.
+	 */
+	public synchronized void clear() {
+		cache.values().forEach(evictionCallback);
+		cache.clear();
+	}
+
+	public synchronized int size() {
+		return cache.size();
+	}
+
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	private static HashCode getKey(String source) {
+		return Hashing.sha256().hashString(source, StandardCharsets.UTF_8);
+	}
+}
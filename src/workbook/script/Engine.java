@@ -21,6 +21,7 @@ public interface Engine {
 	public Map<Object, Object> getPropertyMap(Object object);
 	public void defineFunction(String name, Function<Object, Object> callback);
 	public Object eval(String command);
+	public CompiledCommand compile(String command);
 	public List<NameAndProperties> evalWithCallbackFunctions(String command, List<String> callbackFunctionNames);
 	public Object evalMethodCall(String methodName, List<Object> params);
 }
\ No newline at end of file
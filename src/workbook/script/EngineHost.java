@@ -0,0 +1,233 @@
+package workbook.script;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import workbook.script.RemoteConnection.Frame;
+
+/**
+ * The main class of a process that runs an engine for a RemoteEngine. The engine is created first, and then the host
+ * connects back to the port given on the command line, so a connection means the engine is ready. Requests run one at
+ * a time on the main thread, and output is sent back as it's written. After each request, the globals that the
+ * engine changed are sent back, so that the globals of the RemoteEngine stay up to date.
+ */
+public class EngineHost {
+	private final RemoteConnection connection;
+	private final Engine engine;
+	private final TrackedGlobals globals = new TrackedGlobals();
+
+	/**
+	 * Globals that record the names the engine has changed since they were last sent.
+	 */
+	private static class TrackedGlobals extends HashMap<String, Object> {
+		private static final long serialVersionUID = 1L;
+
+		private final Set<String> changed = new LinkedHashSet<>();
+
+		public Object put(String key, Object value) {
+			if(!containsKey(key) || get(key) != value) {
+				changed.add(key);
+			}
+			return super.put(key, value);
+		}
+
+		public void putAll(Map<? extends String, ? extends Object> map) {
+			map.forEach(this::put);
+		}
+
+		public Object remove(Object key) {
+			if(containsKey(key)) {
+				changed.add((String) key);
+			}
+			return super.remove(key);
+		}
+
+		public void clear() {
+			changed.addAll(keySet());
+			super.clear();
+		}
+
+		public void putUntracked(String key, Object value) {
+			super.put(key, value);
+		}
+
+		public void removeUntracked(String key) {
+			super.remove(key);
+		}
+	}
+
+	/**
+	 * An output stream that sends everything written to it as a frame.
+	 */
+	private class FrameOutputStream extends OutputStream {
+		private final byte op;
+
+		public FrameOutputStream(byte op) {
+			this.op = op;
+		}
+
+		public void write(int b) throws IOException {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		public void write(byte[] bytes, int offset, int length) throws IOException {
+			connection.send(op, 0, new String(bytes, offset, length, StandardCharsets.UTF_8));
+		}
+	}
+
+	public EngineHost(RemoteConnection connection, Engine engine) {
+		this.connection = connection;
+		this.engine = engine;
+
+		engine.setGlobals(globals);
+	}
+
+	public static void main(String[] args) throws Exception {
+		int port = Integer.parseInt(args[0]);
+		Engine engine = (Engine) Class.forName(args[1]).getConstructor().newInstance();
+
+		RemoteConnection connection = new RemoteConnection(new Socket(InetAddress.getLoopbackAddress(), port));
+		EngineHost host = new EngineHost(connection, engine);
+
+		System.setOut(new PrintStream(host.new FrameOutputStream(RemoteConnection.OUTPUT), true, "UTF-8"));
+		System.setErr(new PrintStream(host.new FrameOutputStream(RemoteConnection.ERROR_OUTPUT), true, "UTF-8"));
+
+		host.run();
+		System.exit(0);
+	}
+
+	/**
+	 * Handles requests until the connection is closed.
+	 */
+	public void run() throws Exception {
+		for(Frame frame; (frame = connection.take()) != null;) {
+			handle(frame);
+		}
+	}
+
+	private void handle(Frame frame) throws IOException {
+		if(frame.op == RemoteConnection.RELEASE) {
+			connection.release(frame.values);
+			return;
+		}
+
+		Object[] result;
+		try {
+			result = execute(frame.op, frame.values);
+		} catch(Throwable t) {
+			sendChangedGlobals();
+			if(frame.id == 0) {
+				t.printStackTrace();
+			} else {
+				connection.send(RemoteConnection.ERROR, frame.id, RemoteConnection.getStackTrace(t));
+			}
+			return;
+		}
+
+		sendChangedGlobals();
+		if(frame.id != 0) {
+			connection.send(RemoteConnection.RESULT, frame.id, result);
+		}
+	}
+
+	private Object[] execute(byte op, Object[] values) throws Exception {
+		switch(op) {
+			case RemoteConnection.SET_VARIABLE:
+				engine.setVariable((String) values[0], values[1]);
+				return new Object[0];
+			case RemoteConnection.GET_VARIABLE:
+				return new Object[] { engine.getVariable((String) values[0]) };
+			case RemoteConnection.EVAL:
+				return new Object[] { engine.eval((String) values[0]) };
+			case RemoteConnection.EVAL_METHOD_CALL:
+				return new Object[] { engine.evalMethodCall((String) values[0], Arrays.asList(values).subList(1, values.length)) };
+			case RemoteConnection.EVAL_WITH_CALLBACK_FUNCTIONS: {
+				List<String> names = new ArrayList<>();
+				for(int i = 1; i < values.length; i++) {
+					names.add((String) values[i]);
+				}
+				return engine.evalWithCallbackFunctions((String) values[0], names).toArray();
+			}
+			case RemoteConnection.DEFINE_FUNCTION: {
+				String name = (String) values[0];
+				engine.defineFunction(name, value -> callback(name, value));
+				return new Object[0];
+			}
+			case RemoteConnection.IS_ITERABLE:
+				return new Object[] { engine.isIterable(values[0]) };
+			case RemoteConnection.ITERATE: {
+				List<Object> items = new ArrayList<>();
+				engine.iterateObject(values[0], items::add);
+				return items.toArray();
+			}
+			case RemoteConnection.IS_SCRIPT_OBJECT:
+				return new Object[] { engine.isScriptObject(values[0]) };
+			case RemoteConnection.GET_PROPERTY_MAP:
+				return RemoteConnection.toKeysAndValues(engine.getPropertyMap(values[0]));
+			case RemoteConnection.PUT_GLOBALS:
+				for(int i = 0; i + 1 < values.length; i += 2) {
+					globals.putUntracked((String) values[i], values[i + 1]);
+				}
+				return new Object[0];
+			case RemoteConnection.REMOVE_GLOBALS:
+				for(Object name:values) {
+					globals.removeUntracked((String) name);
+				}
+				return new Object[0];
+			default:
+				throw new IllegalArgumentException("Unknown request: " + op);
+		}
+	}
+
+	/**
+	 * Calls a function defined by the RemoteEngine, handling any requests it makes while it runs.
+	 */
+	private Object callback(String name, Object value) {
+		try {
+			return connection.call(this::handle, RemoteConnection.CALLBACK, name, value)[0];
+		} catch(RuntimeException e) {
+			throw e;
+		} catch(Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Sends the globals that the engine has changed, as one frame of changed values and one of removed names.
+	 */
+	private void sendChangedGlobals() throws IOException {
+		if(globals.changed.isEmpty()) {
+			return;
+		}
+
+		List<Object> changed = new ArrayList<>();
+		List<Object> removed = new ArrayList<>();
+		for(String name:globals.changed) {
+			if(globals.containsKey(name)) {
+				changed.add(name);
+				changed.add(globals.get(name));
+			} else {
+				removed.add(name);
+			}
+		}
+		globals.changed.clear();
+
+		if(!changed.isEmpty()) {
+			connection.send(RemoteConnection.PUT_GLOBALS, 0, changed.toArray());
+		}
+		if(!removed.isEmpty()) {
+			connection.send(RemoteConnection.REMOVE_GLOBALS, 0, removed.toArray());
+		}
+	}
+}
@@ -0,0 +1,95 @@
+package workbook.script;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+
+/**
+ * Creates an engine when it's first used, or in the background once it has been started, so that engines don't
+ * slow down startup. Engines started together are created in parallel. The time taken to create each engine is
+ * recorded in the metrics, if there are any.
+ */
+public class EngineLoader {
+	private static final ExecutorService executor = Executors.newCachedThreadPool(runnable -> {
+		Thread thread = new Thread(runnable, "Engine Loader");
+		thread.setDaemon(true);
+		return thread;
+	});
+	
+	private final String scriptType;
+	private final Supplier<Engine> engineSupplier;
+	private final ScriptMetrics metrics;
+	private CompletableFuture<Engine> future;
+	
+	public EngineLoader(String scriptType, Supplier<Engine> engineSupplier) {
+		this(scriptType, engineSupplier, null);
+	}
+	
+	public EngineLoader(String scriptType, Supplier<Engine> engineSupplier, ScriptMetrics metrics) {
+		this.scriptType = scriptType;
+		this.engineSupplier = engineSupplier;
+		this.metrics = metrics;
+	}
+	
+	/**
+	 * Returns a loader for an engine that has already been created.
+	 */
+	public static EngineLoader loaded(String scriptType, Engine engine) {
+		EngineLoader loader = new EngineLoader(scriptType, () -> engine);
+		loader.future = CompletableFuture.completedFuture(engine);
+		return loader;
+	}
+	
+	/**
+	 * Starts creating the engine in the background, if it hasn't been started already.
+	 */
+	public synchronized void start() {
+		if(future == null) {
+			future = CompletableFuture.supplyAsync(this::create, executor);
+		}
+	}
+	
+	/**
+	 * Returns the engine, creating it on the current thread if it hasn't been started, or waiting for it if it has.
+	 * Throws a CompletionException if the engine couldn't be created.
+	 */
+	public Engine get() {
+		CompletableFuture<Engine> engineFuture;
+		boolean create = false;
+		synchronized(this) {
+			if(future == null) {
+				future = new CompletableFuture<>();
+				create = true;
+			}
+			engineFuture = future;
+		}
+		
+		if(create) {
+			try {
+				engineFuture.complete(create());
+			} catch(Throwable t) {
+				engineFuture.completeExceptionally(t);
+			}
+		}
+		
+		return engineFuture.join();
+	}
+	
+	public synchronized boolean isLoaded() {
+		return future != null && future.isDone() && !future.isCompletedExceptionally();
+	}
+	
+	public String getScriptType() {
+		return scriptType;
+	}
+	
+	private Engine create() {
+		long start = System.nanoTime();
+		Engine engine = engineSupplier.get();
+		if(metrics != null) {
+			metrics.recordEngineStart(scriptType, System.nanoTime() - start);
+		}
+		return engine;
+	}
+}
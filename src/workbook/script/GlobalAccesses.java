@@ -0,0 +1,89 @@
+package workbook.script;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Callable;
+
+/**
+ * The names of the globals that were read and written while evaluating a command. The globals of a session record
+ * their accesses to the GlobalAccesses that is being recorded on the current thread, if there is one.
+ */
+public class GlobalAccesses {
+	private static final ThreadLocal<GlobalAccesses> current = new ThreadLocal<>();
+
+	private final Set<String> reads = new HashSet<>();
+	private final Set<String> writes = new HashSet<>();
+	private boolean readsAll = false;
+
+	/**
+	 * Calls the callable, recording the globals it accesses on this thread to accesses. If accesses is null then the
+	 * callable is called without recording.
+	 */
+	public static <T> T record(GlobalAccesses accesses, Callable<T> callable) throws Exception {
+		if(accesses == null) {
+			return callable.call();
+		}
+
+		GlobalAccesses previous = current.get();
+		current.set(accesses);
+		try {
+			return callable.call();
+		} finally {
+			current.set(previous);
+		}
+	}
+
+	/**
+	 * Returns the accesses being recorded on this thread, or null if none are.
+	 */
+	static GlobalAccesses getCurrent() {
+		return current.get();
+	}
+
+	/**
+	 * Records that the evaluation on this thread may have read any of the globals, for engines that copy every global
+	 * in before evaluating, so that the globals they actually read aren't known.
+	 */
+	static void recordReadAll() {
+		GlobalAccesses accesses = current.get();
+		if(accesses != null) {
+			accesses.addReadAll();
+		}
+	}
+
+	synchronized void addReadAll() {
+		readsAll = true;
+	}
+
+	synchronized void addRead(Object name) {
+		if(name instanceof String) {
+			reads.add((String) name);
+		}
+	}
+
+	synchronized void addWrite(Object name) {
+		if(name instanceof String) {
+			writes.add((String) name);
+		}
+	}
+
+	public synchronized Set<String> getReads() {
+		return Collections.unmodifiableSet(new HashSet<>(reads));
+	}
+
+	public synchronized Set<String> getWrites() {
+		return Collections.unmodifiableSet(new HashSet<>(writes));
+	}
+
+	/**
+	 * Returns whether any of the globals may have been read, in addition to the reads that were recorded.
+	 */
+	public synchronized boolean readsAll() {
+		return readsAll;
+	}
+
+	public synchronized String toString() {
+		return "reads=" + (readsAll ? "all" : reads) + ", writes=" + writes;
+	}
+}
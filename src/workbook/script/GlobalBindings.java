@@ -0,0 +1,90 @@
+package workbook.script;
+
+import java.util.AbstractMap;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import javax.script.Bindings;
+
+/**
+ * Bindings that read and write a globals map directly, so that evaluating a command doesn't need to copy
+ * the globals into the engine and back. Local values shadow the globals and are only visible through these bindings.
+ */
+public class GlobalBindings extends AbstractMap<String, Object> implements Bindings {
+	private final Map<String, Object> globals;
+	private final Map<String, Object> locals = new HashMap<>();
+	private final boolean localWrites;
+
+	public GlobalBindings(Map<String, Object> globals) {
+		this(globals, false);
+	}
+
+	/**
+	 * Creates bindings over globals. If localWrites is set then every write is kept local, and the globals are only read.
+	 */
+	public GlobalBindings(Map<String, Object> globals, boolean localWrites) {
+		this.globals = globals;
+		this.localWrites = localWrites;
+	}
+
+	/**
+	 * Puts a value that's only visible through these bindings. Later writes to the same name also stay local.
+	 */
+	public void putLocal(String name, Object value) {
+		locals.put(name, value);
+	}
+
+	public Map<String, Object> getGlobals() {
+		return globals;
+	}
+
+	public Object put(String name, Object value) {
+		if(localWrites || locals.containsKey(name)) {
+			return locals.put(name, value);
+		} else {
+			return globals.put(name, value);
+		}
+	}
+
+	public Object get(Object key) {
+		if(locals.containsKey(key)) {
+			return locals.get(key);
+		} else {
+			return globals.get(key);
+		}
+	}
+
+	public boolean containsKey(Object key) {
+		return locals.containsKey(key) || globals.containsKey(key);
+	}
+
+	public Object remove(Object key) {
+		if(localWrites || locals.containsKey(key)) {
+			return locals.remove(key);
+		} else {
+			return globals.remove(key);
+		}
+	}
+
+	public void clear() {
+		locals.clear();
+		if(!localWrites) {
+			globals.clear();
+		}
+	}
+
+	/**
+	 * Returns a snapshot of the globals and locals, with locals taking precedence.
+	 */
+	public Set<Map.Entry<String, Object>> entrySet() {
+		Map<String, Object> map;
+		synchronized(globals) {
+			map = new LinkedHashMap<>(globals);
+		}
+		map.putAll(locals);
+		return Collections.unmodifiableMap(map).entrySet();
+	}
+}
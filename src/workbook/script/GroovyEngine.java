@@ -4,18 +4,22 @@ import java.io.PrintWriter;
 import java.lang.reflect.Field;
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 
 import javax.script.Bindings;
+import javax.script.Compilable;
+import javax.script.CompiledScript;
 import javax.script.ScriptContext;
 import javax.script.ScriptEngine;
 import javax.script.ScriptException;
 
+import org.codehaus.groovy.control.CompilerConfiguration;
+import org.codehaus.groovy.control.customizers.ASTTransformationCustomizer;
 import org.codehaus.groovy.jsr223.GroovyScriptEngineImpl;
 import org.codehaus.groovy.runtime.StackTraceUtils;
 import org.codehaus.groovy.util.ManagedConcurrentValueMap;
@@ -23,6 +27,10 @@ import org.codehaus.groovy.util.ReferenceBundle;
 
 import com.google.common.base.Throwables;
 
+import groovy.lang.GroovyClassLoader;
+import groovy.lang.GroovyCodeSource;
+import groovy.lang.Script;
+import groovy.transform.ThreadInterrupt;
 import syntaxhighlighter.brush.Brush;
 import syntaxhighlighter.brush.BrushGroovy;
 
@@ -30,12 +38,120 @@ import syntaxhighlighter.brush.BrushGroovy;
  * An engine using the Groovy scripting language.
  */
 public class GroovyEngine implements Engine {
+	private static final int SCRIPT_CACHE_SIZE = 500;
+	
+	/**
+	 * A compiled script, and the class generation it was last validated in.
+	 */
+	private static class CachedScript {
+		private final CompiledScript compiledScript;
+		private final Class<?> scriptClass;
+		private int classGeneration;
+		
+		public CachedScript(CompiledScript compiledScript, Class<?> scriptClass, int classGeneration) {
+			this.compiledScript = compiledScript;
+			this.scriptClass = scriptClass;
+			this.classGeneration = classGeneration;
+		}
+	}
+	
+	/**
+	 * A class loader that records the types defined by the last parsed script, and allows the classes of
+	 * a script to be removed so that they can be unloaded once it's evicted from the cache.
+	 */
+	private static class ScriptClassLoader extends GroovyClassLoader {
+		private final List<Class<?>> parsedClasses = new ArrayList<>();
+		private Class<?> parsedScriptClass;
+		
+		public ScriptClassLoader(ClassLoader parent, CompilerConfiguration config) {
+			super(parent, config);
+		}
+		
+		public Class parseClass(GroovyCodeSource codeSource, boolean shouldCacheSource) {
+			parsedClasses.clear();
+			parsedScriptClass = super.parseClass(codeSource, shouldCacheSource);
+			return parsedScriptClass;
+		}
+		
+		protected void setClassCacheEntry(Class cls) {
+			parsedClasses.add(cls);
+			super.setClassCacheEntry(cls);
+		}
+		
+		public Class<?> getParsedScriptClass() {
+			return parsedScriptClass;
+		}
+		
+		/**
+		 * Returns the types defined by the last parsed script, other than the script class and its closures.
+		 */
+		public List<Class<?>> getParsedTypes() {
+			return parsedClasses.stream().filter(type -> !isScriptClass(type, parsedScriptClass)).collect(Collectors.toList());
+		}
+		
+		/**
+		 * Removes a script class and its closures from the class cache. Scripts that only contain a class
+		 * declaration are kept, as other scripts can refer to them by name.
+		 */
+		public void removeScriptClass(Class<?> scriptClass) {
+			if(!Script.class.isAssignableFrom(scriptClass)) {
+				return;
+			}
+			
+			for(Class<?> type:getLoadedClasses()) {
+				if(isScriptClass(type, scriptClass)) {
+					removeClassCacheEntry(type.getName());
+				}
+			}
+		}
+		
+		private static boolean isScriptClass(Class<?> type, Class<?> scriptClass) {
+			if(!Script.class.isAssignableFrom(scriptClass)) {
+				return false;
+			}
+			return type == scriptClass || type.getName().startsWith(scriptClass.getName() + "$");
+		}
+	}
+	
 	private final ScriptEngine engine;
+	private final ScriptClassLoader loader;
+	private final CompiledScriptCache<CachedScript> scriptCache;
 	private Map<String, Object> globals = new HashMap<>();
 	
+	// The callback functions are defined once in callbackBindings, and call callbackCollector.
+	private final CallbackCollector callbackCollector = new CallbackCollector();
+	private Bindings callbackBindings;
+	
+	// Incremented whenever a script defines types. Cached scripts from an earlier generation are revalidated
+	// against the types defined since, as they might refer to a type that didn't exist or has been replaced.
+	private int classGeneration = 0;
+	private final Map<String, Integer> typeGenerations = new HashMap<>();
+	
 	public GroovyEngine() {
 		System.setProperty("groovy.antlr4", "true");
-		engine = new GroovyScriptEngineImpl();
+		
+		// Check for thread interrupts in loops and method calls, so that a runaway script can be cancelled.
+		CompilerConfiguration config = new CompilerConfiguration();
+		config.addCompilationCustomizers(new ASTTransformationCustomizer(ThreadInterrupt.class));
+		
+		loader = new ScriptClassLoader(Thread.currentThread().getContextClassLoader(), config);
+		engine = new GroovyScriptEngineImpl(loader);
+		engine.setBindings(new GlobalBindings(globals), ScriptContext.ENGINE_SCOPE);
+		scriptCache = new CompiledScriptCache<>(SCRIPT_CACHE_SIZE, cachedScript -> loader.removeScriptClass(cachedScript.scriptClass));
+	}
+	
+	/**
+	 * Clears the engine's own class cache, which is keyed by the full script text. Compiled scripts are cached in scriptCache
+	 * instead, so that they can be evicted and revalidated.
+	 */
+	private void clearClassMap() {
+		try {
+			Field field = engine.getClass().getDeclaredField("classMap");
+			field.setAccessible(true);
+			field.set(engine, new ManagedConcurrentValueMap<String, Class>(ReferenceBundle.getSoftBundle()));
+		} catch(ReflectiveOperationException e) {
+			throw new RuntimeException("Can't clear Groovy class cache", e);
+		}
 	}
 	
 	public Brush getBrush() {
@@ -44,6 +160,8 @@ public class GroovyEngine implements Engine {
 	
 	public void setGlobals(Map<String, Object> globals) {
 		this.globals = globals;
+		engine.setBindings(new GlobalBindings(globals), ScriptContext.ENGINE_SCOPE);
+		callbackCollector.reset();
 	}
 	
 	public boolean isIterable(Object value) {
@@ -90,8 +208,7 @@ public class GroovyEngine implements Engine {
 	 * Evaluates a method given its name and list of parameters, and returns the result.
 	 */
 	public Object evalMethodCall(String name, List<Object> params) {
-		Bindings bindings = engine.createBindings();
-		bindings.putAll(engine.getBindings(ScriptContext.ENGINE_SCOPE));
+		Bindings bindings = new GlobalBindings(globals, true);
 		bindings.put("arguments", params);
 		String command = name + "(*arguments)";
 		return eval(command, bindings);
@@ -109,34 +226,28 @@ public class GroovyEngine implements Engine {
 	 * 'rect', and command contains the function call 'rect({x: 1})', then [NameAndProperties('rect', { x => 1 })] will be returned.
 	 */
 	public List<NameAndProperties> evalWithCallbackFunctions(String command, List<String> callbackFunctionNames) {
-		List<NameAndProperties> callbackValues = new ArrayList<>();
-		
-		Bindings bindings = engine.createBindings();
-		bindings.putAll(engine.getBindings(ScriptContext.ENGINE_SCOPE));
-		
-		bindings.put("callback", new BiConsumer<String, Map<Object, String>>() {
-			public void accept(String name, Map<Object, String> properties) {
-				Map<String, String> map = new HashMap<>();
-				
-				for(Object key:new HashSet<>(properties.keySet())) {
-					map.put(String.valueOf(key), String.valueOf(properties.get(key)));
-				}
-				
-				NameAndProperties nameAndProperties = new NameAndProperties(name, map);
-				callbackValues.add(nameAndProperties);
+		if(callbackCollector.needsDefinition(callbackFunctionNames)) {
+			callbackBindings = new GlobalBindings(globals, true);
+			callbackBindings.put("callback", callbackCollector);
+			
+			StringBuilder prelude = new StringBuilder();
+			for(String name:callbackFunctionNames) {
+				prelude.append(String.format("void %s(values) { callback.accept('%s', new java.util.HashMap(values)); }", name, name));
+				prelude.append("\n");
 			}
-		});
-		
-		StringBuilder prefix = new StringBuilder();
-		for(String name:callbackFunctionNames) {
-			prefix.append(String.format("void %s(values) { callback.accept('%s', new java.util.HashMap(values)); }", name, name));
-			prefix.append("\n");
+			eval(prelude.toString(), callbackBindings);
+			
+			callbackCollector.setDefined(callbackFunctionNames);
 		}
-	
-		eval(prefix.toString(), bindings);
-		eval(command, bindings);
 		
-		return callbackValues;
+		return callbackCollector.collect(() -> eval(command, callbackBindings));
+	}
+	
+	/**
+	 * Returns null, as compiled scripts are cached by this engine instead, where they can be revalidated when types are redefined.
+	 */
+	public CompiledCommand compile(String command) {
+		return null;
 	}
 	
 	private Object eval(String command, Bindings bindings) {
@@ -144,17 +255,9 @@ public class GroovyEngine implements Engine {
         	engine.getContext().setWriter(new PrintWriter(System.out));
         	engine.getContext().setErrorWriter(new PrintWriter(System.err));
         	
-        	// Clear cache to work around invalid cached classes.
-        	Field field = engine.getClass().getDeclaredField("classMap");
-			field.setAccessible(true);
-			field.set(engine, new ManagedConcurrentValueMap<String, Class>(ReferenceBundle.getSoftBundle()));
-			
-			engine.getBindings(ScriptContext.ENGINE_SCOPE).clear();
-        	engine.getBindings(ScriptContext.ENGINE_SCOPE).putAll(globals);
-        	
-			Object value = (bindings == null) ? engine.eval(command) : engine.eval(command, bindings);
+			CompiledScript compiledScript = getCompiledScript(command);
 			
-			globals.putAll(engine.getBindings(ScriptContext.ENGINE_SCOPE));
+			Object value = (bindings == null) ? compiledScript.eval() : compiledScript.eval(bindings);
 			
 			engine.getContext().getWriter().flush();
 			engine.getContext().getErrorWriter().flush();
@@ -165,6 +268,53 @@ public class GroovyEngine implements Engine {
 		}
 	}
 
+	/**
+	 * Returns the compiled script for a command, compiling it only if it isn't cached or is no longer valid.
+	 */
+	private CompiledScript getCompiledScript(String command) throws ScriptException {
+		CachedScript cachedScript = scriptCache.get(command);
+		if(cachedScript != null) {
+			if(isValid(cachedScript, command)) {
+				cachedScript.classGeneration = classGeneration;
+				return cachedScript.compiledScript;
+			}
+			scriptCache.remove(command);
+			loader.removeScriptClass(cachedScript.scriptClass);
+		}
+		
+		CompiledScript compiledScript = ((Compilable) engine).compile(command);
+		clearClassMap();
+		
+		List<Class<?>> types = loader.getParsedTypes();
+		if(!types.isEmpty()) {
+			classGeneration++;
+			types.forEach(type -> typeGenerations.put(type.getSimpleName(), classGeneration));
+		}
+		
+		scriptCache.put(command, new CachedScript(compiledScript, loader.getParsedScriptClass(), classGeneration));
+		return compiledScript;
+	}
+	
+	/**
+	 * Returns whether a cached script is still valid, which is when it doesn't mention any type that was
+	 * defined after it was last validated.
+	 */
+	private boolean isValid(CachedScript cachedScript, String command) {
+		if(cachedScript.classGeneration == classGeneration) {
+			return true;
+		}
+		
+		for(Map.Entry<String, Integer> entry:typeGenerations.entrySet()) {
+			if(entry.getValue() > cachedScript.classGeneration) {
+				if(Pattern.compile("\\b" + Pattern.quote(entry.getKey()) + "\\b").matcher(command).find()) {
+					return false;
+				}
+			}
+		}
+		
+		return true;
+	}
+
 	private static String getScriptExceptionCause(Throwable e) {
 		while(e instanceof ScriptException) {
     		e = e.getCause();
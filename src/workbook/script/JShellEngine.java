@@ -1,12 +1,9 @@
 package workbook.script;
 
 import java.io.PrintWriter;
-import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 import java.util.function.Function;
 
@@ -30,8 +27,15 @@ public class JShellEngine implements Engine {
 	private final ScriptEngine engine;
 	private Map<String, Object> globals = new HashMap<>();
 	
+	// The callback functions are defined once in callbackBindings, and call callbackCollector.
+	private final CallbackCollector callbackCollector = new CallbackCollector();
+	private Bindings callbackBindings;
+	
 	public JShellEngine() {
 		engine = new JShellScriptEngine();
+		// JShellScriptEngine still declares every binding as a variable on each eval, so eval time grows with the
+		// number of globals even though the bindings are a view of the globals map.
+		engine.setBindings(new GlobalBindings(globals), ScriptContext.ENGINE_SCOPE);
 	}
 	
 	public Brush getBrush() {
@@ -40,6 +44,8 @@ public class JShellEngine implements Engine {
 	
 	public void setGlobals(Map<String, Object> globals) {
 		this.globals = globals;
+		engine.setBindings(new GlobalBindings(globals), ScriptContext.ENGINE_SCOPE);
+		callbackCollector.reset();
 	}
 	
 	public boolean isIterable(Object value) {
@@ -86,8 +92,7 @@ public class JShellEngine implements Engine {
 	 * Evaluates a method given its name and list of parameters, and returns the result.
 	 */
 	public Object evalMethodCall(String name, List<Object> params) {
-		Bindings bindings = engine.createBindings();
-		bindings.putAll(engine.getBindings(ScriptContext.ENGINE_SCOPE));
+		Bindings bindings = new GlobalBindings(globals, true);
 		for(int x = 0; x < params.size(); x++) {
 			bindings.put("_argument" + x, params.get(x));
 		}
@@ -117,36 +122,27 @@ public class JShellEngine implements Engine {
 	 * 'rect', and command contains the function call 'rect({x: 1})', then [NameAndProperties('rect', { x => 1 })] will be returned.
 	 */
 	public List<NameAndProperties> evalWithCallbackFunctions(String command, List<String> callbackFunctionNames) {
-		List<NameAndProperties> callbackValues = new ArrayList<>();
-		
-		Bindings bindings = engine.createBindings();
-		bindings.putAll(engine.getBindings(ScriptContext.ENGINE_SCOPE));
-		
-		bindings.put("callback", new BiConsumer<String, Map<String, Object>>() {
-			public void accept(String name, Map<String, Object> properties) {
-				Map<String, String> map = new HashMap<>();
-				
-				for(Object key:new HashSet<>(properties.keySet())) {
-					map.put(String.valueOf(key), String.valueOf(properties.get(key)));
-				}
-				
-				NameAndProperties nameAndProperties = new NameAndProperties(name, map);
-				callbackValues.add(nameAndProperties);
+		if(callbackCollector.needsDefinition(callbackFunctionNames)) {
+			callbackBindings = new GlobalBindings(globals, true);
+			callbackBindings.put("callback", callbackCollector);
+			
+			for(String name:callbackFunctionNames) {
+				eval(String.format("public void %s(java.util.Map<String, Object> values) {"
+					+ "((java.util.function.BiConsumer) callback).accept(\"%s\", values);"
+					+ "}", name, name), callbackBindings);
 			}
-		});
-		
-		for(String name:callbackFunctionNames) {
-			StringBuilder prefix = new StringBuilder();
-			prefix.append(String.format("public void %s(java.util.Map<String, Object> values) {"
-				+ "((java.util.function.BiConsumer<String, Map<String, Object>>) callback).accept(\"%s\", values);"
-				+ "}", name, name));
-			prefix.append("\n");
-			eval(prefix.toString(), bindings);
+			
+			callbackCollector.setDefined(callbackFunctionNames);
 		}
 		
-		eval(command, bindings);
-		
-		return callbackValues;
+		return callbackCollector.collect(() -> eval(command, callbackBindings));
+	}
+	
+	/**
+	 * Returns null, as JShell can't compile commands ahead of evaluating them.
+	 */
+	public CompiledCommand compile(String command) {
+		return null;
 	}
 	
 	private Object eval(String command, Bindings bindings) {
@@ -154,13 +150,10 @@ public class JShellEngine implements Engine {
         	engine.getContext().setWriter(new PrintWriter(System.out));
         	engine.getContext().setErrorWriter(new PrintWriter(System.err));
         	
-			engine.getBindings(ScriptContext.ENGINE_SCOPE).clear();
-        	engine.getBindings(ScriptContext.ENGINE_SCOPE).putAll(globals);
-        	
+        	// JShell declares every global as a variable before evaluating, so any of them may have been read.
+        	GlobalAccesses.recordReadAll();
 			Object value = (bindings == null) ? engine.eval(command) : engine.eval(command, bindings);
 			
-			globals.putAll(engine.getBindings(ScriptContext.ENGINE_SCOPE));
-			
 			return value;
         } catch(Throwable e) {
         	throw new RuntimeException("Error evaluating command", e);
@@ -3,14 +3,15 @@ package workbook.script;
 import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.function.BiConsumer;
+import java.util.concurrent.Callable;
 import java.util.function.Consumer;
 import java.util.function.Function;
 
 import javax.script.Bindings;
+import javax.script.Compilable;
+import javax.script.CompiledScript;
 import javax.script.ScriptContext;
 import javax.script.ScriptEngine;
 import javax.script.ScriptException;
@@ -26,25 +27,77 @@ import syntaxhighlighter.brush.BrushJScript;
  * An engine using the JavaScript scripting language.
  */
 public class JavascriptEngine implements Engine {
+	private static final String NASHORN_GLOBAL = "nashorn.global";
+	
+	// Defines __noSuchProperty__, which Nashorn calls for names that aren't on its global object. Names are read from
+	// the bindings of the current evaluation, and then from java.util and java.lang.
+	private static final String SCOPE_LOOKUP = String.join("\n",
+		"(function(scope) {",
+		"	var types = Object.create(null);",
+		"	var findType = function(name) {",
+		"		try { return Java.type('java.util.' + name) } catch(e) {}",
+		"		try { return Java.type('java.lang.' + name) } catch(e) {}",
+		"		return undefined;",
+		"	};",
+		"	Object.defineProperty(this, '__noSuchProperty__', { value: function(name) {",
+		"		if(scope.containsKey(name)) return scope.get(name);",
+		"		if(!(name in types)) types[name] = findType(name);",
+		"		return types[name];",
+		"	} });",
+		"})");
+	
 	private final ScriptEngine engine;
+	private final Bindings nashornGlobal;
 	private Map<String, Object> globals = new HashMap<>();
+	private Bindings globalBindings;
+	private Bindings scope;
+	
+	// The callback functions are defined once in callbackBindings, and call callbackCollector.
+	private final CallbackCollector callbackCollector = new CallbackCollector();
+	private Bindings callbackBindings;
 	
 	public JavascriptEngine() {
 		NashornScriptEngineFactory factory = new NashornScriptEngineFactory();
-		engine = factory.getScriptEngine(new String[] { "--class-cache-size = 0", "--language=es6" });
+		// A compiled command is a direct eval of its source, which Nashorn caches per source, so the class cache
+		// holds as many sources as ScriptController keeps compiled commands.
+		String classCacheSize = "--class-cache-size=" + ScriptController.COMPILED_COMMAND_CACHE_SIZE;
+		engine = factory.getScriptEngine(new String[] { classCacheSize, "--language=es6" });
 		if(engine == null) {
 			throw new RuntimeException("Can't create JavaScript engine");
 		}
 		
-		eval("function print() { System.out.println([].slice.call(arguments).join(', ')) }");
+		nashornGlobal = engine.getBindings(ScriptContext.ENGINE_SCOPE);
+		try {
+			ScriptObjectMirror lookup = (ScriptObjectMirror) engine.eval(SCOPE_LOOKUP);
+			lookup.call(nashornGlobal, new ScopeLookup());
+			engine.eval("Object.defineProperty(this, 'print', { value: function() { java.lang.System.out.println([].slice.call(arguments).join(', ')) } })");
+		} catch(ScriptException e) {
+			throw new RuntimeException("Can't create JavaScript engine", e);
+		}
+		setGlobals(globals);
 	}
 	
 	public Brush getBrush() {
 		return new BrushJScript();
 	}
 	
+	/**
+	 * Sets the globals map. Nashorn always keeps its own global object, so the globals are bound alongside it. Names
+	 * that aren't on the global object are read from the globals map, and variables that a script sets on the global
+	 * object are moved to the globals map after each evaluation.
+	 */
 	public void setGlobals(Map<String, Object> globals) {
 		this.globals = globals;
+		
+		globalBindings = createBindings(false);
+		engine.setBindings(globalBindings, ScriptContext.ENGINE_SCOPE);
+		callbackCollector.reset();
+	}
+	
+	private Bindings createBindings(boolean localWrites) {
+		GlobalBindings bindings = new GlobalBindings(globals, localWrites);
+		bindings.putLocal(NASHORN_GLOBAL, nashornGlobal);
+		return bindings;
 	}
 	
 	public boolean isIterable(Object value) {
@@ -99,18 +152,17 @@ public class JavascriptEngine implements Engine {
 	 */
 	public void defineFunction(String name, Function<Object, Object> callback) {
 		globals.put("_"+name+"Callback", callback);
-		eval(String.format("function %s(param) { return _%sCallback.accept(param); }", name, name));
+		eval(String.format("function %s(param) { return _%sCallback.apply(param); }", name, name));
 	}
 	
 	/**
 	 * Evaluates a method given its name and list of parameters, and returns the result.
 	 */
 	public Object evalMethodCall(String methodName, List<Object> params) {
-		Bindings bindings = engine.createBindings();
-		bindings.putAll(engine.getBindings(ScriptContext.ENGINE_SCOPE));
-		bindings.put("arguments", params);
+		Bindings bindings = createBindings(true);
+		bindings.put("parameters", params);
 		// TODO: Apply only works for javascript functions, not Java methods.
-		String command = "(" + methodName + ").apply(null, arguments)";
+		String command = "(" + methodName + ").apply(null, parameters)";
 		return eval(command, bindings);
 	}
 	
@@ -126,46 +178,80 @@ public class JavascriptEngine implements Engine {
 	 * 'rect', and command contains the function call 'rect({x: 1})', then [NameAndProperties('rect', { x => 1 })] will be returned.
 	 */
 	public List<NameAndProperties> evalWithCallbackFunctions(String command, List<String> callbackFunctionNames) {
-		List<NameAndProperties> callbackValues = new ArrayList<>();
-		
-		Bindings bindings = engine.createBindings();
-		bindings.putAll(engine.getBindings(ScriptContext.ENGINE_SCOPE));
-		
-		bindings.put("callback", new BiConsumer<String, Map<String, String>>() {
-			public void accept(String name, Map<String, String> properties) {
-				for(String key:new HashSet<>(properties.keySet())) {
-					properties.put(key, String.valueOf(properties.get(key)));
-				}
-				
-				NameAndProperties nameAndProperties = new NameAndProperties(name, properties);
-				callbackValues.add(nameAndProperties);
+		if(callbackCollector.needsDefinition(callbackFunctionNames)) {
+			callbackBindings = createBindings(true);
+			callbackBindings.put("callback", callbackCollector);
+			
+			StringBuilder prelude = new StringBuilder();
+			for(String name:callbackFunctionNames) {
+				prelude.append(String.format("function %s(values) { callback.accept('%s', new java.util.HashMap(values)); }", name, name));
+				prelude.append("\n");
 			}
-		});
-		
-		StringBuilder prefix = new StringBuilder();
-		for(String name:callbackFunctionNames) {
-			prefix.append(String.format("function %s(values) { callback.accept('%s', new java.util.HashMap(values)); }", name, name));
-			prefix.append("\n");
+			eval(prelude.toString(), callbackBindings);
+			
+			callbackCollector.setDefined(callbackFunctionNames);
 		}
 		
-		eval(prefix.toString(), bindings);
-		eval(command, bindings);
-		
-		return callbackValues;
+		return callbackCollector.collect(() -> eval(command, callbackBindings));
+	}
+	
+	/**
+	 * Compiles a command so that it can be evaluated many times.
+	 */
+	public CompiledCommand compile(String command) {
+		try {
+			CompiledScript compiledScript = ((Compilable) engine).compile(getScript(command));
+			return () -> eval(compiledScript::eval, globalBindings);
+		} catch(ScriptException e) {
+			throw new RuntimeException("Error evaluating command", e);
+		}
 	}
 	
 	private Object eval(String command, Bindings bindings) {
+		String script = getScript(command);
+		if(bindings == null) {
+			return eval(() -> engine.eval(script), globalBindings);
+		} else {
+			return eval(() -> engine.eval(script, bindings), bindings);
+		}
+	}
+	
+	/**
+	 * Returns a script that evaluates the command with a direct eval, so that variables declared with var can be
+	 * removed from the global object afterwards.
+	 */
+	private static String getScript(String command) {
+		StringBuilder script = new StringBuilder("eval('");
+		for(char c:command.toCharArray()) {
+			if(c == '\\' || c == '\'') {
+				script.append('\\').append(c);
+			} else if(c == '\n') {
+				script.append("\\n");
+			} else if(c == '\r') {
+				script.append("\\r");
+			} else if(c == '\u2028' || c == '\u2029') {
+				script.append(String.format("\\u%04x", (int) c));
+			} else {
+				script.append(c);
+			}
+		}
+		return script.append("')").toString();
+	}
+	
+	private Object eval(Callable<Object> evaluation, Bindings bindings) {
         try {
         	engine.getContext().setWriter(new PrintWriter(System.out));
         	engine.getContext().setErrorWriter(new PrintWriter(System.err));
         	
-        	engine.getBindings(ScriptContext.ENGINE_SCOPE).clear();
-        	engine.getBindings(ScriptContext.ENGINE_SCOPE).putAll(globals);
-        	
-        	String script = String.format("with(new JavaImporter(java.util, java.lang)) { %s; }", command);
-			Object value = (bindings == null) ? engine.eval(script) : engine.eval(script, bindings);
-			
-			globals.putAll(engine.getBindings(ScriptContext.ENGINE_SCOPE));
+			Object value;
+			scope = bindings;
+			try {
+				value = evaluation.call();
+			} finally {
+				synchronized(globals) {
+					moveGlobals(bindings);
+				}
+			}
 			
 			engine.getContext().getWriter().flush();
 			engine.getContext().getErrorWriter().flush();
@@ -176,6 +262,29 @@ public class JavascriptEngine implements Engine {
 		}
 	}
 	
+	/**
+	 * Moves the variables that the script set on the global object to the bindings it was evaluated with. Only the
+	 * variables that were set are on the global object, so reads of every other variable go through the bindings.
+	 */
+	private void moveGlobals(Bindings bindings) {
+		for(String name:new ArrayList<>(nashornGlobal.keySet())) {
+			bindings.put(name, nashornGlobal.remove(name));
+		}
+	}
+	
+	/**
+	 * Looks up names in the bindings of the current evaluation.
+	 */
+	public class ScopeLookup {
+		public boolean containsKey(String name) {
+			return scope.containsKey(name);
+		}
+		
+		public Object get(String name) {
+			return scope.get(name);
+		}
+	}
+	
 	private static String getScriptExceptionCause(Throwable e) {
 		while(e instanceof ScriptException) {
     		e = e.getCause();
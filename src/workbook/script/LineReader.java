@@ -1,42 +1,115 @@
 package workbook.script;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 import java.util.function.Consumer;
 
 /**
  * Creates an OutputStream that calls a callback for each line that's written to it.
+ *
+ * Writes are scanned for line breaks a chunk at a time, and the bytes of the current line are copied to a buffer that's
+ * reused for every line. Each line is decoded with the charset once it's complete, so a character that's split
+ * between two writes is decoded correctly. This relies on the charset encoding line feeds and carriage returns as
+ * single bytes that aren't part of any other character, which is true of UTF-8 and the other ASCII compatible
+ * charsets. The lines completed by each write are passed to the callback together. Carriage returns are removed, and
+ * an unfinished last line is passed to the callback when the stream is closed.
  */
 public class LineReader {
+	public static final int INITIAL_BUFFER_SIZE = 256;
+
 	private final OutputStream outputStream;
 	private final CompletableFuture<?> future;
-	
+
+	/**
+	 * Creates a reader that decodes with the default charset, as used by a PrintStream, and calls the callback with
+	 * each line.
+	 */
 	public LineReader(final Consumer<String> callback) {
+		this(Charset.defaultCharset(), lines -> lines.forEach(callback));
+	}
+
+	/**
+	 * Creates a reader that decodes with the charset, and calls the callback with the lines completed by each write.
+	 */
+	public LineReader(Charset charset, final Consumer<List<String>> linesCallback) {
+		if(!Arrays.equals("\r\n".getBytes(charset), new byte[] { '\r', '\n' })) {
+			throw new IllegalArgumentException("Unsupported charset: " + charset);
+		}
+
 		this.future = new CompletableFuture<Void>();
-		
+
 		this.outputStream = new OutputStream() {
-			ByteArrayOutputStream buffer = new ByteArrayOutputStream();
-			
-			public void write(int b) throws IOException {
-				if(b != '\r') {
+			private byte[] buffer = new byte[INITIAL_BUFFER_SIZE];
+			private int length = 0;
+			private final byte[] singleByte = new byte[1];
+			private boolean closed = false;
+
+			public synchronized void write(int b) throws IOException {
+				singleByte[0] = (byte) b;
+				write(singleByte, 0, 1);
+			}
+
+			public synchronized void write(byte[] bytes, int offset, int count) throws IOException {
+				if(closed) {
+					throw new IOException("Stream closed");
+				}
+
+				List<String> lines = null;
+				int start = offset;
+				int end = offset + count;
+				for(int i = offset; i < end; i++) {
+					byte b = bytes[i];
 					if(b == '\n') {
-						callback.accept(new String(buffer.toByteArray()));
-						buffer = new ByteArrayOutputStream();
-					} else {
-						buffer.write(b);
+						append(bytes, start, i - start);
+						if(lines == null) {
+							lines = new ArrayList<>();
+						}
+						lines.add(new String(buffer, 0, length, charset));
+						length = 0;
+						start = i + 1;
+					} else if(b == '\r') {
+						append(bytes, start, i - start);
+						start = i + 1;
 					}
 				}
+				append(bytes, start, end - start);
+
+				if(lines != null) {
+					linesCallback.accept(lines);
+				}
+			}
+
+			/**
+			 * Appends bytes to the current line, growing the buffer if it's full.
+			 */
+			private void append(byte[] bytes, int offset, int count) {
+				if(length + count > buffer.length) {
+					buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + count));
+				}
+				System.arraycopy(bytes, offset, buffer, length, count);
+				length += count;
 			}
-			
-			public void close() {
+
+			public synchronized void close() {
+				if(!closed) {
+					closed = true;
+					if(length > 0) {
+						linesCallback.accept(Collections.singletonList(new String(buffer, 0, length, charset)));
+						length = 0;
+					}
+				}
 				future.complete(null);
 			}
 		};
 	}
-	
+
 	/**
 	 * Returns the OutputStream to write to, which will call the main callback for each line.
 	 */
@@ -55,4 +128,4 @@ public class LineReader {
 			throw new RuntimeException("Error waiting for stream", e);
 		}
 	}
-} 
\ No newline at end of file
+}
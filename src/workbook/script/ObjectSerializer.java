@@ -55,4 +55,18 @@ public class ObjectSerializer {
 	public Map<String, Object> deserialize(String data) throws IOException, ClassNotFoundException {
 		return (Map<String, Object>) xstream.fromXML(data);
 	}
+
+	/**
+	 * Returns a single object serialized to a String.
+	 */
+	public String serializeObject(Object value) {
+		return xstream.toXML(value);
+	}
+
+	/**
+	 * Returns a single object deserialized from a String.
+	 */
+	public Object deserializeObject(String data) {
+		return xstream.fromXML(data);
+	}
 }
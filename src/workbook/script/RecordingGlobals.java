@@ -0,0 +1,119 @@
+package workbook.script;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * A synchronized globals map that records the names that are read and written to the GlobalAccesses being recorded on
+ * the current thread. Putting a value that's equal to the current value isn't recorded as a write, as engines that
+ * copy their variables back to the globals after each evaluation would otherwise write every variable.
+ *
+ * As with Collections.synchronizedMap, the map must be synchronized on while iterating over its views.
+ */
+public class RecordingGlobals implements Map<String, Object> {
+	private final Map<String, Object> map;
+
+	public RecordingGlobals() {
+		this(new HashMap<>());
+	}
+
+	private RecordingGlobals(Map<String, Object> map) {
+		this.map = map;
+	}
+
+	/**
+	 * Returns a recording map over globals, or globals if it's already a recording map. Once globals is wrapped, it
+	 * should only be accessed through the returned map.
+	 */
+	public static RecordingGlobals wrap(Map<String, Object> globals) {
+		return (globals instanceof RecordingGlobals) ? (RecordingGlobals) globals : new RecordingGlobals(globals);
+	}
+
+	private static void recordRead(Object name) {
+		GlobalAccesses accesses = GlobalAccesses.getCurrent();
+		if(accesses != null) {
+			accesses.addRead(name);
+		}
+	}
+
+	private static void recordWrite(Object name) {
+		GlobalAccesses accesses = GlobalAccesses.getCurrent();
+		if(accesses != null) {
+			accesses.addWrite(name);
+		}
+	}
+
+	public synchronized int size() {
+		return map.size();
+	}
+
+	public synchronized boolean isEmpty() {
+		return map.isEmpty();
+	}
+
+	public synchronized boolean containsKey(Object key) {
+		recordRead(key);
+		return map.containsKey(key);
+	}
+
+	public synchronized boolean containsValue(Object value) {
+		return map.containsValue(value);
+	}
+
+	public synchronized Object get(Object key) {
+		recordRead(key);
+		return map.get(key);
+	}
+
+	public synchronized Object put(String key, Object value) {
+		boolean contained = map.containsKey(key);
+		Object previous = map.put(key, value);
+		if(!contained || (previous != value && !Objects.equals(previous, value))) {
+			recordWrite(key);
+		}
+		return previous;
+	}
+
+	public synchronized Object remove(Object key) {
+		if(map.containsKey(key)) {
+			recordWrite(key);
+		}
+		return map.remove(key);
+	}
+
+	public synchronized void putAll(Map<? extends String, ? extends Object> values) {
+		values.forEach(this::put);
+	}
+
+	public synchronized void clear() {
+		map.keySet().forEach(RecordingGlobals::recordWrite);
+		map.clear();
+	}
+
+	public synchronized Set<String> keySet() {
+		return map.keySet();
+	}
+
+	public synchronized Collection<Object> values() {
+		return map.values();
+	}
+
+	public synchronized Set<Entry<String, Object>> entrySet() {
+		return map.entrySet();
+	}
+
+	public synchronized boolean equals(Object o) {
+		return map.equals(o);
+	}
+
+	public synchronized int hashCode() {
+		return map.hashCode();
+	}
+
+	public synchronized String toString() {
+		return map.toString();
+	}
+}
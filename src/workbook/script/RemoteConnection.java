@@ -0,0 +1,471 @@
+package workbook.script;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.script.ScriptException;
+
+import com.google.common.base.Throwables;
+
+/**
+ * One end of the socket between a RemoteEngine and its EngineHost. Messages are frames holding an op code, a request id
+ * and a list of values. Numbers, strings and booleans are sent by value, and any other object is kept in a table on the
+ * sending side and sent as a handle, which the other side sees as a RemoteHandle. Handles are released once the
+ * other side no longer uses them. A handle counts the times it has been sent, so that an object sent again while its
+ * release is in flight stays in the table.
+ *
+ * Requests with a request id of 0 don't get a response, so they can be pipelined without waiting. Requests that have a
+ * response are sent one at a time, as engines are only called from one thread. Frames are read on a separate thread,
+ * so that a caller waiting for a response can be interrupted.
+ */
+class RemoteConnection implements Closeable {
+	// Requests from the engine to the host.
+	static final byte SET_VARIABLE = 1;
+	static final byte GET_VARIABLE = 2;
+	static final byte EVAL = 3;
+	static final byte EVAL_METHOD_CALL = 4;
+	static final byte EVAL_WITH_CALLBACK_FUNCTIONS = 5;
+	static final byte DEFINE_FUNCTION = 6;
+	static final byte IS_ITERABLE = 7;
+	static final byte ITERATE = 8;
+	static final byte IS_SCRIPT_OBJECT = 9;
+	static final byte GET_PROPERTY_MAP = 10;
+
+	// Messages from the host to the engine.
+	static final byte OUTPUT = 20;
+	static final byte ERROR_OUTPUT = 21;
+	static final byte CALLBACK = 22;
+
+	// Messages in either direction.
+	static final byte RESULT = 30;
+	static final byte ERROR = 31;
+	static final byte RELEASE = 32;
+	static final byte PUT_GLOBALS = 33;
+	static final byte REMOVE_GLOBALS = 34;
+
+	private static final byte NULL = 0;
+	private static final byte TRUE = 1;
+	private static final byte FALSE = 2;
+	private static final byte INTEGER = 3;
+	private static final byte LONG = 4;
+	private static final byte DOUBLE = 5;
+	private static final byte FLOAT = 6;
+	private static final byte SHORT = 7;
+	private static final byte BYTE = 8;
+	private static final byte CHARACTER = 9;
+	private static final byte STRING = 10;
+	private static final byte NAME_AND_PROPERTIES = 11;
+	private static final byte HANDLE = 12;
+	private static final byte PEER_HANDLE = 13;
+
+	private static final int MAX_DESCRIPTION_LENGTH = 10000;
+	private static final long POLL_MILLIS = 50;
+
+	/**
+	 * A message received from the other side.
+	 */
+	static class Frame {
+		final byte op;
+		final long id;
+		final Object[] values;
+
+		Frame(byte op, long id, Object[] values) {
+			this.op = op;
+			this.id = id;
+			this.values = values;
+		}
+	}
+
+	/**
+	 * Handles frames received while waiting for a response, other than the response itself.
+	 */
+	interface FrameHandler {
+		void handle(Frame frame) throws Exception;
+	}
+
+	/**
+	 * An exception thrown in the other process, which prints as the stack trace from that process.
+	 */
+	static class RemoteException extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+
+		private final String stackTrace;
+
+		RemoteException(String stackTrace) {
+			super(stackTrace, null, false, false);
+			this.stackTrace = stackTrace;
+		}
+
+		public String toString() {
+			return stackTrace;
+		}
+
+		public void printStackTrace(PrintWriter writer) {
+			writer.println(stackTrace);
+		}
+
+		public void printStackTrace(PrintStream stream) {
+			stream.println(stackTrace);
+		}
+	}
+
+	private static class HandleReference extends WeakReference<RemoteHandle> {
+		private final long id;
+		private volatile int received = 1;
+
+		HandleReference(RemoteHandle handle, ReferenceQueue<RemoteHandle> queue) {
+			super(handle, queue);
+			this.id = handle.getId();
+		}
+	}
+
+	private static final Frame CLOSED = new Frame((byte) 0, 0, new Object[0]);
+
+	private final Socket socket;
+	private final DataInputStream in;
+	private final DataOutputStream out;
+	private final BlockingQueue<Frame> frames = new LinkedBlockingQueue<>();
+	private final AtomicLong nextRequestId = new AtomicLong(1);
+	private volatile boolean closed = false;
+
+	// Objects sent to the other side as handles, by id and by identity, and the times they've been sent, guarded by handleObjects.
+	private final Map<Long, Object> handleObjects = new HashMap<>();
+	private final Map<Object, Long> handleIds = new IdentityHashMap<>();
+	private final Map<Long, Integer> handleSends = new HashMap<>();
+	private long nextHandleId = 1;
+
+	// Handles received from the other side, and a queue of those that are no longer reachable.
+	private final Map<Long, HandleReference> remoteHandles = new ConcurrentHashMap<>();
+	private final ReferenceQueue<RemoteHandle> releasedHandles = new ReferenceQueue<>();
+
+	RemoteConnection(Socket socket) throws IOException {
+		this.socket = socket;
+		socket.setTcpNoDelay(true);
+		this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+		this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+
+		Thread reader = new Thread(this::readFrames, "Remote Engine Reader");
+		reader.setDaemon(true);
+		reader.start();
+	}
+
+	private void readFrames() {
+		try {
+			while(true) {
+				byte op = in.readByte();
+				long id = in.readLong();
+				Object[] values = new Object[in.readInt()];
+				for(int i = 0; i < values.length; i++) {
+					values[i] = readValue();
+				}
+				frames.add(new Frame(op, id, values));
+			}
+		} catch(IOException e) {
+			if(!(e instanceof EOFException) && !closed) {
+				e.printStackTrace();
+			}
+		} finally {
+			closed = true;
+			frames.add(CLOSED);
+		}
+	}
+
+	public boolean isClosed() {
+		return closed;
+	}
+
+	/**
+	 * Sends a frame without waiting for a response.
+	 */
+	void send(byte op, long id, Object... values) throws IOException {
+		synchronized(out) {
+			out.writeByte(op);
+			out.writeLong(id);
+			out.writeInt(values.length);
+			for(Object value:values) {
+				writeValue(value);
+			}
+			out.flush();
+		}
+	}
+
+	/**
+	 * Returns the next frame, waiting until one is received. Returns null if the connection is closed.
+	 */
+	Frame take() throws InterruptedException {
+		Frame frame = frames.take();
+		return (frame == CLOSED) ? null : frame;
+	}
+
+	/**
+	 * Sends a request and returns the values of its response. Any other frames received while waiting are passed to
+	 * the handler. Released handles are sent first, so that the other side can free them.
+	 */
+	Object[] call(FrameHandler handler, byte op, Object... values) throws Exception {
+		sendReleases();
+
+		long id = nextRequestId.getAndIncrement();
+		send(op, id, values);
+
+		while(true) {
+			if(Thread.interrupted()) {
+				throw new InterruptedException();
+			}
+			
+			Frame frame = frames.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+			if(frame == null) {
+				// Check for an interrupt again.
+			} else if(frame == CLOSED) {
+				frames.add(CLOSED);
+				throw new IOException("Remote engine connection closed");
+			} else if(frame.op == RESULT && frame.id == id) {
+				return frame.values;
+			} else if(frame.op == ERROR && frame.id == id) {
+				throw new RuntimeException("Error evaluating command", new ScriptException(new RemoteException((String) frame.values[0])));
+			} else {
+				handler.handle(frame);
+			}
+		}
+	}
+
+	/**
+	 * Sends the ids of handles from the other side that are no longer reachable, with the times each was received.
+	 */
+	void sendReleases() throws IOException {
+		List<Object> values = new ArrayList<>();
+		for(Reference<? extends RemoteHandle> reference; (reference = releasedHandles.poll()) != null;) {
+			HandleReference handleReference = (HandleReference) reference;
+			remoteHandles.remove(handleReference.id, handleReference);
+			values.add(handleReference.id);
+			values.add(handleReference.received);
+		}
+
+		if(!values.isEmpty()) {
+			send(RELEASE, 0, values.toArray());
+		}
+	}
+
+	/**
+	 * Removes objects that were sent as handles from the handle table, once the other side has released every
+	 * time they were sent. The values are alternating ids and counts.
+	 */
+	void release(Object[] values) {
+		synchronized(handleObjects) {
+			for(int i = 0; i + 1 < values.length; i += 2) {
+				Long id = (Long) values[i];
+				int sends = handleSends.getOrDefault(id, 0) - (Integer) values[i + 1];
+				if(sends > 0) {
+					handleSends.put(id, sends);
+				} else {
+					handleSends.remove(id);
+					handleIds.remove(handleObjects.remove(id));
+				}
+			}
+		}
+	}
+
+	int getHandleCount() {
+		synchronized(handleObjects) {
+			return handleObjects.size();
+		}
+	}
+
+	private void writeValue(Object value) throws IOException {
+		if(value == null) {
+			out.writeByte(NULL);
+		} else if(value instanceof Boolean) {
+			out.writeByte((Boolean) value ? TRUE : FALSE);
+		} else if(value instanceof Integer) {
+			out.writeByte(INTEGER);
+			out.writeInt((Integer) value);
+		} else if(value instanceof Long) {
+			out.writeByte(LONG);
+			out.writeLong((Long) value);
+		} else if(value instanceof Double) {
+			out.writeByte(DOUBLE);
+			out.writeDouble((Double) value);
+		} else if(value instanceof Float) {
+			out.writeByte(FLOAT);
+			out.writeFloat((Float) value);
+		} else if(value instanceof Short) {
+			out.writeByte(SHORT);
+			out.writeShort((Short) value);
+		} else if(value instanceof Byte) {
+			out.writeByte(BYTE);
+			out.writeByte((Byte) value);
+		} else if(value instanceof Character) {
+			out.writeByte(CHARACTER);
+			out.writeChar((Character) value);
+		} else if(value instanceof String) {
+			out.writeByte(STRING);
+			writeString((String) value);
+		} else if(value instanceof NameAndProperties) {
+			NameAndProperties nameAndProperties = (NameAndProperties) value;
+			out.writeByte(NAME_AND_PROPERTIES);
+			writeString(nameAndProperties.getName());
+			out.writeInt(nameAndProperties.getProperties().size());
+			for(Map.Entry<String, String> entry:nameAndProperties.getProperties().entrySet()) {
+				writeString(entry.getKey());
+				writeString(entry.getValue());
+			}
+		} else if(value instanceof RemoteHandle && ((RemoteHandle) value).getConnection() == this) {
+			out.writeByte(PEER_HANDLE);
+			out.writeLong(((RemoteHandle) value).getId());
+		} else if(value instanceof RemoteHandle) {
+			// A handle from a connection that has since closed.
+			out.writeByte(NULL);
+		} else {
+			out.writeByte(HANDLE);
+			out.writeLong(addHandle(value));
+			writeString(describe(value));
+		}
+	}
+
+	private Object readValue() throws IOException {
+		byte type = in.readByte();
+		switch(type) {
+			case NULL: return null;
+			case TRUE: return true;
+			case FALSE: return false;
+			case INTEGER: return in.readInt();
+			case LONG: return in.readLong();
+			case DOUBLE: return in.readDouble();
+			case FLOAT: return in.readFloat();
+			case SHORT: return in.readShort();
+			case BYTE: return in.readByte();
+			case CHARACTER: return in.readChar();
+			case STRING: return readString();
+			case NAME_AND_PROPERTIES: {
+				String name = readString();
+				int size = in.readInt();
+				Map<String, String> properties = new HashMap<>();
+				for(int i = 0; i < size; i++) {
+					properties.put(readString(), readString());
+				}
+				return new NameAndProperties(name, properties);
+			}
+			case HANDLE: return getRemoteHandle(in.readLong(), readString());
+			case PEER_HANDLE: {
+				synchronized(handleObjects) {
+					return handleObjects.get(in.readLong());
+				}
+			}
+			default: throw new IOException("Unknown value type: " + type);
+		}
+	}
+
+	private long addHandle(Object value) {
+		synchronized(handleObjects) {
+			Long id = handleIds.get(value);
+			if(id == null) {
+				id = nextHandleId++;
+				handleIds.put(value, id);
+				handleObjects.put(id, value);
+			}
+			handleSends.merge(id, 1, Integer::sum);
+			return id;
+		}
+	}
+
+	/**
+	 * Returns the handle for a remote object, reusing the existing handle if it's still reachable.
+	 */
+	private RemoteHandle getRemoteHandle(long id, String description) {
+		HandleReference reference = remoteHandles.get(id);
+		RemoteHandle handle = (reference == null) ? null : reference.get();
+		if(handle == null) {
+			handle = new RemoteHandle(this, id, description);
+			remoteHandles.put(id, new HandleReference(handle, releasedHandles));
+		} else {
+			reference.received++;
+		}
+		return handle;
+	}
+
+	private static String describe(Object value) {
+		String description;
+		try {
+			description = String.valueOf(value);
+		} catch(RuntimeException e) {
+			description = value.getClass().getName();
+		}
+		return (description.length() > MAX_DESCRIPTION_LENGTH) ? description.substring(0, MAX_DESCRIPTION_LENGTH) + "..." : description;
+	}
+
+	private void writeString(String value) throws IOException {
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private String readString() throws IOException {
+		byte[] bytes = new byte[in.readInt()];
+		in.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	public void close() throws IOException {
+		closed = true;
+		socket.close();
+	}
+
+	/**
+	 * Returns the stack trace of an exception to send to the other side, starting from the cause of the innermost
+	 * ScriptException, as that's where the script failed.
+	 */
+	static String getStackTrace(Throwable throwable) {
+		Throwable trimmed = throwable;
+		for(Throwable t = throwable; t != null; t = t.getCause()) {
+			if(t instanceof ScriptException) {
+				trimmed = (t.getCause() != null) ? t.getCause() : t;
+			}
+		}
+		return Throwables.getStackTraceAsString(trimmed).trim();
+	}
+
+	/**
+	 * Returns the values of a map as alternating keys and values.
+	 */
+	static Object[] toKeysAndValues(Map<?, ?> map) {
+		List<Object> values = new ArrayList<>();
+		map.forEach((key, value) -> {
+			values.add(key);
+			values.add(value);
+		});
+		return values.toArray();
+	}
+
+	/**
+	 * Returns a map from alternating keys and values.
+	 */
+	static Map<Object, Object> fromKeysAndValues(Object[] values) {
+		Map<Object, Object> map = new LinkedHashMap<>();
+		for(int i = 0; i + 1 < values.length; i += 2) {
+			map.put(values[i], values[i + 1]);
+		}
+		return map;
+	}
+}
@@ -0,0 +1,350 @@
+package workbook.script;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import syntaxhighlighter.brush.Brush;
+import workbook.script.RemoteConnection.Frame;
+
+/**
+ * An engine that runs another engine in a separate process, so that a script that runs out of memory or crashes a
+ * native library can't take down the UI. Requests are sent to an EngineHost over a loopback socket. Numbers, strings
+ * and booleans are copied, and any other object stays in the host process and is seen here as a RemoteHandle, which
+ * can be passed back to the host, iterated, and have its properties read.
+ *
+ * The globals are kept in sync by sending the globals that have changed here before each request, and applying the
+ * globals that the host has changed as they're received. Output from the host is printed as it's received.
+ *
+ * A spare host is started when the engine is first used. If a request is interrupted, or the host exits, the host is
+ * killed and replaced by the spare, and the globals and functions are sent to it again.
+ */
+public class RemoteEngine implements Engine {
+	public static final int CONNECT_TIMEOUT_MILLIS = 60000;
+
+	/**
+	 * A running host process and its connection.
+	 */
+	private static class Host {
+		private final Process process;
+		private final RemoteConnection connection;
+
+		public Host(Process process, RemoteConnection connection) {
+			this.process = process;
+			this.connection = connection;
+		}
+
+		public void destroy() {
+			try {
+				connection.close();
+			} catch(IOException e) {
+			}
+			process.destroyForcibly();
+		}
+	}
+
+	private final String engineClassName;
+	private final Brush brush;
+	private final List<String> jvmOptions;
+
+	private volatile Host host;
+	private CompletableFuture<Host> spare;
+
+	private Map<String, Object> globals = new HashMap<>();
+	// The globals as they were last sent to or received from the host.
+	private final Map<String, Object> hostGlobals = new HashMap<>();
+	private final Map<String, Function<Object, Object>> functions = new LinkedHashMap<>();
+
+	/**
+	 * Creates an engine that runs an engine of the given class in a new process, started with the JVM options.
+	 */
+	public RemoteEngine(String engineClassName, Brush brush, List<String> jvmOptions) {
+		this.engineClassName = engineClassName;
+		this.brush = brush;
+		this.jvmOptions = new ArrayList<>(jvmOptions);
+		this.host = startHost();
+	}
+
+	/**
+	 * Starts a host process, and waits for it to connect once its engine has been created.
+	 */
+	private Host startHost() {
+		Process process = null;
+		try(ServerSocket serverSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+			serverSocket.setSoTimeout(CONNECT_TIMEOUT_MILLIS);
+
+			List<String> command = new ArrayList<>();
+			command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+			command.addAll(jvmOptions);
+			command.addAll(Arrays.asList("-cp", System.getProperty("java.class.path")));
+			command.add(EngineHost.class.getName());
+			command.add(String.valueOf(serverSocket.getLocalPort()));
+			command.add(engineClassName);
+
+			process = new ProcessBuilder(command).inheritIO().start();
+
+			return new Host(process, new RemoteConnection(serverSocket.accept()));
+		} catch(IOException e) {
+			if(process != null) {
+				process.destroyForcibly();
+			}
+			throw new RuntimeException("Can't start engine host for " + engineClassName, e);
+		}
+	}
+
+	/**
+	 * Kills the host process. A running request fails, and the next request starts a new host.
+	 */
+	public void kill() {
+		host.process.destroyForcibly();
+	}
+
+	/**
+	 * Stops the host and the spare host.
+	 */
+	public synchronized void close() {
+		host.destroy();
+		if(spare != null) {
+			spare.thenAccept(Host::destroy);
+			spare = null;
+		}
+	}
+
+	/**
+	 * Replaces the host with the spare, and sends it the globals and functions.
+	 */
+	private void restart() {
+		host.destroy();
+
+		Host next = null;
+		if(spare != null) {
+			try {
+				next = spare.join();
+			} catch(RuntimeException e) {
+				e.printStackTrace();
+			}
+			spare = null;
+		}
+		host = (next == null) ? startHost() : next;
+		startSpare();
+
+		hostGlobals.clear();
+		functions.keySet().forEach(name -> send(RemoteConnection.DEFINE_FUNCTION, name));
+	}
+
+	private void startSpare() {
+		if(spare == null) {
+			spare = CompletableFuture.supplyAsync(this::startHost);
+		}
+	}
+
+	/**
+	 * Sends a request without waiting for a response.
+	 */
+	private void send(byte op, Object... values) {
+		try {
+			host.connection.send(op, 0, values);
+		} catch(IOException e) {
+			// The next call will find the connection closed and restart the host.
+		}
+	}
+
+	/**
+	 * Sends a request after sending any changed globals, and returns the values of its response. The host is restarted
+	 * if the request is interrupted, or if it exits.
+	 */
+	private Object[] call(byte op, Object... values) {
+		startSpare();
+		try {
+			sendGlobals();
+			return host.connection.call(this::handle, op, values);
+		} catch(InterruptedException e) {
+			restart();
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Evaluation interrupted, the engine has been restarted", e);
+		} catch(IOException e) {
+			restart();
+			throw new RuntimeException("Engine exited, and has been restarted", e);
+		} catch(RuntimeException e) {
+			throw e;
+		} catch(Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Handles the frames sent by the host while waiting for a response.
+	 */
+	private void handle(Frame frame) throws IOException {
+		switch(frame.op) {
+			case RemoteConnection.OUTPUT:
+				System.out.print(frame.values[0]);
+				break;
+			case RemoteConnection.ERROR_OUTPUT:
+				System.err.print(frame.values[0]);
+				break;
+			case RemoteConnection.PUT_GLOBALS:
+				for(int i = 0; i + 1 < frame.values.length; i += 2) {
+					globals.put((String) frame.values[i], frame.values[i + 1]);
+					hostGlobals.put((String) frame.values[i], frame.values[i + 1]);
+				}
+				break;
+			case RemoteConnection.REMOVE_GLOBALS:
+				for(Object name:frame.values) {
+					globals.remove(name);
+					hostGlobals.remove(name);
+				}
+				break;
+			case RemoteConnection.RELEASE:
+				host.connection.release(frame.values);
+				break;
+			case RemoteConnection.CALLBACK:
+				try {
+					Object result = functions.get(frame.values[0]).apply(frame.values[1]);
+					host.connection.send(RemoteConnection.RESULT, frame.id, result);
+				} catch(Exception e) {
+					host.connection.send(RemoteConnection.ERROR, frame.id, RemoteConnection.getStackTrace(e));
+				}
+				break;
+		}
+	}
+
+	/**
+	 * Sends the globals that have changed since they were last sent to or received from the host.
+	 */
+	private void sendGlobals() throws IOException {
+		Map<String, Object> snapshot;
+		synchronized(globals) {
+			snapshot = new HashMap<>(globals);
+		}
+
+		List<Object> changed = new ArrayList<>();
+		snapshot.forEach((name, value) -> {
+			if(!hostGlobals.containsKey(name) || hostGlobals.get(name) != value) {
+				changed.add(name);
+				changed.add(value);
+				hostGlobals.put(name, value);
+			}
+		});
+
+		List<Object> removed = new ArrayList<>();
+		hostGlobals.keySet().removeIf(name -> {
+			if(!snapshot.containsKey(name)) {
+				removed.add(name);
+				return true;
+			}
+			return false;
+		});
+
+		if(!changed.isEmpty()) {
+			host.connection.send(RemoteConnection.PUT_GLOBALS, 0, changed.toArray());
+		}
+		if(!removed.isEmpty()) {
+			host.connection.send(RemoteConnection.REMOVE_GLOBALS, 0, removed.toArray());
+		}
+	}
+
+	private boolean isHostObject(Object value) {
+		return value instanceof RemoteHandle && ((RemoteHandle) value).getConnection() == host.connection;
+	}
+
+	public Brush getBrush() {
+		return brush;
+	}
+
+	public synchronized void setGlobals(Map<String, Object> globals) {
+		this.globals = globals;
+	}
+
+	public synchronized boolean isIterable(Object value) {
+		if(isHostObject(value)) {
+			return (Boolean) call(RemoteConnection.IS_ITERABLE, value)[0];
+		}
+		return value instanceof Iterable || (value != null && value.getClass().isArray());
+	}
+
+	public synchronized void iterateObject(Object array, Consumer<Object> consumer) {
+		if(isHostObject(array)) {
+			Arrays.asList(call(RemoteConnection.ITERATE, array)).forEach(consumer);
+		} else if(array instanceof Iterable) {
+			((Iterable<?>) array).forEach(consumer);
+		} else if(array != null && array.getClass().isArray()) {
+			for(int i = 0; i < Array.getLength(array); i++) {
+				consumer.accept(Array.get(array, i));
+			}
+		}
+	}
+
+	/**
+	 * Sets a global, which is sent to the host with the next request.
+	 */
+	public synchronized void setVariable(String name, Object value) {
+		globals.put(name, value);
+	}
+
+	public synchronized Object getVariable(String name) {
+		return call(RemoteConnection.GET_VARIABLE, name)[0];
+	}
+
+	public synchronized boolean isScriptObject(Object object) {
+		return isHostObject(object) && (Boolean) call(RemoteConnection.IS_SCRIPT_OBJECT, object)[0];
+	}
+
+	public synchronized Map<Object, Object> getPropertyMap(Object object) {
+		if(isHostObject(object)) {
+			return RemoteConnection.fromKeysAndValues(call(RemoteConnection.GET_PROPERTY_MAP, object));
+		} else if(object instanceof Map) {
+			return new LinkedHashMap<>((Map<?, ?>) object);
+		}
+		return new LinkedHashMap<>();
+	}
+
+	/**
+	 * Defines a function in the host that calls back to the function here.
+	 */
+	public synchronized void defineFunction(String name, Function<Object, Object> callback) {
+		functions.put(name, callback);
+		send(RemoteConnection.DEFINE_FUNCTION, name);
+	}
+
+	public synchronized Object eval(String command) {
+		return call(RemoteConnection.EVAL, command)[0];
+	}
+
+	/**
+	 * Returns null, as commands are compiled and cached by the engine in the host.
+	 */
+	public CompiledCommand compile(String command) {
+		return null;
+	}
+
+	public synchronized List<NameAndProperties> evalWithCallbackFunctions(String command, List<String> callbackFunctionNames) {
+		List<Object> values = new ArrayList<>();
+		values.add(command);
+		values.addAll(callbackFunctionNames);
+
+		List<NameAndProperties> result = new ArrayList<>();
+		for(Object value:call(RemoteConnection.EVAL_WITH_CALLBACK_FUNCTIONS, values.toArray())) {
+			result.add((NameAndProperties) value);
+		}
+		return result;
+	}
+
+	public synchronized Object evalMethodCall(String methodName, List<Object> params) {
+		List<Object> values = new ArrayList<>();
+		values.add(methodName);
+		values.addAll(params);
+		return call(RemoteConnection.EVAL_METHOD_CALL, values.toArray())[0];
+	}
+}
@@ -0,0 +1,36 @@
+package workbook.script;
+
+/**
+ * An object that lives in the other process of a remote engine connection. It can be passed back to that process,
+ * where it's replaced by the original object, and shows the string value of that object.
+ */
+public final class RemoteHandle {
+	private final RemoteConnection connection;
+	private final long id;
+	private final String description;
+
+	RemoteHandle(RemoteConnection connection, long id, String description) {
+		this.connection = connection;
+		this.id = id;
+		this.description = description;
+	}
+
+	RemoteConnection getConnection() {
+		return connection;
+	}
+
+	long getId() {
+		return id;
+	}
+
+	/**
+	 * Returns the string value of the remote object, at the time it was first sent.
+	 */
+	public String getDescription() {
+		return description;
+	}
+
+	public String toString() {
+		return description;
+	}
+}
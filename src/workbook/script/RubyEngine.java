@@ -1,16 +1,16 @@
 package workbook.script;
 
 import java.io.PrintWriter;
-import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.function.BiConsumer;
+import java.util.concurrent.Callable;
 import java.util.function.Consumer;
 import java.util.function.Function;
 
 import javax.script.Bindings;
+import javax.script.Compilable;
+import javax.script.CompiledScript;
 import javax.script.ScriptContext;
 import javax.script.ScriptEngine;
 import javax.script.ScriptException;
@@ -32,6 +32,10 @@ public class RubyEngine implements Engine {
 	private final ScriptEngine engine;
 	private Map<String, Object> globals = new HashMap<>();
 	
+	// The callback functions are defined once in callbackBindings, and call callbackCollector.
+	private final CallbackCollector callbackCollector = new CallbackCollector();
+	private Bindings callbackBindings;
+	
 	public RubyEngine() {
 		System.setProperty("org.jruby.embed.localvariable.behavior", "persistent");
 		
@@ -39,6 +43,9 @@ public class RubyEngine implements Engine {
 		if(engine == null) {
 			throw new RuntimeException("Can't create JRuby engine");
 		}
+		// JRuby still copies every binding into Ruby variables and back on each eval, so eval time grows with the
+		// number of globals even though the bindings are a view of the globals map.
+		engine.setBindings(new GlobalBindings(globals), ScriptContext.ENGINE_SCOPE);
 	}
 	
 	public Brush getBrush() {
@@ -47,6 +54,8 @@ public class RubyEngine implements Engine {
 	
 	public void setGlobals(Map<String, Object> globals) {
 		this.globals = globals;
+		engine.setBindings(new GlobalBindings(globals), ScriptContext.ENGINE_SCOPE);
+		callbackCollector.reset();
 	}
 	
 	public boolean isIterable(Object value) {
@@ -94,8 +103,7 @@ public class RubyEngine implements Engine {
 	 * Evaluates a method given its name and list of parameters, and returns the result.
 	 */
 	public Object evalMethodCall(String name, List<Object> params) {
-		Bindings bindings = engine.createBindings();
-		bindings.putAll(engine.getBindings(ScriptContext.ENGINE_SCOPE));
+		Bindings bindings = new GlobalBindings(globals, true);
 		bindings.put("arguments", params);
 		String command = name + "(*arguments)";
 		return eval(command, bindings);
@@ -113,48 +121,52 @@ public class RubyEngine implements Engine {
 	 * 'rect', and command contains the function call 'rect({x: 1})', then [NameAndProperties('rect', { x => 1 })] will be returned.
 	 */
 	public List<NameAndProperties> evalWithCallbackFunctions(String command, List<String> callbackFunctionNames) {
-		List<NameAndProperties> callbackValues = new ArrayList<>();
-		
-		Bindings bindings = engine.createBindings();
-		bindings.putAll(engine.getBindings(ScriptContext.ENGINE_SCOPE));
-		
-		bindings.put("callback", new BiConsumer<String, Map<Object, String>>() {
-			public void accept(String name, Map<Object, String> properties) {
-				Map<String, String> map = new HashMap<>();
-				
-				for(Object key:new HashSet<>(properties.keySet())) {
-					map.put(String.valueOf(key), String.valueOf(properties.get(key)));
-				}
-				
-				NameAndProperties nameAndProperties = new NameAndProperties(name, map);
-				callbackValues.add(nameAndProperties);
+		if(callbackCollector.needsDefinition(callbackFunctionNames)) {
+			callbackBindings = new GlobalBindings(globals, true);
+			callbackBindings.put("callback", callbackCollector);
+			
+			StringBuilder prelude = new StringBuilder("$callback = callback\n");
+			for(String name:callbackFunctionNames) {
+				prelude.append(String.format("def %s(values) $callback.accept('%s', java.util.HashMap.new(values)); end", name, name));
+				prelude.append("\n");
 			}
-		});
-		
-		StringBuilder prefix = new StringBuilder("$callback = callback\n");
-		for(String name:callbackFunctionNames) {
-			prefix.append(String.format("def %s(values) $callback.accept('%s', java.util.HashMap.new(values)); end", name, name));
-			prefix.append("\n");
+			eval(prelude.toString(), callbackBindings);
+			
+			callbackCollector.setDefined(callbackFunctionNames);
 		}
 		
-		eval(prefix.toString(), bindings);
-		eval(command, bindings);
-		
-		return callbackValues;
+		return callbackCollector.collect(() -> eval(command, callbackBindings));
+	}
+	
+	/**
+	 * Compiles a command so that it can be evaluated many times.
+	 */
+	public CompiledCommand compile(String command) {
+		try {
+			CompiledScript compiledScript = ((Compilable) engine).compile(getScript(command));
+			return () -> eval(compiledScript::eval);
+		} catch(ScriptException e) {
+			throw new RuntimeException("Error evaluating command", e);
+		}
 	}
 	
 	private Object eval(String command, Bindings bindings) {
+		String script = getScript(command);
+		return eval(() -> (bindings == null) ? engine.eval(script) : engine.eval(script, bindings));
+	}
+	
+	private static String getScript(String command) {
+		return String.format("require 'java'; %s;", command);
+	}
+	
+	private Object eval(Callable<Object> evaluation) {
         try {
         	engine.getContext().setWriter(new PrintWriter(System.out));
         	engine.getContext().setErrorWriter(new PrintWriter(System.err));
         	
-        	engine.getBindings(ScriptContext.ENGINE_SCOPE).clear();
-        	engine.getBindings(ScriptContext.ENGINE_SCOPE).putAll(globals);
-        	
-        	String script = String.format("require 'java'; %s;", command);
-			Object value = (bindings == null) ? engine.eval(script) : engine.eval(script, bindings);
-			
-			globals.putAll(engine.getBindings(ScriptContext.ENGINE_SCOPE));
+        	// JRuby copies every global in through the bindings' entries, which aren't recorded as reads.
+        	GlobalAccesses.recordReadAll();
+			Object value = evaluation.call();
 			
 			engine.getContext().getWriter().flush();
 			engine.getContext().getErrorWriter().flush();
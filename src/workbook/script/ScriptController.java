@@ -1,16 +1,33 @@
 package workbook.script;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.PrintStream;
 import java.lang.Thread.UncaughtExceptionHandler;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.BlockingQueue;
+import java.util.Queue;
+import java.util.Set;
 import java.util.concurrent.Callable;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.function.Supplier;
 
 import workbook.view.result.wrapper.ChartWrapper;
 
@@ -18,20 +35,86 @@ import workbook.view.result.wrapper.ChartWrapper;
  * Manages the interaction with the script engines. The script engine runs on a separate thread, and all interactions with it
  * must run on the same thread. This controller allows posting events to a queue so that they will run on the correct thread,
  * and return their results as a ScriptFuture.
+ * 
+ * Each controller is one session, with its own queue, script thread and engines.
  */
 public class ScriptController {
-	private final BlockingQueue<Runnable> runnableQueue = new LinkedBlockingQueue<>();
+	public static final long STOP_GRACE_MILLIS = 2000;
+	public static final int COMPILED_COMMAND_CACHE_SIZE = 200;
 	
-	private final Map<String, Object> globals = new HashMap<>();
-	private final Map<String, Engine> engines = new LinkedHashMap<>();
+	private static final ScheduledThreadPoolExecutor watchdog = new ScheduledThreadPoolExecutor(1, runnable -> {
+		Thread thread = new Thread(runnable, "Script Watchdog");
+		thread.setDaemon(true);
+		return thread;
+	});
+	
+	static {
+		watchdog.setRemoveOnCancelPolicy(true);
+	}
+	
+	private final ScriptTaskQueue runnableQueue = new ScriptTaskQueue();
+	private final ScriptMetrics metrics = new ScriptMetrics();
+	
+	private final String name;
+	private final RecordingGlobals globals;
+	private final Map<String, EngineLoader> engines = new LinkedHashMap<>();
+	private final Map<Engine, CompiledScriptCache<CompiledCommand>> compiledCommands = new IdentityHashMap<>();
+	private final Set<String> coldEngines = new HashSet<>();
 
 	private String scriptType;
 	private Engine engine;
 	
 	private volatile Thread thread = null;
+	private volatile boolean replaceEngine = false;
+	private volatile boolean shutdown = false;
+	
+	// The futures of the running task, and the number of tasks started, guarded by runningLock.
+	private final Object runningLock = new Object();
+	private List<ScriptFuture<?>> runningFutures = Collections.emptyList();
+	private long startedTasks = 0;
+	
+	private long evalTimeoutMillis = 0;
+	
+	private final Map<String, Supplier<Engine>> engineSuppliers = new ConcurrentHashMap<>();
+	private final Map<String, Queue<Engine>> enginePools = new ConcurrentHashMap<>();
+	private final Map<ScriptFuture<?>, Thread> concurrentThreads = new ConcurrentHashMap<>();
+	private final Set<String> definedFunctions = ConcurrentHashMap.newKeySet();
+	private volatile ExecutorService concurrentExecutor = null;
 
-	private Consumer<String> outputCallback = line -> {};
-	private Consumer<String> errorCallback = line -> {};
+	private Consumer<List<String>> outputCallback = lines -> {};
+	private Consumer<List<String>> errorCallback = lines -> {};
+	
+	/**
+	 * Creates the default session with its own globals.
+	 */
+	public ScriptController() {
+		this(ScriptSessions.DEFAULT_SESSION);
+	}
+	
+	/**
+	 * Creates a named session with its own globals.
+	 */
+	public ScriptController(String name) {
+		this(name, new RecordingGlobals());
+	}
+	
+	/**
+	 * Creates a named session using the given globals, which may be shared with other sessions. Shared globals must be
+	 * a synchronized map, as they will be accessed from each session's thread. The globals are wrapped to record their
+	 * accesses, so the globals of another session should be given as returned by getGlobalsSync.
+	 */
+	public ScriptController(String name, Map<String, Object> globals) {
+		this.name = name;
+		this.globals = RecordingGlobals.wrap(globals);
+	}
+	
+	public String getName() {
+		return name;
+	}
+	
+	public ScriptMetrics getMetrics() {
+		return metrics;
+	}
 	
 	/**
 	 * Starts a thread to handle the items posted to the runnable queue.
@@ -40,36 +123,190 @@ public class ScriptController {
 		Thread thread = new Thread(this::runQueue);
 		this.thread = thread;
 		thread.setDaemon(true);
-		thread.setName("Script Thread");
+		thread.setName(isDefaultSession() ? "Script Thread" : "Script Thread - " + name);
 		thread.start();
 
 		// Restart thread on exception.
 		thread.setUncaughtExceptionHandler(new UncaughtExceptionHandler() {
 			public void uncaughtException(Thread t, Throwable e) {
-				e.printStackTrace();
-				startQueueThread();
+				if(!(e instanceof ThreadDeath)) {
+					e.printStackTrace();
+				}
+				if(ScriptController.this.thread == t) {
+					startQueueThread();
+				}
 			}
 		});
 	}
 	
+	/**
+	 * Runs the tasks in the queue until this thread is replaced.
+	 */
 	private void runQueue() {
-		redirectOutput(false);
+		redirectOutput(!isDefaultSession());
+		
+		Thread currentThread = Thread.currentThread();
+		if(replaceEngine) {
+			replaceEngine = false;
+			replaceEngine();
+		}
 		
-		while(true) {
+		while(thread == currentThread) {
 			try {
-				runnableQueue.take().run();
+				Runnable task = runnableQueue.take();
+				metrics.recordQueueDepth(runnableQueue.size());
+				task.run();
+			} catch(InterruptedException e) {
+				if(thread == currentThread) {
+					e.printStackTrace();
+				}
 			} catch(Exception e) {
 				e.printStackTrace();
+			} finally {
+				endTask();
+			}
+		}
+	}
+	
+	/**
+	 * Marks the futures as running, unless they have all been cancelled. Returns whether the task should run.
+	 */
+	private boolean startTask(List<? extends ScriptFuture<?>> futures) {
+		synchronized(runningLock) {
+			if(futures.stream().allMatch(ScriptFuture::isDone)) {
+				return false;
+			}
+			runningFutures = new ArrayList<>(futures);
+			startedTasks++;
+			return true;
+		}
+	}
+	
+	/**
+	 * Clears the running futures, and any interrupt that was meant for the task that has just finished.
+	 */
+	private void endTask() {
+		synchronized(runningLock) {
+			if(thread != Thread.currentThread()) {
+				return;
+			}
+			runningFutures = Collections.emptyList();
+			Thread.interrupted();
+		}
+	}
+	
+	/**
+	 * Called when a future is cancelled. If it belongs to the running task, and no other future is waiting on that task,
+	 * the script thread is interrupted, and stopped if it's still running the same task after the grace period.
+	 */
+	void cancel(ScriptFuture<?> future) {
+		synchronized(runningLock) {
+			Thread runningThread = thread;
+			if(runningThread != null && runningFutures.contains(future) && runningFutures.stream().allMatch(ScriptFuture::isDone)) {
+				long runningTask = startedTasks;
+				runningThread.interrupt();
+				scheduleWatchdog(() -> stopIfRunning(runningThread, runningTask), STOP_GRACE_MILLIS);
+			}
+		}
+		
+		Thread concurrentThread = concurrentThreads.get(future);
+		if(concurrentThread != null) {
+			concurrentThread.interrupt();
+		}
+	}
+	
+	/**
+	 * Stops the script thread if it's still running the same task. The thread is then restarted by its uncaught
+	 * exception handler without losing the session.
+	 */
+	@SuppressWarnings("deprecation")
+	private void stopIfRunning(Thread runningThread, long runningTask) {
+		synchronized(runningLock) {
+			if(thread == runningThread && startedTasks == runningTask && !runningFutures.isEmpty()) {
+				System.err.println("Stopping unresponsive script thread: " + runningThread.getName());
+				try {
+					runningThread.stop();
+				} catch(UnsupportedOperationException e) {
+					abandon(runningThread);
+				}
 			}
 		}
 	}
 	
 	/**
-	 * Sends the system output and error streams to outputCallback and errorCallback consumers.
+	 * Replaces a script thread that can't be stopped, as Thread.stop isn't supported from Java 20. The thread is left
+	 * to finish its task and then exits, while a new thread runs the queue with a new instance of the current engine.
+	 */
+	private void abandon(Thread runningThread) {
+		System.err.println("Script thread can't be stopped on this JVM, so it's being replaced: " + runningThread.getName());
+		runningFutures = Collections.emptyList();
+		replaceEngine = true;
+		startQueueThread();
+	}
+	
+	/**
+	 * Replaces the current engine with a new instance, so that it isn't shared with an abandoned script thread. An
+	 * engine that was added as an instance, rather than with a supplier, can't be replaced and is shared.
+	 */
+	private void replaceEngine() {
+		Supplier<Engine> engineSupplier = (scriptType == null) ? null : engineSuppliers.get(scriptType.toLowerCase());
+		if(engineSupplier == null) {
+			System.err.println("Engine can't be replaced, so it's shared with the abandoned script thread: " + scriptType);
+			return;
+		}
+		
+		try {
+			for(Map.Entry<String, EngineLoader> entry:engines.entrySet()) {
+				if(entry.getKey().equalsIgnoreCase(scriptType)) {
+					entry.setValue(new EngineLoader(entry.getKey(), () -> {
+						Engine engine = engineSupplier.get();
+						engine.setGlobals(globals);
+						return engine;
+					}, metrics));
+					engine = entry.getValue().get();
+					defineFunctions(engine);
+				}
+			}
+		} catch(Exception e) {
+			e.printStackTrace();
+		}
+	}
+	
+	/**
+	 * Runs the callback on the watchdog thread after a delay. The callback can be cancelled with the returned future.
+	 */
+	static ScheduledFuture<?> scheduleWatchdog(Runnable callback, long delayMillis) {
+		return watchdog.schedule(callback, delayMillis, TimeUnit.MILLISECONDS);
+	}
+	
+	/**
+	 * Returns the number of callbacks waiting to run on the watchdog thread.
+	 */
+	static int getWatchdogQueueSize() {
+		return watchdog.getQueue().size();
+	}
+	
+	/**
+	 * Sets the timeout of evaluations, after which they are cancelled, or 0 for no timeout. This is set by the batch
+	 * runner, and isn't used by the user interface, where evaluations are interrupted from the menu instead.
+	 */
+	public void setEvalTimeout(long timeoutMillis) {
+		this.evalTimeoutMillis = timeoutMillis;
+	}
+	
+	private <T> ScriptFuture<T> withEvalTimeout(ScriptFuture<T> future) {
+		long timeoutMillis = evalTimeoutMillis;
+		return (timeoutMillis > 0) ? future.timeout(timeoutMillis, TimeUnit.MILLISECONDS) : future;
+	}
+	
+	/**
+	 * Sends the system output and error streams to outputCallback and errorCallback consumers, with the lines completed
+	 * by each write together. The default session redirects all system output, while named sessions only redirect the
+	 * output of their own thread.
 	 */
 	private void redirectOutput(boolean currentThreadOnly) {
-		LineReader outputReader = new LineReader(line -> outputCallback.accept(line));
-    	LineReader errorReader = new LineReader(line -> errorCallback.accept(line));
+		LineReader outputReader = new LineReader(Charset.defaultCharset(), lines -> outputCallback.accept(lines));
+    	LineReader errorReader = new LineReader(Charset.defaultCharset(), lines -> errorCallback.accept(lines));
     	if(currentThreadOnly) {
 			System.setOut(new PrintStreamSplitter(Thread.currentThread(), new PrintStream(outputReader.getOutputStream()), System.out));
 			System.setErr(new PrintStreamSplitter(Thread.currentThread(), new PrintStream(errorReader.getOutputStream()), System.err));
@@ -79,7 +316,11 @@ public class ScriptController {
     	}
 	}
 
-	public void setOutputCallbacks(Consumer<String> outputCallback, Consumer<String> errorCallback) {
+	/**
+	 * Sets the callbacks for the output and error lines of this session, which are called with the lines completed by
+	 * each write.
+	 */
+	public void setOutputCallbacks(Consumer<List<String>> outputCallback, Consumer<List<String>> errorCallback) {
 		exec(() -> {
 			this.outputCallback = outputCallback;
 			this.errorCallback = errorCallback;
@@ -91,23 +332,71 @@ public class ScriptController {
 		return scriptType;
 	}
 	
+	/**
+	 * Registers a supplier that creates separate instances of an engine for concurrent tasks.
+	 */
+	public void addEngineSupplier(String scriptType, Supplier<Engine> engineSupplier) {
+		engineSuppliers.put(scriptType.toLowerCase(), engineSupplier);
+	}
+	
 	public ScriptFuture<Void> addEngine(String scriptType, Engine engine) {
 		return exec(() -> {
 			engine.setGlobals(globals);
-			engines.put(scriptType, engine);
+			engines.put(scriptType, EngineLoader.loaded(scriptType, engine));
 			return null;
 		});
 	}
 	
+	/**
+	 * Adds an engine that's created when it's first used, or when the engines are warmed.
+	 */
+	public ScriptFuture<Void> addEngine(String scriptType, Supplier<Engine> engineSupplier) {
+		return addEngine(scriptType, engineSupplier, true);
+	}
+	
+	/**
+	 * Adds an engine that's created when it's first used, or also when the engines are warmed if warm is set. Engines
+	 * that are expensive to keep running, such as engines in another process, shouldn't be warmed.
+	 */
+	public ScriptFuture<Void> addEngine(String scriptType, Supplier<Engine> engineSupplier, boolean warm) {
+		addEngineSupplier(scriptType, engineSupplier);
+		return exec(() -> {
+			engines.put(scriptType, new EngineLoader(scriptType, () -> {
+				Engine engine = engineSupplier.get();
+				engine.setGlobals(globals);
+				return engine;
+			}, metrics));
+			if(!warm) {
+				coldEngines.add(scriptType);
+			}
+			return null;
+		});
+	}
+	
+	/**
+	 * Starts creating all engines that haven't been created yet in parallel, in the background, except for the engines
+	 * that were added without warming.
+	 */
+	public ScriptFuture<Void> warmEngines() {
+		return exec(() -> {
+			engines.forEach((scriptType, loader) -> {
+				if(!coldEngines.contains(scriptType)) {
+					loader.start();
+				}
+			});
+			return null;
+		});
+	}
+	
+	/**
+	 * Sets the current engine, creating it first if necessary.
+	 */
 	public ScriptFuture<Void> setScriptType(String scriptType) {
 		this.scriptType = scriptType;
 		return exec(() -> {
 			for(String key:engines.keySet()) {
 				if(key.equalsIgnoreCase(scriptType)) {
-					engine = engines.get(key);
-					if(engine == null) {
-						throw new IllegalArgumentException("Unknown script type: " + scriptType);
-					}
+					engine = engines.get(key).get();
 				}
 			}
 			return null;
@@ -115,42 +404,273 @@ public class ScriptController {
 	}
 	
 	public <T> ScriptFuture<T> exec(Callable<T> callable) {
+		return exec(TaskPriority.INTERACTIVE, callable);
+	}
+	
+	/**
+	 * Runs the callable on the script thread after any queued tasks of a higher or equal priority, so that evaluations
+	 * started by the user run before the reads queued to refresh views.
+	 */
+	public <T> ScriptFuture<T> exec(TaskPriority priority, Callable<T> callable) {
+		return exec(TaskKind.OTHER, priority, null, callable);
+	}
+	
+	/**
+	 * Runs the callable on the script thread, replacing any pending task with the same key. The futures of replaced tasks
+	 * complete with the result of the task that replaced them. A null key never replaces another task.
+	 */
+	public <T> ScriptFuture<T> exec(TaskPriority priority, Object key, Callable<T> callable) {
+		return exec(TaskKind.OTHER, priority, key, callable);
+	}
+	
+	/**
+	 * Runs the callable on the script thread like exec(priority, key, callable), recording its metrics under the given kind.
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> ScriptFuture<T> exec(TaskKind kind, TaskPriority priority, Object key, Callable<T> callable) {
+		ScriptFuture<T> future = new ScriptFuture<>(this, priority);
+		ScriptTask<T> task = new ScriptTask<>(kind, callable, future);
+		if(key == null) {
+			runnableQueue.add(priority, task);
+		} else {
+			synchronized(runnableQueue) {
+				Runnable replaced = runnableQueue.add(priority, key, task);
+				if(replaced instanceof ScriptTask) {
+					task.futures.addAll(((ScriptTask<T>) replaced).futures);
+				}
+			}
+		}
+		
+		if(shutdown) {
+			cancelQueuedTasks();
+		}
+		return future;
+	}
+	
+	/**
+	 * Runs the callables in order as a single task on the script thread, completing with a list of their results.
+	 * Each step sees the effects of the steps before it, and the batch fails on the first step that throws.
+	 */
+	public <T> ScriptFuture<List<T>> execAll(TaskPriority priority, List<? extends Callable<? extends T>> callables) {
+		return exec(priority, () -> {
+			List<T> results = new ArrayList<>(callables.size());
+			for(Callable<? extends T> callable:callables) {
+				if(Thread.interrupted()) {
+					throw new InterruptedException();
+				}
+				results.add(callable.call());
+			}
+			return results;
+		});
+	}
+	
+	/**
+	 * A task whose result completes all the futures waiting on it. The task is skipped if they have all been cancelled.
+	 */
+	private class ScriptTask<T> implements Runnable {
+		private final TaskKind kind;
+		private final Callable<T> callable;
+		private final List<ScriptFuture<T>> futures = new ArrayList<>();
+		private final long queuedNanos = System.nanoTime();
+		
+		public ScriptTask(TaskKind kind, Callable<T> callable, ScriptFuture<T> future) {
+			this.kind = kind;
+			this.callable = callable;
+			this.futures.add(future);
+		}
+		
+		public void run() {
+			if(!startTask(futures)) {
+				return;
+			}
+			
+			long startNanos = System.nanoTime();
+			T result;
+			try {
+				result = callable.call();
+			} catch(Exception e) {
+				metrics.recordTask(kind, scriptType, startNanos - queuedNanos, System.nanoTime() - startNanos, true);
+				futures.forEach(future -> future.completeExceptionally(e));
+				return;
+			}
+			
+			metrics.recordTask(kind, scriptType, startNanos - queuedNanos, System.nanoTime() - startNanos, false);
+			futures.forEach(future -> future.complete(result));
+		}
+	}
+	
+	/**
+	 * Runs concurrent tasks on virtual threads if enabled is set, or on the script thread otherwise.
+	 * Returns whether virtual threads are used, which requires Java 21 or later.
+	 */
+	public boolean setVirtualThreads(boolean enabled) {
+		ExecutorService previousExecutor = concurrentExecutor;
+		concurrentExecutor = enabled ? newVirtualThreadExecutor() : null;
+		if(previousExecutor != null) {
+			previousExecutor.shutdown();
+		}
+		return concurrentExecutor != null;
+	}
+	
+	/**
+	 * Returns whether concurrent tasks run on virtual threads.
+	 */
+	public boolean isVirtualThreads() {
+		return concurrentExecutor != null;
+	}
+	
+	/**
+	 * Returns whether this JVM supports virtual threads.
+	 */
+	public static boolean isVirtualThreadsSupported() {
+		try {
+			Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return true;
+		} catch(NoSuchMethodException e) {
+			return false;
+		}
+	}
+	
+	private static ExecutorService newVirtualThreadExecutor() {
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch(ReflectiveOperationException e) {
+			return null;
+		}
+	}
+	
+	/**
+	 * Runs a task against a separate instance of the current engine on its own virtual thread, if they are enabled
+	 * and the engine has a supplier. Otherwise the task is run on the script thread with the session's engine.
+	 * A separate instance shares the globals and the functions defined with defineFunction, but not anything else
+	 * defined in the session's engine. Tasks run in no particular order, so this is only for tasks that don't depend
+	 * on each other, and not for worksheet cells, which must be evaluated in order.
+	 */
+	public <T> ScriptFuture<T> execConcurrent(Function<Engine, T> task) {
+		ExecutorService executor = concurrentExecutor;
+		String scriptType = this.scriptType;
+		Supplier<Engine> engineSupplier = (scriptType == null) ? null : engineSuppliers.get(scriptType.toLowerCase());
+		if(executor == null || engineSupplier == null) {
+			return exec(() -> task.apply(engine));
+		}
+		
 		ScriptFuture<T> future = new ScriptFuture<>(this);
-		runnableQueue.add(() -> {
+		executor.execute(() -> {
+			if(future.isDone()) {
+				return;
+			}
+			
+			concurrentThreads.put(future, Thread.currentThread());
+			Queue<Engine> pool = enginePools.computeIfAbsent(scriptType.toLowerCase(), key -> new ConcurrentLinkedQueue<>());
+			Engine pooledEngine = pool.poll();
 			try {
-				future.complete(callable.call());
+				if(pooledEngine == null) {
+					pooledEngine = engineSupplier.get();
+					pooledEngine.setGlobals(globals);
+					defineFunctions(pooledEngine);
+				}
+				future.complete(task.apply(pooledEngine));
 			} catch(Exception e) {
 				future.completeExceptionally(e);
+			} finally {
+				if(pooledEngine != null) {
+					pool.add(pooledEngine);
+				}
+				concurrentThreads.remove(future);
+				Thread.interrupted();
 			}
 		});
 		return future;
 	}
 	
+	public ScriptFuture<Object> evalConcurrent(String expression) {
+		return evalConcurrent(expression, null);
+	}
+	
+	/**
+	 * Evaluates an expression like execConcurrent, recording the globals it reads and writes to accesses if it isn't null.
+	 */
+	public ScriptFuture<Object> evalConcurrent(String expression, GlobalAccesses accesses) {
+		return withEvalTimeout(execConcurrent(engine -> {
+			try {
+				return GlobalAccesses.record(accesses, () -> engine.eval(expression));
+			} catch(RuntimeException e) {
+				throw e;
+			} catch(Exception e) {
+				throw new RuntimeException(e);
+			}
+		}));
+	}
+	
+	/**
+	 * Defines a function in the current engine, and in the engines created for concurrent tasks.
+	 */
 	public ScriptFuture<Void> defineFunction(String name, Function<?, ?> callback) {
+		definedFunctions.add(name);
 		return exec(() -> {
 			engine.defineFunction(name, ChartWrapper::new);
 			return null;
 		});
 	}
 	
+	private void defineFunctions(Engine engine) {
+		for(String name:definedFunctions) {
+			engine.defineFunction(name, ChartWrapper::new);
+		}
+	}
+	
 	public ScriptFuture<Object> evalMethodCall(String methodName, List<Object> params) {
-		return exec(() -> {
-			return engine.evalMethodCall(methodName, params);
-		});
+		return evalMethodCall(methodName, params, null);
+	}
+	
+	/**
+	 * Calls a method, recording the globals it reads and writes to accesses if it isn't null.
+	 */
+	public ScriptFuture<Object> evalMethodCall(String methodName, List<Object> params, GlobalAccesses accesses) {
+		return withEvalTimeout(exec(TaskKind.EVAL_METHOD_CALL, TaskPriority.INTERACTIVE, null, () -> {
+			return GlobalAccesses.record(accesses, () -> engine.evalMethodCall(methodName, params));
+		}));
 	}
 	
 	public ScriptFuture<Object> eval(String expression) {
-		return exec(() -> {
-			Object result = engine.eval(expression);
+		return eval(expression, null);
+	}
+	
+	/**
+	 * Evaluates an expression, recording the globals it reads and writes to accesses if it isn't null. Setting the
+	 * result to _ isn't recorded.
+	 */
+	public ScriptFuture<Object> eval(String expression, GlobalAccesses accesses) {
+		return withEvalTimeout(exec(TaskKind.EVAL, TaskPriority.INTERACTIVE, null, () -> {
+			Object result = GlobalAccesses.record(accesses, () -> evalCompiled(expression));
 			engine.setVariable("_", result);
 			return result;
-		});
+		}));
+	}
+	
+	/**
+	 * Evaluates an expression with the current engine, reusing its compiled form if the engine has compiled it before.
+	 * Engines that can't compile commands evaluate the expression directly.
+	 */
+	private Object evalCompiled(String expression) {
+		CompiledScriptCache<CompiledCommand> cache = compiledCommands.computeIfAbsent(engine, key -> new CompiledScriptCache<>(COMPILED_COMMAND_CACHE_SIZE));
+		
+		CompiledCommand compiledCommand = cache.get(expression);
+		if(compiledCommand == null) {
+			compiledCommand = engine.compile(expression);
+			if(compiledCommand == null) {
+				return engine.eval(expression);
+			}
+			cache.put(expression, compiledCommand);
+		}
+		
+		return compiledCommand.eval();
 	}
 	
 	public ScriptFuture<List<NameAndProperties>> evalWithCallbackFunctions(String expression, List<String> callbackFunctionNames) {
-		return exec(() -> {
+		return withEvalTimeout(exec(TaskKind.EVAL_WITH_CALLBACK_FUNCTIONS, TaskPriority.INTERACTIVE, null, () -> {
 			return engine.evalWithCallbackFunctions(expression, callbackFunctionNames);
-		});
+		}));
 	}
 
 	public ScriptFuture<Object> getVariable(String name) {
@@ -168,16 +688,22 @@ public class ScriptController {
 	
 	public ScriptFuture<Void> clearGlobals() {
 		return exec(() -> {
-			Object system = globals.get("system");
-			globals.clear();
-			globals.put("system", system);
+			synchronized(globals) {
+				Object system = globals.get("system");
+				globals.clear();
+				globals.put("system", system);
+			}
 			
 			return null;
 		});
 	}
 	
 	public void getScript(Consumer<Engine> consumer) {
-		runnableQueue.add(() -> {
+		getScript(TaskPriority.INTERACTIVE, consumer);
+	}
+	
+	public void getScript(TaskPriority priority, Consumer<Engine> consumer) {
+		runnableQueue.add(priority, () -> {
 			consumer.accept(engine);
 		});
 	}
@@ -190,21 +716,126 @@ public class ScriptController {
 		return engine;
 	}
 
+	/**
+	 * Returns whether this is called from the script thread of this session.
+	 */
+	boolean isScriptThread() {
+		return Thread.currentThread() == thread;
+	}
+
+	private boolean isDefaultSession() {
+		return ScriptSessions.isDefaultSession(name);
+	}
+
+	/**
+	 * Cancels the running task, or interrupts the script thread if the running task has no future.
+	 */
 	public void interrupt() {
-		if(thread != null && thread.isAlive()) {
+		List<ScriptFuture<?>> futures;
+		synchronized(runningLock) {
+			futures = runningFutures;
+		}
+		
+		if(!futures.isEmpty()) {
+			futures.forEach(ScriptFuture::cancel);
+		} else if(thread != null && thread.isAlive()) {
 			thread.interrupt();
 		}
 	}
 
 	/**
-	 * Returns the globals map serialized into a String.
+	 * Stops the script thread after cancelling the running task, and cancels the queued tasks. Tasks posted afterwards
+	 * are cancelled straight away. This is called when a session is removed or the workbook is closed.
 	 */
-	public ScriptFuture<String> serializeGlobals() {
+	public void shutdown() {
+		shutdown = true;
+		
+		// The thread is detached first, so that it exits after the running task instead of taking another.
+		Thread runningThread = thread;
+		thread = null;
+		List<ScriptFuture<?>> futures;
+		synchronized(runningLock) {
+			futures = runningFutures;
+		}
+		futures.forEach(ScriptFuture::cancel);
+		if(runningThread != null) {
+			runningThread.interrupt();
+		}
+		cancelQueuedTasks();
+		
+		ExecutorService executor = concurrentExecutor;
+		concurrentExecutor = null;
+		if(executor != null) {
+			executor.shutdown();
+		}
+	}
+	
+	/**
+	 * Returns whether shutdown has been called.
+	 */
+	public boolean isShutdown() {
+		return shutdown;
+	}
+	
+	private void cancelQueuedTasks() {
+		for(Runnable task:runnableQueue.clear()) {
+			if(task instanceof ScriptTask) {
+				new ArrayList<>(((ScriptTask<?>) task).futures).forEach(ScriptFuture::cancel);
+			}
+		}
+	}
+
+	/**
+	 * Returns the globals serialized between tasks on the script thread, each by BinarySerializer.serializeValue, leaving
+	 * out system and _. Later changes to the globals don't affect it, even to values changed in place, so it can be
+	 * written from another thread while scripts run.
+	 */
+	public ScriptFuture<Map<String, byte[]>> snapshotGlobals() {
 		return exec(() -> {
-			Map<String, Object> map = new HashMap<>(globals);
-			map.remove("system");
-			map.remove("_");
-			return new ObjectSerializer().serialize(map);
+			BinarySerializer serializer = new BinarySerializer();
+			Map<String, byte[]> snapshot = new HashMap<>();
+			synchronized(globals) {
+				for(Map.Entry<String, Object> entry:globals.entrySet()) {
+					if(!entry.getKey().equals("system") && !entry.getKey().equals("_")) {
+						snapshot.put(entry.getKey(), serializer.serializeValue(entry.getValue()));
+					}
+				}
+			}
+			return snapshot;
+		});
+	}
+	
+	/**
+	 * Writes a snapshot of the globals to a stream in the binary format of BinarySerializer, without closing it.
+	 */
+	public static void writeGlobals(Map<String, byte[]> snapshot, OutputStream outputStream) throws IOException {
+		new BinarySerializer().serializeValues(snapshot, outputStream);
+	}
+	
+	/**
+	 * Returns the globals file that a workbook in the directory refers to by name. Only a plain file name is accepted,
+	 * so that a workbook can't read files outside its own directory.
+	 */
+	public static File getGlobalsFile(File directory, String name) throws IOException {
+		if(name.isEmpty() || name.equals(".") || name.equals("..") || !new File(name).getName().equals(name)
+			|| name.contains("/") || name.contains("\\")) {
+			throw new IOException("Invalid globals file: " + name);
+		}
+		return new File(directory, name);
+	}
+	
+	/**
+	 * Reads the global map from a stream written by writeGlobals, without closing it.
+	 */
+	public ScriptFuture<Void> readGlobals(InputStream inputStream) {
+		return exec(() -> {
+			Map<String, Object> map = new BinarySerializer().deserialize(inputStream);
+			synchronized(globals) {
+				Object system = globals.get("system");
+				globals.putAll(map);
+				globals.put("system", system);
+			}
+			return null;
 		});
 	}
 	
@@ -214,9 +845,11 @@ public class ScriptController {
 	public ScriptFuture<Void> deserializeGlobals(String globalMap) {
 		return exec(() -> {
 			Map<String, Object> map = new ObjectSerializer().deserialize(globalMap);
-			Object system = globals.get("system");
-			globals.putAll(map);
-			globals.put("system", system);
+			synchronized(globals) {
+				Object system = globals.get("system");
+				globals.putAll(map);
+				globals.put("system", system);
+			}
 			return null;
 		});
 	}
@@ -1,34 +1,103 @@
 package workbook.script;
 
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.function.Consumer;
+import java.util.function.Function;
 
 /**
  * A future created to allow asynchronous communication with the script engine.
- * Contains the default exception handlers, and runs callbacks on the script thread.
+ * Contains the default exception handlers, and runs callbacks on the script thread. Callbacks run inline if the
+ * future completes on the script thread, so a chain of callbacks runs as part of the task that completed it.
  */
 public class ScriptFuture<T> {
 	private final CompletableFuture<T> future = new CompletableFuture<>();
 	private final ScriptController scriptController;
+	private final TaskPriority priority;
 	
 	public ScriptFuture(ScriptController scriptController) {
+		this(scriptController, TaskPriority.INTERACTIVE);
+	}
+	
+	/**
+	 * Creates a future whose callbacks are queued on the script thread with the given priority.
+	 */
+	public ScriptFuture(ScriptController scriptController, TaskPriority priority) {
 		this.scriptController = scriptController;
+		this.priority = priority;
 	}
 	
 	public void complete(T result) {
 		future.complete(result);
-		future.exceptionally(this::exceptionHandler);
 	}
 	
 	public void completeExceptionally(Throwable throwable) {
 		future.completeExceptionally(throwable);
 	}
 
+	/**
+	 * Cancels this future. If its task is still queued it won't be run, and if it's running the script thread is
+	 * interrupted. Returns false if the future had already completed.
+	 */
+	public boolean cancel() {
+		return cancel(new CancellationException("Evaluation cancelled"));
+	}
+	
+	/**
+	 * Cancels this future if it hasn't completed within the timeout, measured from now. The watchdog is cancelled
+	 * when the future completes.
+	 */
+	public ScriptFuture<T> timeout(long timeout, TimeUnit unit) {
+		ScheduledFuture<?> watchdog = ScriptController.scheduleWatchdog(() -> {
+			cancel(new TimeoutException("Evaluation timed out after " + unit.toMillis(timeout) + "ms"));
+		}, unit.toMillis(timeout));
+		future.whenComplete((value, e) -> watchdog.cancel(false));
+		return this;
+	}
+	
+	private boolean cancel(Throwable reason) {
+		if(future.completeExceptionally(reason)) {
+			scriptController.cancel(this);
+			return true;
+		}
+		return false;
+	}
+	
+	public boolean isDone() {
+		return future.isDone();
+	}
+
 	public T get() throws InterruptedException, ExecutionException {
 		return future.get();
 	}
 	
+	/**
+	 * Returns a future that completes with the result of the function applied to the result of this future, or with
+	 * the exception of this future if it fails.
+	 */
+	public <U> ScriptFuture<U> thenApply(Function<T, U> function) {
+		ScriptFuture<U> next = new ScriptFuture<>(scriptController, priority);
+		future.whenComplete((value, e) -> {
+			if(e != null) {
+				next.completeExceptionally((e instanceof CompletionException && e.getCause() != null) ? e.getCause() : e);
+			} else {
+				runOnScriptThread(() -> {
+					try {
+						next.complete(function.apply(value));
+					} catch(Exception ex) {
+						next.completeExceptionally(ex);
+					}
+				}).run();
+			}
+		});
+		return next;
+	}
+	
 	public void thenAccept(Consumer<T> callback) {
 		future
 			.thenAccept(runOnScriptThread(callback))
@@ -55,32 +124,37 @@ public class ScriptFuture<T> {
 			.thenRun(runOnScriptThread(callback))
 			.exceptionally(e -> {
 				exceptionHandler(e);
-				callback.run();
+				runOnScriptThread(callback).run();
 				return null;
 			})
 			.exceptionally(this::exceptionHandler);
 	}
 	
 	private <U> Consumer<U> runOnScriptThread(Consumer<U> callback) {
-		return value -> {
-			scriptController.exec(() -> {
-				callback.accept(value);
-				return null;
-			});
-		};
+		return value -> runOnScriptThread(() -> callback.accept(value)).run();
 	}
 	
+	/**
+	 * Returns a runnable that runs the callback inline if it's called on the script thread, or queues it otherwise.
+	 */
 	private Runnable runOnScriptThread(Runnable callback) {
 		return () -> {
-			scriptController.exec(() -> {
+			if(scriptController.isScriptThread()) {
 				callback.run();
-				return null;
-			});
+			} else {
+				scriptController.exec(priority, () -> {
+					callback.run();
+					return null;
+				});
+			}
 		};
 	}
 
 	private <V> V exceptionHandler(Throwable e) {
-		e.printStackTrace();
+		Throwable cause = (e instanceof CompletionException && e.getCause() != null) ? e.getCause() : e;
+		if(!(cause instanceof CancellationException || cause instanceof TimeoutException)) {
+			e.printStackTrace();
+		}
 		return null;
 	}
 }
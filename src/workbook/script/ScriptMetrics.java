@@ -0,0 +1,206 @@
+package workbook.script;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import workbook.util.Histogram;
+
+/**
+ * Metrics of the tasks run by a script controller. For each kind of task it records how long tasks waited in the queue
+ * and how long they ran for, and it also records the queue depth, the number of tasks run by each engine, and how
+ * long each engine took to start. Times are recorded in nanoseconds, and reported in microseconds.
+ */
+public class ScriptMetrics {
+	public static final int QUEUE_DEPTH_HISTORY_SECONDS = 60;
+
+	private final Map<TaskKind, Histogram> waitTimes = new EnumMap<>(TaskKind.class);
+	private final Map<TaskKind, Histogram> execTimes = new EnumMap<>(TaskKind.class);
+	private final Histogram queueDepth = new Histogram();
+	private final Map<String, EngineCounters> engineCounters = new ConcurrentHashMap<>();
+	private final Map<String, Long> engineStartNanos = new ConcurrentHashMap<>();
+
+	// The maximum queue depth seen in each of the last seconds, guarded by itself.
+	private final int[] queueDepthHistory = new int[QUEUE_DEPTH_HISTORY_SECONDS];
+	private final long[] queueDepthSeconds = new long[QUEUE_DEPTH_HISTORY_SECONDS];
+
+	/**
+	 * Counts the tasks run by one engine.
+	 */
+	public static class EngineCounters {
+		private final LongAdder tasks = new LongAdder();
+		private final LongAdder errors = new LongAdder();
+		private final LongAdder execNanos = new LongAdder();
+
+		public long getTasks() {
+			return tasks.sum();
+		}
+
+		public long getErrors() {
+			return errors.sum();
+		}
+
+		public long getExecMicros() {
+			return TimeUnit.NANOSECONDS.toMicros(execNanos.sum());
+		}
+	}
+
+	public ScriptMetrics() {
+		for(TaskKind kind:TaskKind.values()) {
+			waitTimes.put(kind, new Histogram());
+			execTimes.put(kind, new Histogram());
+		}
+	}
+
+	/**
+	 * Records a task that was run by an engine, which may be null if no engine has been set.
+	 */
+	public void recordTask(TaskKind kind, String engine, long waitNanos, long execNanos, boolean failed) {
+		waitTimes.get(kind).record(waitNanos);
+		execTimes.get(kind).record(execNanos);
+
+		EngineCounters counters = engineCounters.computeIfAbsent(String.valueOf(engine), key -> new EngineCounters());
+		counters.tasks.increment();
+		counters.execNanos.add(execNanos);
+		if(failed) {
+			counters.errors.increment();
+		}
+	}
+
+	/**
+	 * Records how long an engine took to be created.
+	 */
+	public void recordEngineStart(String engine, long startNanos) {
+		engineStartNanos.put(engine, startNanos);
+	}
+
+	/**
+	 * Records the number of tasks waiting in the queue.
+	 */
+	public void recordQueueDepth(int depth) {
+		queueDepth.record(depth);
+
+		long second = TimeUnit.NANOSECONDS.toSeconds(System.nanoTime());
+		int index = (int) (second % QUEUE_DEPTH_HISTORY_SECONDS);
+		synchronized(queueDepthHistory) {
+			if(queueDepthSeconds[index] != second) {
+				queueDepthSeconds[index] = second;
+				queueDepthHistory[index] = depth;
+			} else {
+				queueDepthHistory[index] = Math.max(queueDepthHistory[index], depth);
+			}
+		}
+	}
+
+	public Histogram getWaitTimes(TaskKind kind) {
+		return waitTimes.get(kind);
+	}
+
+	public Histogram getExecTimes(TaskKind kind) {
+		return execTimes.get(kind);
+	}
+
+	public Histogram getQueueDepth() {
+		return queueDepth;
+	}
+
+	public Map<String, EngineCounters> getEngineCounters() {
+		return new LinkedHashMap<>(engineCounters);
+	}
+
+	/**
+	 * Returns how long each engine that has been created took to start, in microseconds.
+	 */
+	public Map<String, Long> getEngineStartMicros() {
+		Map<String, Long> startMicros = new LinkedHashMap<>();
+		engineStartNanos.forEach((engine, nanos) -> startMicros.put(engine, TimeUnit.NANOSECONDS.toMicros(nanos)));
+		return startMicros;
+	}
+
+	/**
+	 * Returns the maximum queue depth in each of the last seconds, oldest first, with 0 for seconds without tasks.
+	 */
+	public List<Integer> getQueueDepthHistory() {
+		long now = TimeUnit.NANOSECONDS.toSeconds(System.nanoTime());
+		List<Integer> history = new ArrayList<>();
+		synchronized(queueDepthHistory) {
+			for(long second = now - QUEUE_DEPTH_HISTORY_SECONDS + 1; second <= now; second++) {
+				int index = (int) (second % QUEUE_DEPTH_HISTORY_SECONDS);
+				history.add(queueDepthSeconds[index] == second ? queueDepthHistory[index] : 0);
+			}
+		}
+		return history;
+	}
+
+	/**
+	 * Resets the metrics of the tasks. The start times of the engines are kept, as engines are only started once.
+	 */
+	public void reset() {
+		waitTimes.values().forEach(Histogram::reset);
+		execTimes.values().forEach(Histogram::reset);
+		queueDepth.reset();
+		engineCounters.clear();
+		synchronized(queueDepthHistory) {
+			for(int i = 0; i < QUEUE_DEPTH_HISTORY_SECONDS; i++) {
+				queueDepthHistory[i] = 0;
+				queueDepthSeconds[i] = 0;
+			}
+		}
+	}
+
+	/**
+	 * Returns the metrics as nested maps and lists, so that they can be read from scripts.
+	 */
+	public Map<String, Object> toMap() {
+		Map<String, Object> tasks = new LinkedHashMap<>();
+		for(TaskKind kind:TaskKind.values()) {
+			Map<String, Object> task = new LinkedHashMap<>();
+			task.put("wait", toMicrosMap(waitTimes.get(kind)));
+			task.put("exec", toMicrosMap(execTimes.get(kind)));
+			tasks.put(kind.name().toLowerCase(), task);
+		}
+
+		Map<String, Object> queue = new LinkedHashMap<>();
+		queue.put("count", queueDepth.getCount());
+		queue.put("mean", queueDepth.getMean());
+		queue.put("p99", queueDepth.getValueAtPercentile(99));
+		queue.put("max", queueDepth.getMax());
+		queue.put("history", getQueueDepthHistory());
+
+		Map<String, Object> engines = new LinkedHashMap<>();
+		getEngineCounters().forEach((name, counters) -> {
+			Map<String, Object> engine = new LinkedHashMap<>();
+			engine.put("tasks", counters.getTasks());
+			engine.put("errors", counters.getErrors());
+			engine.put("execMicros", counters.getExecMicros());
+			engines.put(name, engine);
+		});
+
+		Map<String, Object> map = new LinkedHashMap<>();
+		map.put("tasks", tasks);
+		map.put("queueDepth", queue);
+		map.put("engines", engines);
+		map.put("engineStartMicros", getEngineStartMicros());
+		return map;
+	}
+
+	private static Map<String, Object> toMicrosMap(Histogram histogram) {
+		Map<String, Object> map = new LinkedHashMap<>();
+		map.put("count", histogram.getCount());
+		map.put("mean", histogram.getMean() / 1000);
+		map.put("p50", TimeUnit.NANOSECONDS.toMicros(histogram.getValueAtPercentile(50)));
+		map.put("p90", TimeUnit.NANOSECONDS.toMicros(histogram.getValueAtPercentile(90)));
+		map.put("p99", TimeUnit.NANOSECONDS.toMicros(histogram.getValueAtPercentile(99)));
+		map.put("max", TimeUnit.NANOSECONDS.toMicros(histogram.getMax()));
+		return map;
+	}
+
+	public String toString() {
+		return toMap().toString();
+	}
+}
@@ -0,0 +1,116 @@
+package workbook.script;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Manages a set of named script sessions. Each session is a ScriptController with its own queue, thread and engine
+ * instances, so that a long running command in one session doesn't block the others. A session has its own globals
+ * unless it is created to share the globals of the default session.
+ */
+public class ScriptSessions {
+	public static final String DEFAULT_SESSION = "Default";
+
+	private final ScriptController defaultSession;
+	private final Consumer<ScriptController> sessionInitializer;
+
+	private final Map<String, ScriptController> sessions = new LinkedHashMap<>();
+	private final Map<String, Supplier<Engine>> engineSuppliers = new LinkedHashMap<>();
+
+	/**
+	 * Creates the sessions around a default session. The sessionInitializer is called for each new session after
+	 * its engines have been added, and before it is returned.
+	 */
+	public ScriptSessions(ScriptController defaultSession, Consumer<ScriptController> sessionInitializer) {
+		this.defaultSession = defaultSession;
+		this.sessionInitializer = sessionInitializer;
+	}
+
+	/**
+	 * Registers an engine that will be created for every session that's created after this call.
+	 */
+	public synchronized void registerEngine(String scriptType, Supplier<Engine> engineSupplier) {
+		engineSuppliers.put(scriptType, engineSupplier);
+	}
+
+	public ScriptController getDefaultSession() {
+		return defaultSession;
+	}
+
+	/**
+	 * Returns the session with the given name, creating it with its own globals if it doesn't exist.
+	 */
+	public ScriptController getSession(String name) {
+		return getSession(name, false);
+	}
+
+	/**
+	 * Returns the session with the given name, creating it if it doesn't exist. The session shares the globals of the
+	 * default session only if shareGlobals is set. An empty or null name returns the default session.
+	 * 
+	 * @throws IllegalArgumentException if the session exists, and shareGlobals doesn't match how it was created.
+	 */
+	public synchronized ScriptController getSession(String name, boolean shareGlobals) {
+		if(isDefaultSession(name)) {
+			return defaultSession;
+		}
+
+		ScriptController session = sessions.get(name);
+		if(session == null) {
+			session = shareGlobals ? new ScriptController(name, defaultSession.getGlobalsSync()) : new ScriptController(name);
+			session.startQueueThread();
+			engineSuppliers.forEach(session::addEngine);
+			sessionInitializer.accept(session);
+			sessions.put(name, session);
+		} else if(isSharingGlobals(session) != shareGlobals) {
+			throw new IllegalArgumentException("Session " + name + (shareGlobals ? " has its own globals" : " shares the default globals"));
+		}
+		return session;
+	}
+
+	/**
+	 * Returns whether the session uses the globals of the default session.
+	 */
+	public boolean isSharingGlobals(ScriptController session) {
+		return session.getGlobalsSync() == defaultSession.getGlobalsSync();
+	}
+
+	/**
+	 * Removes the session with the given name, and shuts down its thread. The default session can't be removed.
+	 */
+	public synchronized void removeSession(String name) {
+		if(!isDefaultSession(name)) {
+			ScriptController session = sessions.remove(name);
+			if(session != null) {
+				session.shutdown();
+			}
+		}
+	}
+
+	/**
+	 * Removes all sessions other than the default session, shutting down their threads. This is called when the
+	 * workbook is closed, or replaced by another workbook.
+	 */
+	public synchronized void close() {
+		sessions.values().forEach(ScriptController::shutdown);
+		sessions.clear();
+	}
+
+	/**
+	 * Returns all sessions, starting with the default session.
+	 */
+	public synchronized List<ScriptController> getSessions() {
+		List<ScriptController> list = new ArrayList<>();
+		list.add(defaultSession);
+		list.addAll(sessions.values());
+		return list;
+	}
+
+	public static boolean isDefaultSession(String name) {
+		return name == null || name.isEmpty() || name.equals(DEFAULT_SESSION);
+	}
+}
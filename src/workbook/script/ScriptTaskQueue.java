@@ -0,0 +1,146 @@
+package workbook.script;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A blocking queue of tasks ordered by priority, and then by the order they were added.
+ * To stop lower priority tasks from starving, a task that has waited longer than the maximum wait time is
+ * run before any higher priority tasks that haven't waited as long. After an overdue task has been run ahead of a
+ * higher priority task, the next task is taken by priority again, so a backlog of overdue tasks only delays each
+ * higher priority task by one task.
+ * 
+ * A task can be added with a key, in which case it replaces any pending task with the same key. The replacement keeps
+ * the place of the pending task, so that the queue holds at most one task for each key.
+ */
+public class ScriptTaskQueue {
+	public static final long DEFAULT_MAX_WAIT_MILLIS = 250;
+	
+	private static class Task {
+		private final Object key;
+		private final long addedNanos;
+		private Runnable runnable;
+		
+		public Task(Object key, Runnable runnable) {
+			this.key = key;
+			this.runnable = runnable;
+			this.addedNanos = System.nanoTime();
+		}
+	}
+	
+	private final Map<TaskPriority, Deque<Task>> queues = new EnumMap<>(TaskPriority.class);
+	private final Map<Object, Task> keyedTasks = new HashMap<>();
+	private final long maxWaitNanos;
+	private int size = 0;
+	private boolean promoted = false;
+	
+	public ScriptTaskQueue() {
+		this(DEFAULT_MAX_WAIT_MILLIS);
+	}
+	
+	public ScriptTaskQueue(long maxWaitMillis) {
+		this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+		for(TaskPriority priority:TaskPriority.values()) {
+			queues.put(priority, new ArrayDeque<>());
+		}
+	}
+	
+	public synchronized void add(TaskPriority priority, Runnable runnable) {
+		add(priority, null, runnable);
+	}
+	
+	/**
+	 * Adds a task, replacing any pending task with the same key. Returns the replaced task, or null if there wasn't one.
+	 * A null key never replaces another task.
+	 */
+	public synchronized Runnable add(TaskPriority priority, Object key, Runnable runnable) {
+		if(key != null) {
+			Task pending = keyedTasks.get(key);
+			if(pending != null) {
+				Runnable replaced = pending.runnable;
+				pending.runnable = runnable;
+				return replaced;
+			}
+		}
+		
+		Task task = new Task(key, runnable);
+		if(key != null) {
+			keyedTasks.put(key, task);
+		}
+		queues.get(priority).addLast(task);
+		size++;
+		notifyAll();
+		return null;
+	}
+	
+	/**
+	 * Removes and returns the next task to run, waiting until one is available.
+	 */
+	public synchronized Runnable take() throws InterruptedException {
+		while(size == 0) {
+			wait();
+		}
+		
+		Deque<Task> next = null;
+		for(Deque<Task> queue:queues.values()) {
+			if(!queue.isEmpty()) {
+				next = queue;
+				break;
+			}
+		}
+		
+		Deque<Task> overdue = promoted ? null : getOverdueQueue(System.nanoTime());
+		promoted = (overdue != null && overdue != next);
+		if(promoted) {
+			next = overdue;
+		}
+		
+		Task task = next.removeFirst();
+		if(task.key != null) {
+			keyedTasks.remove(task.key);
+		}
+		size--;
+		return task.runnable;
+	}
+	
+	/**
+	 * Returns the queue whose first task has waited the longest, if that's longer than the maximum wait time.
+	 */
+	private Deque<Task> getOverdueQueue(long now) {
+		Deque<Task> overdue = null;
+		for(Deque<Task> queue:queues.values()) {
+			Task task = queue.peekFirst();
+			if(task != null && now - task.addedNanos > maxWaitNanos) {
+				if(overdue == null || task.addedNanos < overdue.peekFirst().addedNanos) {
+					overdue = queue;
+				}
+			}
+		}
+		return overdue;
+	}
+	
+	public synchronized int size() {
+		return size;
+	}
+	
+	/**
+	 * Removes and returns all the queued tasks, highest priority first.
+	 */
+	public synchronized List<Runnable> clear() {
+		List<Runnable> tasks = new ArrayList<>(size);
+		for(Deque<Task> queue:queues.values()) {
+			queue.forEach(task -> tasks.add(task.runnable));
+			queue.clear();
+		}
+		keyedTasks.clear();
+		size = 0;
+		promoted = false;
+		return tasks;
+	}
+}
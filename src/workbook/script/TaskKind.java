@@ -0,0 +1,17 @@
+package workbook.script;
+
+/**
+ * The kind of a task posted to the script queue, used to group its metrics.
+ */
+public enum TaskKind {
+	EVAL,
+	EVAL_METHOD_CALL,
+	EVAL_WITH_CALLBACK_FUNCTIONS,
+	REFERENCE_GET,
+	REFERENCE_SET,
+	
+	/**
+	 * Any other task, such as changing engines or reading a variable.
+	 */
+	OTHER
+}
@@ -0,0 +1,21 @@
+package workbook.script;
+
+/**
+ * The priority class of a task posted to the script queue, from highest to lowest.
+ */
+public enum TaskPriority {
+	/**
+	 * Evaluations started directly by the user, such as running a cell.
+	 */
+	INTERACTIVE,
+	
+	/**
+	 * Reads that refresh the views after something has changed.
+	 */
+	REFRESH,
+	
+	/**
+	 * Work that nothing is waiting on.
+	 */
+	BACKGROUND
+}
@@ -0,0 +1,107 @@
+package workbook.util;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Runs tasks that write files one at a time on a background thread. A task that's submitted with the same key as a
+ * task that hasn't started yet replaces it, so a series of saves of the same file only writes the latest one.
+ */
+public class BackgroundFileWriter {
+	public interface Task {
+		void run() throws Exception;
+	}
+
+	public interface Content {
+		void write(OutputStream outputStream) throws Exception;
+	}
+
+	private static class PendingTask {
+		private Task task;
+		private final CompletableFuture<Void> future = new CompletableFuture<>();
+
+		public PendingTask(Task task) {
+			this.task = task;
+		}
+	}
+
+	private final ExecutorService executor;
+	private final Map<Object, PendingTask> pendingTasks = new HashMap<>();
+
+	public BackgroundFileWriter(String threadName) {
+		executor = Executors.newSingleThreadExecutor(runnable -> {
+			Thread thread = new Thread(runnable, threadName);
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * Runs the task on the writer thread after the tasks before it, unless a task with the same key that hasn't started
+	 * replaces it first. Returns a future that completes when the task, or the task that replaced it, has run.
+	 */
+	public CompletableFuture<Void> submit(Object key, Task task) {
+		synchronized(pendingTasks) {
+			PendingTask pendingTask = pendingTasks.get(key);
+			if(pendingTask != null) {
+				pendingTask.task = task;
+				return pendingTask.future;
+			}
+
+			PendingTask newTask = new PendingTask(task);
+			pendingTasks.put(key, newTask);
+			executor.execute(() -> run(key));
+			return newTask.future;
+		}
+	}
+
+	private void run(Object key) {
+		PendingTask pendingTask;
+		synchronized(pendingTasks) {
+			pendingTask = pendingTasks.remove(key);
+		}
+
+		try {
+			pendingTask.task.run();
+			pendingTask.future.complete(null);
+		} catch(Throwable e) {
+			pendingTask.future.completeExceptionally(e);
+		}
+	}
+
+	/**
+	 * Writes a file by writing the content to a temporary file next to it, and then renaming it over the file, so
+	 * the file is never left partly written.
+	 */
+	public static void writeAtomically(File file, Content content) throws Exception {
+		File tempFile = new File(file.getPath() + ".tmp");
+
+		try {
+			try(FileOutputStream fileOutputStream = new FileOutputStream(tempFile)) {
+				OutputStream outputStream = new BufferedOutputStream(fileOutputStream);
+				content.write(outputStream);
+				outputStream.flush();
+				fileOutputStream.getFD().sync();
+			}
+
+			try {
+				Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+			} catch(AtomicMoveNotSupportedException e) {
+				Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+		} catch(Exception e) {
+			tempFile.delete();
+			throw e;
+		}
+	}
+}
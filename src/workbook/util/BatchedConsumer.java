@@ -0,0 +1,46 @@
+package workbook.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * A consumer that collects the values it's called with, and passes them to the batch consumer together once per
+ * frame of frameTime milliseconds. A frame starts with the first value after the last batch, so nothing runs while
+ * there are no values.
+ */
+public class BatchedConsumer<T> implements Consumer<T> {
+	private final Object lock = new Object();
+	
+	private final Consumer<List<T>> consumer;
+	private final int frameTime;
+	
+	private List<T> batch = new ArrayList<>();
+	private boolean scheduled = false;
+
+	public BatchedConsumer(int frameTime, Consumer<List<T>> consumer) {
+		this.consumer = consumer;
+		this.frameTime = frameTime;
+	}
+	
+	public void accept(T value) {
+		synchronized(lock) {
+			batch.add(value);
+			if(!scheduled) {
+				scheduled = true;
+				Scheduler.schedule(this::flush, frameTime);
+			}
+		}
+	}
+	
+	private void flush() {
+		List<T> values;
+		synchronized(lock) {
+			values = batch;
+			batch = new ArrayList<>();
+			scheduled = false;
+		}
+		
+		consumer.accept(values);
+	}
+}
@@ -0,0 +1,276 @@
+package workbook.util;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A bounded buffer of output lines between the threads that write them and the thread that displays them. When the
+ * buffer is full, the overflow policy decides whether a writer blocks until lines are taken, whether the oldest line is
+ * dropped, or whether lines are spilled to a temporary file until they can be taken. Lines are always taken in the
+ * order they were added.
+ *
+ * A writer can be limited in how long it blocks, so that it can't wait forever on a reader that's waiting on it.
+ */
+public class BoundedLineBuffer {
+	public enum OverflowPolicy {
+		BLOCK, DROP_OLDEST, SPILL
+	}
+
+	/**
+	 * A line of output, and whether it was written to the error stream.
+	 */
+	public static class Line {
+		private final String text;
+		private final boolean error;
+
+		public Line(String text, boolean error) {
+			this.text = text;
+			this.error = error;
+		}
+
+		public String getText() {
+			return text;
+		}
+
+		public boolean isError() {
+			return error;
+		}
+	}
+
+	private final Line[] lines;
+	private final long maxBlockMillis;
+	private int head = 0;
+	private int size = 0;
+
+	private OverflowPolicy overflowPolicy;
+	private long droppedCount = 0;
+
+	// Lines added while the spill file has lines that haven't been taken are spilled, to keep them in order.
+	private File spillFile;
+	private BufferedWriter spillWriter;
+	private BufferedReader spillReader;
+	private long spilledCount = 0;
+
+	public BoundedLineBuffer(int capacity, OverflowPolicy overflowPolicy) {
+		this(capacity, overflowPolicy, 0);
+	}
+
+	/**
+	 * Creates a buffer where a blocked writer waits at most maxBlockMillis for space before the oldest line is dropped,
+	 * or waits until there's space if maxBlockMillis is 0.
+	 */
+	public BoundedLineBuffer(int capacity, OverflowPolicy overflowPolicy, long maxBlockMillis) {
+		if(capacity < 1) {
+			throw new IllegalArgumentException("capacity must be at least 1");
+		}
+		this.lines = new Line[capacity];
+		this.overflowPolicy = overflowPolicy;
+		this.maxBlockMillis = maxBlockMillis;
+	}
+
+	public synchronized void setOverflowPolicy(OverflowPolicy overflowPolicy) {
+		this.overflowPolicy = overflowPolicy;
+		notifyAll();
+	}
+
+	public synchronized OverflowPolicy getOverflowPolicy() {
+		return overflowPolicy;
+	}
+
+	/**
+	 * Adds a line. If the buffer is full and the policy is to block, this waits until there's space, unless mayBlock
+	 * isn't set or the maximum block time runs out, in which case the oldest line is dropped instead. A line that's
+	 * added by a thread that's interrupted while waiting is dropped, and the thread stays interrupted.
+	 */
+	public synchronized void add(String text, boolean error, boolean mayBlock) {
+		Line line = new Line(text, error);
+
+		if(spillFile != null) {
+			spill(line);
+			return;
+		}
+
+		long deadline = System.currentTimeMillis() + maxBlockMillis;
+		while(size == lines.length && overflowPolicy == OverflowPolicy.BLOCK && mayBlock) {
+			long remaining = deadline - System.currentTimeMillis();
+			if(maxBlockMillis > 0 && remaining <= 0) {
+				break;
+			}
+			try {
+				wait((maxBlockMillis > 0) ? remaining : 0);
+			} catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+				droppedCount++;
+				return;
+			}
+			if(spillFile != null) {
+				spill(line);
+				return;
+			}
+		}
+
+		if(size == lines.length) {
+			if(overflowPolicy == OverflowPolicy.SPILL) {
+				spill(line);
+				return;
+			}
+			lines[head] = null;
+			head = (head + 1) % lines.length;
+			size--;
+			droppedCount++;
+		}
+
+		lines[(head + size) % lines.length] = line;
+		size++;
+	}
+
+	/**
+	 * Adds lines in order as with add, holding the lock once for all of them.
+	 */
+	public synchronized void addAll(List<String> texts, boolean error, boolean mayBlock) {
+		for(String text:texts) {
+			add(text, error, mayBlock);
+		}
+	}
+
+	/**
+	 * Writes a line to the spill file, creating it if it doesn't exist. The line is dropped if it can't be written.
+	 */
+	private void spill(Line line) {
+		try {
+			if(spillFile == null) {
+				spillFile = File.createTempFile("workbook-output", ".txt");
+				spillFile.deleteOnExit();
+				spillWriter = Files.newBufferedWriter(spillFile.toPath(), StandardCharsets.UTF_8);
+				spillReader = Files.newBufferedReader(spillFile.toPath(), StandardCharsets.UTF_8);
+			}
+			spillWriter.write(line.isError() ? 'E' : 'O');
+			spillWriter.write(escape(line.getText()));
+			spillWriter.write('\n');
+			spilledCount++;
+		} catch(IOException e) {
+			droppedCount++;
+		}
+	}
+
+	/**
+	 * Takes up to maxLines lines, oldest first.
+	 */
+	public synchronized List<Line> take(int maxLines) {
+		List<Line> taken = new ArrayList<>(Math.min(maxLines, size));
+		while(size > 0 && taken.size() < maxLines) {
+			taken.add(lines[head]);
+			lines[head] = null;
+			head = (head + 1) % lines.length;
+			size--;
+		}
+
+		if(spillFile != null && taken.size() < maxLines) {
+			takeSpilled(taken, maxLines);
+		}
+
+		notifyAll();
+		return taken;
+	}
+
+	/**
+	 * Reads spilled lines until maxLines have been taken, and deletes the spill file once all of its lines are read.
+	 */
+	private void takeSpilled(List<Line> taken, int maxLines) {
+		try {
+			spillWriter.flush();
+			String text;
+			while(taken.size() < maxLines && (text = spillReader.readLine()) != null) {
+				taken.add(new Line(unescape(text.substring(1)), text.charAt(0) == 'E'));
+				spilledCount--;
+			}
+		} catch(IOException e) {
+			droppedCount += spilledCount;
+			spilledCount = 0;
+		}
+
+		if(spilledCount == 0) {
+			closeSpillFile();
+		}
+	}
+
+	private void closeSpillFile() {
+		try {
+			spillWriter.close();
+			spillReader.close();
+		} catch(IOException e) {
+		}
+		spillFile.delete();
+		spillFile = null;
+		spillWriter = null;
+		spillReader = null;
+	}
+
+	/**
+	 * Removes every line, including spilled lines, without counting them as dropped.
+	 */
+	public synchronized void clear() {
+		while(size > 0) {
+			lines[head] = null;
+			head = (head + 1) % lines.length;
+			size--;
+		}
+		if(spillFile != null) {
+			closeSpillFile();
+			spilledCount = 0;
+		}
+		notifyAll();
+	}
+
+	/**
+	 * Returns whether there are no lines to take.
+	 */
+	public synchronized boolean isEmpty() {
+		return size == 0 && spilledCount == 0;
+	}
+
+	/**
+	 * Returns the number of lines that can be taken, including spilled lines.
+	 */
+	public synchronized long getSize() {
+		return size + spilledCount;
+	}
+
+	/**
+	 * Returns the number of lines that are waiting in the spill file.
+	 */
+	public synchronized long getSpilledCount() {
+		return spilledCount;
+	}
+
+	/**
+	 * Returns the number of lines that have been dropped since the buffer was created.
+	 */
+	public synchronized long getDroppedCount() {
+		return droppedCount;
+	}
+
+	private static String escape(String text) {
+		return text.replace("\\", "\\\\").replace("\n", "\\n").replace("\r", "\\r");
+	}
+
+	private static String unescape(String text) {
+		StringBuilder s = new StringBuilder(text.length());
+		for(int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			if(c == '\\' && i + 1 < text.length()) {
+				char next = text.charAt(++i);
+				s.append((next == 'n') ? '\n' : (next == 'r') ? '\r' : next);
+			} else {
+				s.append(c);
+			}
+		}
+		return s.toString();
+	}
+}
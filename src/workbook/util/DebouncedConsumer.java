@@ -1,7 +1,6 @@
 package workbook.util;
 
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.concurrent.ScheduledFuture;
 import java.util.function.Consumer;
 
 /**
@@ -16,7 +15,8 @@ public class DebouncedConsumer<T> implements Consumer<T> {
 	private final int waitTime;
 	private final boolean immediate;
 	
-	private Timer timer = null;
+	private ScheduledFuture<?> pending = null;
+	private long callCount = 0;
 
 	public DebouncedConsumer(int waitTime, boolean immediate, Consumer<T> consumer) {
 		this.consumer = consumer;
@@ -28,21 +28,16 @@ public class DebouncedConsumer<T> implements Consumer<T> {
 		boolean shouldCall = false;
 		
 		synchronized(lock) {
-			if(timer == null) {
+			if(pending == null) {
 				if(immediate) {
 					shouldCall = true;
 				}
 			} else {
-				timer.cancel();
-				timer = null;
+				pending.cancel(false);
 			}
 			
-			timer = new Timer(false);
-			timer.schedule(new TimerTask() {
-				public void run() {
-					later(param);
-				}
-			}, waitTime);
+			long call = ++callCount;
+			pending = Scheduler.schedule(() -> later(param, call), waitTime);
 		}
 		
 		if(shouldCall) {
@@ -50,16 +45,17 @@ public class DebouncedConsumer<T> implements Consumer<T> {
 		}
 	}
 
-	private void later(T param) {
+	private void later(T param, long call) {
 		synchronized(lock) {
-			if(timer != null) {
-				timer.cancel();
-				timer = null;
+			// A later call replaced this one after it had already started.
+			if(call != callCount) {
+				return;
 			}
+			pending = null;
 		}
 		
 		if(!immediate) {
 			consumer.accept(param);
 		}
 	}
-}
\ No newline at end of file
+}
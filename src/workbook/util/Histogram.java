@@ -0,0 +1,102 @@
+package workbook.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of non-negative long values with a fixed relative precision, using log-linear buckets in the style of
+ * HdrHistogram. Each power of two is split into 32 buckets, so a recorded value is reported within about 3% of
+ * its real value. Recording is lock-free and doesn't allocate, so it's cheap enough to leave on.
+ */
+public class Histogram {
+	private static final int SUB_BUCKET_BITS = 5;
+	private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+	private static final int BUCKET_COUNT = (64 - SUB_BUCKET_BITS) * SUB_BUCKET_COUNT;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong sum = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * Records a value. Negative values are recorded as 0.
+	 */
+	public void record(long value) {
+		value = Math.max(value, 0);
+		counts.incrementAndGet(getIndex(value));
+		count.incrementAndGet();
+		sum.addAndGet(value);
+		max.accumulateAndGet(value, Math::max);
+	}
+
+	public long getCount() {
+		return count.get();
+	}
+
+	public long getMax() {
+		return max.get();
+	}
+
+	public double getMean() {
+		long count = getCount();
+		return (count == 0) ? 0 : (double) sum.get() / count;
+	}
+
+	/**
+	 * Returns the highest value that's equivalent to the value at the given percentile, from 0 to 100.
+	 * Returns 0 if nothing has been recorded.
+	 */
+	public long getValueAtPercentile(double percentile) {
+		long count = getCount();
+		if(count == 0) {
+			return 0;
+		}
+
+		long target = Math.max(1, (long) Math.ceil(count * Math.min(percentile, 100) / 100));
+		long total = 0;
+		for(int i = 0; i < BUCKET_COUNT; i++) {
+			total += counts.get(i);
+			if(total >= target) {
+				return Math.min(getHighestValue(i), getMax());
+			}
+		}
+		return getMax();
+	}
+
+	/**
+	 * Clears all recorded values. Values recorded while this runs may be partly cleared.
+	 */
+	public void reset() {
+		for(int i = 0; i < BUCKET_COUNT; i++) {
+			counts.set(i, 0);
+		}
+		count.set(0);
+		sum.set(0);
+		max.set(0);
+	}
+
+	/**
+	 * Returns the bucket of a value. Values below 32 have their own bucket, and each power of two above that
+	 * is split into 32 buckets using the bits after the highest bit.
+	 */
+	static int getIndex(long value) {
+		if(value < SUB_BUCKET_COUNT) {
+			return (int) value;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int shift = exponent - SUB_BUCKET_BITS;
+		return (shift + 1) * SUB_BUCKET_COUNT + (int) ((value >>> shift) - SUB_BUCKET_COUNT);
+	}
+
+	/**
+	 * Returns the highest value that's recorded in a bucket.
+	 */
+	static long getHighestValue(int index) {
+		if(index < SUB_BUCKET_COUNT) {
+			return index;
+		}
+		int shift = index / SUB_BUCKET_COUNT - 1;
+		long subBucket = SUB_BUCKET_COUNT + index % SUB_BUCKET_COUNT;
+		return ((subBucket + 1) << shift) - 1;
+	}
+}
@@ -0,0 +1,46 @@
+package workbook.util;
+
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * The timer shared by the throttled, debounced and batched consumers, so that the whole application has one timer
+ * thread instead of a thread for each pending call. Tasks run on that thread, so they should be quick, and pass any
+ * slow work on to another thread.
+ */
+public class Scheduler {
+	private static final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "Scheduler");
+		thread.setDaemon(true);
+		return thread;
+	});
+	
+	/**
+	 * Runs the task on the scheduler thread after a delay. Exceptions thrown by the task are printed.
+	 */
+	public static ScheduledFuture<?> schedule(Runnable task, long delayMillis) {
+		return executor.schedule(() -> {
+			try {
+				task.run();
+			} catch(Throwable e) {
+				e.printStackTrace();
+			}
+		}, delayMillis, TimeUnit.MILLISECONDS);
+	}
+	
+	public static <T> ThrottledConsumer<T> throttle(int waitTime, boolean trailing, Consumer<T> consumer) {
+		return new ThrottledConsumer<>(waitTime, trailing, consumer);
+	}
+	
+	public static <T> DebouncedConsumer<T> debounce(int waitTime, boolean immediate, Consumer<T> consumer) {
+		return new DebouncedConsumer<>(waitTime, immediate, consumer);
+	}
+	
+	public static <T> BatchedConsumer<T> batch(int frameTime, Consumer<List<T>> consumer) {
+		return new BatchedConsumer<>(frameTime, consumer);
+	}
+}
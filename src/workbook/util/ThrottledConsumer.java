@@ -1,14 +1,13 @@
 package workbook.util;
 
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.concurrent.ScheduledFuture;
 import java.util.function.Consumer;
 
 /**
  * A consumer that runs at most every waitTime milliseconds. The consumer
  * will run when it is first called, and again if called after waitTime milliseconds
- * have passed. If trailing is set then it will run any missed calls after waitTime
- * milliseconds have passed.
+ * have passed. If trailing is set then it will run with the last missed call after
+ * waitTime milliseconds have passed.
  */
 public class ThrottledConsumer<T> implements Consumer<T> {
 	private final Object lock = new Object();
@@ -17,7 +16,8 @@ public class ThrottledConsumer<T> implements Consumer<T> {
 	private final int waitTime;
 	private final boolean trailing;
 	
-	private Timer timer = null;
+	private ScheduledFuture<?> pending = null;
+	private T pendingParam = null;
 	private long lastTime = 0;
 
 	public ThrottledConsumer(int waitTime, boolean trailing, Consumer<T> consumer) {
@@ -32,17 +32,13 @@ public class ThrottledConsumer<T> implements Consumer<T> {
 		synchronized(lock) {
 			long elapsedTime = System.currentTimeMillis() - lastTime;
 			
-			if(timer == null && elapsedTime >= waitTime) {
+			if(pending == null && elapsedTime >= waitTime) {
 				shouldCall = true;
 				lastTime = System.currentTimeMillis();
 			} else if(trailing) {
-				if(timer == null) {
-					timer = new Timer(false);
-					timer.schedule(new TimerTask() {
-						public void run() {
-							later(param);
-						}
-					}, Math.max(0, waitTime - elapsedTime));
+				pendingParam = param;
+				if(pending == null) {
+					pending = Scheduler.schedule(this::later, Math.max(0, waitTime - elapsedTime));
 				}
 			}
 		}
@@ -52,15 +48,15 @@ public class ThrottledConsumer<T> implements Consumer<T> {
 		}
 	}
 	
-	private void later(T param) {
+	private void later() {
+		T param;
 		synchronized(lock) {
-			if(timer != null) {
-				lastTime = System.currentTimeMillis();
-				timer.cancel();
-				timer = null;
-			}
+			lastTime = System.currentTimeMillis();
+			pending = null;
+			param = pendingParam;
+			pendingParam = null;
 		}
 		
 		consumer.accept(param);
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,122 @@
+package workbook.util;
+
+import java.io.InputStream;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.jdom2.Element;
+
+/**
+ * Reads an XML document from a stream one element at a time.
+ *
+ * The reader is always on the start or end of an element. Reading a child element with nextChild, and then reading
+ * its text, reading it as an Element, or skipping it, leaves the reader on its end, ready for the next child.
+ */
+public class XmlReader {
+	private final XMLStreamReader reader;
+	
+	public XmlReader(InputStream inputStream) throws XMLStreamException {
+		this.reader = XMLInputFactory.newInstance().createXMLStreamReader(inputStream);
+	}
+	
+	/**
+	 * Moves to the root element of the document.
+	 */
+	public void startDocument() throws XMLStreamException {
+		while(reader.getEventType() != XMLStreamConstants.START_ELEMENT) {
+			reader.next();
+		}
+	}
+	
+	/**
+	 * Moves to the next child of the current element, and returns true, or moves to the end of the current element
+	 * and returns false if there aren't any more children.
+	 */
+	public boolean nextChild() throws XMLStreamException {
+		while(reader.hasNext()) {
+			int event = reader.next();
+			if(event == XMLStreamConstants.START_ELEMENT) {
+				return true;
+			} else if(event == XMLStreamConstants.END_ELEMENT) {
+				return false;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Returns the name of the current element.
+	 */
+	public String getName() {
+		return reader.getLocalName();
+	}
+	
+	/**
+	 * Returns the value of an attribute of the current element, or null if it doesn't have it.
+	 */
+	public String getAttribute(String name) {
+		return reader.getAttributeValue(null, name);
+	}
+	
+	/**
+	 * Returns the text of the current element, including the text of any child elements, and moves to its end.
+	 */
+	public String readText() throws XMLStreamException {
+		StringBuilder text = new StringBuilder();
+		int depth = 1;
+		while(depth > 0) {
+			int event = reader.next();
+			if(event == XMLStreamConstants.START_ELEMENT) {
+				depth++;
+			} else if(event == XMLStreamConstants.END_ELEMENT) {
+				depth--;
+			} else if(event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA || event == XMLStreamConstants.SPACE) {
+				text.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+			}
+		}
+		return text.toString();
+	}
+	
+	/**
+	 * Returns the current element and its children as an Element, and moves to its end.
+	 */
+	public Element readElement() throws XMLStreamException {
+		Element element = new Element(reader.getLocalName());
+		for(int i = 0; i < reader.getAttributeCount(); i++) {
+			element.setAttribute(reader.getAttributeLocalName(i), reader.getAttributeValue(i));
+		}
+		
+		while(true) {
+			int event = reader.next();
+			if(event == XMLStreamConstants.START_ELEMENT) {
+				element.addContent(readElement());
+			} else if(event == XMLStreamConstants.END_ELEMENT) {
+				return element;
+			} else if(event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA || event == XMLStreamConstants.SPACE) {
+				element.addContent(reader.getText());
+			}
+		}
+	}
+	
+	/**
+	 * Moves to the end of the current element without reading it.
+	 */
+	public void skip() throws XMLStreamException {
+		int depth = 1;
+		while(depth > 0) {
+			int event = reader.next();
+			if(event == XMLStreamConstants.START_ELEMENT) {
+				depth++;
+			} else if(event == XMLStreamConstants.END_ELEMENT) {
+				depth--;
+			}
+		}
+	}
+	
+	public void close() throws XMLStreamException {
+		reader.close();
+	}
+}
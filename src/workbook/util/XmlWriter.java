@@ -0,0 +1,106 @@
+package workbook.util;
+
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.jdom2.Attribute;
+import org.jdom2.Element;
+
+/**
+ * Writes an XML document to a stream one element at a time, indented in the same way as the pretty format of the
+ * XMLOutputter. Elements that contain text aren't indented inside, so their text is written as it is.
+ */
+public class XmlWriter {
+	private static final String INDENT = "  ";
+	
+	private final XMLStreamWriter writer;
+	private final Deque<Boolean> hasChildElements = new ArrayDeque<>();
+	
+	public XmlWriter(OutputStream outputStream) throws XMLStreamException {
+		this.writer = XMLOutputFactory.newInstance().createXMLStreamWriter(outputStream, "UTF-8");
+	}
+	
+	public void startDocument() throws XMLStreamException {
+		writer.writeStartDocument("UTF-8", "1.0");
+	}
+	
+	/**
+	 * Ends any elements that are still open, and flushes the document to the stream without closing it.
+	 */
+	public void endDocument() throws XMLStreamException {
+		writer.writeCharacters("\n");
+		writer.writeEndDocument();
+		writer.flush();
+	}
+	
+	public void startElement(String name) throws XMLStreamException {
+		writer.writeCharacters("\n");
+		writeIndent(hasChildElements.size());
+		writer.writeStartElement(name);
+		
+		if(!hasChildElements.isEmpty()) {
+			hasChildElements.pop();
+			hasChildElements.push(true);
+		}
+		hasChildElements.push(false);
+	}
+	
+	/**
+	 * Adds an attribute to the element that was just started.
+	 */
+	public void attribute(String name, String value) throws XMLStreamException {
+		writer.writeAttribute(name, value);
+	}
+	
+	public void text(String text) throws XMLStreamException {
+		writer.writeCharacters(text);
+	}
+	
+	public void endElement() throws XMLStreamException {
+		if(hasChildElements.pop()) {
+			writer.writeCharacters("\n");
+			writeIndent(hasChildElements.size());
+		}
+		writer.writeEndElement();
+	}
+	
+	/**
+	 * Writes an element that only contains text.
+	 */
+	public void element(String name, String text) throws XMLStreamException {
+		startElement(name);
+		text(text);
+		endElement();
+	}
+	
+	/**
+	 * Writes the attributes, text and child elements of an element into the element that was just started.
+	 */
+	public void content(Element element) throws XMLStreamException {
+		for(Attribute attribute:element.getAttributes()) {
+			attribute(attribute.getName(), attribute.getValue());
+		}
+		if(element.getChildren().isEmpty()) {
+			if(!element.getText().isEmpty()) {
+				text(element.getText());
+			}
+		} else {
+			for(Element child:element.getChildren()) {
+				startElement(child.getName());
+				content(child);
+				endElement();
+			}
+		}
+	}
+	
+	private void writeIndent(int depth) throws XMLStreamException {
+		for(int i = 0; i < depth; i++) {
+			writer.writeCharacters(INDENT);
+		}
+	}
+}
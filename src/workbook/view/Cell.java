@@ -55,6 +55,7 @@ public class Cell {
 	
 	private final Result result;
 	private Function<String, ScriptFuture<Object>> executeFunction = null;
+	private ScriptFuture<Object> runningFuture = null;
 	private Function<String, String> completionFunction = null;
 	
 	private String previousCommandText = "";
@@ -150,6 +151,9 @@ public class Cell {
 					evaluate(() -> notifyCallbacks.forEach(Runnable::run));
 				} else if(event.keyCode == 'a' && event.stateMask == SWT.CONTROL) {
 					selectAll();
+				} else if(event.keyCode == SWT.ESC && runningFuture != null) {
+					// Cancel the running evaluation on escape.
+					runningFuture.cancel();
 				}
 			}
 		});
@@ -240,8 +244,14 @@ public class Cell {
 			
 			parent.pack();
 			
-			executeFunction.apply(command.getText()).thenAcceptAlways(resultObject -> {
+			ScriptFuture<Object> future = executeFunction.apply(command.getText());
+			runningFuture = future;
+			future.thenAcceptAlways(resultObject -> {
 				Display.getDefault().asyncExec(() -> {
+					if(runningFuture == future) {
+						runningFuture = null;
+					}
+
 					result.setValue(resultObject, () -> {
 						Display.getDefault().asyncExec(() -> {
 							callback.run();
@@ -23,21 +23,24 @@ import com.google.common.eventbus.Subscribe;
 
 import workbook.event.MajorRefreshEvent;
 import workbook.event.OutputEvent;
+import workbook.util.BoundedLineBuffer.Line;
 import workbook.view.ansi.AnsiParser;
 import workbook.view.ansi.AnsiStyle;
 import workbook.view.ansi.ParseResult;
 import workbook.view.canvas.ColorCache;
 
 /**
- * A view that displays the console output.
+ * A view that displays the console output. Only the last maxLines lines are kept.
  */
 public class ConsoleTabbedView implements TabbedView {
 	private final Composite parent;
 	private final StyledText text;
 	private final ColorCache colorCache;
 	
-	private List<StyleRange> styles = new ArrayList<StyleRange>();
-	private AnsiStyle lastStyle;
+	public static final int DEFAULT_MAX_LINES = 10000;
+	
+	private final AnsiParser ansiParser = new AnsiParser();
+	private int maxLines = DEFAULT_MAX_LINES;
 	
 	public ConsoleTabbedView(Composite parent, EventBus eventBus) {
 		this.parent = parent;
@@ -68,8 +71,28 @@ public class ConsoleTabbedView implements TabbedView {
 	@Subscribe
 	public void onOutput(OutputEvent event) {
 		text.getDisplay().asyncExec(() -> {
-			addOutput(event.getOutput());
-			addError(event.getError());
+			if(event.getDroppedCount() > 0) {
+				addError("[" + event.getDroppedCount() + " lines dropped]\n");
+			}
+			
+			// Add consecutive lines of the same kind together.
+			List<Line> lines = event.getLines();
+			StringBuilder s = new StringBuilder();
+			for(int i = 0; i < lines.size(); i++) {
+				Line line = lines.get(i);
+				s.append(line.getText()).append('\n');
+				if(i + 1 == lines.size() || lines.get(i + 1).isError() != line.isError()) {
+					if(line.isError()) {
+						addError(s.toString());
+					} else {
+						addOutput(s.toString());
+					}
+					s.setLength(0);
+				}
+			}
+			
+			removeOldLines();
+			text.setTopIndex(text.getLineCount() - 1);
 		});
 	}
 	
@@ -86,7 +109,6 @@ public class ConsoleTabbedView implements TabbedView {
 	
 	private void addOutput(String output) {
 		addWithStyles(wrap(output));
-		text.setTopIndex(text.getLineCount() - 1);
 	}
 	
 	private void addError(String error) {
@@ -95,7 +117,6 @@ public class ConsoleTabbedView implements TabbedView {
 		String wrappedOutput = wrap(error);
 		
 		text.append(wrappedOutput);
-		text.setTopIndex(text.getLineCount() - 1);
 		
 		StyleRange styleRange = new StyleRange();
 		styleRange.start = start;
@@ -107,27 +128,30 @@ public class ConsoleTabbedView implements TabbedView {
 	
 	/**
 	 * Adds text to the console by extracting any new styles from it, appending
-	 * the text, and applying the styles.
+	 * the text, and applying the styles. Only the styles of the appended text
+	 * are replaced, so this doesn't get slower as the console fills up.
 	 */
 	private void addWithStyles(String newText) {
-		ParseResult parseResult = new AnsiParser().parseText(lastStyle, newText);
+		ParseResult parseResult = ansiParser.parse(newText);
 		
 		int offset = text.getCharCount();
+		int length = parseResult.getNewText().length();
 		text.append(parseResult.getNewText());
 		
+		List<StyleRange> styles = new ArrayList<>();
 		for(AnsiStyle ansiStyle:parseResult.getStyleRanges()) {
-			StyleRange style = new StyleRange(styles.get(styles.size() - 1));
+			if(ansiStyle.isDefault()) {
+				continue;
+			}
+			
+			StyleRange style = new StyleRange();
 			style.start = offset + ansiStyle.start;
 			style.length = ansiStyle.length;
 			
-			if(ansiStyle.foreground == null) {
-				style.foreground = null;
-			} else {
+			if(ansiStyle.foreground != null) {
 				style.foreground = colorCache.getColor(ansiStyle.foreground);
 			}
-			if(ansiStyle.background == null) {
-				style.background = null;
-			} else {
+			if(ansiStyle.background != null) {
 				style.background = colorCache.getColor(ansiStyle.background);
 			}
 			
@@ -137,10 +161,29 @@ public class ConsoleTabbedView implements TabbedView {
 			if(ansiStyle.doubleUnderline) style.underlineStyle = SWT.UNDERLINE_DOUBLE;
 			
 			styles.add(style);
-			lastStyle = ansiStyle;
 		}
 		
-		text.setStyleRanges(styles.toArray(new StyleRange[styles.size()]));
+		text.replaceStyleRanges(offset, length, styles.toArray(new StyleRange[styles.size()]));
+	}
+	
+	/**
+	 * Removes the oldest lines, and their styles, until there are at most maxLines lines.
+	 */
+	private void removeOldLines() {
+		// The text ends with a line break, so the last line is empty.
+		int excessLines = text.getLineCount() - 1 - maxLines;
+		if(excessLines > 0) {
+			text.replaceTextRange(0, text.getOffsetAtLine(excessLines), "");
+		}
+	}
+	
+	public void setMaxLines(int maxLines) {
+		this.maxLines = Math.max(1, maxLines);
+		removeOldLines();
+	}
+	
+	public int getMaxLines() {
+		return maxLines;
 	}
 	
 	private static String wrap(String output) {
@@ -158,10 +201,7 @@ public class ConsoleTabbedView implements TabbedView {
 	public void clear() {
 		text.setText("");
 		
-		styles.clear();
-		styles.add(new StyleRange());
-		
-		lastStyle = new AnsiStyle();
+		ansiParser.reset();
 	}
 
 	public Control getControl() {
@@ -169,9 +209,16 @@ public class ConsoleTabbedView implements TabbedView {
 	}
 
 	public void serialize(Element element) {
+		if(maxLines != DEFAULT_MAX_LINES) {
+			Element maxLinesElement = new Element("MaxLines");
+			maxLinesElement.setText(String.valueOf(maxLines));
+			element.addContent(maxLinesElement);
+		}
 	}
 
 	public void deserialize(Element element) {
+		String maxLinesText = element.getChildText("MaxLines");
+		setMaxLines(maxLinesText == null ? DEFAULT_MAX_LINES : Integer.parseInt(maxLinesText));
 	}
 
 	public void createMenu(Menu menu) {
@@ -182,5 +229,19 @@ public class ConsoleTabbedView implements TabbedView {
 				clear();
 			}
 		});
+		
+		MenuItem maxLinesItem = new MenuItem(menu, SWT.NONE);
+		maxLinesItem.setText("Set Max Lines...");
+		maxLinesItem.addSelectionListener(new SelectionAdapter() {
+			public void widgetSelected(SelectionEvent event) {
+				String value = InputDialog.open(Display.getDefault().getActiveShell(), "Max Lines", "Max Lines", String.valueOf(maxLines));
+				if(value != null) {
+					try {
+						setMaxLines(Integer.parseInt(value.trim()));
+					} catch(NumberFormatException e) {
+					}
+				}
+			}
+		});
 	}
 }
\ No newline at end of file
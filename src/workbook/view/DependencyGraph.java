@@ -0,0 +1,119 @@
+package workbook.view;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+import workbook.script.GlobalAccesses;
+
+/**
+ * The globals that each cell of a worksheet read and wrote when it was last evaluated, used to find the cells that need
+ * to be evaluated again after others change. Cells are evaluated from top to bottom, so a cell only depends on the
+ * cells above it, and the order of the cells is a topological order of their dependencies.
+ *
+ * Only assignments to globals are tracked, so a cell that changes an object in place doesn't cause the cells that
+ * read that object to be evaluated again. A cell evaluated by an engine that doesn't record its reads, such as Ruby
+ * or JShell, is treated as reading every global.
+ */
+public class DependencyGraph<T> {
+	private static class Node {
+		private final String command;
+		private final Set<String> reads;
+		private final boolean readsAll;
+		private final Set<String> writes;
+
+		public Node(String command, Set<String> reads, boolean readsAll, Set<String> writes) {
+			this.command = command;
+			this.reads = reads;
+			this.readsAll = readsAll;
+			this.writes = writes;
+		}
+
+		public boolean readsAny(Set<String> names) {
+			return readsAll ? !names.isEmpty() : intersects(reads, names);
+		}
+	}
+
+	private final Map<T, Node> nodes = new HashMap<>();
+
+	/**
+	 * Sets the command that a cell evaluated, and the globals it accessed. The globals written by the previous
+	 * evaluation of the cell are kept as written, so that the cells that read them are still found to depend on it.
+	 */
+	public synchronized void setAccesses(T cell, String command, GlobalAccesses accesses) {
+		Set<String> writes = new HashSet<>(accesses.getWrites());
+		Node previous = nodes.get(cell);
+		if(previous != null && !previous.command.equals(command)) {
+			writes.addAll(previous.writes);
+		}
+		nodes.put(cell, new Node(command, accesses.getReads(), accesses.readsAll(), writes));
+	}
+
+	public synchronized void remove(T cell) {
+		nodes.remove(cell);
+	}
+
+	public synchronized void clear() {
+		nodes.clear();
+	}
+
+	/**
+	 * Returns the non-empty cells whose command is different from the one they last evaluated, or that haven't been
+	 * evaluated.
+	 */
+	public synchronized List<T> getChangedCells(List<T> cells, Function<T, String> getCommand) {
+		List<T> changed = new ArrayList<>();
+		for(T cell:cells) {
+			String command = getCommand.apply(cell);
+			Node node = nodes.get(cell);
+			if(!command.trim().isEmpty() && (node == null || !node.command.equals(command))) {
+				changed.add(cell);
+			}
+		}
+		return changed;
+	}
+
+	/**
+	 * Returns the index of the next cell from index onwards that needs to be evaluated, or -1 if there isn't one. A
+	 * cell needs to be evaluated if it's one of the changed cells, or if it reads or writes one of the changed names.
+	 * A cell that only writes a changed name is evaluated again so that the cells below it see its value rather than
+	 * the value of a cell above it. The names written by each cell that's evaluated should be added to the changed
+	 * names with addWrites once it has been evaluated.
+	 */
+	public synchronized int getNextToEvaluate(List<T> cells, int index, Collection<T> changedCells, Set<String> changedNames) {
+		for(int i = Math.max(index, 0); i < cells.size(); i++) {
+			T cell = cells.get(i);
+			Node node = nodes.get(cell);
+			if(changedCells.contains(cell)) {
+				return i;
+			} else if(node != null && (node.readsAny(changedNames) || intersects(node.writes, changedNames))) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Adds the names of the globals written by the cell to names.
+	 */
+	public synchronized void addWrites(T cell, Set<String> names) {
+		Node node = nodes.get(cell);
+		if(node != null) {
+			names.addAll(node.writes);
+		}
+	}
+
+	private static boolean intersects(Set<String> a, Set<String> b) {
+		for(String value:a) {
+			if(b.contains(value)) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
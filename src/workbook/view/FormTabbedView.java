@@ -102,7 +102,7 @@ class FormView {
 
 		// Read expression value.
 		refreshCallbacks.add(() -> {
-			reference.get().thenAccept(x -> {
+			reference.get(reference).thenAccept(x -> {
 				if(x instanceof Integer) {
 					int intValue = (Integer) x;
 					Display.getDefault().asyncExec(() -> {
@@ -141,7 +141,7 @@ class FormView {
 
 		// Read expression value.
 		refreshCallbacks.add(() -> {
-			reference.get().thenAccept(x -> {
+			reference.get(reference).thenAccept(x -> {
 				if(x instanceof Boolean) {
 					boolean booleanValue = (Boolean) x;
 					Display.getDefault().asyncExec(() -> {
@@ -177,7 +177,7 @@ class FormView {
 
 		// Read expression value.
 		refreshCallbacks.add(() -> {
-			reference.get().thenAccept(x -> {
+			reference.get(reference).thenAccept(x -> {
 				if(x instanceof String) {
 					String textValue = (String) x;
 					Display.getDefault().asyncExec(() -> {
@@ -65,6 +65,16 @@ public class MenuBuilder {
 		return this;
 	}
 	
+	public MenuBuilder addCheckItem(String name, boolean checked) {
+		if(menu == null) throw new IllegalStateException("No menu");
+		
+		this.item = new MenuItem(menu, SWT.CHECK);
+		item.setText(name);
+		item.setSelection(checked);
+		
+		return this;
+	}
+	
 	public MenuBuilder addSubmenu(String name, Consumer<MenuBuilder> consumer) {
 		this.item = new MenuItem(menu, SWT.CASCADE);
 		item.setText(name);
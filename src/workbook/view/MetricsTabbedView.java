@@ -0,0 +1,130 @@
+package workbook.view;
+
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.swt.SWT;
+import org.eclipse.swt.events.SelectionAdapter;
+import org.eclipse.swt.events.SelectionEvent;
+import org.eclipse.swt.widgets.Composite;
+import org.eclipse.swt.widgets.Control;
+import org.eclipse.swt.widgets.Menu;
+import org.eclipse.swt.widgets.MenuItem;
+import org.eclipse.swt.widgets.Table;
+import org.eclipse.swt.widgets.TableColumn;
+import org.eclipse.swt.widgets.TableItem;
+import org.jdom2.Element;
+
+import workbook.script.ScriptController;
+import workbook.script.ScriptMetrics;
+import workbook.script.TaskKind;
+import workbook.util.Histogram;
+
+/**
+ * A view that shows the metrics of the script controller: the queue wait and run times of each kind of task
+ * in microseconds, the queue depth, the number of tasks run by each engine, and how long each engine took to start.
+ * It's refreshed every second.
+ */
+public class MetricsTabbedView implements TabbedView {
+	private static final int REFRESH_MILLIS = 1000;
+	private static final String[] COLUMNS = { "Metric", "Count", "Mean", "P50", "P90", "P99", "Max", "Errors" };
+
+	private final ScriptMetrics metrics;
+	private final Table table;
+
+	public MetricsTabbedView(Composite parent, ScriptController scriptController) {
+		this.metrics = scriptController.getMetrics();
+
+		table = new Table(parent, SWT.NONE);
+		table.setHeaderVisible(true);
+		table.setFont(FontList.MONO_NORMAL);
+
+		for(String name:COLUMNS) {
+			TableColumn column = new TableColumn(table, SWT.NONE);
+			column.setText(name);
+			column.setWidth(name.equals("Metric") ? 250 : 80);
+		}
+
+		refresh();
+	}
+
+	/**
+	 * Updates the table, and schedules the next refresh until the table is disposed.
+	 */
+	private void refresh() {
+		if(!table.isDisposed()) {
+			update();
+			table.getDisplay().timerExec(REFRESH_MILLIS, this::refresh);
+		}
+	}
+
+	private void update() {
+		table.setRedraw(false);
+		table.removeAll();
+
+		for(TaskKind kind:TaskKind.values()) {
+			String name = kind.name().toLowerCase();
+			addRow(name + " wait", metrics.getWaitTimes(kind), true);
+			addRow(name + " exec", metrics.getExecTimes(kind), true);
+		}
+
+		addRow("queue depth", metrics.getQueueDepth(), false);
+
+		metrics.getEngineCounters().forEach((engine, counters) -> {
+			long tasks = counters.getTasks();
+			TableItem item = new TableItem(table, SWT.NONE);
+			item.setText(new String[] {
+				"engine " + engine,
+				String.valueOf(tasks),
+				String.valueOf(tasks == 0 ? 0 : counters.getExecMicros() / tasks),
+				"", "", "", "",
+				String.valueOf(counters.getErrors())
+			});
+		});
+
+		metrics.getEngineStartMicros().forEach((engine, micros) -> {
+			TableItem item = new TableItem(table, SWT.NONE);
+			item.setText(new String[] { "engine " + engine + " start", "1", String.valueOf(micros), "", "", "", "", "" });
+		});
+
+		table.setRedraw(true);
+	}
+
+	private void addRow(String name, Histogram histogram, boolean nanos) {
+		TableItem item = new TableItem(table, SWT.NONE);
+		item.setText(new String[] {
+			name,
+			String.valueOf(histogram.getCount()),
+			String.valueOf(Math.round(nanos ? histogram.getMean() / 1000 : histogram.getMean())),
+			format(histogram.getValueAtPercentile(50), nanos),
+			format(histogram.getValueAtPercentile(90), nanos),
+			format(histogram.getValueAtPercentile(99), nanos),
+			format(histogram.getMax(), nanos),
+			""
+		});
+	}
+
+	private static String format(long value, boolean nanos) {
+		return String.valueOf(nanos ? TimeUnit.NANOSECONDS.toMicros(value) : value);
+	}
+
+	public Control getControl() {
+		return table;
+	}
+
+	public void serialize(Element element) {
+	}
+
+	public void deserialize(Element element) {
+	}
+
+	public void createMenu(Menu menu) {
+		MenuItem resetItem = new MenuItem(menu, SWT.NONE);
+		resetItem.setText("Reset");
+		resetItem.addSelectionListener(new SelectionAdapter() {
+			public void widgetSelected(SelectionEvent event) {
+				metrics.reset();
+				update();
+			}
+		});
+	}
+}
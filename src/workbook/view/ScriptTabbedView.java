@@ -2,10 +2,15 @@ package workbook.view;
 
 import org.eclipse.swt.SWT;
 import org.eclipse.swt.custom.VerifyKeyListener;
+import org.eclipse.swt.events.SelectionAdapter;
+import org.eclipse.swt.events.SelectionEvent;
 import org.eclipse.swt.events.VerifyEvent;
 import org.eclipse.swt.widgets.Composite;
 import org.eclipse.swt.widgets.Control;
 import org.eclipse.swt.widgets.Display;
+import org.eclipse.swt.widgets.Menu;
+import org.eclipse.swt.widgets.MenuItem;
+import org.eclipse.swt.widgets.MessageBox;
 import org.jdom2.Element;
 
 import com.google.common.eventbus.EventBus;
@@ -16,6 +21,7 @@ import workbook.event.MinorRefreshEvent;
 import workbook.event.ScriptTypeChangeEvent;
 import workbook.model.Model;
 import workbook.script.ScriptController;
+import workbook.script.ScriptSessions;
 import workbook.view.text.EditorText;
 
 /**
@@ -24,13 +30,29 @@ import workbook.view.text.EditorText;
 public class ScriptTabbedView implements TabbedView {
 	private final EditorText editorText;
 	private final EventBus eventBus;
-	private final ScriptController scriptController;
+	private final ScriptSessions scriptSessions;
 	private final Model model;
 	
+	private ScriptController scriptController;
+	private String sessionName;
+	private boolean shareSessionGlobals;
+	
+	/**
+	 * Creates a script view that runs against the default session, and can be bound to another session from its menu.
+	 */
+	public ScriptTabbedView(Composite parent, EventBus eventBus, ScriptSessions scriptSessions, Model model) {
+		this(parent, eventBus, scriptSessions.getDefaultSession(), scriptSessions, model);
+	}
+	
 	public ScriptTabbedView(Composite parent, EventBus eventBus, ScriptController scriptController, Model model) {
+		this(parent, eventBus, scriptController, null, model);
+	}
+	
+	private ScriptTabbedView(Composite parent, EventBus eventBus, ScriptController scriptController, ScriptSessions scriptSessions, Model model) {
 		this.editorText = new EditorText(parent);
 		this.eventBus = eventBus;
 		this.scriptController = scriptController;
+		this.scriptSessions = scriptSessions;
 		this.model = model;
 		
 		editorText.getStyledText().addVerifyKeyListener(new VerifyKeyListener() {
@@ -48,6 +70,28 @@ public class ScriptTabbedView implements TabbedView {
 		getControl().addDisposeListener(event -> eventBus.unregister(this));
 	}
 	
+	/**
+	 * Binds this view to the named session, creating the session if it doesn't exist.
+	 */
+	private void setSession(String sessionName, boolean shareGlobals) {
+		this.scriptController = scriptSessions.getSession(sessionName, shareGlobals);
+		this.sessionName = ScriptSessions.isDefaultSession(sessionName) ? null : sessionName;
+		this.shareSessionGlobals = shareGlobals;
+	}
+	
+	/**
+	 * Binds this view to a session that was saved with it. If the session has already been created by another view
+	 * with different sharing, this view uses it as it is.
+	 */
+	private void restoreSession(String sessionName, boolean shareGlobals) {
+		try {
+			setSession(sessionName, shareGlobals);
+		} catch(IllegalArgumentException e) {
+			e.printStackTrace();
+			setSession(sessionName, !shareGlobals);
+		}
+	}
+	
 	@Subscribe
 	public void onScriptTypeChange(ScriptTypeChangeEvent event) {
 		refreshBrush();
@@ -81,10 +125,53 @@ public class ScriptTabbedView implements TabbedView {
 		Element content = new Element("Content");
 		content.setText(editorText.getText());
 		element.addContent(content);
+		
+		if(sessionName != null) {
+			Element sessionElement = new Element("Session");
+			sessionElement.setText(sessionName);
+			sessionElement.setAttribute("shareGlobals", String.valueOf(shareSessionGlobals));
+			element.addContent(sessionElement);
+		}
 	}
 
 	public void deserialize(Element element) {
 		String content = element.getChildText("Content");
 		editorText.setText(content);
+		
+		if(scriptSessions != null) {
+			Element sessionElement = element.getChild("Session");
+			if(sessionElement == null) {
+				setSession(null, false);
+			} else {
+				restoreSession(sessionElement.getText(), Boolean.parseBoolean(sessionElement.getAttributeValue("shareGlobals")));
+			}
+		}
+	}
+	
+	public void createMenu(Menu menu) {
+		if(scriptSessions != null) {
+			addSessionMenuItem(menu, "Set Session...", false);
+			addSessionMenuItem(menu, "Set Shared Globals Session...", true);
+		}
+	}
+	
+	private void addSessionMenuItem(Menu menu, String text, boolean shareGlobals) {
+		MenuItem setSessionItem = new MenuItem(menu, SWT.NONE);
+		setSessionItem.setText(text);
+		setSessionItem.addSelectionListener(new SelectionAdapter() {
+			public void widgetSelected(SelectionEvent event) {
+				String session = InputDialog.open(Display.getDefault().getActiveShell(), "Session", "Session", sessionName);
+				if(session != null) {
+					try {
+						setSession(session.trim(), shareGlobals);
+					} catch(IllegalArgumentException e) {
+						MessageBox messageBox = new MessageBox(Display.getDefault().getActiveShell());
+						messageBox.setText("Session");
+						messageBox.setMessage(e.getMessage());
+						messageBox.open();
+					}
+				}
+			}
+		});
 	}
 }
\ No newline at end of file
@@ -1,9 +1,13 @@
 package workbook.view;
 
+import javax.xml.stream.XMLStreamException;
+
 import org.eclipse.swt.widgets.Control;
 import org.eclipse.swt.widgets.Menu;
 import org.jdom2.Element;
 
+import workbook.util.XmlReader;
+
 /**
  * A view that can appear within the tabbed layout.
  */
@@ -22,6 +26,14 @@ public interface TabbedView {
 	 * Deserializes the contents of this view from an XML element.
 	 */
 	public void deserialize(Element element);
+	
+	/**
+	 * Reads the contents of this view from the current element, leaving the reader on its end.
+	 * By default this reads the element and passes it to deserialize.
+	 */
+	public default void deserialize(XmlReader reader) throws XMLStreamException {
+		deserialize(reader.readElement());
+	}
 
 	/**
 	 * Adds any menu items for this view to the menu.
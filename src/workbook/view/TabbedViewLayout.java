@@ -6,6 +6,8 @@ import java.util.List;
 import java.util.Set;
 import java.util.function.Function;
 
+import javax.xml.stream.XMLStreamException;
+
 import org.eclipse.swt.SWT;
 import org.eclipse.swt.custom.CTabFolder;
 import org.eclipse.swt.custom.CTabFolder2Adapter;
@@ -34,6 +36,7 @@ import org.eclipse.swt.widgets.Tracker;
 import org.jdom2.Element;
 
 import workbook.util.SwtUtil;
+import workbook.util.XmlReader;
 
 /**
  * A tabbed view layout that displays views arranged in tabs and allows the dragged of tabs between views
@@ -536,23 +539,25 @@ public class TabbedViewLayout {
 	}
 	
 	/**
-	 * Serializes the state of the view and adds it to element.
+	 * Serializes the state of the view and adds it to element. Returns the views in the order of their items.
 	 */
-	public void serialize(Element element) {
+	public List<TabbedView> serialize(Element element) {
+		List<TabbedView> views = new ArrayList<>();
 		for(Control control:parent.getChildren()) {
-			serialize(element, control);
+			serialize(element, control, views);
 		}
+		return views;
 	}
 	
-	private void serialize(Element parent, Control control) {
+	private void serialize(Element parent, Control control, List<TabbedView> views) {
 		if(control instanceof CTabFolder) {
-			serialize(parent, (CTabFolder) control);
+			serialize(parent, (CTabFolder) control, views);
 		} else if(control instanceof SashForm) {
-			serialize(parent, (SashForm) control);
+			serialize(parent, (SashForm) control, views);
 		}
 	}
 
-	private void serialize(Element parent, SashForm sashForm) {
+	private void serialize(Element parent, SashForm sashForm, List<TabbedView> views) {
 		int[] weights = sashForm.getWeights();
 		
 		Element splitElement = new Element("Split");
@@ -562,11 +567,11 @@ public class TabbedViewLayout {
 		parent.addContent(splitElement);
 		
 		for(Control control:sashForm.getChildren()) {
-			serialize(splitElement, control);
+			serialize(splitElement, control, views);
 		}
 	}
 
-	private void serialize(Element parent, CTabFolder tabFolder) {
+	private void serialize(Element parent, CTabFolder tabFolder, List<TabbedView> views) {
 		Element folderElement = new Element("Items");
 		parent.addContent(folderElement);
 		
@@ -579,6 +584,7 @@ public class TabbedViewLayout {
 			folderElement.addContent(itemElement);
 			
 			tabbedView.serialize(itemElement);
+			views.add(tabbedView);
 		}
 	}
 
@@ -627,6 +633,65 @@ public class TabbedViewLayout {
 		}
 	}
 	
+	/**
+	 * Reads the state of the view from the current element, leaving the reader on its end.
+	 */
+	public void deserialize(TabbedViewFactory viewFactory, XmlReader reader) throws XMLStreamException {
+		clear();
+		
+		CTabFolder folder = new CTabFolder(parent, SWT.BORDER);
+		folders.add(folder);
+		setupTabFolder(folder);
+		
+		if(reader.nextChild()) {
+			deserialize(viewFactory, reader, folder);
+			while(reader.nextChild()) {
+				reader.skip();
+			}
+		}
+		
+		parent.layout();
+	}
+	
+	private void deserialize(TabbedViewFactory viewFactory, XmlReader reader, CTabFolder folder) throws XMLStreamException {
+		if(reader.getName().equals("Split")) {
+			int weight1 = Integer.parseInt(reader.getAttribute("weight1"));
+			int weight2 = Integer.parseInt(reader.getAttribute("weight2"));
+			String orientation = reader.getAttribute("orientation");
+			int weight = (weight1 * 100) / (weight1 + weight2);
+			
+			CTabFolder newFolder;
+			if(orientation.equals("horizontal")) {
+				newFolder = split(folder, 1, 0, weight);
+			} else {
+				newFolder = split(folder, 0, 1, weight);
+			}
+			
+			if(reader.nextChild()) {
+				deserialize(viewFactory, reader, folder);
+				if(reader.nextChild()) {
+					deserialize(viewFactory, reader, newFolder);
+					while(reader.nextChild()) {
+						reader.skip();
+					}
+				}
+			}
+		} else if(reader.getName().equals("Items")) {
+			while(reader.nextChild()) {
+				if(reader.getName().equals("Item")) {
+					String title = reader.getAttribute("title");
+					String type = reader.getAttribute("type");
+					TabbedView view = viewFactory.addView(type, folder, title);
+					view.deserialize(reader);
+				} else {
+					reader.skip();
+				}
+			}
+		} else {
+			reader.skip();
+		}
+	}
+	
 	/**
 	 * Returns all the tabbed views contained within this layout.
 	 */
@@ -4,9 +4,16 @@ import static java.util.stream.Collectors.toList;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.function.BiFunction;
 import java.util.function.Function;
 
+import javax.xml.stream.XMLStreamException;
+
 import org.eclipse.swt.SWT;
 import org.eclipse.swt.custom.ScrolledComposite;
 import org.eclipse.swt.events.MouseAdapter;
@@ -20,6 +27,7 @@ import org.eclipse.swt.widgets.Control;
 import org.eclipse.swt.widgets.Display;
 import org.eclipse.swt.widgets.Menu;
 import org.eclipse.swt.widgets.MenuItem;
+import org.eclipse.swt.widgets.MessageBox;
 import org.jdom2.Element;
 
 import com.google.common.eventbus.EventBus;
@@ -28,26 +36,37 @@ import com.google.common.eventbus.Subscribe;
 import workbook.event.MajorRefreshEvent;
 import workbook.event.MinorRefreshEvent;
 import workbook.layout.GridLayoutBuilder;
+import workbook.script.GlobalAccesses;
 import workbook.script.ScriptController;
 import workbook.script.ScriptFuture;
+import workbook.script.ScriptSessions;
 import workbook.util.ScrollUtil;
+import workbook.util.XmlReader;
 import workbook.view.result.ResultRenderer;
 
 /**
  * A view that displays a worksheet allowing the entering of commands and the inline display of their results.
+ * 
+ * The globals that each cell reads and writes are recorded when it's evaluated. After a cell is evaluated, the cells
+ * below it that depend on it are evaluated again, and running all cells only evaluates the cells that have changed
+ * and the cells that depend on them. Refreshing evaluates every cell.
  */
 public class WorksheetTabbedView implements TabbedView {
 	private final EventBus eventBus;
 	private final ScrolledComposite scrolledCellsComposite;
-	private final ScriptController scriptController;
+	private final ScriptSessions scriptSessions;
 	private final Composite cellsComposite;
 	private final ResultRenderer resultRenderer;
 	
-	private Function<String, ScriptFuture<Object>> executeFunction;
+	private ScriptController scriptController;
+	private BiFunction<String, GlobalAccesses, ScriptFuture<Object>> executeFunction;
 	private String executeFunctionName;
+	private String sessionName;
+	private boolean shareSessionGlobals;
 	
 	private final Completion completion = new Completion();
 	private final List<Cell> cells = new ArrayList<>();
+	private final DependencyGraph<Cell> dependencies = new DependencyGraph<>();
 	
 	private Cell focusedCell = null;
 	
@@ -65,15 +84,29 @@ public class WorksheetTabbedView implements TabbedView {
 	public WorksheetTabbedView(Composite parent, EventBus eventBus, ScriptController scriptController, ResultRenderer resultRenderer, Function<String, Object> executeFunction) {
 		this(parent, eventBus, scriptController, resultRenderer);
 		
-		this.executeFunction = command -> scriptController.exec(() -> executeFunction.apply(command));
+		this.executeFunction = (command, accesses) -> scriptController.exec(() -> {
+			return GlobalAccesses.record(accesses, () -> executeFunction.apply(command));
+		});
+	}
+	
+	/**
+	 * Creates a worksheet that evaluates against the default session, and can be bound to another session from its menu.
+	 */
+	public WorksheetTabbedView(Composite parent, EventBus eventBus, ScriptSessions scriptSessions, ResultRenderer resultRenderer) {
+		this(parent, eventBus, scriptSessions.getDefaultSession(), scriptSessions, resultRenderer);
 	}
 	
 	/**
 	 * Creates a worksheet that evaluates against the script controller evaluation function.
 	 */
 	public WorksheetTabbedView(Composite parent, EventBus eventBus, ScriptController scriptController, ResultRenderer resultRenderer) {
+		this(parent, eventBus, scriptController, null, resultRenderer);
+	}
+	
+	private WorksheetTabbedView(Composite parent, EventBus eventBus, ScriptController scriptController, ScriptSessions scriptSessions, ResultRenderer resultRenderer) {
 		this.eventBus = eventBus;
 		this.scriptController = scriptController;
+		this.scriptSessions = scriptSessions;
 		this.resultRenderer = resultRenderer;
 		this.executeFunction = scriptController::eval;
 		
@@ -115,13 +148,39 @@ public class WorksheetTabbedView implements TabbedView {
 			this.executeFunction = scriptController::eval;
 		} else {
 			if(executeFunctionName.contains("_")) {
-				this.executeFunction = command -> scriptController.eval(executeFunctionName.replace("_", command));	
+				this.executeFunction = (command, accesses) -> scriptController.eval(executeFunctionName.replace("_", command), accesses);	
 			} else {
-				this.executeFunction = command -> scriptController.evalMethodCall(executeFunctionName, Arrays.asList(command));
+				this.executeFunction = (command, accesses) -> scriptController.evalMethodCall(executeFunctionName, Arrays.asList(command), accesses);
 			}
 		}
 	}
 	
+	/**
+	 * Binds this worksheet to the named session, creating the session if it doesn't exist. The recorded dependencies
+	 * are cleared, as they were recorded against the globals of the previous session.
+	 */
+	private void setSession(String sessionName, boolean shareGlobals) {
+		this.scriptController = scriptSessions.getSession(sessionName, shareGlobals);
+		this.sessionName = ScriptSessions.isDefaultSession(sessionName) ? null : sessionName;
+		this.shareSessionGlobals = shareGlobals;
+		dependencies.clear();
+		
+		setExecuteFunctionName(executeFunctionName);
+	}
+	
+	/**
+	 * Binds this worksheet to a session that was saved with it. If the session has already been created by another view
+	 * with different sharing, this worksheet uses it as it is.
+	 */
+	private void restoreSession(String sessionName, boolean shareGlobals) {
+		try {
+			setSession(sessionName, shareGlobals);
+		} catch(IllegalArgumentException e) {
+			e.printStackTrace();
+			setSession(sessionName, !shareGlobals);
+		}
+	}
+	
 	@Subscribe
 	public void onMinorRefresh(MinorRefreshEvent event) {
 	}
@@ -133,12 +192,13 @@ public class WorksheetTabbedView implements TabbedView {
 	
 	private Cell addPrompt(Cell cellBelow) {
 		final Cell cell = new Cell(cellsComposite, scrolledCellsComposite, resultRenderer, cellBelow);
-		cell.setExecuteFunction(command -> executeFunction.apply(command));
+		cell.setExecuteFunction(command -> execute(cell, command));
 		
 		cell.addNotifyCallbacks(() -> {
 			eventBus.post(new MinorRefreshEvent(this));
 			pack();
 			scrollToFocusedCell();
+			evaluateDependentCells(cell);
 		});
 		
 		cell.setCompletionFunction(text -> {
@@ -181,6 +241,7 @@ public class WorksheetTabbedView implements TabbedView {
 				if(cells.size() > 1) {
 					int index = cells.indexOf(cell);
 					cells.remove(index);
+					dependencies.remove(cell);
 					index = Math.max(0, index - 1);
 					cell.dispose();
 					pack();
@@ -202,8 +263,7 @@ public class WorksheetTabbedView implements TabbedView {
 		
 		cell.addRunAllCallback(new Runnable() {
 			public void run() {
-				refresh();
-				eventBus.post(new MinorRefreshEvent(this));
+				evaluateChangedCells();
 			}
 		});
 
@@ -239,6 +299,64 @@ public class WorksheetTabbedView implements TabbedView {
 		}
 	}
 	
+	/**
+	 * Evaluates a command of a cell, recording the globals that it accesses.
+	 */
+	private ScriptFuture<Object> execute(Cell cell, String command) {
+		GlobalAccesses accesses = new GlobalAccesses();
+		ScriptFuture<Object> future = executeFunction.apply(command, accesses);
+		future.thenAcceptAlways(result -> dependencies.setAccesses(cell, command, accesses));
+		return future;
+	}
+	
+	/**
+	 * Evaluates the cells below a cell that has been evaluated that depend on it.
+	 */
+	private void evaluateDependentCells(Cell cell) {
+		Set<String> changedNames = new HashSet<>();
+		dependencies.addWrites(cell, changedNames);
+		if(!changedNames.isEmpty()) {
+			evaluateFrom(cells.indexOf(cell) + 1, Collections.emptySet(), changedNames);
+		}
+	}
+	
+	/**
+	 * Evaluates the cells that have changed since they were last evaluated, and the cells below them that depend on them.
+	 */
+	private void evaluateChangedCells() {
+		List<Cell> changedCells = dependencies.getChangedCells(cells, Cell::getCommand);
+		if(!changedCells.isEmpty()) {
+			evaluateFrom(cells.indexOf(changedCells.get(0)), new HashSet<>(changedCells), new HashSet<>());
+		}
+	}
+	
+	/**
+	 * Evaluates the next cell from index onwards that's changed or depends on the changed names, then adds the names it
+	 * writes to the changed names and continues with the cells below it. Cells are evaluated one at a time so that
+	 * each is evaluated with the globals written by the cells above it.
+	 */
+	private void evaluateFrom(int index, Collection<Cell> changedCells, Set<String> changedNames) {
+		int next = dependencies.getNextToEvaluate(cells, index, changedCells, changedNames);
+		if(next == -1) {
+			eventBus.post(new MinorRefreshEvent(this));
+			pack();
+			return;
+		}
+		
+		Cell cell = cells.get(next);
+		cell.evaluate(() -> {
+			int cellIndex = cells.indexOf(cell);
+			if(cellIndex != -1) {
+				dependencies.addWrites(cell, changedNames);
+				evaluateFrom(cellIndex + 1, changedCells, changedNames);
+			}
+		});
+	}
+	
+	/**
+	 * Evaluates every cell in order, as the globals may have been changed outside the worksheet where the dependencies
+	 * don't see it. Only the evaluations started by editing a cell are limited to the cells that depend on it.
+	 */
 	private void refresh() {
 		// Run evaluate on all cells, and post minor refresh event when all have been evaluated.
 		Display.getDefault().asyncExec(new Runnable() {
@@ -278,6 +396,7 @@ public class WorksheetTabbedView implements TabbedView {
 			cell.dispose();
 		}
 		cells.clear();
+		dependencies.clear();
 	}
 
 	public void serialize(Element element) {
@@ -287,6 +406,13 @@ public class WorksheetTabbedView implements TabbedView {
 			element.addContent(executeFunctionNameElement);
 		}
 		
+		if(this.sessionName != null) {
+			Element sessionElement = new Element("Session");
+			sessionElement.setText(sessionName);
+			sessionElement.setAttribute("shareGlobals", String.valueOf(shareSessionGlobals));
+			element.addContent(sessionElement);
+		}
+		
 		for(Cell cell:cells) {
 			Element command = new Element("Command");
 			command.setText(cell.getCommand());
@@ -297,7 +423,12 @@ public class WorksheetTabbedView implements TabbedView {
 	public void deserialize(Element element) {
 		clear();
 		
-		setExecuteFunctionName(element.getChildText("ExecuteFunctionName"));
+		Element sessionElement = element.getChild("Session");
+		if(sessionElement == null) {
+			deserializeSettings(element.getChildText("ExecuteFunctionName"), null, false);
+		} else {
+			deserializeSettings(element.getChildText("ExecuteFunctionName"), sessionElement.getText(), Boolean.parseBoolean(sessionElement.getAttributeValue("shareGlobals")));
+		}
 		
 		for(Element command:element.getChildren("Command")) {
 			Cell cell = addPrompt(null);
@@ -305,6 +436,49 @@ public class WorksheetTabbedView implements TabbedView {
 		}
 	}
 	
+	/**
+	 * Reads the commands one at a time, adding a cell for each. The settings come before the commands, and are
+	 * applied before the first cell is added.
+	 */
+	public void deserialize(XmlReader reader) throws XMLStreamException {
+		clear();
+		
+		String executeFunction = null;
+		String session = null;
+		boolean shareGlobals = false;
+		boolean settingsApplied = false;
+		
+		while(reader.nextChild()) {
+			if(reader.getName().equals("ExecuteFunctionName")) {
+				executeFunction = reader.readText();
+			} else if(reader.getName().equals("Session")) {
+				shareGlobals = Boolean.parseBoolean(reader.getAttribute("shareGlobals"));
+				session = reader.readText();
+			} else if(reader.getName().equals("Command")) {
+				if(!settingsApplied) {
+					deserializeSettings(executeFunction, session, shareGlobals);
+					settingsApplied = true;
+				}
+				Cell cell = addPrompt(null);
+				cell.setCommand(reader.readText());
+			} else {
+				reader.skip();
+			}
+		}
+		
+		if(!settingsApplied) {
+			deserializeSettings(executeFunction, session, shareGlobals);
+		}
+	}
+	
+	private void deserializeSettings(String executeFunction, String session, boolean shareGlobals) {
+		setExecuteFunctionName(executeFunction);
+		
+		if(scriptSessions != null) {
+			restoreSession(session, shareGlobals);
+		}
+	}
+	
 	public void createMenu(Menu menu) {
 		MenuItem clearItem = new MenuItem(menu, SWT.NONE);
 		clearItem.setText("Clear");
@@ -325,5 +499,30 @@ public class WorksheetTabbedView implements TabbedView {
 				}
 			}
 		});
+		
+		if(scriptSessions != null) {
+			addSessionMenuItem(menu, "Set Session...", false);
+			addSessionMenuItem(menu, "Set Shared Globals Session...", true);
+		}
+	}
+	
+	private void addSessionMenuItem(Menu menu, String text, boolean shareGlobals) {
+		MenuItem setSessionItem = new MenuItem(menu, SWT.NONE);
+		setSessionItem.setText(text);
+		setSessionItem.addSelectionListener(new SelectionAdapter() {
+			public void widgetSelected(SelectionEvent event) {
+				String session = InputDialog.open(Display.getDefault().getActiveShell(), "Session", "Session", sessionName);
+				if(session != null) {
+					try {
+						setSession(session.trim(), shareGlobals);
+					} catch(IllegalArgumentException e) {
+						MessageBox messageBox = new MessageBox(Display.getDefault().getActiveShell());
+						messageBox.setText("Session");
+						messageBox.setMessage(e.getMessage());
+						messageBox.open();
+					}
+				}
+			}
+		});
 	}
 }
\ No newline at end of file
@@ -1,179 +1,294 @@
 package workbook.view.ansi;
 
-import java.util.*;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.eclipse.swt.graphics.RGB;
 
 /**
  * A parser to extract the ansi styles from text.
- * Adapted from: https://gist.github.com/sporkmonger/113079.
+ *
+ * The parser is a state machine that keeps its state between calls to parse, so an escape sequence that's split
+ * between two chunks of output is still recognised, and the style at the end of one chunk continues into the next.
+ * Select graphic rendition sequences change the style, including 256 color (38;5;n) and 24-bit color (38;2;r;g;b)
+ * codes. Other control sequences are removed from the text.
  */
 public class AnsiParser {
-	private Pattern controlSequencePattern = Pattern.compile("((\u009B|\u001B\\[)(\\d+;)*(\\d+)?[m])");
-	private RGB[] colorTable = new RGB[20];
-	
-	public AnsiParser() {
-		// normal colors
-		this.colorTable[0] = new RGB(0, 0, 0); // black
-		this.colorTable[1] = new RGB(150, 0, 0); // red
-		this.colorTable[2] = new RGB(0, 150, 0); // green
-		this.colorTable[3] = new RGB(150, 150, 0); // yellow
-		this.colorTable[4] = new RGB(0, 0, 150); // blue
-		this.colorTable[5] = new RGB(150, 0, 150); // magenta
-		this.colorTable[6] = new RGB(0, 150, 150); // cyan
-		this.colorTable[7] = new RGB(200, 200, 200); // white
-		this.colorTable[8] = null; // not used
-		this.colorTable[9] = null; // not used
-		// bright colors
-		this.colorTable[10] = new RGB(100, 100, 100); // black
-		this.colorTable[11] = new RGB(200, 0, 0); // red
-		this.colorTable[12] = new RGB(0, 200, 0); // green
-		this.colorTable[13] = new RGB(200, 200, 0); // yellow
-		this.colorTable[14] = new RGB(0, 0, 200); // blue
-		this.colorTable[15] = new RGB(200, 0, 200); // magenta
-		this.colorTable[16] = new RGB(0, 200, 200); // cyan
-		this.colorTable[17] = new RGB(200, 200, 200); // white
-		this.colorTable[18] = null; // not used
-		this.colorTable[19] = null; // not used
+	private static final char ESC = '\u001B';
+	private static final char CSI = '\u009B';
+
+	private static final int MAX_PARAMETERS = 16;
+	private static final int MAX_SEQUENCE_LENGTH = 64;
+
+	private static final RGB[] palette = createPalette();
+
+	private enum State {
+		TEXT, ESCAPE, CONTROL_SEQUENCE
 	}
-	
+
+	private State state = State.TEXT;
+	private final int[] parameters = new int[MAX_PARAMETERS];
+	private int parameterCount;
+	private int sequenceLength;
+
+	private final AnsiStyle style = new AnsiStyle();
+
 	/**
-	 * Parses text and extracts ANSI escape sequences from it.
-	 * Returns the modified text and a list of styles to apply.
+	 * Parses a chunk of text and extracts ANSI escape sequences from it. Returns the text without escape sequences,
+	 * and the styles of consecutive runs of the text. The styles cover all of the text, and each one is different from
+	 * the one before it.
 	 */
-	public ParseResult parseText(AnsiStyle lastStyle, String text) {
-		List<AnsiStyle> styles = new ArrayList<AnsiStyle>();
-		StringBuffer modified = new StringBuffer();
-
-		int removedCharacters = 0;
-		
-		AnsiStyle style = new AnsiStyle(lastStyle);
-		
-		Matcher matcher = controlSequencePattern.matcher(text);
-		while(matcher.find()) {
-			matcher.appendReplacement(modified, "");
-			
-			String controlSequence = matcher.group();
-			
-			int[] codes = parseSequenceCodes(controlSequence);
-			
-			style = buildStyleRange(style, codes);
-			style.start = matcher.start() - removedCharacters;
-			styles.add(new AnsiStyle(style));
-			
-			removedCharacters += controlSequence.length();
+	public ParseResult parse(String text) {
+		List<AnsiStyle> styles = new ArrayList<>();
+
+		if(state == State.TEXT && !containsControlCharacter(text)) {
+			if(!text.isEmpty()) {
+				styles.add(span(0, text.length()));
+			}
+			return new ParseResult(text, styles);
 		}
-		matcher.appendTail(modified);
-		
-		for(int i = 0; i < styles.size() - 1; i++) {
-			AnsiStyle thisRange = styles.get(i);
-			AnsiStyle nextRange = styles.get(i + 1);
-			thisRange.length = nextRange.start - thisRange.start;
+
+		StringBuilder newText = new StringBuilder(text.length());
+		AnsiStyle spanStyle = new AnsiStyle(style);
+		int spanStart = 0;
+		int textStart = 0;
+
+		for(int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+
+			switch(state) {
+				case TEXT:
+					if(c == ESC || c == CSI) {
+						newText.append(text, textStart, i);
+						state = (c == ESC) ? State.ESCAPE : State.CONTROL_SEQUENCE;
+						startSequence();
+					}
+					break;
+
+				case ESCAPE:
+					if(c == '[') {
+						state = State.CONTROL_SEQUENCE;
+					} else {
+						// Not a control sequence, so keep the escape and the character as text.
+						newText.append(ESC);
+						state = State.TEXT;
+						textStart = i;
+						i--;
+					}
+					break;
+
+				case CONTROL_SEQUENCE:
+					sequenceLength++;
+					if(c >= '0' && c <= '9') {
+						if(parameterCount < MAX_PARAMETERS) {
+							parameters[parameterCount] = Math.min(parameters[parameterCount] * 10 + (c - '0'), 0xFFFF);
+						}
+					} else if(c == ';' || c == ':') {
+						parameterCount++;
+					} else if(c >= 0x40 && c <= 0x7E) {
+						if(c == 'm') {
+							applyGraphicRendition();
+							if(!style.hasSameStyle(spanStyle)) {
+								if(newText.length() > spanStart) {
+									styles.add(spanStyle.span(spanStart, newText.length() - spanStart));
+									spanStyle = new AnsiStyle(style);
+									spanStart = newText.length();
+								} else if(!styles.isEmpty() && style.hasSameStyle(styles.get(styles.size() - 1))) {
+									// The style changed back without any text in between, so continue the last run.
+									spanStyle = styles.remove(styles.size() - 1);
+									spanStart = spanStyle.start;
+								} else {
+									spanStyle = new AnsiStyle(style);
+								}
+							}
+						}
+						state = State.TEXT;
+						textStart = i + 1;
+					} else if(c < 0x20 || c > 0x3F || sequenceLength > MAX_SEQUENCE_LENGTH) {
+						// Not a valid control sequence, so discard what has been read of it.
+						state = State.TEXT;
+						textStart = i;
+						i--;
+					}
+					break;
+			}
+		}
+
+		if(state == State.TEXT) {
+			newText.append(text, textStart, text.length());
 		}
-		
-		if(!styles.isEmpty()) {
-			AnsiStyle lastRange = styles.get(styles.size() - 1);
-			lastRange.length = text.length() - lastRange.start - removedCharacters;
+		if(newText.length() > spanStart) {
+			styles.add(spanStyle.span(spanStart, newText.length() - spanStart));
 		}
-		
-		return new ParseResult(modified.toString(), styles);
+
+		return new ParseResult(newText.toString(), styles);
+	}
+
+	/**
+	 * Returns the parser to the default style, and discards any partly read escape sequence.
+	 */
+	public void reset() {
+		state = State.TEXT;
+		style.reset();
+	}
+
+	/**
+	 * Returns the current style, which will be the style of the text at the start of the next chunk.
+	 */
+	public AnsiStyle getStyle() {
+		return new AnsiStyle(style);
+	}
+
+	private AnsiStyle span(int start, int length) {
+		return new AnsiStyle(style).span(start, length);
 	}
-	
-	private int[] parseSequenceCodes(String controlSequence) {
-		String codeSequence = null;
-		if (controlSequence.charAt(0) == '\u009B') {
-			codeSequence = controlSequence.substring(1, controlSequence.length() - 1);
-		} else if (controlSequence.charAt(0) == '\u001B') {
-			codeSequence = controlSequence.substring(2, controlSequence.length() - 1);
+
+	private static boolean containsControlCharacter(String text) {
+		for(int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			if(c == ESC || c == CSI) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void startSequence() {
+		for(int i = 0; i <= parameterCount && i < MAX_PARAMETERS; i++) {
+			parameters[i] = 0;
+		}
+		parameterCount = 0;
+		sequenceLength = 0;
+	}
+
+	private void applyGraphicRendition() {
+		int count = Math.min(parameterCount + 1, MAX_PARAMETERS);
+
+		for(int i = 0; i < count; i++) {
+			int code = parameters[i];
+			switch(code) {
+				case 0:
+					style.reset();
+					break;
+				case 1:
+					style.bold = true;
+					break;
+				case 2:
+					// It's actually supposed to be faint, but there's no way to display that
+					style.bold = false;
+					break;
+				case 3:
+					style.italic = true;
+					break;
+				case 4:
+					style.underline = true;
+					style.doubleUnderline = false;
+					break;
+				case 7:
+				case 27:
+					// Technically 27 should only unset reversed colors, but we just reverse them again
+					RGB foreground = style.foreground;
+					style.foreground = style.background;
+					style.background = foreground;
+					break;
+				case 21:
+					style.underline = true;
+					style.doubleUnderline = true;
+					break;
+				case 22:
+					style.bold = false;
+					break;
+				case 23:
+					style.italic = false;
+					break;
+				case 24:
+					style.underline = false;
+					style.doubleUnderline = false;
+					break;
+				case 38:
+				case 48:
+					i = applyExtendedColor(code == 38, i, count);
+					break;
+				case 39:
+					style.foreground = null;
+					break;
+				case 49:
+					style.background = null;
+					break;
+				default:
+					if(code >= 30 && code <= 37) {
+						style.foreground = palette[code - 30];
+					} else if(code >= 40 && code <= 47) {
+						style.background = palette[code - 40];
+					} else if(code >= 90 && code <= 97) {
+						style.foreground = palette[code - 90 + 8];
+					} else if(code >= 100 && code <= 107) {
+						style.background = palette[code - 100 + 8];
+					}
+					break;
+			}
+		}
+	}
+
+	/**
+	 * Applies a 38 or 48 code followed by 5;n for a 256 color palette index, or 2;r;g;b for a 24-bit color, and
+	 * returns the index of the last parameter used.
+	 */
+	private int applyExtendedColor(boolean foreground, int i, int count) {
+		RGB color;
+		if(i + 2 < count && parameters[i + 1] == 5) {
+			color = palette[Math.min(parameters[i + 2], 255)];
+			i += 2;
+		} else if(i + 4 < count && parameters[i + 1] == 2) {
+			color = new RGB(Math.min(parameters[i + 2], 255), Math.min(parameters[i + 3], 255), Math.min(parameters[i + 4], 255));
+			i += 4;
 		} else {
-			throw new RuntimeException("Invalid ANSI control sequence: '" + controlSequence + "'");
+			return count;
 		}
-		String[] codeStrings = codeSequence.toString().split(";");
-		if (codeStrings.length == 0) {
-			return new int[] { 0 };
+
+		if(foreground) {
+			style.foreground = color;
 		} else {
-			int[] codes = new int[codeStrings.length];
-			for (int i = 0; i < codeStrings.length; i++) {
-				if (codeStrings[i].equals("")) {
-					codes[i] = 0;
-				} else {
-					codes[i] = Integer.parseInt(codeStrings[i]);
-				}
-			}
-			return codes;
+			style.background = color;
 		}
+		return i;
 	}
-	
-	private AnsiStyle buildStyleRange(AnsiStyle lastStyle, int[] codes) {
-		AnsiStyle newStyleRange = new AnsiStyle(lastStyle);
-		
-		for (int i = 0; i < codes.length; i++) {
-			RGB tempColor = null;
-			switch (codes[i]) {
-			case 0:
-				newStyleRange.foreground = null;
-				newStyleRange.background = null;
-				newStyleRange.bold = false;
-				newStyleRange.underline = false;
-				newStyleRange.doubleUnderline = false;
-				break;
-			case 1:
-				newStyleRange.bold = true;
-				break;
-			case 2:
-				// It's actually supposed to be faint, but there's no way to
-				// display that
-				newStyleRange.bold = false;
-				newStyleRange.italic = false;
-				break;
-			case 3:
-				newStyleRange.italic = true;
-				break;
-			case 4:
-				newStyleRange.underline = true;
-				newStyleRange.doubleUnderline = false;
-				break;
-			case 7:
-				// Swap foreground and background
-				tempColor = newStyleRange.foreground;
-				newStyleRange.foreground = newStyleRange.background;
-				newStyleRange.background = tempColor;
-				break;
-			case 21:
-				newStyleRange.underline = true;
-				newStyleRange.doubleUnderline = true;
-				break;
-			case 22:
-				newStyleRange.bold = false;
-				newStyleRange.italic = false;
-				break;
-			case 24:
-				newStyleRange.underline = false;
-				newStyleRange.doubleUnderline = false;
-				break;
-			case 27:
-				// Technically, this should just unset reversed foreground, but
-				// we're
-				// just going to reverse again
-				tempColor = newStyleRange.foreground;
-				newStyleRange.foreground = newStyleRange.background;
-				newStyleRange.background = tempColor;
-				break;
-			default:
-				if (codes[i] >= 30 && codes[i] < 40) {
-					newStyleRange.foreground = colorTable[codes[i] - 30];
-				} else if (codes[i] >= 40 && codes[i] < 50) {
-					newStyleRange.background = colorTable[codes[i] - 40];
-				} else if (codes[i] >= 90 && codes[i] < 100) {
-					newStyleRange.foreground = colorTable[codes[i] - 90 + 10];
-				} else if (codes[i] >= 100 && codes[i] < 110) {
-					newStyleRange.background = colorTable[codes[i] - 100 + 10];
-				}
-				break;
-			}
+
+	/**
+	 * Creates the 256 color palette: 16 normal and bright colors, a 6x6x6 color cube, and 24 shades of grey.
+	 */
+	private static RGB[] createPalette() {
+		RGB[] palette = new RGB[256];
+
+		// normal colors
+		palette[0] = new RGB(0, 0, 0); // black
+		palette[1] = new RGB(150, 0, 0); // red
+		palette[2] = new RGB(0, 150, 0); // green
+		palette[3] = new RGB(150, 150, 0); // yellow
+		palette[4] = new RGB(0, 0, 150); // blue
+		palette[5] = new RGB(150, 0, 150); // magenta
+		palette[6] = new RGB(0, 150, 150); // cyan
+		palette[7] = new RGB(200, 200, 200); // white
+		// bright colors
+		palette[8] = new RGB(100, 100, 100); // black
+		palette[9] = new RGB(200, 0, 0); // red
+		palette[10] = new RGB(0, 200, 0); // green
+		palette[11] = new RGB(200, 200, 0); // yellow
+		palette[12] = new RGB(0, 0, 200); // blue
+		palette[13] = new RGB(200, 0, 200); // magenta
+		palette[14] = new RGB(0, 200, 200); // cyan
+		palette[15] = new RGB(200, 200, 200); // white
+
+		int[] levels = { 0, 95, 135, 175, 215, 255 };
+		for(int i = 0; i < 216; i++) {
+			palette[16 + i] = new RGB(levels[i / 36], levels[(i / 6) % 6], levels[i % 6]);
 		}
-		return newStyleRange;
+
+		for(int i = 0; i < 24; i++) {
+			int level = 8 + i * 10;
+			palette[232 + i] = new RGB(level, level, level);
+		}
+
+		return palette;
 	}
 }
@@ -1,5 +1,7 @@
 package workbook.view.ansi;
 
+import java.util.Objects;
+
 import org.eclipse.swt.graphics.RGB;
 
 public class AnsiStyle {
@@ -25,4 +27,41 @@ public class AnsiStyle {
 		this.bold = style.bold;
 		this.italic = style.italic;
 	}
+	
+	/**
+	 * Sets the range of text that has this style, and returns this style.
+	 */
+	public AnsiStyle span(int start, int length) {
+		this.start = start;
+		this.length = length;
+		return this;
+	}
+	
+	public void reset() {
+		foreground = null;
+		background = null;
+		underline = false;
+		doubleUnderline = false;
+		bold = false;
+		italic = false;
+	}
+	
+	/**
+	 * Returns whether this is the style of text without any escape sequences.
+	 */
+	public boolean isDefault() {
+		return foreground == null && background == null && !underline && !doubleUnderline && !bold && !italic;
+	}
+	
+	/**
+	 * Returns whether the two styles look the same, ignoring the ranges they apply to.
+	 */
+	public boolean hasSameStyle(AnsiStyle style) {
+		return Objects.equals(foreground, style.foreground)
+			&& Objects.equals(background, style.background)
+			&& underline == style.underline
+			&& doubleUnderline == style.doubleUnderline
+			&& bold == style.bold
+			&& italic == style.italic;
+	}
 }
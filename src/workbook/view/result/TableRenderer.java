@@ -4,6 +4,7 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
 
 import org.eclipse.swt.SWT;
 import org.eclipse.swt.events.ControlAdapter;
@@ -22,12 +23,15 @@ import workbook.editor.reference.Reference;
 import workbook.editor.ui.TableSorter;
 import workbook.script.Engine;
 import workbook.script.ScriptController;
+import workbook.script.TaskPriority;
 import workbook.util.TypeUtil;
 
 /**
  * Renders any result that is a List of Maps as a table.
  */
 public class TableRenderer implements ResultRenderer {
+	private static final int READ_CHUNK_SIZE = 100;
+	
 	private final ResultRenderer next;
 	private final ScriptController scriptController;
 
@@ -98,7 +102,10 @@ public class TableRenderer implements ResultRenderer {
 				});
 			});
 			
-			// Add table items with values.
+			// Add table items, and read their values in a few tasks.
+			List<TableItem> items = new ArrayList<>();
+			List<Integer> indexes = new ArrayList<>();
+			List<Reference> itemReferences = new ArrayList<>();
 			columns.forEach((name, values) -> {
 				for(int i = 0; i < values.size(); i++) {
 					if(rows.size() <= i) {
@@ -108,10 +115,16 @@ public class TableRenderer implements ResultRenderer {
 					TableItem item = rows.get(i);
 					
 					Reference reference = values.get(i);
-					readItemValue(item, columnIndexes.get(name), reference);
+					if(reference != null) {
+						itemReferences.add(reference);
+						items.add(item);
+						indexes.add(columnIndexes.get(name));
+					}
 				}
 			});
 			
+			readItemValues(items, indexes, itemReferences);
+			
 			// Set references data for each row.
 			for(int i = 0; i < rows.size(); i++) {
 				List<Reference> references = new ArrayList<>();
@@ -127,16 +140,39 @@ public class TableRenderer implements ResultRenderer {
 		});
 	}
 	
-	public void readItemValue(TableItem tableItem, int index, Reference reference) {
-		if(reference != null) {
-			reference.get().thenAccept(value -> {
-				String stringValue = String.valueOf(value);
-				tableItem.getDisplay().asyncExec(() -> {
-					if(!tableItem.isDisposed()) {
-						tableItem.setText(index, stringValue);
-					}
-				});
+	/**
+	 * Reads the values of the references into the table items, in tasks of up to READ_CHUNK_SIZE reads on the script
+	 * thread so that other tasks can run between them. An item keeps its previous value if its read fails.
+	 */
+	private void readItemValues(List<TableItem> tableItems, List<Integer> indexes, List<Reference> references) {
+		for(int start = 0; start < references.size(); start += READ_CHUNK_SIZE) {
+			int end = Math.min(start + READ_CHUNK_SIZE, references.size());
+			readItemValuesChunk(tableItems.subList(start, end), indexes.subList(start, end), references.subList(start, end));
+		}
+	}
+	
+	private void readItemValuesChunk(List<TableItem> tableItems, List<Integer> indexes, List<Reference> references) {
+		List<Callable<String>> reads = new ArrayList<>();
+		for(Reference reference:references) {
+			reads.add(() -> {
+				try {
+					return String.valueOf(reference.getSync());
+				} catch(Exception e) {
+					e.printStackTrace();
+					return null;
+				}
 			});
 		}
+		
+		scriptController.execAll(TaskPriority.REFRESH, reads).thenAccept(values -> {
+			Display.getDefault().asyncExec(() -> {
+				for(int i = 0; i < values.size(); i++) {
+					TableItem tableItem = tableItems.get(i);
+					if(values.get(i) != null && !tableItem.isDisposed()) {
+						tableItem.setText(indexes.get(i), values.get(i));
+					}
+				}
+			});
+		});
 	}
 }
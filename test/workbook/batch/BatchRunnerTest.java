@@ -0,0 +1,197 @@
+package workbook.batch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jdom2.Element;
+import org.jdom2.input.SAXBuilder;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import workbook.batch.BatchRunner.JobResult;
+import workbook.batch.BatchRunner.Report;
+import workbook.journal.Journal;
+import workbook.journal.JournalRecorder;
+import workbook.script.BinarySerializer;
+import workbook.script.GroovyEngine;
+
+public class BatchRunnerTest {
+	private static final String WORKBOOK =
+		"<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+		"<Workbook>\n" +
+		"  <Tabs>\n" +
+		"    <Split weight1=\"50\" weight2=\"50\" orientation=\"horizontal\">\n" +
+		"      <Items>\n" +
+		"        <Item title=\"Worksheet\" type=\"WorksheetTabbedView\">\n" +
+		"          <Command>twice(x)</Command>\n" +
+		"          <Command>println 'running'; y</Command>\n" +
+		"          <Command>missing()</Command>\n" +
+		"        </Item>\n" +
+		"      </Items>\n" +
+		"      <Items>\n" +
+		"        <Item title=\"Script\" type=\"ScriptTabbedView\">\n" +
+		"          <Content>def twice(n) { n * 2 }; x = Integer.parseInt(x)</Content>\n" +
+		"        </Item>\n" +
+		"        <Item title=\"Console\" type=\"ConsoleTabbedView\" />\n" +
+		"      </Items>\n" +
+		"    </Split>\n" +
+		"  </Tabs>\n" +
+		"  <Controller>\n" +
+		"    <ScriptType>Groovy</ScriptType>\n" +
+		"    <Globals />\n" +
+		"  </Controller>\n" +
+		"</Workbook>\n";
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private File file;
+	private BatchRunner runner;
+
+	@Before
+	public void before() throws Exception {
+		file = folder.newFile("test.wb");
+		Files.write(file.toPath(), WORKBOOK.getBytes(StandardCharsets.UTF_8));
+
+		runner = new BatchRunner(2);
+		runner.registerEngine("Groovy", GroovyEngine::new);
+	}
+
+	@Test
+	public void workbookFile() throws Exception {
+		WorkbookFile workbookFile = WorkbookFile.read(file);
+		assertEquals("Groovy", workbookFile.getScriptType());
+		assertNull(workbookFile.getGlobalsXml());
+		assertEquals(1, workbookFile.getScripts().size());
+		assertEquals(Arrays.asList("twice(x)", "println 'running'; y", "missing()"), workbookFile.getWorksheets().get(0).getCommands());
+	}
+
+	@Test
+	public void run() throws Exception {
+		List<BatchJob> jobs = new ArrayList<>();
+		for(int i = 1; i <= 4; i++) {
+			Map<String, Object> parameters = new HashMap<>();
+			parameters.put("x", String.valueOf(i));
+			parameters.put("y", "y" + i);
+			jobs.add(new BatchJob(file, parameters));
+		}
+
+		List<JobResult> results = Collections.synchronizedList(new ArrayList<>());
+		File outputDirectory = new File(folder.getRoot(), "results");
+		Report report = runner.run(jobs, outputDirectory, results::add);
+
+		assertEquals(4, report.getJobs());
+		assertEquals(4, report.getFailedJobs());
+		assertEquals(12, report.getCells());
+		assertEquals(4, results.size());
+
+		for(JobResult result:results) {
+			int x = Integer.parseInt((String) result.getJob().getParameters().get("x"));
+			List<BatchRunner.CellResult> cells = result.getWorksheets().get(0);
+			assertNull(result.getError());
+			assertEquals(x * 2, cells.get(0).getResult());
+			assertEquals("y" + x, cells.get(1).getResult());
+			assertNotNull(cells.get(2).getError());
+			assertTrue(result.getOutput().contains("running"));
+		}
+
+		String output = new String(Files.readAllBytes(new File(outputDirectory, "test-3.xml").toPath()), StandardCharsets.UTF_8);
+		assertTrue(output.contains("<Result>6</Result>"));
+		assertTrue(output.contains("<Result>y3</Result>"));
+	}
+
+	@Test
+	public void run_unknownScriptType() throws Exception {
+		runner.setDefaultScriptType("Missing");
+		Files.write(file.toPath(), WORKBOOK.replace("<ScriptType>Groovy</ScriptType>", "").getBytes(StandardCharsets.UTF_8));
+
+		List<JobResult> results = new ArrayList<>();
+		Report report = runner.run(Arrays.asList(new BatchJob(file)), null, results::add);
+
+		assertEquals(1, report.getFailedJobs());
+		assertTrue(results.get(0).getError().contains("Unknown script type: Missing"));
+	}
+
+	@Test
+	public void run_globalsFile() throws Exception {
+		Files.write(file.toPath(), WORKBOOK.replace("<Globals />", "<Globals file=\"test.wb.globals\" />").getBytes(StandardCharsets.UTF_8));
+		try(OutputStream outputStream = new FileOutputStream(new File(folder.getRoot(), "test.wb.globals"))) {
+			new BinarySerializer().serialize(Collections.singletonMap("y", "saved"), outputStream);
+		}
+
+		List<JobResult> results = new ArrayList<>();
+		runner.run(Arrays.asList(new BatchJob(file, Collections.singletonMap("x", "1"))), null, results::add);
+
+		assertEquals("saved", results.get(0).getWorksheets().get(0).get(1).getResult());
+	}
+
+	@Test
+	public void run_globalsFileOutsideDirectory() throws Exception {
+		Files.write(file.toPath(), WORKBOOK.replace("<Globals />", "<Globals file=\"../test.wb.globals\" />").getBytes(StandardCharsets.UTF_8));
+
+		List<JobResult> results = new ArrayList<>();
+		Report report = runner.run(Arrays.asList(new BatchJob(file, Collections.singletonMap("x", "1"))), null, results::add);
+
+		assertEquals(1, report.getFailedJobs());
+		assertTrue(results.get(0).getError().contains("Invalid globals file: ../test.wb.globals"));
+	}
+
+	@Test
+	public void run_journal() throws Exception {
+		String workbook = WORKBOOK.replace("<Workbook>", "<Workbook journalSequence=\"1\">").replace("<Globals />", "<Globals file=\"test.wb.globals\" />");
+		Files.write(file.toPath(), workbook.getBytes(StandardCharsets.UTF_8));
+		try(OutputStream outputStream = new FileOutputStream(new File(folder.getRoot(), "test.wb.globals"))) {
+			new BinarySerializer().serialize(Collections.singletonMap("z", "saved"), outputStream);
+		}
+
+		// Journal an edit to the last cell, and a change to the globals, as autosave does.
+		JournalRecorder recorder = new JournalRecorder();
+		List<Object> views = Arrays.asList(new Object(), new Object(), new Object());
+		Element tabs = new SAXBuilder().build(new StringReader(workbook)).getRootElement().getChild("Tabs");
+		recorder.resetViews(tabs, views, "Groovy");
+		recorder.resetGlobals(Collections.singletonMap("z", new BinarySerializer().serializeValue("saved")));
+
+		Element worksheet = tabs.getChild("Split").getChild("Items").getChild("Item");
+		worksheet.getChildren("Command").get(2).setText("z");
+		ByteArrayOutputStream data = new ByteArrayOutputStream();
+		data.write(recorder.captureViews(tabs, views, "Groovy"));
+		data.write(recorder.captureGlobals(Collections.singletonMap("z", new BinarySerializer().serializeValue("journaled"))));
+		new Journal(new File(folder.getRoot(), "test.wb.journal")).append(2, data.toByteArray());
+
+		List<JobResult> results = new ArrayList<>();
+		runner.run(Arrays.asList(new BatchJob(file, Collections.singletonMap("x", "1"))), null, results::add);
+
+		List<BatchRunner.CellResult> cells = results.get(0).getWorksheets().get(0);
+		assertNull(cells.get(2).getError());
+		assertEquals("journaled", cells.get(2).getResult());
+	}
+
+	@Test
+	public void readParameters() throws Exception {
+		File parameters = folder.newFile("parameters.txt");
+		Files.write(parameters.toPath(), "# comment\na=1;b=x=y\n\nc=2\n".getBytes(StandardCharsets.UTF_8));
+
+		Map<String, Object> first = new HashMap<>();
+		first.put("a", "1");
+		first.put("b", "x=y");
+		assertEquals(Arrays.asList(first, Collections.singletonMap("c", "2")), BatchRunner.readParameters(parameters));
+	}
+}
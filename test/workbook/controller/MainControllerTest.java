@@ -3,17 +3,27 @@ package workbook.controller;
 import static org.junit.Assert.assertEquals;
 import static org.mockito.Mockito.mock;
 
-import org.jdom2.Element;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 import com.google.common.eventbus.EventBus;
 
 import workbook.model.Model;
 import workbook.script.JavascriptEngine;
 import workbook.script.ScriptController;
+import workbook.util.XmlReader;
+import workbook.util.XmlWriter;
 
 public class MainControllerTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+	
 	private MainController mainController;
 	private ScriptController scriptController;
 	
@@ -27,13 +37,11 @@ public class MainControllerTest {
 	
 	@Test
 	public void serializationRoundTrip() throws Exception {
-		Element root = new Element("root");
-		
 		mainController.setVariable("x", 1);
-		mainController.serialize(root);
+		byte[] controller = serialize();
 		mainController.setVariable("x", 2);
 		
-		mainController.deserialize(root);
+		deserialize(controller);
 		Object result = scriptController.eval("x").get();
 		assertEquals(1, result);
 	}
@@ -42,11 +50,33 @@ public class MainControllerTest {
 	public void serializationRoundTrip_keepSystem() throws Exception {
 		mainController.setVariable("system", 3);
 		
-		Element root = new Element("root");
-		mainController.serialize(root);
-		mainController.deserialize(root);
+		deserialize(serialize());
 		
 		Object result = scriptController.eval("system").get();
 		assertEquals(3, result);
 	}
+	
+	/**
+	 * Writes the globals file, and returns the Controller element that refers to it.
+	 */
+	private byte[] serialize() throws Exception {
+		File globalsFile = new File(folder.getRoot(), "book.wb.globals");
+		mainController.writeGlobals(mainController.snapshotGlobals().get(), globalsFile);
+		
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		XmlWriter writer = new XmlWriter(outputStream);
+		writer.startDocument();
+		writer.startElement("Controller");
+		mainController.serialize(writer, "Javascript", globalsFile);
+		writer.endElement();
+		writer.endDocument();
+		return outputStream.toByteArray();
+	}
+	
+	private void deserialize(byte[] controller) throws Exception {
+		XmlReader reader = new XmlReader(new ByteArrayInputStream(controller));
+		reader.startDocument();
+		mainController.deserialize(reader, folder.getRoot());
+		reader.close();
+	}
 }
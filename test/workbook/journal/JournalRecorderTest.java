@@ -0,0 +1,171 @@
+package workbook.journal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jdom2.Element;
+import org.jdom2.output.XMLOutputter;
+import org.junit.Test;
+
+import workbook.script.BinarySerializer;
+
+public class JournalRecorderTest {
+	private final JournalRecorder recorder = new JournalRecorder();
+	private final List<Journal.Entry> entries = new ArrayList<>();
+	
+	@Test
+	public void captureViews_cellEdit() throws Exception {
+		Object worksheet = new Object();
+		Element snapshot = tabs(items(item("Worksheet", "a", "b", "c")));
+		recorder.resetViews(snapshot, Arrays.asList(worksheet), "Groovy");
+		
+		Element tabs = tabs(items(item("Worksheet", "a", "B", "c", "d")));
+		byte[] data = recorder.captureViews(tabs, Arrays.asList(worksheet), "Groovy");
+		
+		assertTrue(data.length < 100);
+		assertReplays(snapshot, tabs, data);
+	}
+	
+	@Test
+	public void captureViews_layout() throws Exception {
+		Object worksheet = new Object();
+		Object script = new Object();
+		Element snapshot = tabs(items(item("Worksheet", "a"), item("Script", "s")));
+		recorder.resetViews(snapshot, Arrays.asList(worksheet, script), "Groovy");
+		
+		// Move the script to a new split, close nothing, and add a console.
+		Object console = new Object();
+		Element split = new Element("Split").setAttribute("weight1", "1").setAttribute("weight2", "1").setAttribute("orientation", "horizontal");
+		split.addContent(items(item("Script", "s"), item("Console", "x")));
+		split.addContent(items(item("Worksheet", "a", "b")));
+		Element tabs = tabs(split);
+		
+		byte[] data = recorder.captureViews(tabs, Arrays.asList(script, console, worksheet), "Ruby");
+		
+		JournalReplay replay = assertReplays(snapshot, tabs, data);
+		assertEquals("Ruby", replay.getScriptType());
+	}
+	
+	@Test
+	public void captureViews_unchanged() throws Exception {
+		Object worksheet = new Object();
+		recorder.resetViews(tabs(items(item("Worksheet", "a"))), Arrays.asList(worksheet), "Groovy");
+		
+		assertEquals(0, recorder.captureViews(tabs(items(item("Worksheet", "a"))), Arrays.asList(worksheet), "Groovy").length);
+	}
+	
+	@Test
+	public void captureGlobals() throws Exception {
+		List<Integer> list = Arrays.asList(1, 2);
+		Map<String, Object> globals = new HashMap<>();
+		globals.put("a", 1);
+		globals.put("b", list);
+		globals.put("c", "c");
+		recorder.resetGlobals(serialize(globals));
+		
+		Map<String, Object> changed = new HashMap<>(globals);
+		changed.put("a", 2);
+		changed.remove("c");
+		changed.put("d", "d");
+		changed.put("system", 3);
+		Map<String, byte[]> snapshot = serialize(changed);
+		byte[] data = recorder.captureGlobals(snapshot);
+		
+		entries.add(new Journal.Entry(1, data));
+		JournalReplay replay = new JournalReplay(entries, 0);
+		assertFalse(replay.hasViewChanges());
+		assertNull(replay.getScriptType());
+		
+		replay.applyToGlobals(globals);
+		assertEquals(2, globals.get("a"));
+		assertEquals(list, globals.get("b"));
+		assertFalse(globals.containsKey("c"));
+		assertEquals("d", globals.get("d"));
+		assertFalse(globals.containsKey("system"));
+		
+		assertEquals(0, recorder.captureGlobals(snapshot).length);
+	}
+	
+	@Test
+	public void captureGlobals_changedInPlace() throws Exception {
+		List<Integer> list = new ArrayList<>(Arrays.asList(1, 2));
+		Map<String, Object> globals = new HashMap<>();
+		globals.put("list", list);
+		recorder.resetGlobals(serialize(globals));
+		
+		list.add(3);
+		entries.add(new Journal.Entry(1, recorder.captureGlobals(serialize(globals))));
+		
+		Map<String, Object> replayed = new HashMap<>();
+		new JournalReplay(entries, 0).applyToGlobals(replayed);
+		assertEquals(Arrays.asList(1, 2, 3), replayed.get("list"));
+	}
+	
+	@Test
+	public void replay_skipsSnapshotEntries() throws Exception {
+		Object worksheet = new Object();
+		Element snapshot = tabs(items(item("Worksheet", "a")));
+		recorder.resetViews(snapshot, Arrays.asList(worksheet), "Groovy");
+		
+		entries.add(new Journal.Entry(1, recorder.captureViews(tabs(items(item("Worksheet", "a", "b"))), Arrays.asList(worksheet), "Groovy")));
+		entries.add(new Journal.Entry(2, recorder.captureViews(tabs(items(item("Worksheet", "a", "b", "c"))), Arrays.asList(worksheet), "Groovy")));
+		
+		// The snapshot was saved after the first entry.
+		Element tabs = tabs(items(item("Worksheet", "a", "b")));
+		JournalReplay replay = new JournalReplay(entries, 1);
+		replay.applyToTabs(tabs);
+		
+		assertEquals(2, replay.getSequence());
+		assertEquals(toString(tabs(items(item("Worksheet", "a", "b", "c")))), toString(tabs));
+	}
+	
+	private JournalReplay assertReplays(Element snapshot, Element expected, byte[] data) throws Exception {
+		entries.add(new Journal.Entry(1, data));
+		JournalReplay replay = new JournalReplay(entries, 0);
+		replay.applyToTabs(snapshot);
+		assertEquals(toString(expected), toString(snapshot));
+		return replay;
+	}
+	
+	private static Element tabs(Element child) {
+		return new Element("Tabs").addContent(child);
+	}
+	
+	private static Element items(Element... items) {
+		Element element = new Element("Items");
+		for(Element item:items) {
+			element.addContent(item);
+		}
+		return element;
+	}
+	
+	private static Element item(String type, String... commands) {
+		Element item = new Element("Item").setAttribute("title", type).setAttribute("type", type);
+		for(String command:commands) {
+			item.addContent(new Element("Command").setText(command));
+		}
+		return item;
+	}
+	
+	private static String toString(Element element) {
+		return new XMLOutputter().outputString(element);
+	}
+	
+	private static Map<String, byte[]> serialize(Map<String, Object> globals) throws IOException {
+		BinarySerializer serializer = new BinarySerializer();
+		Map<String, byte[]> snapshot = new HashMap<>();
+		for(Map.Entry<String, Object> entry:globals.entrySet()) {
+			snapshot.put(entry.getKey(), serializer.serializeValue(entry.getValue()));
+		}
+		return snapshot;
+	}
+}
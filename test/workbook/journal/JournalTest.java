@@ -0,0 +1,88 @@
+package workbook.journal;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class JournalTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+	
+	@Test
+	public void appendAndRead() throws Exception {
+		File file = new File(folder.getRoot(), "book.wb.journal");
+		Journal journal = new Journal(file);
+		assertEquals(0, journal.read().size());
+		
+		journal.append(1, new byte[] { 1, 2, 3 });
+		journal.append(2, new byte[] { 4 });
+		
+		List<Journal.Entry> entries = new Journal(file).read();
+		assertEquals(2, entries.size());
+		assertEquals(1, entries.get(0).getSequence());
+		assertArrayEquals(new byte[] { 1, 2, 3 }, entries.get(0).getData());
+		assertEquals(2, entries.get(1).getSequence());
+		assertArrayEquals(new byte[] { 4 }, entries.get(1).getData());
+	}
+	
+	@Test
+	public void read_truncatesPartialEntry() throws Exception {
+		File file = new File(folder.getRoot(), "book.wb.journal");
+		Journal journal = new Journal(file);
+		journal.append(1, new byte[] { 1, 2, 3 });
+		long length = file.length();
+		journal.append(2, new byte[] { 4, 5, 6 });
+		
+		try(RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+			randomAccessFile.setLength(file.length() - 2);
+		}
+		
+		journal = new Journal(file);
+		assertEquals(1, journal.read().size());
+		assertEquals(length, file.length());
+		
+		journal.append(3, new byte[] { 7 });
+		List<Journal.Entry> entries = new Journal(file).read();
+		assertEquals(2, entries.size());
+		assertEquals(3, entries.get(1).getSequence());
+	}
+	
+	@Test
+	public void readOnly_keepsPartialEntry() throws Exception {
+		File file = new File(folder.getRoot(), "book.wb.journal");
+		Journal journal = new Journal(file);
+		journal.append(1, new byte[] { 1, 2, 3 });
+		journal.append(2, new byte[] { 4, 5, 6 });
+		
+		try(RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+			randomAccessFile.setLength(file.length() - 2);
+		}
+		long length = file.length();
+		
+		assertEquals(1, new Journal(file).readOnly().size());
+		assertEquals(length, file.length());
+	}
+	
+	@Test
+	public void compact() throws Exception {
+		File file = new File(folder.getRoot(), "book.wb.journal");
+		Journal journal = new Journal(file);
+		journal.append(1, new byte[] { 1 });
+		journal.append(2, new byte[] { 2 });
+		journal.append(3, new byte[] { 3 });
+		
+		journal.compact(2);
+		
+		List<Journal.Entry> entries = new Journal(file).read();
+		assertEquals(1, entries.size());
+		assertEquals(3, entries.get(0).getSequence());
+		assertEquals(file.length(), journal.getSize());
+	}
+}
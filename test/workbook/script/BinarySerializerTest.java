@@ -0,0 +1,129 @@
+package workbook.script;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import org.junit.Test;
+
+public class BinarySerializerTest {
+	private BinarySerializer serializer = new BinarySerializer();
+	
+	@Test
+	public void roundTripPrimitives() throws Exception {
+		Map<String, Object> map = new HashMap<>();
+		map.put("string", "a\u00e9");
+		map.put("int", 1);
+		map.put("long", 2L);
+		map.put("double", 3.5);
+		map.put("boolean", true);
+		map.put("char", 'c');
+		map.put("bigInteger", new BigInteger("123456789012345678901234567890"));
+		map.put("bigDecimal", new BigDecimal("-1.250"));
+		map.put("null", null);
+		
+		assertEquals(map, roundTrip(map));
+		assertTrue(roundTrip(map).containsKey("null"));
+	}
+	
+	@Test
+	public void roundTripArrays() throws Exception {
+		Map<String, Object> map = new HashMap<>();
+		map.put("ints", new int[] { 1, 2, 3 });
+		map.put("doubles", new double[] { 1.5, -2 });
+		map.put("bytes", new byte[] { 1, 2 });
+		map.put("strings", new String[] { "a", null });
+		
+		Map<String, Object> returned = roundTrip(map);
+		
+		assertArrayEquals(new int[] { 1, 2, 3 }, (int[]) returned.get("ints"));
+		assertArrayEquals(new double[] { 1.5, -2 }, (double[]) returned.get("doubles"), 0);
+		assertArrayEquals(new byte[] { 1, 2 }, (byte[]) returned.get("bytes"));
+		assertArrayEquals(new String[] { "a", null }, (String[]) returned.get("strings"));
+	}
+	
+	@Test
+	public void roundTripCollections() throws Exception {
+		Map<Object, Object> nested = new LinkedHashMap<>();
+		nested.put("b", Arrays.asList(1, 2));
+		nested.put(1, new TreeSet<>(Arrays.asList("y", "x")));
+		
+		Map<String, Object> map = new HashMap<>();
+		map.put("list", new ArrayList<>(Arrays.asList("a", 1, null)));
+		map.put("map", nested);
+		
+		Map<String, Object> returned = roundTrip(map);
+		
+		assertEquals(map, returned);
+		assertEquals(LinkedHashMap.class, returned.get("map").getClass());
+		assertEquals(Arrays.asList("b", 1), new ArrayList<>(((Map<?, ?>) returned.get("map")).keySet()));
+	}
+	
+	@Test
+	public void sharedReferences() throws Exception {
+		List<Object> list = new ArrayList<>();
+		list.add(list);
+		
+		Map<String, Object> map = new HashMap<>();
+		map.put("a", list);
+		map.put("b", list);
+		
+		Map<String, Object> returned = roundTrip(map);
+		
+		List<?> a = (List<?>) returned.get("a");
+		assertSame(a, returned.get("b"));
+		assertSame(a, a.get(0));
+	}
+	
+	@Test
+	public void serializeValues() throws Exception {
+		List<Object> list = new ArrayList<>();
+		list.add(list);
+		
+		Map<String, byte[]> values = new HashMap<>();
+		values.put("a", serializer.serializeValue(list));
+		values.put("b", serializer.serializeValue(list));
+		values.put("c", serializer.serializeValue(1));
+		
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		serializer.serializeValues(values, outputStream);
+		Map<String, Object> returned = serializer.deserialize(new ByteArrayInputStream(outputStream.toByteArray()));
+		
+		List<?> a = (List<?>) returned.get("a");
+		List<?> b = (List<?>) returned.get("b");
+		assertNotSame(a, b);
+		assertSame(a, a.get(0));
+		assertSame(b, b.get(0));
+		assertEquals(1, returned.get("c"));
+	}
+	
+	@Test
+	public void otherObjects() throws Exception {
+		Map<String, Object> map = new HashMap<>();
+		map.put("date", LocalDate.of(2010, 2, 1));
+		map.put("thread", Thread.currentThread());
+		
+		Map<String, Object> returned = roundTrip(map);
+		
+		assertEquals(LocalDate.of(2010, 2, 1), returned.get("date"));
+		assertTrue(returned.containsKey("thread"));
+		assertNull(returned.get("thread"));
+	}
+	
+	private Map<String, Object> roundTrip(Map<String, Object> map) throws Exception {
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		serializer.serialize(map, outputStream);
+		return serializer.deserialize(new ByteArrayInputStream(outputStream.toByteArray()));
+	}
+}
@@ -0,0 +1,49 @@
+package workbook.script;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class CompiledScriptCacheTest {
+	@Test
+	public void get() {
+		CompiledScriptCache<String> cache = new CompiledScriptCache<>(2);
+		cache.put("a", "A");
+		
+		assertEquals("A", cache.get("a"));
+		assertNull(cache.get("b"));
+		assertEquals(1, cache.getHits());
+		assertEquals(1, cache.getMisses());
+	}
+	
+	@Test
+	public void evictLeastRecentlyUsed() {
+		List<String> evicted = new ArrayList<>();
+		CompiledScriptCache<String> cache = new CompiledScriptCache<>(2, evicted::add);
+		cache.put("a", "A");
+		cache.put("b", "B");
+		cache.get("a");
+		cache.put("c", "C");
+		
+		assertEquals(Arrays.asList("B"), evicted);
+		assertEquals("A", cache.get("a"));
+		assertNull(cache.get("b"));
+		assertEquals("C", cache.get("c"));
+	}
+	
+	@Test
+	public void clear() {
+		List<String> evicted = new ArrayList<>();
+		CompiledScriptCache<String> cache = new CompiledScriptCache<>(2, evicted::add);
+		cache.put("a", "A");
+		cache.clear();
+		
+		assertEquals(Arrays.asList("A"), evicted);
+		assertEquals(0, cache.size());
+	}
+}
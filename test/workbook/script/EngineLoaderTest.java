@@ -0,0 +1,58 @@
+package workbook.script;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class EngineLoaderTest {
+	private final AtomicInteger created = new AtomicInteger();
+	
+	@Test
+	public void get_createsOnFirstUse() {
+		EngineLoader loader = new EngineLoader("Groovy", this::createEngine);
+		assertEquals(0, created.get());
+		assertFalse(loader.isLoaded());
+		
+		Engine engine = loader.get();
+		
+		assertSame(engine, loader.get());
+		assertEquals(1, created.get());
+		assertTrue(loader.isLoaded());
+	}
+	
+	@Test
+	public void start_createsInBackground() {
+		EngineLoader loader = new EngineLoader("Groovy", this::createEngine);
+		loader.start();
+		loader.start();
+		
+		Engine engine = loader.get();
+		
+		assertSame(engine, loader.get());
+		assertEquals(1, created.get());
+	}
+	
+	@Test
+	public void get_recordsStartTime() {
+		ScriptMetrics metrics = new ScriptMetrics();
+		new EngineLoader("Groovy", this::createEngine, metrics).get();
+		
+		assertTrue(metrics.getEngineStartMicros().containsKey("Groovy"));
+	}
+	
+	@Test(expected=CompletionException.class)
+	public void get_failure() {
+		new EngineLoader("Unknown", () -> { throw new NoClassDefFoundError(); }).get();
+	}
+	
+	private Engine createEngine() {
+		created.incrementAndGet();
+		return new GroovyEngine();
+	}
+}
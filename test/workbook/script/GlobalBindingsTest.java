@@ -0,0 +1,75 @@
+package workbook.script;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class GlobalBindingsTest {
+	private final Map<String, Object> globals = new HashMap<>();
+	
+	@Test
+	public void putWritesGlobals() {
+		GlobalBindings bindings = new GlobalBindings(globals);
+		bindings.put("a", 1);
+		
+		assertEquals(1, globals.get("a"));
+		assertEquals(1, bindings.get("a"));
+	}
+	
+	@Test
+	public void getReadsGlobals() {
+		GlobalBindings bindings = new GlobalBindings(globals);
+		globals.put("a", 1);
+		
+		assertTrue(bindings.containsKey("a"));
+		assertEquals(1, bindings.get("a"));
+	}
+	
+	@Test
+	public void localsShadowGlobals() {
+		GlobalBindings bindings = new GlobalBindings(globals);
+		globals.put("a", 1);
+		bindings.putLocal("a", 2);
+		bindings.put("a", 3);
+		
+		assertEquals(3, bindings.get("a"));
+		assertEquals(1, globals.get("a"));
+	}
+	
+	@Test
+	public void localWrites() {
+		GlobalBindings bindings = new GlobalBindings(globals, true);
+		globals.put("a", 1);
+		bindings.put("a", 2);
+		bindings.put("b", 3);
+		
+		assertEquals(2, bindings.get("a"));
+		assertEquals(1, globals.get("a"));
+		assertFalse(globals.containsKey("b"));
+	}
+	
+	@Test
+	public void remove() {
+		GlobalBindings bindings = new GlobalBindings(globals);
+		globals.put("a", 1);
+		bindings.remove("a");
+		
+		assertNull(globals.get("a"));
+	}
+	
+	@Test
+	public void entrySet() {
+		GlobalBindings bindings = new GlobalBindings(globals);
+		globals.put("a", 1);
+		bindings.putLocal("b", 2);
+		
+		assertEquals(2, bindings.size());
+		assertEquals(2, bindings.entrySet().size());
+	}
+}
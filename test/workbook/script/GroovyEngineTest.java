@@ -63,6 +63,27 @@ public class GroovyEngineTest {
 		assertEquals("3", values.get(0).getProperties().get("a"));
 	}
 	
+	@Test
+	public void evalWithCallbackFunctions_repeated() {
+		script.evalWithCallbackFunctions("rect([a: 1]);", Arrays.asList("rect", "line"));
+		List<NameAndProperties> values = script.evalWithCallbackFunctions("line([a: 2]);", Arrays.asList("rect", "line"));
+		
+		assertEquals(1, values.size());
+		assertEquals("line", values.get(0).getName());
+		assertEquals("2", values.get(0).getProperties().get("a"));
+	}
+	
+	@Test
+	public void evalWithCallbackFunctions_globalsUpdated() {
+		script.eval("x = 1");
+		script.evalWithCallbackFunctions("line([a: x]);", Arrays.asList("line"));
+		script.eval("x = 2");
+		
+		List<NameAndProperties> values = script.evalWithCallbackFunctions("line([a: x]);", Arrays.asList("line"));
+		
+		assertEquals("2", values.get(0).getProperties().get("a"));
+	}
+	
 	@Test
 	public void evalMethodCall() {
 		Object sum = script.evalMethodCall("Double.sum", Arrays.asList(1, 2));
@@ -136,4 +157,29 @@ public class GroovyEngineTest {
 		script.defineFunction("chart", param -> param);
 		assertEquals("param", script.eval("chart('param')"));
 	}
-}
\ No newline at end of file
+	
+	@Test
+	public void eval_cachedScriptUsesCurrentGlobals() {
+		script.eval("x = 1");
+		assertEquals(2, script.eval("x + 1"));
+		script.eval("x = 5");
+		assertEquals(6, script.eval("x + 1"));
+	}
+	
+	@Test
+	public void eval_cachedScriptDefinesFunctions() {
+		script.eval("def f() { 1 }");
+		script.eval("def f() { 2 }");
+		script.eval("def f() { 1 }");
+		assertEquals(1, script.eval("f()"));
+	}
+	
+	@Test
+	public void eval_recompileAfterTypeRedefined() {
+		script.eval("class A { def value() { 1 } }");
+		assertEquals(1, script.eval("new A().value()"));
+		
+		script.eval("class A { def value() { 2 } }");
+		assertEquals(2, script.eval("new A().value()"));
+	}
+}
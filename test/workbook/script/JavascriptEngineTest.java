@@ -24,6 +24,39 @@ public class JavascriptEngineTest {
 		assertEquals(2, result);
 	}
 	
+	@Test
+	public void compile() {
+		CompiledCommand command = script.compile("x + 1");
+		
+		script.eval("x = 1");
+		assertEquals(2, ((Number) command.eval()).intValue());
+		
+		script.eval("x = 2");
+		assertEquals(3, ((Number) command.eval()).intValue());
+	}
+	
+	@Test
+	public void setVariable_afterVar() {
+		script.eval("var z = 1");
+		script.eval("z = 5");
+		script.setVariable("z", 10);
+		
+		assertEquals(11, ((Number) script.eval("z + 1")).intValue());
+		assertEquals(10, script.getVariable("z"));
+	}
+	
+	@Test
+	public void compile_setVariable() {
+		CompiledCommand command = script.compile("var y = x + 1; y");
+		
+		script.setVariable("x", 1);
+		assertEquals(2, ((Number) command.eval()).intValue());
+		
+		script.setVariable("x", 2);
+		assertEquals(3, ((Number) command.eval()).intValue());
+		assertEquals(3, ((Number) script.getVariable("y")).intValue());
+	}
+	
 	@Test
 	public void eval_output() {
 		List<String> list = new ArrayList<>();
@@ -2,9 +2,12 @@ package workbook.script;
 
 import static org.junit.Assert.assertEquals;
 
+import java.io.OutputStream;
 import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 import org.junit.Test;
@@ -14,13 +17,57 @@ public class LineReaderTest {
 	public void test() {
 		List<String> lines = new ArrayList<>();
 		LineReader lineReader = new LineReader(line -> lines.add(line));
-		
+
 		PrintWriter printWriter = new PrintWriter(lineReader.getOutputStream());
-		
+
 		printWriter.println("abc");
 		printWriter.println("def");
 		printWriter.flush();
-		
+
 		assertEquals(Arrays.asList("abc", "def"), lines);
 	}
+
+	@Test
+	public void utf8_splitBetweenWrites() throws Exception {
+		List<String> lines = new ArrayList<>();
+		LineReader lineReader = new LineReader(StandardCharsets.UTF_8, lines::addAll);
+
+		byte[] bytes = "a\u00e9\u20ac\ud83d\ude00\n".getBytes(StandardCharsets.UTF_8);
+		OutputStream outputStream = lineReader.getOutputStream();
+		for(byte b:bytes) {
+			outputStream.write(b);
+		}
+
+		assertEquals(Arrays.asList("a\u00e9\u20ac\ud83d\ude00"), lines);
+	}
+
+	@Test
+	public void batches() throws Exception {
+		List<List<String>> batches = new ArrayList<>();
+		LineReader lineReader = new LineReader(StandardCharsets.UTF_8, batches::add);
+
+		OutputStream outputStream = lineReader.getOutputStream();
+		outputStream.write("a\r\nb\nc".getBytes(StandardCharsets.UTF_8));
+		outputStream.write("d\n".getBytes(StandardCharsets.UTF_8));
+		outputStream.write("e".getBytes(StandardCharsets.UTF_8));
+		outputStream.close();
+
+		assertEquals(Arrays.asList(Arrays.asList("a", "b"), Arrays.asList("cd"), Arrays.asList("e")), batches);
+	}
+
+	@Test
+	public void largeWrite() throws Exception {
+		List<String> lines = new ArrayList<>();
+		LineReader lineReader = new LineReader(StandardCharsets.UTF_8, lines::addAll);
+
+		String line = String.join("", Collections.nCopies(LineReader.INITIAL_BUFFER_SIZE * 3, "\u00e9"));
+		lineReader.getOutputStream().write((line + "\n" + line + "\n").getBytes(StandardCharsets.UTF_8));
+
+		assertEquals(Arrays.asList(line, line), lines);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void unsupportedCharset() {
+		new LineReader(StandardCharsets.UTF_16, lines -> {});
+	}
 }
\ No newline at end of file
@@ -0,0 +1,150 @@
+package workbook.script;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import syntaxhighlighter.brush.BrushGroovy;
+
+public class RemoteEngineTest {
+	private final Map<String, Object> globals = Collections.synchronizedMap(new HashMap<>());
+	private RemoteEngine script;
+
+	@Before
+	public void before() {
+		script = new RemoteEngine(GroovyEngine.class.getName(), new BrushGroovy(), Collections.emptyList());
+		script.setGlobals(globals);
+	}
+
+	@After
+	public void after() {
+		script.close();
+	}
+
+	@Test
+	public void eval() {
+		assertEquals(2, script.eval("1 + 1"));
+	}
+
+	@Test
+	public void globals() {
+		script.setVariable("x", 1);
+		assertEquals(2, script.eval("x + 1"));
+
+		script.eval("y = 5");
+		assertEquals(5, globals.get("y"));
+
+		globals.remove("x");
+		assertEquals(false, script.eval("binding.hasVariable('x')"));
+	}
+
+	@Test
+	public void output() {
+		PrintStream out = System.out;
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		System.setOut(new PrintStream(bytes, true));
+		try {
+			script.eval("println 'a'");
+		} finally {
+			System.setOut(out);
+		}
+		assertEquals("a\n", bytes.toString().replace("\r", ""));
+	}
+
+	@Test
+	public void handles() {
+		Object list = script.eval("[[a: 1], [a: 2]]");
+		assertTrue(list instanceof RemoteHandle);
+		assertTrue(script.isIterable(list));
+		assertEquals("[{a=1}, {a=2}]", list.toString());
+
+		List<Object> items = new ArrayList<>();
+		script.iterateObject(list, items::add);
+		assertEquals(2, items.size());
+		assertEquals(2, script.getPropertyMap(items.get(1)).get("a"));
+
+		script.setVariable("list", list);
+		assertEquals(2, script.eval("list.size()"));
+	}
+
+	@Test
+	public void evalWithCallbackFunctions() {
+		List<NameAndProperties> values = script.evalWithCallbackFunctions("rect([a: 1, b: 2]);", Arrays.asList("rect"));
+
+		Map<String, String> properties = new HashMap<>();
+		properties.put("a", "1");
+		properties.put("b", "2");
+		assertEquals(Arrays.asList(new NameAndProperties("rect", properties)), values);
+	}
+
+	@Test
+	public void evalMethodCall() {
+		assertEquals(3.0, script.evalMethodCall("Double.sum", Arrays.asList(1, 2)));
+	}
+
+	@Test
+	public void defineFunction() {
+		script.defineFunction("twice", value -> (Integer) value * 2);
+		assertEquals(4, script.eval("twice(2)"));
+	}
+
+	@Test
+	public void error() {
+		try {
+			script.eval("throw new IllegalStateException('failed')");
+			fail();
+		} catch(RuntimeException e) {
+			assertTrue(e.getCause().getCause().toString().contains("IllegalStateException: failed"));
+		}
+	}
+
+	@Test
+	public void kill_restarts() {
+		script.eval("x = 3");
+		script.kill();
+
+		try {
+			script.eval("x");
+			fail();
+		} catch(RuntimeException e) {
+		}
+		assertEquals(4, script.eval("x + 1"));
+	}
+
+	@Test
+	public void interrupt_restarts() throws Exception {
+		script.setVariable("x", 1);
+
+		Thread thread = Thread.currentThread();
+		new Thread(() -> {
+			try {
+				Thread.sleep(500);
+			} catch(InterruptedException e) {
+			}
+			thread.interrupt();
+		}).start();
+
+		try {
+			script.eval("while(true) {}");
+			fail();
+		} catch(RuntimeException e) {
+			assertTrue(Thread.interrupted());
+		}
+		assertEquals(2, script.eval("x + 1"));
+		assertFalse(Thread.interrupted());
+	}
+}
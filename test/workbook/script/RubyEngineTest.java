@@ -23,6 +23,17 @@ public class RubyEngineTest {
 		assertEquals(2L, result);
 	}
 	
+	@Test
+	public void compile() {
+		CompiledCommand command = script.compile("$x + 1");
+		
+		script.eval("$x = 1");
+		assertEquals(2L, command.eval());
+		
+		script.eval("$x = 2");
+		assertEquals(3L, command.eval());
+	}
+	
 	@Test
 	public void eval_scriptOutput() {
 		List<String> list = new ArrayList<>();
@@ -0,0 +1,300 @@
+package workbook.script;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import workbook.view.result.wrapper.ChartWrapper;
+
+public class ScriptControllerTest {
+	private ScriptController scriptController;
+	
+	@Before
+	public void before() {
+		scriptController = new ScriptController();
+		scriptController.startQueueThread();
+	}
+	
+	@Test
+	public void exec_priority() throws Exception {
+		CountDownLatch latch = new CountDownLatch(1);
+		scriptController.exec(() -> latch.await(10, TimeUnit.SECONDS));
+		
+		StringBuilder order = new StringBuilder();
+		scriptController.exec(TaskPriority.BACKGROUND, () -> order.append("background "));
+		scriptController.exec(TaskPriority.REFRESH, () -> order.append("refresh "));
+		scriptController.exec(TaskPriority.INTERACTIVE, () -> order.append("interactive "));
+		latch.countDown();
+		
+		assertEquals("interactive refresh background ", scriptController.exec(TaskPriority.BACKGROUND, () -> order.toString()).get());
+	}
+	
+	@Test
+	public void exec_keyed() throws Exception {
+		CountDownLatch latch = new CountDownLatch(1);
+		scriptController.exec(() -> latch.await(10, TimeUnit.SECONDS));
+		
+		AtomicInteger count = new AtomicInteger();
+		ScriptFuture<Integer> first = scriptController.exec(TaskPriority.REFRESH, "key", () -> count.incrementAndGet());
+		ScriptFuture<Integer> second = scriptController.exec(TaskPriority.REFRESH, "key", () -> count.incrementAndGet());
+		latch.countDown();
+		
+		assertEquals(1, (int) second.get());
+		assertEquals(1, (int) first.get());
+		assertEquals(1, count.get());
+	}
+	
+	@Test
+	public void thenAccept_inline() throws Exception {
+		CountDownLatch latch = new CountDownLatch(1);
+		scriptController.exec(() -> latch.await(10, TimeUnit.SECONDS));
+		
+		StringBuilder order = new StringBuilder();
+		scriptController.exec(() -> order.append("first ")).thenAccept(value -> order.append("callback "));
+		scriptController.exec(() -> order.append("second "));
+		latch.countDown();
+		
+		assertEquals("first callback second ", scriptController.exec(() -> order.toString()).get());
+	}
+	
+	@Test
+	public void thenApply_chain() throws Exception {
+		ScriptFuture<Integer> future = scriptController.exec(() -> 1)
+			.thenApply(value -> value + 1)
+			.thenApply(value -> scriptController.isScriptThread() ? value * 2 : 0);
+		
+		assertEquals(4, (int) future.get());
+	}
+	
+	@Test
+	public void thenApply_exception() throws Exception {
+		ScriptFuture<Integer> future = scriptController.<Integer>exec(() -> { throw new IllegalStateException(); })
+			.thenApply(value -> value + 1);
+		
+		try {
+			future.get();
+			fail();
+		} catch(ExecutionException e) {
+			assertTrue(e.getCause() instanceof IllegalStateException);
+		}
+	}
+	
+	@Test
+	public void execAll() throws Exception {
+		StringBuilder order = new StringBuilder();
+		ScriptFuture<List<String>> future = scriptController.execAll(TaskPriority.REFRESH, Arrays.asList(
+			() -> order.append("a").toString(),
+			() -> order.append("b").toString(),
+			() -> order.append("c").toString()
+		));
+		
+		assertEquals(Arrays.asList("a", "ab", "abc"), future.get());
+	}
+	
+	@Test
+	public void metrics() throws Exception {
+		scriptController.exec(TaskKind.REFERENCE_GET, TaskPriority.REFRESH, null, () -> 1).get();
+		scriptController.exec(TaskKind.REFERENCE_GET, TaskPriority.REFRESH, null, () -> { throw new IllegalStateException(); });
+		scriptController.exec(() -> null).get();
+		
+		ScriptMetrics metrics = scriptController.getMetrics();
+		assertEquals(2, metrics.getExecTimes(TaskKind.REFERENCE_GET).getCount());
+		assertEquals(2, metrics.getWaitTimes(TaskKind.REFERENCE_GET).getCount());
+		assertEquals(1, metrics.getEngineCounters().get("null").getErrors());
+		assertEquals(3, metrics.getQueueDepth().getCount());
+	}
+	
+	@Test
+	public void cancel_queued() throws Exception {
+		CountDownLatch latch = new CountDownLatch(1);
+		scriptController.exec(() -> latch.await(10, TimeUnit.SECONDS));
+		
+		AtomicBoolean ran = new AtomicBoolean();
+		ScriptFuture<Boolean> future = scriptController.exec(() -> ran.getAndSet(true));
+		assertTrue(future.cancel());
+		latch.countDown();
+		
+		scriptController.exec(() -> null).get();
+		assertFalse(ran.get());
+		assertFalse(future.cancel());
+	}
+	
+	@Test
+	public void cancel_running() throws Exception {
+		scriptController.addEngine("Groovy", new GroovyEngine());
+		scriptController.setScriptType("Groovy");
+		
+		ScriptFuture<Object> future = scriptController.eval("while(true) {}");
+		Thread.sleep(200);
+		future.cancel();
+		
+		assertException(future, CancellationException.class);
+		assertEquals(2, scriptController.eval("1 + 1").get());
+	}
+	
+	@Test(timeout = 10000)
+	public void cancel_unresponsive() throws Exception {
+		AtomicBoolean finish = new AtomicBoolean(false);
+		try {
+			ScriptFuture<Object> future = scriptController.exec(() -> {
+				while(!finish.get()) {
+				}
+				return null;
+			});
+			Thread.sleep(200);
+			future.cancel();
+			
+			assertException(future, CancellationException.class);
+			assertEquals(2, (int) scriptController.exec(() -> 2).get());
+		} finally {
+			finish.set(true);
+		}
+	}
+	
+	@Test
+	public void eval_globalAccesses() throws Exception {
+		scriptController.addEngine("Groovy", new GroovyEngine());
+		scriptController.setScriptType("Groovy");
+		scriptController.eval("a = 1; b = 2").get();
+		
+		GlobalAccesses accesses = new GlobalAccesses();
+		assertEquals(2, scriptController.eval("c = a + 1; b = 2; c", accesses).get());
+		
+		assertTrue(accesses.getReads().containsAll(Arrays.asList("a", "c")));
+		assertEquals(new HashSet<>(Arrays.asList("c")), accesses.getWrites());
+	}
+	
+	@Test
+	public void snapshotGlobals() throws Exception {
+		Map<String, Object> globals = scriptController.getGlobalsSync();
+		List<Object> list = new ArrayList<>(Arrays.asList(1));
+		globals.put("a", list);
+		globals.put("_", 2);
+		Map<String, byte[]> snapshot = scriptController.snapshotGlobals().get();
+		
+		list.add(3);
+		globals.remove("a");
+		
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		ScriptController.writeGlobals(snapshot, outputStream);
+		Map<String, Object> written = new BinarySerializer().deserialize(new ByteArrayInputStream(outputStream.toByteArray()));
+		
+		assertEquals(Arrays.asList(1), written.get("a"));
+		assertFalse(written.containsKey("_"));
+	}
+	
+	@Test
+	public void timeout() throws Exception {
+		scriptController.addEngine("Groovy", new GroovyEngine());
+		scriptController.setScriptType("Groovy");
+		
+		ScriptFuture<Object> future = scriptController.eval("while(true) {}").timeout(200, TimeUnit.MILLISECONDS);
+		
+		assertException(future, TimeoutException.class);
+		assertEquals(2, scriptController.eval("1 + 1").get());
+	}
+	
+	@Test
+	public void timeout_cancelledOnCompletion() throws Exception {
+		int queueSize = ScriptController.getWatchdogQueueSize();
+		for(int i = 0; i < 10; i++) {
+			scriptController.exec(() -> 1).timeout(1, TimeUnit.HOURS).get();
+		}
+		
+		assertEquals(queueSize, ScriptController.getWatchdogQueueSize());
+	}
+	
+	@Test
+	public void warmEngines_cold() throws Exception {
+		CountDownLatch warmed = new CountDownLatch(1);
+		AtomicInteger created = new AtomicInteger();
+		scriptController.addEngine("Warm", () -> { warmed.countDown(); return new GroovyEngine(); });
+		scriptController.addEngine("Cold", () -> { created.incrementAndGet(); return new GroovyEngine(); }, false);
+		
+		scriptController.warmEngines().get();
+		assertTrue(warmed.await(10, TimeUnit.SECONDS));
+		assertEquals(0, created.get());
+		
+		scriptController.setScriptType("Cold").get();
+		assertEquals(1, created.get());
+	}
+	
+	@Test
+	public void execConcurrent_scriptThread() throws Exception {
+		scriptController.addEngine("Groovy", GroovyEngine::new);
+		scriptController.setScriptType("Groovy");
+		scriptController.setVirtualThreads(false);
+		
+		assertEquals(2, scriptController.execConcurrent(engine -> engine.eval("1 + 1")).get());
+		assertEquals(scriptController.getScriptSync(), scriptController.execConcurrent(engine -> engine).get());
+	}
+	
+	@Test
+	public void execConcurrent_virtualThreads() throws Exception {
+		scriptController.addEngine("Groovy", GroovyEngine::new);
+		scriptController.setScriptType("Groovy");
+		Assume.assumeTrue(scriptController.setVirtualThreads(true));
+		
+		CyclicBarrier barrier = new CyclicBarrier(2);
+		ScriptFuture<Object> a = scriptController.execConcurrent(engine -> await(barrier));
+		ScriptFuture<Object> b = scriptController.execConcurrent(engine -> await(barrier));
+		
+		assertEquals(1, (int) a.get() + (int) b.get());
+		scriptController.setVirtualThreads(false);
+	}
+	
+	@Test
+	public void execConcurrent_definedFunctions() throws Exception {
+		scriptController.addEngine("Groovy", GroovyEngine::new);
+		scriptController.setScriptType("Groovy");
+		scriptController.defineFunction("chart", value -> value);
+		Assume.assumeTrue(scriptController.setVirtualThreads(true));
+		
+		Object result = scriptController.evalConcurrent("chart([1, 2])").get();
+		
+		assertTrue(result instanceof ChartWrapper);
+		scriptController.setVirtualThreads(false);
+	}
+	
+	private static int await(CyclicBarrier barrier) {
+		try {
+			return barrier.await(10, TimeUnit.SECONDS);
+		} catch(Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
+	private static void assertException(ScriptFuture<?> future, Class<? extends Throwable> type) throws InterruptedException {
+		try {
+			future.get();
+		} catch(CancellationException e) {
+			assertEquals(type, e.getClass());
+			return;
+		} catch(ExecutionException e) {
+			assertEquals(type, e.getCause().getClass());
+			return;
+		}
+		throw new AssertionError("Expected " + type.getSimpleName());
+	}
+}
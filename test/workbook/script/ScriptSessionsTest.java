@@ -0,0 +1,121 @@
+package workbook.script;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class ScriptSessionsTest {
+	private ScriptController defaultSession;
+	private ScriptSessions scriptSessions;
+
+	@Before
+	public void before() throws Exception {
+		defaultSession = new ScriptController();
+		defaultSession.startQueueThread();
+		defaultSession.addEngine("Groovy", GroovyEngine::new);
+		defaultSession.setScriptType("Groovy").get();
+
+		scriptSessions = new ScriptSessions(defaultSession, session -> session.setScriptType("Groovy"));
+		scriptSessions.registerEngine("Groovy", GroovyEngine::new);
+	}
+
+	@Test
+	public void getSession_default() {
+		assertSame(defaultSession, scriptSessions.getSession(null));
+		assertSame(defaultSession, scriptSessions.getSession(""));
+		assertSame(defaultSession, scriptSessions.getSession(ScriptSessions.DEFAULT_SESSION));
+	}
+
+	@Test
+	public void getSession_sameName() {
+		ScriptController session = scriptSessions.getSession("a");
+		assertNotSame(defaultSession, session);
+		assertSame(session, scriptSessions.getSession("a"));
+	}
+
+	@Test
+	public void getSession_separateGlobals() throws Exception {
+		ScriptController session = scriptSessions.getSession("a");
+
+		defaultSession.eval("x = 1").get();
+		session.eval("x = 2").get();
+
+		assertEquals(1, defaultSession.eval("x").get());
+		assertEquals(2, session.eval("x").get());
+	}
+
+	@Test
+	public void getSession_sharedGlobals() throws Exception {
+		ScriptController session = scriptSessions.getSession("a", true);
+
+		defaultSession.eval("x = 1").get();
+
+		assertEquals(1, session.eval("x").get());
+	}
+
+	@Test
+	public void getSession_notBlockedByOtherSession() throws Exception {
+		CountDownLatch latch = new CountDownLatch(1);
+		defaultSession.exec(() -> latch.await(10, TimeUnit.SECONDS));
+
+		ScriptController session = scriptSessions.getSession("a");
+		assertEquals(2, session.eval("1 + 1").get());
+
+		latch.countDown();
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void getSession_sharingMismatch() {
+		scriptSessions.getSession("a", true);
+		scriptSessions.getSession("a", false);
+	}
+
+	@Test
+	public void removeSession() throws Exception {
+		ScriptController session = scriptSessions.getSession("a");
+		CountDownLatch started = new CountDownLatch(1);
+		ScriptFuture<Object> running = session.exec(() -> {
+			started.countDown();
+			return new CountDownLatch(1).await(10, TimeUnit.SECONDS);
+		});
+		ScriptFuture<Object> queued = session.eval("1 + 1");
+		started.await(10, TimeUnit.SECONDS);
+
+		scriptSessions.removeSession("a");
+
+		assertCancelled(running);
+		assertCancelled(queued);
+		assertCancelled(session.eval("1 + 1"));
+		assertTrue(session.isShutdown());
+		assertNotSame(session, scriptSessions.getSession("a"));
+	}
+
+	@Test
+	public void close() throws Exception {
+		ScriptController session = scriptSessions.getSession("a");
+		session.eval("1").get();
+
+		scriptSessions.close();
+
+		assertTrue(session.isShutdown());
+		assertEquals(1, scriptSessions.getSessions().size());
+		assertEquals(2, defaultSession.eval("1 + 1").get());
+	}
+
+	private static void assertCancelled(ScriptFuture<?> future) throws Exception {
+		try {
+			future.get();
+		} catch(CancellationException e) {
+			return;
+		}
+		throw new AssertionError("Expected the future to be cancelled");
+	}
+}
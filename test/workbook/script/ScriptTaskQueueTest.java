@@ -0,0 +1,93 @@
+package workbook.script;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class ScriptTaskQueueTest {
+	private final List<String> order = new ArrayList<>();
+	
+	@Test
+	public void take_priorityOrder() throws Exception {
+		ScriptTaskQueue queue = new ScriptTaskQueue(10000);
+		queue.add(TaskPriority.BACKGROUND, () -> order.add("background"));
+		queue.add(TaskPriority.REFRESH, () -> order.add("refresh1"));
+		queue.add(TaskPriority.REFRESH, () -> order.add("refresh2"));
+		queue.add(TaskPriority.INTERACTIVE, () -> order.add("interactive"));
+		
+		takeAll(queue);
+		
+		assertEquals(Arrays.asList("interactive", "refresh1", "refresh2", "background"), order);
+	}
+	
+	@Test
+	public void take_overdueTaskFirst() throws Exception {
+		ScriptTaskQueue queue = new ScriptTaskQueue(20);
+		queue.add(TaskPriority.BACKGROUND, () -> order.add("background"));
+		Thread.sleep(50);
+		queue.add(TaskPriority.INTERACTIVE, () -> order.add("interactive"));
+		
+		takeAll(queue);
+		
+		assertEquals(Arrays.asList("background", "interactive"), order);
+	}
+	
+	@Test
+	public void take_interactiveTaskBehindOverdueBacklog() throws Exception {
+		ScriptTaskQueue queue = new ScriptTaskQueue(20);
+		for(int i = 0; i < 5; i++) {
+			String name = "refresh" + i;
+			queue.add(TaskPriority.REFRESH, () -> order.add(name));
+		}
+		Thread.sleep(50);
+		queue.add(TaskPriority.INTERACTIVE, () -> order.add("interactive"));
+		
+		takeAll(queue);
+		
+		assertEquals(Arrays.asList("refresh0", "interactive", "refresh1", "refresh2", "refresh3", "refresh4"), order);
+	}
+	
+	@Test
+	public void take_waitsForTask() throws Exception {
+		ScriptTaskQueue queue = new ScriptTaskQueue();
+		new Thread(() -> queue.add(TaskPriority.REFRESH, () -> order.add("refresh"))).start();
+		
+		queue.take().run();
+		
+		assertEquals(Arrays.asList("refresh"), order);
+	}
+	
+	@Test
+	public void add_replacesKeyedTask() throws Exception {
+		ScriptTaskQueue queue = new ScriptTaskQueue(10000);
+		queue.add(TaskPriority.REFRESH, "a", () -> order.add("a1"));
+		queue.add(TaskPriority.REFRESH, "b", () -> order.add("b"));
+		queue.add(TaskPriority.REFRESH, "a", () -> order.add("a2"));
+		
+		assertEquals(2, queue.size());
+		takeAll(queue);
+		
+		assertEquals(Arrays.asList("a2", "b"), order);
+	}
+	
+	@Test
+	public void add_keyReusedAfterTake() throws Exception {
+		ScriptTaskQueue queue = new ScriptTaskQueue(10000);
+		queue.add(TaskPriority.REFRESH, "a", () -> order.add("a1"));
+		queue.take().run();
+		queue.add(TaskPriority.REFRESH, "a", () -> order.add("a2"));
+		takeAll(queue);
+		
+		assertEquals(Arrays.asList("a1", "a2"), order);
+	}
+	
+	private void takeAll(ScriptTaskQueue queue) throws InterruptedException {
+		while(queue.size() > 0) {
+			queue.take().run();
+		}
+	}
+}
@@ -0,0 +1,73 @@
+package workbook.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class BackgroundFileWriterTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+	
+	private final BackgroundFileWriter writer = new BackgroundFileWriter("Test Writer");
+	
+	@Test
+	public void submit_replacesQueuedTask() throws Exception {
+		CountDownLatch latch = new CountDownLatch(1);
+		writer.submit("block", () -> latch.await(10, TimeUnit.SECONDS));
+		
+		AtomicInteger value = new AtomicInteger();
+		CompletableFuture<Void> first = writer.submit("key", () -> value.addAndGet(1));
+		CompletableFuture<Void> second = writer.submit("key", () -> value.addAndGet(10));
+		latch.countDown();
+		
+		second.get(10, TimeUnit.SECONDS);
+		first.get(10, TimeUnit.SECONDS);
+		assertEquals(10, value.get());
+		
+		writer.submit("key", () -> value.addAndGet(100)).get(10, TimeUnit.SECONDS);
+		assertEquals(110, value.get());
+	}
+	
+	@Test
+	public void writeAtomically() throws Exception {
+		File file = folder.newFile("book.wb");
+		
+		BackgroundFileWriter.writeAtomically(file, outputStream -> outputStream.write("new".getBytes(StandardCharsets.UTF_8)));
+		
+		assertEquals("new", new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8));
+		assertFalse(new File(file.getPath() + ".tmp").exists());
+	}
+	
+	@Test
+	public void writeAtomically_failureKeepsFile() throws Exception {
+		File file = folder.newFile("book.wb");
+		Files.write(file.toPath(), "old".getBytes(StandardCharsets.UTF_8));
+		
+		CompletableFuture<Void> future = writer.submit(file, () -> BackgroundFileWriter.writeAtomically(file, outputStream -> {
+			outputStream.write("partial".getBytes(StandardCharsets.UTF_8));
+			throw new IllegalStateException("failed");
+		}));
+		
+		try {
+			future.get(10, TimeUnit.SECONDS);
+		} catch(ExecutionException e) {
+			assertTrue(e.getCause() instanceof IllegalStateException);
+		}
+		assertTrue(future.isCompletedExceptionally());
+		assertEquals("old", new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8));
+		assertFalse(new File(file.getPath() + ".tmp").exists());
+	}
+}
@@ -0,0 +1,127 @@
+package workbook.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import workbook.util.BoundedLineBuffer.Line;
+import workbook.util.BoundedLineBuffer.OverflowPolicy;
+
+public class BoundedLineBufferTest {
+	@Test
+	public void take_inOrder() {
+		BoundedLineBuffer buffer = new BoundedLineBuffer(10, OverflowPolicy.DROP_OLDEST);
+		buffer.add("a", false, true);
+		buffer.add("b", true, true);
+		buffer.add("c", false, true);
+		
+		List<Line> lines = buffer.take(2);
+		assertEquals(Arrays.asList("a", "b"), texts(lines));
+		assertFalse(lines.get(0).isError());
+		assertTrue(lines.get(1).isError());
+		assertEquals(Arrays.asList("c"), texts(buffer.take(2)));
+		assertTrue(buffer.isEmpty());
+	}
+	
+	@Test
+	public void dropOldest() {
+		BoundedLineBuffer buffer = new BoundedLineBuffer(3, OverflowPolicy.DROP_OLDEST);
+		for(int i = 0; i < 5; i++) {
+			buffer.add(String.valueOf(i), false, true);
+		}
+		
+		assertEquals(2, buffer.getDroppedCount());
+		assertEquals(Arrays.asList("2", "3", "4"), texts(buffer.take(10)));
+	}
+	
+	@Test
+	public void block() throws Exception {
+		BoundedLineBuffer buffer = new BoundedLineBuffer(2, OverflowPolicy.BLOCK);
+		Thread writer = new Thread(() -> {
+			for(int i = 0; i < 5; i++) {
+				buffer.add(String.valueOf(i), false, true);
+			}
+		});
+		writer.start();
+		
+		List<String> taken = new ArrayList<>();
+		while(taken.size() < 5) {
+			taken.addAll(texts(buffer.take(1)));
+			Thread.sleep(1);
+		}
+		writer.join();
+		
+		assertEquals(Arrays.asList("0", "1", "2", "3", "4"), taken);
+		assertEquals(0, buffer.getDroppedCount());
+	}
+	
+	@Test
+	public void block_mayNotBlock() {
+		BoundedLineBuffer buffer = new BoundedLineBuffer(2, OverflowPolicy.BLOCK);
+		buffer.add("a", false, false);
+		buffer.add("b", false, false);
+		buffer.add("c", false, false);
+		
+		assertEquals(1, buffer.getDroppedCount());
+		assertEquals(Arrays.asList("b", "c"), texts(buffer.take(10)));
+	}
+	
+	@Test
+	public void addAll() {
+		BoundedLineBuffer buffer = new BoundedLineBuffer(10, OverflowPolicy.DROP_OLDEST);
+		buffer.addAll(Arrays.asList("a", "b"), false, true);
+		buffer.add("c", false, true);
+		
+		assertEquals(Arrays.asList("a", "b", "c"), texts(buffer.take(10)));
+	}
+	
+	@Test
+	public void block_maxBlockTime() {
+		BoundedLineBuffer buffer = new BoundedLineBuffer(2, OverflowPolicy.BLOCK, 20);
+		buffer.add("a", false, true);
+		buffer.add("b", false, true);
+		buffer.add("c", false, true);
+		
+		assertEquals(1, buffer.getDroppedCount());
+		assertEquals(Arrays.asList("b", "c"), texts(buffer.take(10)));
+	}
+	
+	@Test
+	public void spill() {
+		BoundedLineBuffer buffer = new BoundedLineBuffer(2, OverflowPolicy.SPILL);
+		buffer.add("a", false, true);
+		buffer.add("b", false, true);
+		buffer.add("c\\n", true, true);
+		buffer.add("d\ne", false, true);
+		assertEquals(2, buffer.getSpilledCount());
+		
+		assertEquals(Arrays.asList("a"), texts(buffer.take(1)));
+		
+		// Lines are spilled until the spill file is empty, to keep them in order.
+		buffer.add("f", false, true);
+		assertEquals(3, buffer.getSpilledCount());
+		
+		List<Line> lines = buffer.take(3);
+		assertEquals(Arrays.asList("b", "c\\n", "d\ne"), texts(lines));
+		assertTrue(lines.get(1).isError());
+		assertEquals(Arrays.asList("f"), texts(buffer.take(3)));
+		assertEquals(0, buffer.getSpilledCount());
+		assertEquals(0, buffer.getDroppedCount());
+		
+		buffer.add("g", false, true);
+		assertEquals(0, buffer.getSpilledCount());
+		assertEquals(Arrays.asList("g"), texts(buffer.take(3)));
+	}
+	
+	private static List<String> texts(List<Line> lines) {
+		List<String> texts = new ArrayList<>();
+		lines.forEach(line -> texts.add(line.getText()));
+		return texts;
+	}
+}
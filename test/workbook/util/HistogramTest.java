@@ -0,0 +1,62 @@
+package workbook.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class HistogramTest {
+	@Test
+	public void empty() {
+		Histogram histogram = new Histogram();
+		assertEquals(0, histogram.getCount());
+		assertEquals(0, histogram.getValueAtPercentile(99));
+		assertEquals(0, histogram.getMean(), 0);
+	}
+	
+	@Test
+	public void smallValuesExact() {
+		Histogram histogram = new Histogram();
+		for(int i = 1; i <= 10; i++) {
+			histogram.record(i);
+		}
+		
+		assertEquals(10, histogram.getCount());
+		assertEquals(5, histogram.getValueAtPercentile(50));
+		assertEquals(10, histogram.getValueAtPercentile(100));
+		assertEquals(5.5, histogram.getMean(), 0.001);
+		assertEquals(10, histogram.getMax());
+	}
+	
+	@Test
+	public void largeValuesWithinPrecision() {
+		Histogram histogram = new Histogram();
+		for(long i = 1; i <= 100000; i++) {
+			histogram.record(i * 1000);
+		}
+		
+		long p50 = histogram.getValueAtPercentile(50);
+		long p99 = histogram.getValueAtPercentile(99);
+		assertTrue(p50 + "", Math.abs(p50 - 50000000) <= 50000000 / 32);
+		assertTrue(p99 + "", Math.abs(p99 - 99000000) <= 99000000 / 32);
+		assertEquals(100000000, histogram.getMax());
+	}
+	
+	@Test
+	public void indexes() {
+		for(long value:new long[] { 0, 1, 31, 32, 63, 64, 65, 1000, 123456789, Long.MAX_VALUE }) {
+			int index = Histogram.getIndex(value);
+			assertTrue(value + "", Histogram.getHighestValue(index) >= value);
+			assertTrue(value + "", index == 0 || Histogram.getHighestValue(index - 1) < value);
+		}
+	}
+	
+	@Test
+	public void reset() {
+		Histogram histogram = new Histogram();
+		histogram.record(100);
+		histogram.reset();
+		assertEquals(0, histogram.getCount());
+		assertEquals(0, histogram.getMax());
+	}
+}
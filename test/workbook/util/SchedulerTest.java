@@ -0,0 +1,84 @@
+package workbook.util;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.junit.Test;
+
+public class SchedulerTest {
+	@Test
+	public void throttle_trailingUsesLastCall() throws Exception {
+		List<Integer> values = Collections.synchronizedList(new ArrayList<>());
+		CountDownLatch latch = new CountDownLatch(2);
+		Consumer<Integer> consumer = Scheduler.throttle(100, true, value -> {
+			values.add(value);
+			latch.countDown();
+		});
+		
+		consumer.accept(1);
+		consumer.accept(2);
+		consumer.accept(3);
+		
+		latch.await(1, TimeUnit.SECONDS);
+		assertEquals(Arrays.asList(1, 3), values);
+	}
+	
+	@Test
+	public void debounce() throws Exception {
+		List<Integer> values = Collections.synchronizedList(new ArrayList<>());
+		CountDownLatch latch = new CountDownLatch(1);
+		Consumer<Integer> consumer = Scheduler.debounce(50, false, value -> {
+			values.add(value);
+			latch.countDown();
+		});
+		
+		consumer.accept(1);
+		consumer.accept(2);
+		consumer.accept(3);
+		
+		latch.await(1, TimeUnit.SECONDS);
+		Thread.sleep(100);
+		assertEquals(Arrays.asList(3), values);
+	}
+	
+	@Test
+	public void batch() throws Exception {
+		List<List<Integer>> batches = Collections.synchronizedList(new ArrayList<>());
+		CountDownLatch latch = new CountDownLatch(1);
+		Consumer<Integer> consumer = Scheduler.batch(50, batch -> {
+			batches.add(batch);
+			latch.countDown();
+		});
+		
+		consumer.accept(1);
+		consumer.accept(2);
+		consumer.accept(3);
+		
+		latch.await(1, TimeUnit.SECONDS);
+		assertEquals(Arrays.asList(Arrays.asList(1, 2, 3)), batches);
+	}
+	
+	@Test
+	public void oneThread() throws Exception {
+		List<Thread> threads = Collections.synchronizedList(new ArrayList<>());
+		CountDownLatch latch = new CountDownLatch(10);
+		for(int i = 0; i < 10; i++) {
+			Scheduler.debounce(10, false, value -> {
+				threads.add(Thread.currentThread());
+				latch.countDown();
+			}).accept(null);
+		}
+		
+		latch.await(1, TimeUnit.SECONDS);
+		assertEquals(10, threads.size());
+		assertEquals(1, threads.stream().distinct().count());
+		assertEquals("Scheduler", threads.get(0).getName());
+	}
+}
@@ -0,0 +1,82 @@
+package workbook.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.jdom2.Document;
+import org.jdom2.Element;
+import org.jdom2.output.Format;
+import org.jdom2.output.XMLOutputter;
+import org.junit.Test;
+
+public class XmlWriterTest {
+	@Test
+	public void sameAsPrettyFormat() throws Exception {
+		Element item = new Element("Item");
+		item.setAttribute("type", "View");
+		item.addContent(new Element("Content").setText("a < b"));
+		item.addContent(new Element("Empty"));
+		Element root = new Element("Workbook");
+		root.addContent(new Element("Tabs").addContent(item));
+		
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		XmlWriter writer = new XmlWriter(outputStream);
+		writer.startDocument();
+		writer.startElement("Workbook");
+		writer.startElement("Tabs");
+		writer.startElement("Item");
+		writer.content(item);
+		writer.endElement();
+		writer.endElement();
+		writer.endElement();
+		writer.endDocument();
+		
+		String expected = new XMLOutputter(Format.getPrettyFormat()).outputString(new Document(root));
+		String actual = new String(outputStream.toByteArray(), StandardCharsets.UTF_8);
+		// The declaration differs only in its quotes, and the outputter uses windows line endings
+		assertEquals(body(expected).replace("\r\n", "\n"), body(actual));
+	}
+	
+	@Test
+	public void readBack() throws Exception {
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		XmlWriter writer = new XmlWriter(outputStream);
+		writer.startDocument();
+		writer.startElement("Workbook");
+		writer.startElement("Skipped");
+		writer.element("Nested", "x");
+		writer.endElement();
+		writer.startElement("Item");
+		writer.attribute("title", "Script");
+		writer.element("Content", "  line 1\n  line 2\n");
+		writer.endElement();
+		writer.endElement();
+		writer.endDocument();
+		
+		XmlReader reader = new XmlReader(new ByteArrayInputStream(outputStream.toByteArray()));
+		reader.startDocument();
+		assertEquals("Workbook", reader.getName());
+		
+		assertTrue(reader.nextChild());
+		assertEquals("Skipped", reader.getName());
+		reader.skip();
+		
+		assertTrue(reader.nextChild());
+		assertEquals("Item", reader.getName());
+		assertEquals("Script", reader.getAttribute("title"));
+		Element item = reader.readElement();
+		assertEquals("  line 1\n  line 2\n", item.getChildText("Content"));
+		
+		assertFalse(reader.nextChild());
+		assertEquals("Workbook", reader.getName());
+	}
+	
+	private static String body(String xml) {
+		return xml.substring(xml.indexOf("?>") + 2);
+	}
+}
@@ -0,0 +1,155 @@
+package workbook.view;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import workbook.script.Engine;
+import workbook.script.GlobalAccesses;
+import workbook.script.JShellEngine;
+import workbook.script.JavascriptEngine;
+import workbook.script.RecordingGlobals;
+import workbook.script.RubyEngine;
+import workbook.script.ScriptController;
+
+public class DependencyGraphTest {
+	private final DependencyGraph<String> graph = new DependencyGraph<>();
+	private final List<String> cells = Arrays.asList("a = 1", "b = a + 1", "c = 5", "d = b + c", "a = 2", "e = a");
+	private final Map<String, String> commands = new HashMap<>();
+	private ScriptController scriptController;
+
+	@Before
+	public void before() {
+		cells.forEach(cell -> commands.put(cell, cell));
+		cells.forEach(this::evaluate);
+	}
+
+	/**
+	 * Records the accesses of a cell of the form "x = y + z" as reading y and z, and writing x.
+	 */
+	private void evaluate(String cell) {
+		String[] parts = commands.get(cell).split(" = ");
+		RecordingGlobals globals = new RecordingGlobals();
+		GlobalAccesses accesses = new GlobalAccesses();
+		try {
+			GlobalAccesses.record(accesses, () -> {
+				for(String name:parts[1].split(" \\+ ")) {
+					globals.get(name);
+				}
+				return globals.put(parts[0], 0);
+			});
+		} catch(Exception e) {
+			throw new RuntimeException(e);
+		}
+		graph.setAccesses(cell, commands.get(cell), accesses);
+	}
+
+	/**
+	 * Evaluates the cells in the order that the worksheet would, returning the evaluated cells.
+	 */
+	private List<String> evaluateFrom(int index, Collection<String> changedCells, Set<String> changedNames) {
+		List<String> evaluated = new ArrayList<>();
+		for(int i = graph.getNextToEvaluate(cells, index, changedCells, changedNames); i != -1; i = graph.getNextToEvaluate(cells, i + 1, changedCells, changedNames)) {
+			evaluate(cells.get(i));
+			graph.addWrites(cells.get(i), changedNames);
+			evaluated.add(cells.get(i));
+		}
+		return evaluated;
+	}
+
+	@Test
+	public void dependentCells() {
+		Set<String> changedNames = new HashSet<>();
+		graph.addWrites("a = 1", changedNames);
+		assertEquals(Arrays.asList("b = a + 1", "d = b + c", "a = 2", "e = a"), evaluateFrom(1, Collections.emptySet(), changedNames));
+	}
+
+	@Test
+	public void dependentCells_independent() {
+		Set<String> changedNames = new HashSet<>();
+		graph.addWrites("e = a", changedNames);
+		assertEquals(Arrays.asList(), evaluateFrom(6, Collections.emptySet(), changedNames));
+	}
+
+	@Test
+	public void changedCells() {
+		assertEquals(Arrays.asList(), graph.getChangedCells(cells, commands::get));
+
+		commands.put("c = 5", "c = 6");
+		List<String> changedCells = graph.getChangedCells(cells, commands::get);
+		assertEquals(Arrays.asList("c = 5"), changedCells);
+		assertEquals(Arrays.asList("c = 5", "d = b + c"), evaluateFrom(0, changedCells, new HashSet<>()));
+		assertEquals(Arrays.asList(), graph.getChangedCells(cells, commands::get));
+	}
+
+	@Test
+	public void changedCells_previousWrites() {
+		commands.put("c = 5", "f = 6");
+		List<String> changedCells = graph.getChangedCells(cells, commands::get);
+		assertEquals(Arrays.asList("c = 5", "d = b + c"), evaluateFrom(0, changedCells, new HashSet<>()));
+	}
+
+	@Test
+	public void dependentCells_javascript() throws Exception {
+		List<String> cells = Arrays.asList("a = 1", "b = 2", "c = a + 1");
+		DependencyGraph<String> graph = evaluateCells(new JavascriptEngine(), cells);
+
+		Set<String> changedNames = new HashSet<>();
+		graph.addWrites("a = 1", changedNames);
+		assertEquals(2, graph.getNextToEvaluate(cells, 1, Collections.emptySet(), changedNames));
+		assertEquals(3, ((Number) scriptController.eval("c + 1").get()).intValue());
+	}
+
+	@Test
+	public void dependentCells_ruby() throws Exception {
+		List<String> cells = Arrays.asList("a = 1", "b = 2", "c = a + 1");
+		DependencyGraph<String> graph = evaluateCells(new RubyEngine(), cells);
+
+		// Ruby doesn't record its reads, so every cell below a change is evaluated again.
+		Set<String> changedNames = new HashSet<>();
+		graph.addWrites("a = 1", changedNames);
+		assertEquals(1, graph.getNextToEvaluate(cells, 1, Collections.emptySet(), changedNames));
+		assertEquals(2, graph.getNextToEvaluate(cells, 2, Collections.emptySet(), changedNames));
+	}
+
+	@Test
+	public void dependentCells_jshell() throws Exception {
+		List<String> cells = Arrays.asList("int a = 1", "int b = 2", "int c = a + 1");
+		DependencyGraph<String> graph = evaluateCells(new JShellEngine(), cells);
+
+		// JShell doesn't record its reads, so every cell below a change is evaluated again.
+		Set<String> changedNames = new HashSet<>();
+		graph.addWrites("int a = 1", changedNames);
+		assertEquals(1, graph.getNextToEvaluate(cells, 1, Collections.emptySet(), changedNames));
+		assertEquals(2, graph.getNextToEvaluate(cells, 2, Collections.emptySet(), changedNames));
+	}
+
+	/**
+	 * Evaluates the cells in order with an engine, and returns the graph of their recorded accesses.
+	 */
+	private DependencyGraph<String> evaluateCells(Engine engine, List<String> cells) throws Exception {
+		scriptController = new ScriptController();
+		scriptController.startQueueThread();
+		scriptController.addEngine("Engine", engine);
+		scriptController.setScriptType("Engine").get();
+
+		DependencyGraph<String> graph = new DependencyGraph<>();
+		for(String cell:cells) {
+			GlobalAccesses accesses = new GlobalAccesses();
+			scriptController.eval(cell, accesses).get();
+			graph.setAccesses(cell, cell, accesses);
+		}
+		return graph;
+	}
+}
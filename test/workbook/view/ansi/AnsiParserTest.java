@@ -0,0 +1,98 @@
+package workbook.view.ansi;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.eclipse.swt.graphics.RGB;
+import org.junit.Test;
+
+public class AnsiParserTest {
+	@Test
+	public void plainText() {
+		ParseResult result = new AnsiParser().parse("abc");
+		
+		assertEquals("abc", result.getNewText());
+		assertEquals(1, result.getStyleRanges().size());
+		assertSpan(result.getStyleRanges().get(0), 0, 3);
+		assertTrue(result.getStyleRanges().get(0).isDefault());
+	}
+	
+	@Test
+	public void styles() {
+		ParseResult result = new AnsiParser().parse("a\u001B[1;31mbc\u001B[0md");
+		List<AnsiStyle> styles = result.getStyleRanges();
+		
+		assertEquals("abcd", result.getNewText());
+		assertEquals(3, styles.size());
+		assertSpan(styles.get(0), 0, 1);
+		assertSpan(styles.get(1), 1, 2);
+		assertTrue(styles.get(1).bold);
+		assertEquals(new RGB(150, 0, 0), styles.get(1).foreground);
+		assertSpan(styles.get(2), 3, 1);
+		assertTrue(styles.get(2).isDefault());
+	}
+	
+	@Test
+	public void runsWithTheSameStyleAreMerged() {
+		ParseResult result = new AnsiParser().parse("\u001B[32ma\u001B[32mb\u001B[1m\u001B[22mc");
+		
+		assertEquals("abc", result.getNewText());
+		assertEquals(1, result.getStyleRanges().size());
+		assertSpan(result.getStyleRanges().get(0), 0, 3);
+	}
+	
+	@Test
+	public void extendedColors() {
+		AnsiParser parser = new AnsiParser();
+		
+		parser.parse("\u001B[38;5;196;48;2;1;2;3m");
+		assertEquals(new RGB(255, 0, 0), parser.getStyle().foreground);
+		assertEquals(new RGB(1, 2, 3), parser.getStyle().background);
+		
+		parser.parse("\u001B[38;5;244m");
+		assertEquals(new RGB(128, 128, 128), parser.getStyle().foreground);
+		
+		parser.parse("\u001B[39;49m");
+		assertNull(parser.getStyle().foreground);
+		assertNull(parser.getStyle().background);
+	}
+	
+	@Test
+	public void sequenceSplitBetweenChunks() {
+		AnsiParser parser = new AnsiParser();
+		
+		ParseResult first = parser.parse("a\u001B[3");
+		assertEquals("a", first.getNewText());
+		
+		ParseResult second = parser.parse("3mb");
+		assertEquals("b", second.getNewText());
+		assertEquals(1, second.getStyleRanges().size());
+		assertEquals(new RGB(150, 150, 0), second.getStyleRanges().get(0).foreground);
+		
+		// The style continues into the next chunk.
+		ParseResult third = parser.parse("c");
+		assertEquals(new RGB(150, 150, 0), third.getStyleRanges().get(0).foreground);
+	}
+	
+	@Test
+	public void otherSequences() {
+		AnsiParser parser = new AnsiParser();
+		
+		assertEquals("ab", parser.parse("a\u001B[2Kb").getNewText());
+		assertEquals("a\u001B(b", parser.parse("a\u001B(b").getNewText());
+		assertEquals("ab", parser.parse("a\u009B1mb").getNewText());
+		assertTrue(parser.getStyle().bold);
+		
+		parser.reset();
+		assertFalse(parser.getStyle().bold);
+	}
+	
+	private static void assertSpan(AnsiStyle style, int start, int length) {
+		assertEquals(start, style.start);
+		assertEquals(length, style.length);
+	}
+}